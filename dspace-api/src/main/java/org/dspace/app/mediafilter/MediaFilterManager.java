@@ -42,6 +42,7 @@ import org.dspace.core.PluginManager;
 import org.dspace.core.SelfNamedPlugin;
 import org.dspace.handle.HandleManager;
 import org.dspace.search.DSIndexer;
+import org.dspace.storage.rdbms.DatabaseManager;
 
 /**
  * MediaFilterManager is the class that invokes the media/format filters over the
@@ -405,10 +406,15 @@ public class MediaFilterManager
         }
         else 
         {
-            //otherwise, just find every item and process
-            ItemIterator i = Item.findAll(c);
+            //otherwise, just find every item and process. The items are
+            //read a few at a time through a context of their own, as each
+            //filtered item is committed in the main context
+            Context scanContext = new Context();
+            ItemIterator i = null;
             try
             {
+                i = new ItemIterator(c, DatabaseManager.queryTableStreaming(scanContext, "item",
+                        "SELECT * FROM item WHERE in_archive='1'"));
                 while (i.hasNext() && processed < max2Process)
                 {
                     applyFiltersItem(c, i.next());
@@ -420,6 +426,7 @@ public class MediaFilterManager
                 {
                     i.close();
                 }
+                scanContext.abort();
             }
         }
     }
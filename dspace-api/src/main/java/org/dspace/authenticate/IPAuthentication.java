@@ -9,10 +9,9 @@ package org.dspace.authenticate;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -37,7 +36,10 @@ import org.dspace.eperson.Group;
  * <P>
  * 111.222,-111.222.333.
  * <p>
- * For supported IP ranges see {@link org.dspace.authenticate.IPMatcher}.
+ * For supported IP ranges see {@link org.dspace.authenticate.IPMatcher}; a
+ * network/netmask range must have a contiguous netmask. All the ranges are
+ * kept in one {@link IPRangeIndex}, so checking an address costs the same
+ * whatever the number of ranges configured.
  * 
  * @version $Revision$
  * @author Robert Tansley
@@ -50,33 +52,36 @@ public class IPAuthentication implements AuthenticationMethod
     /** Whether to look for x-forwarded headers for logging IP addresses */
     private static Boolean useProxies;
 
-    /** All the IP matchers */
-    private List<IPMatcher> ipMatchers;
+    /**
+     * Index of all the configured IP ranges. The value of a range is the
+     * position of its group in groupNames, or -(position + 1) for a negative
+     * range.
+     */
+    private IPRangeIndex ipIndex;
 
-    /** All the negative IP matchers */
-    private List<IPMatcher> ipNegativeMatchers;
+    /** Names of the groups that IP ranges are configured for */
+    private List<String> groupNames;
 
-    
     /**
-     * Maps IPMatchers to group names when we don't know group DB ID yet. When
-     * the DB ID is known, the IPMatcher is moved to ipMatcherGroupIDs and then
-     * points to the DB ID.
+     * DB IDs of the groups in groupNames, or -1 while the ID is not known
+     * yet. Racing lookups of a group all store the same ID.
      */
-    private Map<IPMatcher, String> ipMatcherGroupNames;
-
-    /** Maps IPMatchers to group IDs (Integers) where we know the group DB ID */
-    private Map<IPMatcher, Integer> ipMatcherGroupIDs;
+    private int[] knownGroupIDs;
 
     /**
-     * Initialize an IP authenticator, reading in the configuration. Note this
-     * will never fail if the configuration is bad -- a warning will be logged.
+     * Initialize an IP authenticator, reading in the configuration. A
+     * malformed property name is logged and ignored, but a malformed IP range
+     * fails the initialization: were it left out, a negative range would no
+     * longer exclude any address from its group.
+     *
+     * @throws IllegalStateException
+     *             if an IP range is malformed, or its netmask is not
+     *             contiguous
      */
     public IPAuthentication()
     {
-        ipMatchers = new ArrayList<IPMatcher>();
-        ipNegativeMatchers = new ArrayList<IPMatcher>();
-        ipMatcherGroupIDs = new HashMap<IPMatcher, Integer>();
-        ipMatcherGroupNames = new HashMap<IPMatcher, String>();
+        groupNames = new ArrayList<String>();
+        IPRangeIndex.Builder builder = new IPRangeIndex.Builder();
 
         Enumeration e = ConfigurationManager.propertyNames("authentication-ip");
 
@@ -89,7 +94,7 @@ public class IPAuthentication implements AuthenticationMethod
 
                 if (nameParts.length == 2)
                 {
-                    addMatchers(nameParts[1], ConfigurationManager.getProperty("authentication-ip", propName));
+                    addMatchers(builder, nameParts[1], ConfigurationManager.getProperty("authentication-ip", propName));
                 }
                 else
                 {
@@ -98,36 +103,47 @@ public class IPAuthentication implements AuthenticationMethod
                 }
             }
         }
+
+        ipIndex = builder.build();
+        knownGroupIDs = new int[groupNames.size()];
+        Arrays.fill(knownGroupIDs, -1);
     }
 
     /**
      * Add matchers for the given comma-delimited IP ranges and group.
      * 
+     * @param builder
+     *            builder of the index of the ranges
      * @param groupName
      *            name of group
      * @param ipRanges
      *            IP ranges
+     * @throws IllegalStateException
+     *             if a range is malformed
      */
-    private void addMatchers(String groupName, String ipRanges)
+    void addMatchers(IPRangeIndex.Builder builder, String groupName, String ipRanges)
     {
         String[] ranges = ipRanges.split("\\s*,\\s*");
 
+        int group = groupNames.indexOf(groupName);
+        if (group < 0)
+        {
+            group = groupNames.size();
+            groupNames.add(groupName);
+        }
+
         for (String entry : ranges)
         {
             try
             {
-                IPMatcher ipm;
                 if (entry.startsWith("-"))
                 {
-                    ipm = new IPMatcher(entry.substring(1));
-                    ipNegativeMatchers.add(ipm);
+                    builder.add(entry.substring(1), -(group + 1));
                 }
                 else
                 {
-                    ipm = new IPMatcher(entry);
-                    ipMatchers.add(ipm);
+                    builder.add(entry, group);
                 }
-                ipMatcherGroupNames.put(ipm, groupName);
 
                 if (log.isDebugEnabled())
                 {
@@ -137,8 +153,8 @@ public class IPAuthentication implements AuthenticationMethod
             }
             catch (IPMatcherException ipme)
             {
-                log.warn("Malformed IP range specified for group " + groupName,
-                        ipme);
+                throw new IllegalStateException("Malformed IP range " + entry
+                        + " specified for group " + groupName, ipme);
             }
         }
     }
@@ -191,98 +207,43 @@ public class IPAuthentication implements AuthenticationMethod
             }
         }
 
-        for (IPMatcher ipm : ipMatchers)
+        int[] matches;
+        try
         {
-            try
+            matches = ipIndex.lookup(addr);
+        }
+        catch (IPMatcherException ipme)
+        {
+            log.warn(LogManager.getHeader(context, "configuration_error",
+                    "bad_ip=" + addr), ipme);
+            matches = new int[0];
+        }
+
+        for (int match : matches)
+        {
+            if (match >= 0)
             {
-                if (ipm.match(addr))
+                int g = getGroupID(context, match);
+                if (g >= 0)
                 {
-                    // Do we know group ID?
-                    Integer g = ipMatcherGroupIDs.get(ipm);
-                    if (g != null)
-                    {
-                        groupIDs.add(g);
-                    }
-                    else
-                    {
-                        // See if we have a group name
-                        String groupName = ipMatcherGroupNames.get(ipm);
-
-                        if (groupName != null)
-                        {
-                            Group group = Group.findByName(context, groupName);
-                            if (group != null)
-                            {
-                                // Add ID so we won't have to do lookup again
-                                ipMatcherGroupIDs.put(ipm, Integer.valueOf(group.getID()));
-                                ipMatcherGroupNames.remove(ipm);
-
-                                groupIDs.add(Integer.valueOf(group.getID()));
-                            }
-                            else
-                            {
-                                log.warn(LogManager.getHeader(context,
-                                        "configuration_error", "unknown_group="
-                                                + groupName));
-                            }
-                        }
-                    }
+                    groupIDs.add(Integer.valueOf(g));
                 }
             }
-            catch (IPMatcherException ipme)
-            {
-                log.warn(LogManager.getHeader(context, "configuration_error",
-                        "bad_ip=" + addr), ipme);
-            }
         }
 
         // Now remove any negative matches
-        for (IPMatcher ipm : ipNegativeMatchers)
+        for (int match : matches)
         {
-            try
+            if (match < 0)
             {
-                if (ipm.match(addr))
+                int g = getGroupID(context, -match - 1);
+                if (g >= 0)
                 {
-                    // Do we know group ID?
-                    Integer g = ipMatcherGroupIDs.get(ipm);
-                    if (g != null)
-                    {
-                        groupIDs.remove(g);
-                    }
-                    else
-                    {
-                        // See if we have a group name
-                        String groupName = ipMatcherGroupNames.get(ipm);
-
-                        if (groupName != null)
-                        {
-                            Group group = Group.findByName(context, groupName);
-                            if (group != null)
-                            {
-                                // Add ID so we won't have to do lookup again
-                                ipMatcherGroupIDs.put(ipm, Integer.valueOf(group.getID()));
-                                ipMatcherGroupNames.remove(ipm);
-
-                                groupIDs.remove(Integer.valueOf(group.getID()));
-                            }
-                            else
-                            {
-                                log.warn(LogManager.getHeader(context,
-                                        "configuration_error", "unknown_group="
-                                                + groupName));
-                            }
-                        }
-                    }
+                    groupIDs.remove(Integer.valueOf(g));
                 }
             }
-            catch (IPMatcherException ipme)
-            {
-                log.warn(LogManager.getHeader(context, "configuration_error",
-                        "bad_ip=" + addr), ipme);
-            }
         }
 
-
         int[] results = new int[groupIDs.size()];
         for (int i = 0; i < groupIDs.size(); i++)
         {
@@ -309,6 +270,40 @@ public class IPAuthentication implements AuthenticationMethod
         return results;
     }
 
+    /**
+     * Get the DB ID of a configured group, looking it up the first time.
+     * 
+     * @param context
+     *            DSpace context
+     * @param group
+     *            position of the group in groupNames
+     * @return the ID, or -1 if there is no such group
+     * @throws SQLException
+     */
+    private int getGroupID(Context context, int group) throws SQLException
+    {
+        // Do we know group ID?
+        int id = knownGroupIDs[group];
+        if (id < 0)
+        {
+            String groupName = groupNames.get(group);
+            Group g = Group.findByName(context, groupName);
+            if (g != null)
+            {
+                // Keep ID so we won't have to do lookup again
+                id = g.getID();
+                knownGroupIDs[group] = id;
+            }
+            else
+            {
+                log.warn(LogManager.getHeader(context,
+                        "configuration_error", "unknown_group="
+                                + groupName));
+            }
+        }
+        return id;
+    }
+
     public int authenticate(Context context, String username, String password,
             String realm, HttpServletRequest request) throws SQLException
     {
@@ -61,6 +61,11 @@ public class IPMatcher
             try
             {
                 network = Inet6Address.getByName(parts[0]).getAddress();
+                if (network.length == 4)
+                {
+                    // an IPv4-mapped address is resolved to the IPv4 address
+                    network = ip4ToIp6(network);
+                }
             }
             catch (UnknownHostException e)
             {
@@ -86,7 +91,8 @@ public class IPMatcher
                 int maskBytes = maskBits/8;
                 for (int i = 0; i < maskBytes; i++)
                     netmask[i] = (byte) 0Xff;
-                netmask[maskBytes] = (byte) ((byte) 0Xff << 8-(maskBits % 8)); // FIXME test!
+                if (maskBytes < netmask.length)
+                    netmask[maskBytes] = (byte) ((byte) 0Xff << 8-(maskBits % 8));
                 for (int i = maskBytes+1; i < (128/8); i++)
                     netmask[i] = 0;
                 break;
@@ -147,9 +153,12 @@ public class IPMatcher
                 }
     
             case 1:
-                // Get IP
-                for (int i = 0; i < netmask.length; i++)
-                    netmask[i] = -1;
+                // Get IP, keeping the mask of slash notation
+                if (!mustHave4)
+                {
+                    for (int i = 0; i < netmask.length; i++)
+                        netmask[i] = -1;
+                }
                 int partCount = ipToBytes(ipPart, network, mustHave4);
     
                 // If partial IP, set mask for remaining bytes
@@ -248,6 +257,8 @@ public class IPMatcher
             try
             {
                 candidate = Inet6Address.getByName(ipIn).getAddress();
+                if (candidate.length == 4)
+                    candidate = ip4ToIp6(candidate);
             }
             catch (UnknownHostException e)
             {
@@ -265,6 +276,22 @@ public class IPMatcher
         return true;
     }
 
+    /**
+     * @return the network to match, as an IPv6 address
+     */
+    byte[] getNetwork()
+    {
+        return network;
+    }
+
+    /**
+     * @return the network mask, as an IPv6 mask
+     */
+    byte[] getNetmask()
+    {
+        return netmask;
+    }
+
     /**
      * Convert an IPv4 address to an IPv6 IPv4-compatible address.
      * @param ip4 an IPv4 address
@@ -0,0 +1,601 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authenticate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable index of IP address ranges, each tagged with an int value,
+ * answering which values the range(s) containing an address are tagged with.
+ * <p>
+ * Addresses are held as 128 bit numbers, IPv4 addresses being mapped to the
+ * IPv4-compatible IPv6 addresses as {@link IPMatcher} does ({@code ::a.b.c.d}).
+ * IPv4-mapped IPv6 addresses ({@code ::ffff:a.b.c.d}) are looked up as the
+ * IPv4 address they map. When the index is built, the ranges are cut into
+ * disjoint segments, each with the sorted values of all the ranges that
+ * cover it, and the segments are kept in sorted arrays of primitive longs.
+ * A lookup parses the address in place and does a binary search on the
+ * segments, so it allocates nothing, whatever the number of ranges.
+ * <p>
+ * Ranges are added with a {@link Builder}, either as any specification
+ * {@link IPMatcher} accepts (provided its netmask is contiguous) or as a
+ * pair of first and last addresses.
+ *
+ * @version $Revision$
+ */
+public final class IPRangeIndex
+{
+    /** Values of an address in no range */
+    private static final int[] NONE = new int[0];
+
+    /** First address of each segment, high and low 64 bits */
+    private final long[] startHigh;
+    private final long[] startLow;
+
+    /** Last address of each segment, high and low 64 bits */
+    private final long[] endHigh;
+    private final long[] endLow;
+
+    /** Values of each segment, sorted, shared between equal sets */
+    private final int[][] values;
+
+    private IPRangeIndex(long[] startHigh, long[] startLow, long[] endHigh,
+            long[] endLow, int[][] values)
+    {
+        this.startHigh = startHigh;
+        this.startLow = startLow;
+        this.endHigh = endHigh;
+        this.endLow = endLow;
+        this.values = values;
+    }
+
+    /**
+     * Get the values of the ranges containing an address.
+     *
+     * @param ip
+     *            IPv4 or IPv6 address
+     * @return the distinct values, in ascending order, or an empty array.
+     *         The array is shared and must not be modified.
+     * @throws IPMatcherException
+     *             if the address is malformed
+     */
+    public int[] lookup(String ip) throws IPMatcherException
+    {
+        int segment = find(ip);
+        return segment < 0 ? NONE : values[segment];
+    }
+
+    /**
+     * Determine whether an address is in any range.
+     *
+     * @param ip
+     *            IPv4 or IPv6 address
+     * @return {@code true} if the address is in one of the ranges
+     * @throws IPMatcherException
+     *             if the address is malformed
+     */
+    public boolean contains(String ip) throws IPMatcherException
+    {
+        return find(ip) >= 0;
+    }
+
+    /**
+     * @return the number of disjoint segments the ranges were cut into
+     */
+    public int size()
+    {
+        return values.length;
+    }
+
+    /**
+     * @param segment
+     *            index of a segment, from 0 to {@link #size()} - 1
+     * @return the high 64 bits of the first address of the segment
+     */
+    public long getStartHigh(int segment)
+    {
+        return startHigh[segment];
+    }
+
+    /**
+     * @param segment
+     *            index of a segment, from 0 to {@link #size()} - 1
+     * @return the low 64 bits of the first address of the segment
+     */
+    public long getStartLow(int segment)
+    {
+        return startLow[segment];
+    }
+
+    /**
+     * @param segment
+     *            index of a segment, from 0 to {@link #size()} - 1
+     * @return the high 64 bits of the last address of the segment
+     */
+    public long getEndHigh(int segment)
+    {
+        return endHigh[segment];
+    }
+
+    /**
+     * @param segment
+     *            index of a segment, from 0 to {@link #size()} - 1
+     * @return the low 64 bits of the last address of the segment
+     */
+    public long getEndLow(int segment)
+    {
+        return endLow[segment];
+    }
+
+    /**
+     * @return the index of the segment containing an address, or -1
+     */
+    private int find(String ip) throws IPMatcherException
+    {
+        long high = parse(ip, true);
+        long low = parse(ip, false);
+
+        // last segment starting at or before the address
+        int lo = 0;
+        int hi = startHigh.length - 1;
+        int found = -1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (compare(startHigh[mid], startLow[mid], high, low) <= 0)
+            {
+                found = mid;
+                lo = mid + 1;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+
+        if (found >= 0 && compare(high, low, endHigh[found], endLow[found]) <= 0)
+        {
+            return found;
+        }
+        return -1;
+    }
+
+    /**
+     * Compare two unsigned 128 bit numbers.
+     */
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow)
+    {
+        if (aHigh != bHigh)
+        {
+            return (aHigh + Long.MIN_VALUE) < (bHigh + Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (aLow != bLow)
+        {
+            return (aLow + Long.MIN_VALUE) < (bLow + Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Parse an IPv4 or IPv6 address, without allocating anything unless it
+     * is malformed. Surrounding white space is ignored.
+     *
+     * @param ip
+     *            the address
+     * @param high
+     *            whether the high or the low 64 bits are wanted
+     * @return half of the address as a 128 bit number
+     * @throws IPMatcherException
+     *             if the address is malformed
+     */
+    static long parse(String ip, boolean high) throws IPMatcherException
+    {
+        int from = 0;
+        int to = ip.length();
+        while (from < to && Character.isWhitespace(ip.charAt(from)))
+        {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(ip.charAt(to - 1)))
+        {
+            to--;
+        }
+
+        if (ip.indexOf(':', from) < 0)
+        {
+            return high ? 0 : parse4(ip, from, to);
+        }
+
+        // 16 bit groups before "::", and after it (all of them if no "::")
+        long headHigh = 0;
+        long headLow = 0;
+        int headCount = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int tailCount = 0;
+        boolean compressed = false;
+
+        int i = from;
+        if (to - from >= 2 && ip.charAt(from) == ':' && ip.charAt(from + 1) == ':')
+        {
+            compressed = true;
+            i += 2;
+        }
+        while (i < to)
+        {
+            int end = i;
+            long group = 0;
+            while (end < to && ip.charAt(end) != ':' && ip.charAt(end) != '.')
+            {
+                int digit = Character.digit(ip.charAt(end), 16);
+                if (digit < 0 || end - i >= 4)
+                {
+                    throw malformed(ip);
+                }
+                group = (group << 4) | digit;
+                end++;
+            }
+
+            int groups = 1;
+            if (end < to && ip.charAt(end) == '.')
+            {
+                // embedded IPv4 address, which must be last
+                group = parse4(ip, i, to);
+                groups = 2;
+                end = to;
+            }
+            else if (end == i)
+            {
+                throw malformed(ip);
+            }
+
+            if (compressed)
+            {
+                for (int g = 0; g < groups; g++)
+                {
+                    tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                    tailLow = (tailLow << 16) | ((group >>> (16 * (groups - 1 - g))) & 0xffff);
+                }
+                tailCount += groups;
+            }
+            else
+            {
+                for (int g = 0; g < groups; g++)
+                {
+                    headHigh = (headHigh << 16) | (headLow >>> 48);
+                    headLow = (headLow << 16) | ((group >>> (16 * (groups - 1 - g))) & 0xffff);
+                }
+                headCount += groups;
+            }
+
+            if (end == to)
+            {
+                break;
+            }
+            // skip the ':' and check for "::"
+            i = end + 1;
+            if (i < to && ip.charAt(i) == ':')
+            {
+                if (compressed)
+                {
+                    throw malformed(ip);
+                }
+                compressed = true;
+                i++;
+            }
+            else if (i == to)
+            {
+                throw malformed(ip);
+            }
+        }
+
+        if (compressed ? headCount + tailCount > 7 : headCount != 8)
+        {
+            throw malformed(ip);
+        }
+
+        // shift the head groups into place, then fill in the tail groups
+        for (int g = headCount; g < 8; g++)
+        {
+            headHigh = (headHigh << 16) | (headLow >>> 48);
+            headLow = headLow << 16;
+        }
+        long resultHigh = headHigh | tailHigh;
+        long resultLow = headLow | tailLow;
+
+        if (resultHigh == 0 && (resultLow >>> 32) == 0xffffL)
+        {
+            // IPv4-mapped address
+            return high ? 0 : resultLow & 0xffffffffL;
+        }
+        return high ? resultHigh : resultLow;
+    }
+
+    /**
+     * Parse a full dotted IPv4 address.
+     */
+    private static long parse4(String ip, int from, int to) throws IPMatcherException
+    {
+        long address = 0;
+        int parts = 0;
+        int i = from;
+        while (i <= to)
+        {
+            int end = i;
+            int part = 0;
+            while (end < to && ip.charAt(end) != '.')
+            {
+                char c = ip.charAt(end);
+                if (c < '0' || c > '9' || end - i >= 3)
+                {
+                    throw malformed(ip);
+                }
+                part = part * 10 + (c - '0');
+                end++;
+            }
+            if (end == i || part > 255 || ++parts > 4)
+            {
+                throw malformed(ip);
+            }
+            address = (address << 8) | part;
+            i = end + 1;
+        }
+        if (parts != 4)
+        {
+            throw malformed(ip);
+        }
+        return address;
+    }
+
+    private static IPMatcherException malformed(String ip)
+    {
+        return new IPMatcherException("Malformed IP address " + ip);
+    }
+
+    /**
+     * Collects ranges and builds an {@link IPRangeIndex} of them. A builder
+     * is not thread safe; the indexes it builds are.
+     */
+    public static class Builder
+    {
+        private final List<Range> ranges = new ArrayList<Range>();
+
+        /**
+         * Add a range given as any specification {@link IPMatcher} accepts:
+         * full or partial address, network/netmask or network/cidr.
+         *
+         * @param ipSpec
+         *            the range
+         * @param value
+         *            the value of the range
+         * @return this builder
+         * @throws IPMatcherException
+         *             if the specification is malformed, or its netmask is
+         *             not contiguous
+         */
+        public Builder add(String ipSpec, int value) throws IPMatcherException
+        {
+            IPMatcher matcher = new IPMatcher(ipSpec);
+            long networkHigh = toLong(matcher.getNetwork(), 0);
+            long networkLow = toLong(matcher.getNetwork(), 8);
+            long maskHigh = toLong(matcher.getNetmask(), 0);
+            long maskLow = toLong(matcher.getNetmask(), 8);
+
+            // the host part of the mask must be all the low bits
+            long hostHigh = ~maskHigh;
+            long hostLow = ~maskLow;
+            long nextHigh = hostLow == -1L ? hostHigh + 1 : hostHigh;
+            long nextLow = hostLow + 1;
+            if ((hostHigh & nextHigh) != 0 || (hostLow & nextLow) != 0)
+            {
+                throw new IPMatcherException("Netmask is not contiguous in " + ipSpec);
+            }
+
+            long startHigh = networkHigh & maskHigh;
+            long startLow = networkLow & maskLow;
+            ranges.add(new Range(startHigh, startLow, startHigh | hostHigh,
+                    startLow | hostLow, value));
+            return this;
+        }
+
+        /**
+         * Add the range of addresses between two full addresses.
+         *
+         * @param first
+         *            first address of the range
+         * @param last
+         *            last address of the range
+         * @param value
+         *            the value of the range
+         * @return this builder
+         * @throws IPMatcherException
+         *             if an address is malformed, or the first comes after
+         *             the last
+         */
+        public Builder addRange(String first, String last, int value) throws IPMatcherException
+        {
+            long startHigh = parse(first, true);
+            long startLow = parse(first, false);
+            long endHigh = parse(last, true);
+            long endLow = parse(last, false);
+            if (compare(startHigh, startLow, endHigh, endLow) > 0)
+            {
+                throw new IPMatcherException("Malformed IP range " + first + " - " + last);
+            }
+            ranges.add(new Range(startHigh, startLow, endHigh, endLow, value));
+            return this;
+        }
+
+        /**
+         * @return the number of ranges added
+         */
+        public int getRangeCount()
+        {
+            return ranges.size();
+        }
+
+        /**
+         * Build an index of the ranges added so far.
+         *
+         * @return the index
+         */
+        public IPRangeIndex build()
+        {
+            // each range starts at its first address and stops after its last
+            List<Boundary> boundaries = new ArrayList<Boundary>(ranges.size() * 2);
+            for (Range range : ranges)
+            {
+                boundaries.add(new Boundary(range.startHigh, range.startLow, range.value, true));
+                if (range.endHigh != -1L || range.endLow != -1L)
+                {
+                    boundaries.add(new Boundary(
+                            range.endLow == -1L ? range.endHigh + 1 : range.endHigh,
+                            range.endLow + 1, range.value, false));
+                }
+            }
+            Collections.sort(boundaries);
+
+            int capacity = Math.max(boundaries.size(), 1);
+            long[] startHigh = new long[capacity];
+            long[] startLow = new long[capacity];
+            long[] endHigh = new long[capacity];
+            long[] endLow = new long[capacity];
+            int[][] values = new int[capacity][];
+            int count = 0;
+
+            Map<String, int[]> sets = new HashMap<String, int[]>();
+            TreeMap<Integer, Integer> active = new TreeMap<Integer, Integer>();
+            int i = 0;
+            while (i < boundaries.size())
+            {
+                Boundary at = boundaries.get(i);
+                for (; i < boundaries.size() && boundaries.get(i).compareTo(at) == 0; i++)
+                {
+                    Boundary boundary = boundaries.get(i);
+                    Integer open = active.get(boundary.value);
+                    int opened = (open == null ? 0 : open) + (boundary.start ? 1 : -1);
+                    if (opened == 0)
+                    {
+                        active.remove(boundary.value);
+                    }
+                    else
+                    {
+                        active.put(boundary.value, opened);
+                    }
+                }
+
+                if (active.isEmpty())
+                {
+                    continue;
+                }
+
+                // the segment lasts until the next boundary, or to the end
+                long lastHigh = -1L;
+                long lastLow = -1L;
+                if (i < boundaries.size())
+                {
+                    Boundary next = boundaries.get(i);
+                    lastHigh = next.low == 0 ? next.high - 1 : next.high;
+                    lastLow = next.low - 1;
+                }
+
+                int[] set = new int[active.size()];
+                int v = 0;
+                for (Integer value : active.keySet())
+                {
+                    set[v++] = value;
+                }
+                String key = Arrays.toString(set);
+                int[] shared = sets.get(key);
+                if (shared == null)
+                {
+                    sets.put(key, set);
+                    shared = set;
+                }
+
+                long previousHigh = at.low == 0 ? at.high - 1 : at.high;
+                long previousLow = at.low - 1;
+                if (count > 0 && values[count - 1] == shared
+                        && endHigh[count - 1] == previousHigh && endLow[count - 1] == previousLow)
+                {
+                    // adjacent to the previous segment, with the same values
+                    endHigh[count - 1] = lastHigh;
+                    endLow[count - 1] = lastLow;
+                }
+                else
+                {
+                    startHigh[count] = at.high;
+                    startLow[count] = at.low;
+                    endHigh[count] = lastHigh;
+                    endLow[count] = lastLow;
+                    values[count] = shared;
+                    count++;
+                }
+            }
+
+            return new IPRangeIndex(Arrays.copyOf(startHigh, count),
+                    Arrays.copyOf(startLow, count), Arrays.copyOf(endHigh, count),
+                    Arrays.copyOf(endLow, count), Arrays.copyOf(values, count));
+        }
+
+        private static long toLong(byte[] bytes, int offset)
+        {
+            long result = 0;
+            for (int i = offset; i < offset + 8; i++)
+            {
+                result = (result << 8) | (bytes[i] & 0xff);
+            }
+            return result;
+        }
+    }
+
+    private static final class Range
+    {
+        private final long startHigh;
+        private final long startLow;
+        private final long endHigh;
+        private final long endLow;
+        private final int value;
+
+        Range(long startHigh, long startLow, long endHigh, long endLow, int value)
+        {
+            this.startHigh = startHigh;
+            this.startLow = startLow;
+            this.endHigh = endHigh;
+            this.endLow = endLow;
+            this.value = value;
+        }
+    }
+
+    private static final class Boundary implements Comparable<Boundary>
+    {
+        private final long high;
+        private final long low;
+        private final int value;
+        private final boolean start;
+
+        Boundary(long high, long low, int value, boolean start)
+        {
+            this.high = high;
+            this.low = low;
+            this.value = value;
+            this.start = start;
+        }
+
+        public int compareTo(Boundary other)
+        {
+            return compare(high, low, other.high, other.low);
+        }
+    }
+}
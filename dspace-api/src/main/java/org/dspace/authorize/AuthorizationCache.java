@@ -0,0 +1,143 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dspace.content.DSpaceObject;
+
+/**
+ * Cache of authorization decisions made within a single
+ * <code>Context</code>. Rendering a listing asks the same questions (may the
+ * current user READ this item, is the current user an ADMIN of this
+ * collection) over and over; the answers are remembered here so that each
+ * distinct object costs a single policy lookup per request.
+ * <p>
+ * Decisions are keyed by the acting eperson, the object type and ID, the
+ * action and whether inheritance of ADMIN rights was allowed. Special groups
+ * are not part of the key: the owning <code>Context</code> clears the cache
+ * whenever its special groups change. Any change to resource policies or
+ * group memberships made through the owning context also clears the cache,
+ * since such a change may affect decisions on objects other than the one
+ * modified (ADMIN rights are inherited from parent objects). For the same
+ * reason the cache is cleared when an item, collection or community is
+ * added to or removed from its parent, or an item changes owning collection.
+ *
+ * @version $Revision$
+ */
+public class AuthorizationCache
+{
+    /** Pseudo-action used to record the outcome of isAdmin() checks */
+    static final int ADMIN_CHECK = -2;
+
+    /** Cached decisions */
+    private Map<String, Boolean> decisions = new HashMap<String, Boolean>();
+
+    /** Number of lookups answered from the cache */
+    private int hits = 0;
+
+    /** Number of lookups not answered from the cache */
+    private int misses = 0;
+
+    /**
+     * Look up a cached decision.
+     *
+     * @param epersonID
+     *            ID of the acting eperson, or 0 for anonymous
+     * @param o
+     *            object the action is attempted on
+     * @param action
+     *            action ID from <code>org.dspace.core.Constants</code>
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were considered
+     * @return the cached decision, or <code>null</code> if there is none
+     */
+    public Boolean get(int epersonID, DSpaceObject o, int action,
+            boolean useInheritance)
+    {
+        Boolean decision = decisions.get(key(epersonID, o, action, useInheritance));
+
+        if (decision == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+
+        return decision;
+    }
+
+    /**
+     * Remember a decision.
+     *
+     * @param epersonID
+     *            ID of the acting eperson, or 0 for anonymous
+     * @param o
+     *            object the action was attempted on
+     * @param action
+     *            action ID from <code>org.dspace.core.Constants</code>
+     * @param useInheritance
+     *            whether ADMIN rights on parent objects were considered
+     * @param decision
+     *            the outcome of the authorization check
+     */
+    public void put(int epersonID, DSpaceObject o, int action,
+            boolean useInheritance, boolean decision)
+    {
+        decisions.put(key(epersonID, o, action, useInheritance),
+                Boolean.valueOf(decision));
+    }
+
+    /**
+     * Forget all cached decisions. Called whenever resource policies, group
+     * memberships, special groups or parent objects change.
+     */
+    public void clear()
+    {
+        decisions.clear();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups which had to be evaluated against the
+     *         resource policies
+     */
+    public int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return the number of decisions currently cached
+     */
+    public int size()
+    {
+        return decisions.size();
+    }
+
+    private String key(int epersonID, DSpaceObject o, int action,
+            boolean useInheritance)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(epersonID).append(':');
+        key.append(o.getType()).append(':').append(o.getID()).append(':');
+        key.append(action).append(useInheritance ? ":i" : ":n");
+
+        return key.toString();
+    }
+}
@@ -16,6 +16,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
+import org.dspace.storage.rdbms.BatchWriter;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 import org.dspace.storage.rdbms.TableRowIterator;
@@ -291,6 +292,35 @@ public class AuthorizeManager
         // is eperson set? if not, userid = 0 (anonymous)
 	int userid = 0;
         if (e != null)
+        {
+            userid = e.getID();
+        }
+
+        // has this question already been answered in this context?
+        AuthorizationCache cache = c.getAuthorizationCache();
+        Boolean cached = cache.get(userid, o, action, useInheritance);
+
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean authorized = authorizeByPolicies(c, o, action, e, useInheritance);
+        cache.put(userid, o, action, useInheritance, authorized);
+
+        return authorized;
+    }
+
+    /**
+     * Evaluate the resource policies of the given object (and, if inheritance
+     * is allowed, the ADMIN policies of its parents) for the given user,
+     * bypassing the context's authorization cache.
+     */
+    private static boolean authorizeByPolicies(Context c, DSpaceObject o,
+            int action, EPerson e, boolean useInheritance) throws SQLException
+    {
+        int userid = 0;
+        if (e != null)
         {
             userid = e.getID();
 
@@ -368,6 +398,29 @@ public class AuthorizeManager
             userid = e.getID();
 	}
 
+        // parent objects are shared by many children, so remember the answer
+        AuthorizationCache cache = c.getAuthorizationCache();
+        Boolean cached = cache.get(userid, o, AuthorizationCache.ADMIN_CHECK, true);
+
+        if (cached != null)
+        {
+            return cached.booleanValue();
+        }
+
+        boolean admin = isAdminByPolicies(c, o, userid);
+        cache.put(userid, o, AuthorizationCache.ADMIN_CHECK, true, admin);
+
+        return admin;
+    }
+
+    /**
+     * Check the ADMIN policies of the given object and its parents for the
+     * given user, bypassing the context's authorization cache for the object
+     * itself.
+     */
+    private static boolean isAdminByPolicies(Context c, DSpaceObject o,
+            int userid) throws SQLException
+    {
         //
         // First, check all Resource Policies directly on this object
         //
@@ -467,6 +520,8 @@ public class AuthorizeManager
         rp.setEPerson(e);
 
         rp.update();
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -495,6 +550,8 @@ public class AuthorizeManager
         rp.setGroup(g);
 
         rp.update();
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -694,22 +751,39 @@ public class AuthorizeManager
     public static void addPolicies(Context c, List<ResourcePolicy> policies, DSpaceObject dest)
             throws SQLException, AuthorizeException
     {
-        // now add them to the destination object
-        for (ResourcePolicy srp : policies)
+        // now add them to the destination object, writing the new policies
+        // in batches rather than with an insert and an update each
+        BatchWriter writer = DatabaseManager.batch(c, "ResourcePolicy");
+        try
+        {
+            for (ResourcePolicy srp : policies)
+            {
+                TableRow row = DatabaseManager.row("ResourcePolicy");
+
+                // copy over values
+                row.setColumn("resource_type_id", dest.getType());
+                row.setColumn("resource_id", dest.getID());
+                row.setColumn("action_id", srp.getAction());
+                if (srp.getEPersonID() != -1)
+                {
+                    row.setColumn("eperson_id", srp.getEPersonID());
+                }
+                if (srp.getGroupID() != -1)
+                {
+                    row.setColumn("epersongroup_id", srp.getGroupID());
+                }
+                row.setColumn("start_date", srp.getStartDate());
+                row.setColumn("end_date", srp.getEndDate());
+
+                writer.insert(row);
+            }
+        }
+        finally
         {
-            ResourcePolicy drp = ResourcePolicy.create(c);
-
-            // copy over values
-            drp.setResource(dest);
-            drp.setAction(srp.getAction());
-            drp.setEPerson(srp.getEPerson());
-            drp.setGroup(srp.getGroup());
-            drp.setStartDate(srp.getStartDate());
-            drp.setEndDate(srp.getEndDate());
-
-            // and write out new policy
-            drp.update();
+            writer.close();
         }
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -729,6 +803,8 @@ public class AuthorizeManager
     	 DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                  + "resource_type_id= ? AND resource_id= ? ",
                  o.getType(), o.getID());
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -759,6 +835,8 @@ public class AuthorizeManager
                     "DELETE FROM resourcepolicy WHERE resource_type_id= ? AND "+
                     "resource_id= ? AND action_id= ? ",
                     dso.getType(), dso.getID(), actionID);
+
+            context.getAuthorizationCache().clear();
         }
     }
 
@@ -778,6 +856,8 @@ public class AuthorizeManager
     {
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "epersongroup_id= ? ", groupID);
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -799,6 +879,8 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND epersongroup_id= ? ",
                 o.getType(), o.getID(), g.getID());
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -820,6 +902,8 @@ public class AuthorizeManager
         DatabaseManager.updateQuery(c, "DELETE FROM resourcepolicy WHERE "
                 + "resource_type_id= ? AND resource_id= ? AND eperson_id= ? ",
                 o.getType(), o.getID(), e.getID());
+
+        c.getAuthorizationCache().clear();
     }
 
     /**
@@ -174,6 +174,8 @@ public class ResourcePolicy
         // FIXME: authorizations
         // Remove ourself
         DatabaseManager.delete(myContext, myRow);
+
+        myContext.getAuthorizationCache().clear();
     }
 
     /**
@@ -450,5 +452,7 @@ public class ResourcePolicy
     {
         // FIXME: Check authorisation
         DatabaseManager.update(myContext, myRow);
+
+        myContext.getAuthorizationCache().clear();
     }
 }
@@ -537,7 +537,8 @@ public final class BitstreamInfoDAO extends DAOSupport
         try
         {
             conn = DatabaseManager.getConnection();
-            ps = conn.prepareStatement(COLLECTION_BITSTREAMS);
+            // read the ids through a cursor rather than all at once
+            ps = DatabaseManager.prepareStreamingStatement(conn, COLLECTION_BITSTREAMS);
             ps.setInt(1, collectionId);
 
             rs = ps.executeQuery();
@@ -578,7 +579,8 @@ public final class BitstreamInfoDAO extends DAOSupport
         try
         {
             conn = DatabaseManager.getConnection();
-            ps = conn.prepareStatement(COMMUNITY_BITSTREAMS);
+            // read the ids through a cursor rather than all at once
+            ps = DatabaseManager.prepareStreamingStatement(conn, COMMUNITY_BITSTREAMS);
             ps.setInt(1, communityId);
 
             rs = ps.executeQuery();
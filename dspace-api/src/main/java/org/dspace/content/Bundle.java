@@ -66,67 +66,64 @@ public class Bundle extends DSpaceObject
      *            the corresponding row in the table
      */
     Bundle(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, null);
+    }
+
+    /**
+     * Construct a bundle object with the given table row and the rows of its
+     * bitstreams, already read from the database in the configured order.
+     * 
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param bitstreamRows
+     *            the rows of the bitstreams in this bundle, or
+     *            <code>null</code> to read them from the database
+     */
+    Bundle(Context context, TableRow row, List<TableRow> bitstreamRows) throws SQLException
     {
         ourContext = context;
         bundleRow = row;
         bitstreams = new ArrayList<Bitstream>();
-        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
-        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
 
-        if (bitstreamOrderingField == null)
+        if (bitstreamRows != null)
         {
-            bitstreamOrderingField = "sequence_id";
-        }
-
-        if (bitstreamOrderingDirection == null)
-        {
-            bitstreamOrderingDirection = "ASC";
+            for (TableRow r : bitstreamRows)
+            {
+                addBitstreamRow(r);
+            }
         }
-
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order FROM bitstream, bundle2bitstream WHERE");
-        query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
-        query.append(" bundle2bitstream.bundle_id= ?");
-        query.append(" ORDER BY ");
-        query.append(bitstreamOrderingField);
-        query.append(" ");
-        query.append(bitstreamOrderingDirection);
-
-        // Get bitstreams
-        TableRowIterator tri = DatabaseManager.query(
-                ourContext,
-                query.toString(),
-                bundleRow.getIntColumn("bundle_id"));
-
-        try
+        else
         {
-            while (tri.hasNext())
+            StringBuilder query = new StringBuilder();
+            query.append("SELECT bitstream.*,bundle2bitstream.bitstream_order FROM bitstream, bundle2bitstream WHERE");
+            query.append(" bundle2bitstream.bitstream_id=bitstream.bitstream_id AND");
+            query.append(" bundle2bitstream.bundle_id= ?");
+            query.append(" ORDER BY ");
+            query.append(getBitstreamOrdering());
+
+            // Get bitstreams
+            TableRowIterator tri = DatabaseManager.query(
+                    ourContext,
+                    query.toString(),
+                    bundleRow.getIntColumn("bundle_id"));
+
+            try
             {
-                TableRow r = tri.next();
-
-                // First check the cache
-                Bitstream fromCache = (Bitstream) context.fromCache(
-                        Bitstream.class, r.getIntColumn("bitstream_id"));
-
-                if (fromCache != null)
+                while (tri.hasNext())
                 {
-                    bitstreams.add(fromCache);
-                }
-                else
-                {
-                    //Since bitstreams can be ordered by a column in bundle2bitstream
-                    //We cannot use queryTable & so we need to add our table later on
-                    r.setTable("bitstream");
-                    bitstreams.add(new Bitstream(ourContext, r));
+                    addBitstreamRow(tri.next());
                 }
             }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
+            finally
             {
-                tri.close();
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
             }
         }
 
@@ -137,6 +134,55 @@ public class Bundle extends DSpaceObject
         modifiedMetadata = false;
     }
 
+    /**
+     * Add a bitstream read from the database to our list, using the cached
+     * object if there is one.
+     */
+    private void addBitstreamRow(TableRow r) throws SQLException
+    {
+        // First check the cache
+        Bitstream fromCache = (Bitstream) ourContext.fromCache(
+                Bitstream.class, r.getIntColumn("bitstream_id"));
+
+        if (fromCache != null)
+        {
+            bitstreams.add(fromCache);
+        }
+        else
+        {
+            //Since bitstreams can be ordered by a column in bundle2bitstream
+            //We cannot use queryTable & so we need to add our table later on
+            r.setTable("bitstream");
+            bitstreams.add(new Bitstream(ourContext, r));
+        }
+    }
+
+    /**
+     * Get the ORDER BY clause (column and direction) used to order the
+     * bitstreams of a bundle, as configured by
+     * <code>webui.bitstream.order.field</code> and
+     * <code>webui.bitstream.order.direction</code>.
+     * 
+     * @return the ordering, e.g. <code>sequence_id ASC</code>
+     */
+    static String getBitstreamOrdering()
+    {
+        String bitstreamOrderingField  = ConfigurationManager.getProperty("webui.bitstream.order.field");
+        String bitstreamOrderingDirection   = ConfigurationManager.getProperty("webui.bitstream.order.direction");
+
+        if (bitstreamOrderingField == null)
+        {
+            bitstreamOrderingField = "sequence_id";
+        }
+
+        if (bitstreamOrderingDirection == null)
+        {
+            bitstreamOrderingDirection = "ASC";
+        }
+
+        return bitstreamOrderingField + " " + bitstreamOrderingDirection;
+    }
+
     /**
      * Get a bundle from the database. The bundle and bitstream metadata are all
      * loaded into memory.
@@ -925,6 +925,9 @@ public class Collection extends DSpaceObject
 
         DatabaseManager.insert(ourContext, row);
 
+        // ADMIN rights are inherited along the changed parent chain
+        ourContext.getAuthorizationCache().clear();
+
         ourContext.addEvent(new Event(Event.ADD, Constants.COLLECTION, getID(), Constants.ITEM, item.getID(), item.getHandle()));
     }
 
@@ -962,7 +965,10 @@ public class Collection extends DSpaceObject
                 "AND item_id= ? ",
                 getID(), item.getID());
         DatabaseManager.setConstraintImmediate(ourContext, "coll2item_item_fk");
-        
+
+        // ADMIN rights are inherited along the changed parent chain
+        ourContext.getAuthorizationCache().clear();
+
         ourContext.addEvent(new Event(Event.REMOVE, Constants.COLLECTION, getID(), Constants.ITEM, item.getID(), item.getHandle()));
     }
 
@@ -858,6 +858,9 @@ public class Community extends DSpaceObject
                 ourContext.addEvent(new Event(Event.ADD, Constants.COMMUNITY, getID(), Constants.COLLECTION, c.getID(), c.getHandle()));
 
                 DatabaseManager.insert(ourContext, mappingRow);
+
+                // ADMIN rights are inherited along the changed parent chain
+                ourContext.getAuthorizationCache().clear();
             }
         }
         finally
@@ -933,6 +936,9 @@ public class Community extends DSpaceObject
                 ourContext.addEvent(new Event(Event.ADD, Constants.COMMUNITY, getID(), Constants.COMMUNITY, c.getID(), c.getHandle()));
 
                 DatabaseManager.insert(ourContext, mappingRow);
+
+                // ADMIN rights are inherited along the changed parent chain
+                ourContext.getAuthorizationCache().clear();
             }
         }
         finally
@@ -978,7 +984,10 @@ public class Community extends DSpaceObject
                 "AND collection_id= ? ", getID(), c.getID());
 
         DatabaseManager.setConstraintImmediate(ourContext, "comm2coll_collection_fk");
-        
+
+        // ADMIN rights are inherited along the changed parent chain
+        ourContext.getAuthorizationCache().clear();
+
         ourContext.addEvent(new Event(Event.REMOVE, Constants.COMMUNITY, getID(), Constants.COLLECTION, c.getID(), c.getHandle()));
     }
 
@@ -1014,6 +1023,9 @@ public class Community extends DSpaceObject
                 "DELETE FROM community2community WHERE parent_comm_id= ? " +
                 " AND child_comm_id= ? ", getID(),c.getID());
 
+        // ADMIN rights are inherited along the changed parent chain
+        ourContext.getAuthorizationCache().clear();
+
         ourContext.addEvent(new Event(Event.REMOVE, Constants.COMMUNITY, getID(), Constants.COMMUNITY, c.getID(), c.getHandle()));
         
         DatabaseManager.setConstraintImmediate(ourContext, "com2com_child_fk");
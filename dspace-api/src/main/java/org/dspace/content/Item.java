@@ -13,9 +13,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.commons.lang.StringUtils;
@@ -105,6 +103,25 @@ public class Item extends DSpaceObject
      * @throws SQLException
      */
     Item(Context context, TableRow row) throws SQLException
+    {
+        this(context, row, null);
+
+        // Get our Handle if any
+        handle = HandleManager.findHandle(context, this);
+    }
+
+    /**
+     * Construct an item with the given table row and an already known Handle
+     *
+     * @param context
+     *            the context this object exists in
+     * @param row
+     *            the corresponding row in the table
+     * @param handle
+     *            the item's Handle, or <code>null</code> if it has none
+     * @throws SQLException
+     */
+    Item(Context context, TableRow row, String handle) throws SQLException
     {
         ourContext = context;
         itemRow = row;
@@ -112,20 +129,12 @@ public class Item extends DSpaceObject
         modified = false;
         clearDetails();
 
-        // Get our Handle if any
-        handle = HandleManager.findHandle(context, this);
+        this.handle = handle;
 
         // Cache ourselves
         context.cache(this, row.getIntColumn("item_id"));
     }
 
-    private TableRowIterator retrieveMetadata() throws SQLException
-    {
-        return DatabaseManager.queryTable(ourContext, "MetadataValue",
-                "SELECT * FROM MetadataValue WHERE item_id= ? ORDER BY metadata_field_id, place",
-                itemRow.getIntColumn("item_id"));
-    }
-
     /**
      * Get an item from the database. The item, its Dublin Core metadata, and
      * the bundle and bitstream metadata are all loaded into memory.
@@ -170,6 +179,27 @@ public class Item extends DSpaceObject
         return new Item(context, row);
     }
 
+    /**
+     * Get a number of items from the database at once. The items, their
+     * Handles, Dublin Core metadata, and bundle and bitstream metadata are
+     * read with a handful of queries for the whole set rather than several
+     * queries per item, which makes this much cheaper than calling
+     * {@link #find(Context, int)} repeatedly when displaying or exporting a
+     * list of items. Items already in the context's cache are reused.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            Internal IDs of the items
+     * @return the items, in the same order as <code>ids</code>; an element
+     *         is null if the corresponding ID is invalid.
+     * @throws SQLException
+     */
+    public static Item[] findAll(Context context, int[] ids) throws SQLException
+    {
+        return ItemBatchLoader.find(context, ids);
+    }
+
     /**
      * Create a new item, with a new internal ID. This method is not public,
      * since items need to be created as workspace items. Authorisation is the
@@ -218,6 +248,26 @@ public class Item extends DSpaceObject
         return new ItemIterator(context, rows);
     }
 
+    /**
+     * Get all the items in the archive, like {@link #findAll(Context)}, but
+     * read from the database a few at a time so that jobs going through the
+     * whole archive run in constant memory. The context must not be committed
+     * or aborted until the iterator has been closed.
+     *
+     * @param context
+     *            DSpace context object
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     */
+    public static ItemIterator findAllStreaming(Context context) throws SQLException
+    {
+        String myQuery = "SELECT * FROM item WHERE in_archive='1'";
+
+        TableRowIterator rows = DatabaseManager.queryTableStreaming(context, "item", myQuery);
+
+        return new ItemIterator(context, rows);
+    }
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -338,6 +388,9 @@ public class Item extends DSpaceObject
     {
         itemRow.setColumn("owning_collection", c.getID());
         modified = true;
+
+        // ADMIN rights are inherited from the owning collection
+        ourContext.getAuthorizationCache().clear();
     }
 
     /**
@@ -461,30 +514,8 @@ public class Item extends DSpaceObject
     public DCValue[] getMetadata(String schema, String element, String qualifier,
             String lang)
     {
-        // Build up list of matching values
-        List<DCValue> values = new ArrayList<DCValue>();
-        for (DCValue dcv : getMetadata())
-        {
-            if (match(schema, element, qualifier, lang, dcv))
-            {
-                // We will return a copy of the object in case it is altered
-                DCValue copy = new DCValue();
-                copy.element = dcv.element;
-                copy.qualifier = dcv.qualifier;
-                copy.value = dcv.value;
-                copy.language = dcv.language;
-                copy.schema = dcv.schema;
-                copy.authority = dcv.authority;
-                copy.confidence = dcv.confidence;
-                values.add(copy);
-            }
-        }
-
-        // Create an array of matching values
-        DCValue[] valueArray = new DCValue[values.size()];
-        valueArray = (DCValue[]) values.toArray(valueArray);
-
-        return valueArray;
+        // We will return copies of the values in case they are altered
+        return getMetadata().find(schema, element, qualifier, lang);
     }
     
     /**
@@ -646,7 +677,7 @@ public class Item extends DSpaceObject
     public void addMetadata(String schema, String element, String qualifier, String lang,
             String[] values, String authorities[], int confidences[])
     {
-        List<DCValue> dublinCore = getMetadata();
+        ItemMetadata dublinCore = getMetadata();
         MetadataAuthorityManager mam = MetadataAuthorityManager.getManager();        
         boolean authorityControlled = mam.isAuthorityControlled(schema, element, qualifier);
         boolean authorityRequired = mam.isAuthorityRequired(schema, element, qualifier);
@@ -836,101 +867,10 @@ public class Item extends DSpaceObject
     public void clearMetadata(String schema, String element, String qualifier,
             String lang)
     {
-        // We will build a list of values NOT matching the values to clear
-        List<DCValue> values = new ArrayList<DCValue>();
-        for (DCValue dcv : getMetadata())
-        {
-            if (!match(schema, element, qualifier, lang, dcv))
-            {
-                values.add(dcv);
-            }
-        }
-
-        // Now swap the old list of values for the new, unremoved values
-        setMetadata(values);
+        getMetadata().remove(schema, element, qualifier, lang);
         dublinCoreChanged = true;
     }
 
-    /**
-     * Utility method for pattern-matching metadata elements.  This
-     * method will return <code>true</code> if the given schema,
-     * element, qualifier and language match the schema, element,
-     * qualifier and language of the <code>DCValue</code> object passed
-     * in.  Any or all of the element, qualifier and language passed
-     * in can be the <code>Item.ANY</code> wildcard.
-     *
-     * @param schema
-     *            the schema for the metadata field. <em>Must</em> match
-     *            the <code>name</code> of an existing metadata schema.
-     * @param element
-     *            the element to match, or <code>Item.ANY</code>
-     * @param qualifier
-     *            the qualifier to match, or <code>Item.ANY</code>
-     * @param language
-     *            the language to match, or <code>Item.ANY</code>
-     * @param dcv
-     *            the Dublin Core value
-     * @return <code>true</code> if there is a match
-     */
-    private boolean match(String schema, String element, String qualifier,
-            String language, DCValue dcv)
-    {
-        // We will attempt to disprove a match - if we can't we have a match
-        if (!element.equals(Item.ANY) && !element.equals(dcv.element))
-        {
-            // Elements do not match, no wildcard
-            return false;
-        }
-
-        if (qualifier == null)
-        {
-            // Value must be unqualified
-            if (dcv.qualifier != null)
-            {
-                // Value is qualified, so no match
-                return false;
-            }
-        }
-        else if (!qualifier.equals(Item.ANY))
-        {
-            // Not a wildcard, so qualifier must match exactly
-            if (!qualifier.equals(dcv.qualifier))
-            {
-                return false;
-            }
-        }
-
-        if (language == null)
-        {
-            // Value must be null language to match
-            if (dcv.language != null)
-            {
-                // Value is qualified, so no match
-                return false;
-            }
-        }
-        else if (!language.equals(Item.ANY))
-        {
-            // Not a wildcard, so language must match exactly
-            if (!language.equals(dcv.language))
-            {
-                return false;
-            }
-        }
-
-        if (!schema.equals(Item.ANY))
-        {
-            if (dcv.schema != null && !dcv.schema.equals(schema))
-            {
-                // The namespace doesn't match
-                return false;
-            }
-        }
-
-        // If we get this far, we have a match
-        return true;
-    }
-
     /**
      * Get the e-person that originally submitted this item
      *
@@ -1521,47 +1461,20 @@ public class Item extends DSpaceObject
             }
         }
 
-        // Map counting number of values for each element/qualifier.
-        // Keys are Strings: "element" or "element.qualifier"
-        // Values are Integers indicating number of values written for a
-        // element/qualifier
-        Map<String,Integer> elementCount = new HashMap<String,Integer>();
-
         // Redo Dublin Core if it's changed
         if (dublinCoreChanged)
         {
             dublinCoreChanged = false;
 
-            // Arrays to store the working information required
-            int[]     placeNum = new int[getMetadata().size()];
-            boolean[] storedDC = new boolean[getMetadata().size()];
-            MetadataField[] dcFields = new MetadataField[getMetadata().size()];
+            DCValue[] dcValues = getMetadata().toArray();
+            int[] fieldIDs = new int[dcValues.length];
 
-            // Work out the place numbers for the in memory DC
-            for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+            // Check every value is in the registry, and cache its field
+            for (int dcIdx = 0; dcIdx < dcValues.length; dcIdx++)
             {
-                DCValue dcv = getMetadata().get(dcIdx);
-
-                // Work out the place number for ordering
-                int current = 0;
-
-                // Key into map is "element" or "element.qualifier"
-                String key = dcv.element + ((dcv.qualifier == null) ? "" : ("." + dcv.qualifier));
-
-                Integer currentInteger = elementCount.get(key);
-                if (currentInteger != null)
-                {
-                    current = currentInteger.intValue();
-                }
-
-                current++;
-                elementCount.put(key, Integer.valueOf(current));
-
-                // Store the calculated place number, reset the stored flag, and cache the metadatafield
-                placeNum[dcIdx] = current;
-                storedDC[dcIdx] = false;
-                dcFields[dcIdx] = getMetadataField(dcv);
-                if (dcFields[dcIdx] == null)
+                DCValue dcv = dcValues[dcIdx];
+                MetadataField dcField = getMetadataField(dcv);
+                if (dcField == null)
                 {
                     // Bad DC field, log and throw exception
                     log.warn(LogManager
@@ -1582,140 +1495,14 @@ public class Item extends DSpaceObject
                             + dcv.element
                             + " " + dcv.qualifier);
                 }
+                fieldIDs[dcIdx] = dcField.getFieldID();
             }
 
-            // Now the precalculations are done, iterate through the existing metadata
-            // looking for matches
-            TableRowIterator tri = retrieveMetadata();
-            if (tri != null)
-            {
-                try
-                {
-                    while (tri.hasNext())
-                    {
-                        TableRow tr = tri.next();
-                        // Assume that we will remove this row, unless we get a match
-                        boolean removeRow = true;
-
-                        // Go through the in-memory metadata, unless we've already decided to keep this row
-                        for (int dcIdx = 0; dcIdx < getMetadata().size() && removeRow; dcIdx++)
-                        {
-                            // Only process if this metadata has not already been matched to something in the DB
-                            if (!storedDC[dcIdx])
-                            {
-                                boolean matched = true;
-                                DCValue dcv   = getMetadata().get(dcIdx);
-
-                                // Check the metadata field is the same
-                                if (matched && dcFields[dcIdx].getFieldID() != tr.getIntColumn("metadata_field_id"))
-                                {
-                                    matched = false;
-                                }
-
-                                // Check the place is the same
-                                if (matched && placeNum[dcIdx] != tr.getIntColumn("place"))
-                                {
-                                    matched = false;
-                                }
-
-                                // Check the text is the same
-                                if (matched)
-                                {
-                                    String text = tr.getStringColumn("text_value");
-                                    if (dcv.value == null && text == null)
-                                    {
-                                        matched = true;
-                                    }
-                                    else if (dcv.value != null && dcv.value.equals(text))
-                                    {
-                                        matched = true;
-                                    }
-                                    else
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // Check the language is the same
-                                if (matched)
-                                {
-                                    String lang = tr.getStringColumn("text_lang");
-                                    if (dcv.language == null && lang == null)
-                                    {
-                                        matched = true;
-                                    }
-                                    else if (dcv.language != null && dcv.language.equals(lang))
-                                    {
-                                        matched = true;
-                                    }
-                                    else
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // check that authority and confidence match
-                                if (matched)
-                                {
-                                    String auth = tr.getStringColumn("authority");
-                                    int conf = tr.getIntColumn("confidence");
-                                    if (!((dcv.authority == null && auth == null) ||
-                                      (dcv.authority != null && auth != null && dcv.authority.equals(auth))
-                                     && dcv.confidence == conf))
-                                    {
-                                        matched = false;
-                                    }
-                                }
-
-                                // If the db record is identical to the in memory values
-                                if (matched)
-                                {
-                                    // Flag that the metadata is already in the DB
-                                    storedDC[dcIdx] = true;
-
-                                    // Flag that we are not going to remove the row
-                                    removeRow = false;
-                                }
-                            }
-                        }
-
-                        // If after processing all the metadata values, we didn't find a match
-                        // delete this row from the DB
-                        if (removeRow)
-                        {
-                            DatabaseManager.delete(ourContext, tr);
-                            dublinCoreChanged = true;
-                            modified = true;
-                        }
-                    }
-                }
-                finally
-                {
-                    tri.close();
-                }
-            }
-
-            // Add missing in-memory DC
-            for (int dcIdx = 0; dcIdx < getMetadata().size(); dcIdx++)
+            // Write only what differs from the stored metadata
+            if (new ItemMetadataWriter(ourContext, getID(), dcValues, fieldIDs).write())
             {
-                // Only write values that are not already in the db
-                if (!storedDC[dcIdx])
-                {
-                    DCValue dcv = getMetadata().get(dcIdx);
-
-                    // Write DCValue
-                    MetadataValue metadata = new MetadataValue();
-                    metadata.setItemId(getID());
-                    metadata.setFieldId(dcFields[dcIdx].getFieldID());
-                    metadata.setValue(dcv.value);
-                    metadata.setLanguage(dcv.language);
-                    metadata.setPlace(placeNum[dcIdx]);
-                    metadata.setAuthority(dcv.authority);
-                    metadata.setConfidence(dcv.confidence);
-                    metadata.create(ourContext);
-                    dublinCoreChanged = true;
-                    modified = true;
-                }
+                dublinCoreChanged = true;
+                modified = true;
             }
         }
 
@@ -2624,7 +2411,23 @@ public class Item extends DSpaceObject
     }
 
 
-    private List<DCValue> getMetadata()
+    /**
+     * Fill in the metadata and bundles of a newly constructed item with
+     * values read in bulk by {@link ItemBatchLoader}, so that they are not
+     * read one item at a time later on.
+     *
+     * @param metadata
+     *            the item's metadata, in field and place order
+     * @param itemBundles
+     *            the item's bundles
+     */
+    void preload(ItemMetadata metadata, List<Bundle> itemBundles)
+    {
+        dublinCore.set(metadata);
+        bundles = itemBundles;
+    }
+
+    private ItemMetadata getMetadata()
     {
         try
         {
@@ -2635,24 +2438,18 @@ public class Item extends DSpaceObject
             log.error("Loading item - cannot load metadata");
         }
 
-        return new ArrayList<DCValue>();
-    }
-
-    private void setMetadata(List<DCValue> metadata)
-    {
-        dublinCore.set(metadata);
-        dublinCoreChanged = true;
+        return new ItemMetadata();
     }
 
     class MetadataCache
     {
-        List<DCValue> metadata = null;
+        ItemMetadata metadata = null;
 
-        List<DCValue> get(Context c, int itemId, Logger log) throws SQLException
+        ItemMetadata get(Context c, int itemId, Logger log) throws SQLException
         {
             if (metadata == null)
             {
-                metadata = new ArrayList<DCValue>();
+                metadata = new ItemMetadata();
 
                 // Get Dublin Core metadata
                 TableRowIterator tri = retrieveMetadata(itemId);
@@ -2663,40 +2460,7 @@ public class Item extends DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
-
-                            if (field == null)
-                            {
-                                log.error("Loading item - cannot find metadata field " + fieldID);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a DCValue object
-                                    DCValue dcv = new DCValue();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
-                            }
+                            metadata.addRow(c, tri.next());
                         }
                     }
                     finally
@@ -2713,7 +2477,7 @@ public class Item extends DSpaceObject
             return metadata;
         }
 
-        void set(List<DCValue> m)
+        void set(ItemMetadata m)
         {
             metadata = m;
         }
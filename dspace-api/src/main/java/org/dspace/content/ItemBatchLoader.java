@@ -0,0 +1,402 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.core.LogManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Loads many items at once. Instead of the handful of queries per item that
+ * {@link Item#find(Context, int)} and the lazy loading of metadata and
+ * bundles cost, the items, their Handles, metadata values, bundles and
+ * bitstreams are each read with one <code>IN (...)</code> query per chunk of
+ * items. The resulting objects are placed in the context's cache, so that
+ * subsequent calls to <code>find</code> for the same IDs are free.
+ *
+ * @version $Revision$
+ */
+class ItemBatchLoader
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemBatchLoader.class);
+
+    /** Maximum number of IDs in a single IN (...) clause */
+    static final int CHUNK_SIZE = 500;
+
+    /** Not instantiable */
+    private ItemBatchLoader()
+    {
+    }
+
+    /**
+     * Get items by ID, loading those that are not in the context's cache in
+     * bulk.
+     *
+     * @param context
+     *            DSpace context object
+     * @param ids
+     *            Internal IDs of the items
+     * @return the items, aligned with <code>ids</code>; null for invalid IDs
+     * @throws SQLException
+     */
+    static Item[] find(Context context, int[] ids) throws SQLException
+    {
+        Item[] items = new Item[ids.length];
+        Set<Integer> missing = new LinkedHashSet<Integer>();
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            items[i] = (Item) context.fromCache(Item.class, ids[i]);
+
+            if (items[i] == null)
+            {
+                missing.add(Integer.valueOf(ids[i]));
+            }
+        }
+
+        if (missing.isEmpty())
+        {
+            return items;
+        }
+
+        List<TableRow> rows = new ArrayList<TableRow>(missing.size());
+        for (List<Integer> chunk : chunk(missing))
+        {
+            TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                    "SELECT * FROM item WHERE item_id IN (" + placeholders(chunk.size()) + ")",
+                    chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    rows.add(tri.next());
+                }
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        Map<Integer, Item> loaded = load(context, rows);
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            if (items[i] == null)
+            {
+                items[i] = loaded.get(Integer.valueOf(ids[i]));
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(LogManager.getHeader(context, "find_items",
+                    "requested=" + ids.length + ",loaded=" + rows.size()));
+        }
+
+        return items;
+    }
+
+    /**
+     * Construct items from rows of the item table, reading their Handles,
+     * metadata and bundles in bulk. Items already in the context's cache are
+     * returned as they are.
+     *
+     * @param context
+     *            DSpace context object
+     * @param itemRows
+     *            rows of the item table
+     * @return the items, keyed by ID
+     * @throws SQLException
+     */
+    static Map<Integer, Item> load(Context context, List<TableRow> itemRows)
+            throws SQLException
+    {
+        Map<Integer, Item> items = new HashMap<Integer, Item>();
+        List<TableRow> toLoad = new ArrayList<TableRow>(itemRows.size());
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+
+        for (TableRow row : itemRows)
+        {
+            Integer id = Integer.valueOf(row.getIntColumn("item_id"));
+            Item fromCache = (Item) context.fromCache(Item.class, id.intValue());
+
+            if (fromCache != null)
+            {
+                items.put(id, fromCache);
+            }
+            else if (ids.add(id))
+            {
+                toLoad.add(row);
+            }
+        }
+
+        if (toLoad.isEmpty())
+        {
+            return items;
+        }
+
+        Map<Integer, String> handles = new HashMap<Integer, String>();
+        Map<Integer, ItemMetadata> metadata = new HashMap<Integer, ItemMetadata>();
+        Map<Integer, List<Bundle>> bundles = new HashMap<Integer, List<Bundle>>();
+
+        for (List<Integer> chunk : chunk(ids))
+        {
+            loadHandles(context, chunk, handles);
+            loadMetadata(context, chunk, metadata);
+            loadBundles(context, chunk, bundles);
+        }
+
+        for (TableRow row : toLoad)
+        {
+            Integer id = Integer.valueOf(row.getIntColumn("item_id"));
+            Item item = new Item(context, row, handles.get(id));
+
+            ItemMetadata itemMetadata = metadata.get(id);
+            List<Bundle> itemBundles = bundles.get(id);
+            item.preload(itemMetadata == null ? new ItemMetadata() : itemMetadata,
+                    itemBundles == null ? new ArrayList<Bundle>() : itemBundles);
+
+            items.put(id, item);
+        }
+
+        return items;
+    }
+
+    /**
+     * Read the Handles of a chunk of items.
+     */
+    private static void loadHandles(Context context, List<Integer> ids,
+            Map<Integer, String> handles) throws SQLException
+    {
+        Object[] parameters = new Object[ids.size() + 1];
+        parameters[0] = Integer.valueOf(Constants.ITEM);
+        for (int i = 0; i < ids.size(); i++)
+        {
+            parameters[i + 1] = ids.get(i);
+        }
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, "Handle",
+                "SELECT * FROM Handle WHERE resource_type_id = ? AND resource_id IN ("
+                        + placeholders(ids.size()) + ")", parameters);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer id = Integer.valueOf(row.getIntColumn("resource_id"));
+
+                // like HandleManager.findHandle, use the first Handle found
+                if (!handles.containsKey(id))
+                {
+                    handles.put(id, row.getStringColumn("handle"));
+                }
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
+    /**
+     * Read the metadata values of a chunk of items.
+     */
+    private static void loadMetadata(Context context, List<Integer> ids,
+            Map<Integer, ItemMetadata> metadata) throws SQLException
+    {
+        TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                "SELECT * FROM MetadataValue WHERE item_id IN (" + placeholders(ids.size())
+                        + ") ORDER BY item_id, metadata_field_id, place",
+                ids.toArray());
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer id = Integer.valueOf(row.getIntColumn("item_id"));
+                ItemMetadata itemMetadata = metadata.get(id);
+
+                if (itemMetadata == null)
+                {
+                    itemMetadata = new ItemMetadata();
+                    metadata.put(id, itemMetadata);
+                }
+                itemMetadata.addRow(context, row);
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
+    /**
+     * Read the bundles, and the bitstreams in them, of a chunk of items.
+     */
+    private static void loadBundles(Context context, List<Integer> ids,
+            Map<Integer, List<Bundle>> bundles) throws SQLException
+    {
+        // bundle rows, with the item they belong to
+        List<TableRow> bundleRows = new ArrayList<TableRow>();
+        Set<Integer> bundleIDs = new LinkedHashSet<Integer>();
+
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT bundle.*, item2bundle.item_id FROM bundle, item2bundle WHERE "
+                        + "item2bundle.bundle_id=bundle.bundle_id AND "
+                        + "item2bundle.item_id IN (" + placeholders(ids.size()) + ")",
+                ids.toArray());
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                bundleRows.add(row);
+
+                if (context.fromCache(Bundle.class, row.getIntColumn("bundle_id")) == null)
+                {
+                    bundleIDs.add(Integer.valueOf(row.getIntColumn("bundle_id")));
+                }
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        // bitstream rows of the bundles that are not cached yet
+        Map<Integer, List<TableRow>> bitstreamRows = new HashMap<Integer, List<TableRow>>();
+
+        for (List<Integer> chunk : chunk(bundleIDs))
+        {
+            tri = DatabaseManager.query(context,
+                    "SELECT bitstream.*, bundle2bitstream.bundle_id, bundle2bitstream.bitstream_order "
+                            + "FROM bitstream, bundle2bitstream WHERE "
+                            + "bundle2bitstream.bitstream_id=bitstream.bitstream_id AND "
+                            + "bundle2bitstream.bundle_id IN (" + placeholders(chunk.size()) + ") "
+                            + "ORDER BY bundle2bitstream.bundle_id, " + Bundle.getBitstreamOrdering(),
+                    chunk.toArray());
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+                    listFor(bitstreamRows, row.getIntColumn("bundle_id")).add(row);
+                }
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        for (TableRow row : bundleRows)
+        {
+            int bundleID = row.getIntColumn("bundle_id");
+            Bundle bundle = (Bundle) context.fromCache(Bundle.class, bundleID);
+
+            if (bundle == null)
+            {
+                List<TableRow> rows = bitstreamRows.get(Integer.valueOf(bundleID));
+                row.setTable("bundle");
+                bundle = new Bundle(context, row,
+                        rows == null ? new ArrayList<TableRow>() : rows);
+            }
+
+            listFor(bundles, row.getIntColumn("item_id")).add(bundle);
+        }
+    }
+
+    /**
+     * Get the list stored under an ID, creating it if needed.
+     */
+    private static <T> List<T> listFor(Map<Integer, List<T>> map, int id)
+    {
+        Integer key = Integer.valueOf(id);
+        List<T> list = map.get(key);
+
+        if (list == null)
+        {
+            list = new ArrayList<T>();
+            map.put(key, list);
+        }
+
+        return list;
+    }
+
+    /**
+     * Split a set of IDs into chunks of at most {@link #CHUNK_SIZE}.
+     */
+    private static List<List<Integer>> chunk(Set<Integer> ids)
+    {
+        List<List<Integer>> chunks = new ArrayList<List<Integer>>();
+        List<Integer> current = null;
+
+        for (Integer id : ids)
+        {
+            if (current == null || current.size() == CHUNK_SIZE)
+            {
+                current = new ArrayList<Integer>(Math.min(CHUNK_SIZE, ids.size()));
+                chunks.add(current);
+            }
+            current.add(id);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * @return <code>count</code> comma separated query parameter placeholders
+     */
+    static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+}
@@ -9,8 +9,10 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.dspace.core.Context;
 import org.dspace.storage.rdbms.TableRow;
@@ -43,6 +45,21 @@ public class ItemIterator
 
     /** a real iterator which works over the item ids when present */
     private Iterator<Integer> iditr;
+
+    /** number of items to load at once, or 0 to load them one by one */
+    private int preloadSize = 0;
+
+    /** IDs of the items read ahead */
+    private int[] bufferIDs;
+
+    /** the items read ahead, aligned with bufferIDs */
+    private Item[] buffer;
+
+    /** number of items read ahead */
+    private int bufferCount = 0;
+
+    /** position of the next item to return from the buffer */
+    private int bufferPos = 0;
     
     /**
      * Construct an item iterator using a set of TableRow objects from
@@ -73,6 +90,22 @@ public class ItemIterator
     	iditr = iids.iterator();
     }
     
+    /**
+     * Load items in batches of the given size rather than one at a time. The
+     * next <code>size</code> items, with their Handles, metadata, bundles and
+     * bitstreams, are then read with a handful of queries as soon as one of
+     * them is requested. This is worthwhile when most of the items will be
+     * used, e.g. when exporting or indexing them.
+     *
+     * @param size
+     *            number of items to load at once; 0 or 1 to load items one
+     *            at a time (the default)
+     */
+    public void setPreloadSize(int size)
+    {
+        preloadSize = (size > 1) ? size : 0;
+    }
+
     /**
      * Find out if there are any more items to iterate over
      * 
@@ -81,6 +114,10 @@ public class ItemIterator
      */
     public boolean hasNext() throws SQLException
     {
+        if (bufferPos < bufferCount)
+        {
+            return true;
+        }
     	if (iditr != null)
     	{
     		return iditr.hasNext();
@@ -101,6 +138,10 @@ public class ItemIterator
      */
     public Item next() throws SQLException
     {
+        if (preloadSize > 0)
+        {
+            return nextPreloaded();
+        }
     	if (iditr != null)
     	{
     		return nextByID();
@@ -153,6 +194,10 @@ public class ItemIterator
     public int nextID()
     	throws SQLException
     {
+        if (bufferPos < bufferCount)
+        {
+            return bufferIDs[bufferPos++];
+        }
     	if (iditr != null)
     	{
     		return nextByIDID();
@@ -239,6 +284,71 @@ public class ItemIterator
         }
     }
 
+    /**
+     * Return the next item from the read-ahead buffer, filling it with the
+     * next batch of items when it is empty.
+     *
+     * @return the item or null if none
+     * @throws SQLException
+     */
+    private Item nextPreloaded()
+        throws SQLException
+    {
+        if (bufferPos == bufferCount)
+        {
+            fillBuffer();
+        }
+
+        if (bufferPos < bufferCount)
+        {
+            return buffer[bufferPos++];
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the next batch of items.
+     *
+     * @throws SQLException
+     */
+    private void fillBuffer()
+        throws SQLException
+    {
+        bufferIDs = new int[preloadSize];
+        bufferCount = 0;
+        bufferPos = 0;
+
+        if (iditr != null)
+        {
+            while (bufferCount < preloadSize && iditr.hasNext())
+            {
+                bufferIDs[bufferCount++] = iditr.next().intValue();
+            }
+
+            int[] ids = new int[bufferCount];
+            System.arraycopy(bufferIDs, 0, ids, 0, bufferCount);
+            buffer = Item.findAll(ourContext, ids);
+        }
+        else if (itemRows != null)
+        {
+            List<TableRow> rows = new ArrayList<TableRow>(preloadSize);
+            while (bufferCount < preloadSize && itemRows.hasNext())
+            {
+                TableRow row = itemRows.next();
+                rows.add(row);
+                bufferIDs[bufferCount++] = row.getIntColumn("item_id");
+            }
+
+            Map<Integer, Item> items = ItemBatchLoader.load(ourContext, rows);
+            buffer = new Item[bufferCount];
+            for (int i = 0; i < bufferCount; i++)
+            {
+                buffer[i] = items.get(Integer.valueOf(bufferIDs[i]));
+            }
+        }
+    }
+
     /**
      * Dispose of this Iterator, and it's underlying resources
      */
@@ -0,0 +1,531 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.TableRow;
+
+/**
+ * The metadata values of an item, in a compact form suitable for holding
+ * thousands of items in memory at once.
+ * <p>
+ * Values are kept in parallel arrays rather than one <code>DCValue</code> per
+ * value. The schema, element and qualifier of a value are a reference to a
+ * shared, immutable {@link Field} object, and language codes are interned, so
+ * the only per-value objects are the text values and authority keys. Lookups
+ * of a fully specified field use an index from field to value positions that
+ * is built on first use, instead of comparing the strings of every value.
+ * <p>
+ * Values keep the order in which they were loaded or added, which is the
+ * order <code>Item.update()</code> derives place numbers from.
+ *
+ * @version $Revision$
+ */
+final class ItemMetadata
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemMetadata.class);
+
+    /**
+     * Maximum number of shared fields. Values of fields not in the registry
+     * can be added, so beyond this fields are no longer shared.
+     */
+    private static final int MAX_FIELDS = 5000;
+
+    /** Maximum number of interned language codes */
+    private static final int MAX_LANGUAGES = 1000;
+
+    /** Shared fields, by "schema.element.qualifier" */
+    private static final ConcurrentMap<String, Field> fieldsByName = new ConcurrentHashMap<String, Field>();
+
+    /** Shared fields, by metadata field ID */
+    private static final ConcurrentMap<Integer, Field> fieldsByID = new ConcurrentHashMap<Integer, Field>();
+
+    /** Interned language codes */
+    private static final ConcurrentMap<String, String> languages = new ConcurrentHashMap<String, String>();
+
+    /** Number of values */
+    private int size = 0;
+
+    /** Field of each value */
+    private Field[] fields;
+
+    /** Text of each value */
+    private String[] values;
+
+    /** Language of each value, interned */
+    private String[] langs;
+
+    /** Authority key of each value */
+    private String[] authorities;
+
+    /** Authority confidence of each value */
+    private int[] confidences;
+
+    /** Positions of the values of each field, or null until needed */
+    private Map<Field, Positions> index = null;
+
+    /** True if a value without a schema was added */
+    private boolean hasNullSchema = false;
+
+    ItemMetadata()
+    {
+        this(8);
+    }
+
+    ItemMetadata(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        fields = new Field[capacity];
+        values = new String[capacity];
+        langs = new String[capacity];
+        authorities = new String[capacity];
+        confidences = new int[capacity];
+    }
+
+    /**
+     * @return the number of values
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Append a value.
+     *
+     * @param dcv
+     *            the value; it is copied, not kept
+     */
+    void add(DCValue dcv)
+    {
+        append(getField(dcv.schema, dcv.element, dcv.qualifier), dcv.value,
+                dcv.language, dcv.authority, dcv.confidence);
+    }
+
+    /**
+     * Append a value read from the MetadataValue table.
+     *
+     * @param c
+     *            current context
+     * @param row
+     *            the MetadataValue row
+     * @return <code>false</code> if the metadata field or schema of the row
+     *         cannot be found, in which case the row is ignored
+     * @throws SQLException
+     */
+    boolean addRow(Context c, TableRow row) throws SQLException
+    {
+        Field field = getField(c, row.getIntColumn("metadata_field_id"));
+        if (field == null)
+        {
+            return false;
+        }
+
+        append(field, row.getStringColumn("text_value"),
+                row.getStringColumn("text_lang"),
+                row.getStringColumn("authority"),
+                row.getIntColumn("confidence"));
+        return true;
+    }
+
+    /**
+     * Get a copy of a value.
+     *
+     * @param i
+     *            position of the value
+     * @return a new DCValue
+     */
+    DCValue get(int i)
+    {
+        if (i < 0 || i >= size)
+        {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+
+        DCValue dcv = new DCValue();
+        dcv.schema = fields[i].schema;
+        dcv.element = fields[i].element;
+        dcv.qualifier = fields[i].qualifier;
+        dcv.value = values[i];
+        dcv.language = langs[i];
+        dcv.authority = authorities[i];
+        dcv.confidence = confidences[i];
+        return dcv;
+    }
+
+    /**
+     * @return copies of all the values, in order
+     */
+    DCValue[] toArray()
+    {
+        DCValue[] all = new DCValue[size];
+        for (int i = 0; i < size; i++)
+        {
+            all[i] = get(i);
+        }
+        return all;
+    }
+
+    /**
+     * Get copies of the values matching the given field and language, with
+     * the same wildcard semantics as <code>Item.getMetadata</code>.
+     */
+    DCValue[] find(String schema, String element, String qualifier, String lang)
+    {
+        if (size == 0)
+        {
+            return new DCValue[0];
+        }
+
+        if (isExact(schema, element, qualifier))
+        {
+            // look the field up in the index rather than scanning all values
+            Positions positions = getIndex().get(new Field(schema, element, qualifier));
+            if (positions == null)
+            {
+                return new DCValue[0];
+            }
+
+            DCValue[] found = new DCValue[positions.count];
+            int count = 0;
+            for (int p = 0; p < positions.count; p++)
+            {
+                int i = positions.pos[p];
+                if (matchLanguage(lang, langs[i]))
+                {
+                    found[count++] = get(i);
+                }
+            }
+            return (count == found.length) ? found : Arrays.copyOf(found, count);
+        }
+
+        DCValue[] found = new DCValue[size];
+        int count = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (match(schema, element, qualifier, lang, i))
+            {
+                found[count++] = get(i);
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Remove the values matching the given field and language, with the same
+     * wildcard semantics as <code>Item.clearMetadata</code>.
+     *
+     * @return the number of values removed
+     */
+    int remove(String schema, String element, String qualifier, String lang)
+    {
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (!match(schema, element, qualifier, lang, i))
+            {
+                fields[kept] = fields[i];
+                values[kept] = values[i];
+                langs[kept] = langs[i];
+                authorities[kept] = authorities[i];
+                confidences[kept] = confidences[i];
+                kept++;
+            }
+        }
+
+        int removed = size - kept;
+        if (removed > 0)
+        {
+            Arrays.fill(fields, kept, size, null);
+            Arrays.fill(values, kept, size, null);
+            Arrays.fill(langs, kept, size, null);
+            Arrays.fill(authorities, kept, size, null);
+            size = kept;
+            index = null;
+        }
+        return removed;
+    }
+
+    /**
+     * Forget the shared fields, after the metadata registry has changed.
+     * Values already loaded keep their fields.
+     */
+    static void clearFields()
+    {
+        fieldsByID.clear();
+        fieldsByName.clear();
+    }
+
+    private void append(Field field, String value, String lang,
+            String authority, int confidence)
+    {
+        if (size == fields.length)
+        {
+            int capacity = size + (size >> 1) + 1;
+            fields = Arrays.copyOf(fields, capacity);
+            values = Arrays.copyOf(values, capacity);
+            langs = Arrays.copyOf(langs, capacity);
+            authorities = Arrays.copyOf(authorities, capacity);
+            confidences = Arrays.copyOf(confidences, capacity);
+        }
+
+        fields[size] = field;
+        values[size] = value;
+        langs[size] = intern(lang);
+        authorities[size] = authority;
+        confidences[size] = confidence;
+
+        if (field.schema == null)
+        {
+            hasNullSchema = true;
+        }
+        if (index != null)
+        {
+            addPosition(index, field, size);
+        }
+
+        size++;
+    }
+
+    private Map<Field, Positions> getIndex()
+    {
+        if (index == null)
+        {
+            Map<Field, Positions> newIndex = new HashMap<Field, Positions>();
+            for (int i = 0; i < size; i++)
+            {
+                addPosition(newIndex, fields[i], i);
+            }
+            index = newIndex;
+        }
+        return index;
+    }
+
+    private static void addPosition(Map<Field, Positions> index, Field field, int i)
+    {
+        Positions positions = index.get(field);
+        if (positions == null)
+        {
+            positions = new Positions();
+            index.put(field, positions);
+        }
+        positions.add(i);
+    }
+
+    /**
+     * @return true if the index can answer a lookup of this field, i.e. no
+     *         wildcards are involved
+     */
+    private boolean isExact(String schema, String element, String qualifier)
+    {
+        return !hasNullSchema && schema != null && !Item.ANY.equals(schema)
+                && !Item.ANY.equals(element) && !Item.ANY.equals(qualifier);
+    }
+
+    /**
+     * Same rules as <code>Item.match</code>.
+     */
+    private boolean match(String schema, String element, String qualifier,
+            String language, int i)
+    {
+        Field field = fields[i];
+
+        if (!element.equals(Item.ANY) && !element.equals(field.element))
+        {
+            return false;
+        }
+
+        if (qualifier == null)
+        {
+            if (field.qualifier != null)
+            {
+                return false;
+            }
+        }
+        else if (!qualifier.equals(Item.ANY) && !qualifier.equals(field.qualifier))
+        {
+            return false;
+        }
+
+        if (!matchLanguage(language, langs[i]))
+        {
+            return false;
+        }
+
+        if (!schema.equals(Item.ANY) && field.schema != null && !field.schema.equals(schema))
+        {
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean matchLanguage(String language, String valueLanguage)
+    {
+        if (language == null)
+        {
+            return valueLanguage == null;
+        }
+        return language.equals(Item.ANY) || language.equals(valueLanguage);
+    }
+
+    /**
+     * Get the shared field for a schema, element and qualifier.
+     */
+    private static Field getField(String schema, String element, String qualifier)
+    {
+        String name = schema + "." + element + "." + qualifier;
+        Field field = fieldsByName.get(name);
+        if (field == null)
+        {
+            field = new Field(schema, element, qualifier);
+            if (fieldsByName.size() < MAX_FIELDS)
+            {
+                Field shared = fieldsByName.putIfAbsent(name, field);
+                if (shared != null)
+                {
+                    field = shared;
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Get the shared field for a metadata field ID, from the registry caches.
+     */
+    private static Field getField(Context c, int fieldID) throws SQLException
+    {
+        Integer key = Integer.valueOf(fieldID);
+        Field field = fieldsByID.get(key);
+        if (field != null)
+        {
+            return field;
+        }
+
+        MetadataField mdField = MetadataField.find(c, fieldID);
+        if (mdField == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID);
+            return null;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, mdField.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + mdField.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        field = getField(schema.getName(), mdField.getElement(), mdField.getQualifier());
+        if (fieldsByID.size() < MAX_FIELDS)
+        {
+            fieldsByID.put(key, field);
+        }
+        return field;
+    }
+
+    /**
+     * Intern a language code, as there are only a few different ones.
+     */
+    private static String intern(String lang)
+    {
+        if (lang == null)
+        {
+            return null;
+        }
+
+        String interned = languages.get(lang);
+        if (interned == null)
+        {
+            if (languages.size() >= MAX_LANGUAGES)
+            {
+                return lang;
+            }
+            interned = languages.putIfAbsent(lang, lang);
+            if (interned == null)
+            {
+                interned = lang;
+            }
+        }
+        return interned;
+    }
+
+    /**
+     * A metadata field, shared by all the values of that field.
+     */
+    static final class Field
+    {
+        final String schema;
+        final String element;
+        final String qualifier;
+
+        Field(String schema, String element, String qualifier)
+        {
+            this.schema = schema;
+            this.element = element;
+            this.qualifier = qualifier;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Field))
+            {
+                return false;
+            }
+            Field other = (Field) obj;
+            return equal(schema, other.schema) && equal(element, other.element)
+                    && equal(qualifier, other.qualifier);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = (schema == null) ? 0 : schema.hashCode();
+            hash = 31 * hash + ((element == null) ? 0 : element.hashCode());
+            return 31 * hash + ((qualifier == null) ? 0 : qualifier.hashCode());
+        }
+
+        private static boolean equal(String a, String b)
+        {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+    }
+
+    /**
+     * Growable list of value positions.
+     */
+    private static final class Positions
+    {
+        int[] pos = new int[2];
+        int count = 0;
+
+        void add(int i)
+        {
+            if (count == pos.length)
+            {
+                pos = Arrays.copyOf(pos, count * 2);
+            }
+            pos[count++] = i;
+        }
+    }
+}
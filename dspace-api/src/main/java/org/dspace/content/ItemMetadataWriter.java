@@ -0,0 +1,278 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.LogManager;
+import org.dspace.storage.rdbms.BatchWriter;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Writes the in-memory metadata of an item to the MetadataValue table by
+ * changing only what differs from the stored rows.
+ * <p>
+ * Values are compared field by field. The place of a value is its position
+ * among the values of the same field, so a field whose values have not
+ * changed is left alone, and within a changed field the n-th stored row is
+ * reused for the n-th value. Surplus rows are deleted and missing ones
+ * inserted. The deletes, updates and inserts are sent in JDBC batches by a
+ * <code>BatchWriter</code>, which also gives the new rows their IDs.
+ *
+ * @version $Revision$
+ */
+class ItemMetadataWriter
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemMetadataWriter.class);
+
+    /** Rows to delete */
+    private final List<TableRow> deletes = new ArrayList<TableRow>();
+
+    /** Rows to update: pairs of stored row and new value index */
+    private final List<TableRow> updateRows = new ArrayList<TableRow>();
+    private final List<Integer> updateValues = new ArrayList<Integer>();
+
+    /** Values to insert, by index */
+    private final List<Integer> inserts = new ArrayList<Integer>();
+
+    private final Context context;
+    private final int itemID;
+    private final DCValue[] dcValues;
+    private final int[] fieldIDs;
+    private final int[] places;
+
+    /**
+     * @param context
+     *            current context
+     * @param itemID
+     *            ID of the item
+     * @param dcValues
+     *            the in-memory values, in order
+     * @param fieldIDs
+     *            the metadata field ID of each value
+     */
+    ItemMetadataWriter(Context context, int itemID, DCValue[] dcValues, int[] fieldIDs)
+    {
+        this.context = context;
+        this.itemID = itemID;
+        this.dcValues = dcValues;
+        this.fieldIDs = fieldIDs;
+        this.places = new int[dcValues.length];
+    }
+
+    /**
+     * Bring the stored metadata in line with the in-memory values.
+     *
+     * @return <code>true</code> if any row was changed
+     * @throws SQLException
+     */
+    boolean write() throws SQLException
+    {
+        Map<Integer, List<Integer>> wanted = groupValues();
+        Map<Integer, List<TableRow>> stored = loadRows();
+
+        for (Map.Entry<Integer, List<Integer>> entry : wanted.entrySet())
+        {
+            List<TableRow> rows = stored.remove(entry.getKey());
+            diff(entry.getValue(), (rows == null) ? new ArrayList<TableRow>() : rows);
+        }
+
+        // fields that no longer have any value
+        for (List<TableRow> rows : stored.values())
+        {
+            diff(new ArrayList<Integer>(), rows);
+        }
+
+        if (deletes.isEmpty() && updateRows.isEmpty() && inserts.isEmpty())
+        {
+            return false;
+        }
+
+        BatchWriter writer = DatabaseManager.batch(context, "MetadataValue");
+        try
+        {
+            writeDeletes(writer);
+            writeUpdates(writer);
+            writeInserts(writer);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(LogManager.getHeader(context, "update_metadata",
+                    "item_id=" + itemID + ",deleted=" + deletes.size()
+                            + ",updated=" + updateRows.size()
+                            + ",inserted=" + inserts.size()));
+        }
+
+        return true;
+    }
+
+    /**
+     * Group the in-memory values by field, keeping their order, and number
+     * their places.
+     */
+    private Map<Integer, List<Integer>> groupValues()
+    {
+        Map<Integer, List<Integer>> wanted = new LinkedHashMap<Integer, List<Integer>>();
+
+        for (int i = 0; i < dcValues.length; i++)
+        {
+            Integer fieldID = Integer.valueOf(fieldIDs[i]);
+            List<Integer> values = wanted.get(fieldID);
+            if (values == null)
+            {
+                values = new ArrayList<Integer>();
+                wanted.put(fieldID, values);
+            }
+            values.add(Integer.valueOf(i));
+            places[i] = values.size();
+        }
+
+        return wanted;
+    }
+
+    /**
+     * Read the stored rows of the item, grouped by field and in place order.
+     */
+    private Map<Integer, List<TableRow>> loadRows() throws SQLException
+    {
+        Map<Integer, List<TableRow>> stored = new LinkedHashMap<Integer, List<TableRow>>();
+
+        TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                "SELECT * FROM MetadataValue WHERE item_id= ? ORDER BY metadata_field_id, place",
+                itemID);
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Integer fieldID = Integer.valueOf(row.getIntColumn("metadata_field_id"));
+                List<TableRow> rows = stored.get(fieldID);
+                if (rows == null)
+                {
+                    rows = new ArrayList<TableRow>();
+                    stored.put(fieldID, rows);
+                }
+                rows.add(row);
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Work out the changes needed for one field.
+     */
+    private void diff(List<Integer> values, List<TableRow> rows)
+    {
+        int common = Math.min(values.size(), rows.size());
+
+        for (int n = 0; n < common; n++)
+        {
+            int i = values.get(n).intValue();
+            TableRow row = rows.get(n);
+
+            if (!isStored(dcValues[i], places[i], row))
+            {
+                updateRows.add(row);
+                updateValues.add(Integer.valueOf(i));
+            }
+        }
+
+        for (int n = common; n < rows.size(); n++)
+        {
+            deletes.add(rows.get(n));
+        }
+
+        for (int n = common; n < values.size(); n++)
+        {
+            inserts.add(values.get(n));
+        }
+    }
+
+    /**
+     * @return true if the row already holds the value at the given place
+     */
+    private static boolean isStored(DCValue dcv, int place, TableRow row)
+    {
+        return place == row.getIntColumn("place")
+                && equal(dcv.value, row.getStringColumn("text_value"))
+                && equal(dcv.language, row.getStringColumn("text_lang"))
+                && equal(dcv.authority, row.getStringColumn("authority"))
+                && dcv.confidence == row.getIntColumn("confidence");
+    }
+
+    private static boolean equal(String a, String b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private void writeDeletes(BatchWriter writer) throws SQLException
+    {
+        for (TableRow row : deletes)
+        {
+            writer.delete(row);
+        }
+    }
+
+    private void writeUpdates(BatchWriter writer) throws SQLException
+    {
+        for (int n = 0; n < updateRows.size(); n++)
+        {
+            int i = updateValues.get(n).intValue();
+            TableRow row = updateRows.get(n);
+
+            setValue(row, dcValues[i], places[i]);
+            writer.update(row);
+        }
+    }
+
+    private void writeInserts(BatchWriter writer) throws SQLException
+    {
+        for (Integer index : inserts)
+        {
+            int i = index.intValue();
+            TableRow row = DatabaseManager.row("MetadataValue");
+
+            row.setColumn("item_id", itemID);
+            row.setColumn("metadata_field_id", fieldIDs[i]);
+            setValue(row, dcValues[i], places[i]);
+            writer.insert(row);
+        }
+    }
+
+    private static void setValue(TableRow row, DCValue dcv, int place)
+    {
+        row.setColumn("text_value", dcv.value);
+        row.setColumn("text_lang", dcv.language);
+        row.setColumn("place", place);
+        row.setColumn("authority", dcv.authority);
+        row.setColumn("confidence", dcv.confidence);
+    }
+}
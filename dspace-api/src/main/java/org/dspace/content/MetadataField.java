@@ -616,6 +616,7 @@ public class MetadataField
     private static void decache()
     {
         id2field = null;
+        ItemMetadata.clearFields();
     }
 
     private static boolean isCacheInitialized()
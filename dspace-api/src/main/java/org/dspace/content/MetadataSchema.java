@@ -564,6 +564,7 @@ public class MetadataSchema
     {
         id2schema = null;
         name2schema = null;
+        ItemMetadata.clearFields();
     }
 
     private static boolean isCacheInitialized()
@@ -18,8 +18,10 @@ import java.util.Map;
 import java.util.Stack;
 
 import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizationCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
+import org.dspace.eperson.GroupMembershipCache;
 import org.dspace.event.Dispatcher;
 import org.dspace.event.Event;
 import org.dspace.event.EventManager;
@@ -76,6 +78,12 @@ public class Context
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
+    /** Authorization decisions made in this context */
+    private AuthorizationCache authorizationCache;
+
+    /** Whether group memberships were changed in the current transaction */
+    private boolean groupMembershipChanged = false;
+
     /** Content events */
     private List<Event> events = null;
 
@@ -102,6 +110,7 @@ public class Context
 
         objectCache = new HashMap<String, Object>();
         specialGroups = new ArrayList<Integer>();
+        authorizationCache = new AuthorizationCache();
 
         authStateChangeHistory = new Stack<Boolean>();
         authStateClassCallHistory = new Stack<String>();
@@ -340,9 +349,16 @@ public class Context
                 connection.commit();
             }
 
+            // memberships resolved by other contexts before this commit
+            // may not reflect the change
+            if (groupMembershipChanged)
+            {
+                GroupMembershipCache.invalidate();
+            }
         }
         finally
         {
+            groupMembershipChanged = false;
             events = null;
             if (dispatcher != null)
             {
@@ -432,6 +448,14 @@ public class Context
             connection = null;
             events = null;
             clearCache();
+
+            // memberships resolved meanwhile may reflect the rolled back
+            // change
+            if (groupMembershipChanged)
+            {
+                groupMembershipChanged = false;
+                GroupMembershipCache.invalidate();
+            }
         }
     }
 
@@ -501,6 +525,7 @@ public class Context
     public void clearCache()
     {
         objectCache.clear();
+        authorizationCache.clear();
     }
 
     /**
@@ -519,6 +544,17 @@ public class Context
         return objectCache.size();
     }
 
+    /**
+     * Get the cache of authorization decisions made in this context. Code
+     * which changes resource policies or group memberships must clear it.
+     * 
+     * @return the authorization decision cache
+     */
+    public AuthorizationCache getAuthorizationCache()
+    {
+        return authorizationCache;
+    }
+
     /**
      * set membership in a special group
      * 
@@ -529,6 +565,9 @@ public class Context
     {
         specialGroups.add(Integer.valueOf(groupID));
 
+        // decisions made without this group may no longer hold
+        authorizationCache.clear();
+
         // System.out.println("Added " + groupID);
     }
 
@@ -550,6 +589,45 @@ public class Context
         return false;
     }
 
+    /**
+     * gets the IDs of all of the special groups that current user is a member
+     * of
+     * 
+     * @return array of special group IDs
+     */
+    public int[] getSpecialGroupIDs()
+    {
+        int[] groupIDs = new int[specialGroups.size()];
+        for (int i = 0; i < groupIDs.length; i++)
+        {
+            groupIDs[i] = specialGroups.get(i).intValue();
+        }
+
+        return groupIDs;
+    }
+
+    /**
+     * Record that group memberships have been changed using this context, so
+     * that memberships cached by other contexts are discarded once the change
+     * is committed. Also forgets authorization decisions already made in this
+     * context.
+     */
+    public void setGroupMembershipChanged()
+    {
+        groupMembershipChanged = true;
+        authorizationCache.clear();
+        GroupMembershipCache.invalidate();
+    }
+
+    /**
+     * @return <code>true</code> if group memberships have been changed using
+     *         this context, and the change is not committed yet
+     */
+    public boolean isGroupMembershipChanged()
+    {
+        return groupMembershipChanged;
+    }
+
     /**
      * gets an array of all of the special groups that current user is a member
      * of
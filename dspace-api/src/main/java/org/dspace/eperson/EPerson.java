@@ -577,6 +577,7 @@ public class EPerson extends DSpaceObject
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_id= ? ",
                 getID());
+        myContext.setGroupMembershipChanged();
 
         // Remove any subscriptions
         DatabaseManager.updateQuery(myContext,
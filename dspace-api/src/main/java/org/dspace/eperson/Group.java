@@ -9,11 +9,9 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
@@ -416,108 +414,9 @@ public class Group extends DSpaceObject
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = new HashSet<Integer>();
-        
-        if (e != null)
-        {
-            // two queries - first to get groups eperson is a member of
-            // second query gets parent groups for groups eperson is a member of
-
-            TableRowIterator tri = DatabaseManager.queryTable(c,
-                    "epersongroup2eperson",
-                    "SELECT * FROM epersongroup2eperson WHERE eperson_id= ?", e
-                            .getID());
-
-            try
-            {
-                while (tri.hasNext())
-                {
-                    TableRow row = tri.next();
-
-                    int childID = row.getIntColumn("eperson_group_id");
-
-                    groupIDs.add(Integer.valueOf(childID));
-                }
-            }
-            finally
-            {
-                // close the TableRowIterator to free up resources
-                if (tri != null)
-                {
-                    tri.close();
-                }
-            }
-        }
-        // Also need to get all "Special Groups" user is a member of!
-        // Otherwise, you're ignoring the user's membership to these groups!
-        // However, we only do this is we are looking up the special groups
-        // of the current user, as we cannot look up the special groups
-        // of a user who is not logged in.
-        if ((c.getCurrentUser() == null) || (((c.getCurrentUser() != null) && (c.getCurrentUser().getID() == e.getID()))))
-        {
-            Group[] specialGroups = c.getSpecialGroups();
-            for(Group special : specialGroups)
-            {
-                groupIDs.add(Integer.valueOf(special.getID()));
-            }
-        }
-
-        // all the users are members of the anonymous group 
-        groupIDs.add(Integer.valueOf(0));
-        
-        // now we have all owning groups, also grab all parents of owning groups
-        // yes, I know this could have been done as one big query and a union,
-        // but doing the Oracle port taught me to keep to simple SQL!
-
-        StringBuilder groupQuery = new StringBuilder();
-        groupQuery.append("SELECT * FROM group2groupcache WHERE ");
-
-        Iterator<Integer> i = groupIDs.iterator();
-
-        // Build a list of query parameters
-        Object[] parameters = new Object[groupIDs.size()];
-        int idx = 0;
-        while (i.hasNext())
-        {
-            int groupID = (i.next()).intValue();
-
-            parameters[idx++] = Integer.valueOf(groupID);
-            
-            groupQuery.append("child_id= ? ");
-            if (i.hasNext())
-            {
-                groupQuery.append(" OR ");
-            }
-        }
-
-        // was member of at least one group
-        // NOTE: even through the query is built dynamically, all data is
-        // separated into the parameters array.
-        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
-                groupQuery.toString(),
-                parameters);
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = tri.next();
-
-                int parentID = row.getIntColumn("parent_id");
-
-                groupIDs.add(Integer.valueOf(parentID));
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        return groupIDs;
+        // resolved once per context, and shared between contexts until
+        // group memberships change
+        return GroupMembershipCache.getMembership(c, e).toSet();
     }
     
     
@@ -660,9 +559,7 @@ public class Group extends DSpaceObject
     private static boolean epersonInGroup(Context c, int groupID, EPerson e)
             throws SQLException
     {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
-
-        return groupIDs.contains(Integer.valueOf(groupID));
+        return GroupMembershipCache.getMembership(c, e).contains(groupID);
     }
 
     /**
@@ -1006,15 +903,9 @@ public class Group extends DSpaceObject
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
                 getID());
 
-        // remove any group2groupcache entries
-        DatabaseManager.updateQuery(myContext,
-                "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
-                getID(),getID());
-
-        // Now remove any group2group assignments
-        DatabaseManager.updateQuery(myContext,
-                "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
-                getID(),getID());
+        // remove any group2group assignments and group2groupcache entries,
+        // and update the group cache of our former parents
+        Group2GroupCache.remove(myContext, getID());
 
         // don't forget the new table
         deleteEpersonGroup2WorkspaceItem();
@@ -1023,6 +914,7 @@ public class Group extends DSpaceObject
         DatabaseManager.delete(myContext, myRow);
 
         epeople.clear();
+        myContext.setGroupMembershipChanged();
 
         log.info(LogManager.getHeader(myContext, "delete_group", "group_id="
                 + getID()));
@@ -1130,6 +1022,7 @@ public class Group extends DSpaceObject
             }
 
             epeopleChanged = false;
+            myContext.setGroupMembershipChanged();
         }
 
         // Redo Group mappings if they've changed
@@ -1153,10 +1046,12 @@ public class Group extends DSpaceObject
                 DatabaseManager.insert(myContext, mappingRow);
             }
 
-            // groups changed, now change group cache
-            rethinkGroupCache();
+            // groups changed, now bring this group and its ancestors up to
+            // date in the group cache
+            Group2GroupCache.update(myContext, getID());
 
             groupsChanged = false;
+            myContext.setGroupMembershipChanged();
         }
 
         log.info(LogManager.getHeader(myContext, "update_group", "group_id="
@@ -1212,127 +1107,6 @@ public class Group extends DSpaceObject
         return null;
     }
 
-    /**
-     * Regenerate the group cache AKA the group2groupcache table in the database -
-     * meant to be called when a group is added or removed from another group
-     * 
-     */
-    private void rethinkGroupCache() throws SQLException
-    {
-        // read in the group2group table
-        TableRowIterator tri = DatabaseManager.queryTable(myContext, "group2group",
-                "SELECT * FROM group2group");
-
-        Map<Integer,Set<Integer>> parents = new HashMap<Integer,Set<Integer>>();
-
-        try
-        {
-            while (tri.hasNext())
-            {
-                TableRow row = (TableRow) tri.next();
-
-                Integer parentID = Integer.valueOf(row.getIntColumn("parent_id"));
-                Integer childID = Integer.valueOf(row.getIntColumn("child_id"));
-
-                // if parent doesn't have an entry, create one
-                if (!parents.containsKey(parentID))
-                {
-                    Set<Integer> children = new HashSet<Integer>();
-
-                    // add child id to the list
-                    children.add(childID);
-                    parents.put(parentID, children);
-                }
-                else
-                {
-                    // parent has an entry, now add the child to the parent's record
-                    // of children
-                    Set<Integer> children =  parents.get(parentID);
-                    children.add(childID);
-                }
-            }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
-            {
-                tri.close();
-            }
-        }
-
-        // now parents is a hash of all of the IDs of groups that are parents
-        // and each hash entry is a hash of all of the IDs of children of those
-        // parent groups
-        // so now to establish all parent,child relationships we can iterate
-        // through the parents hash
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            Set<Integer> myChildren = getChildren(parents, parent.getKey());
-            parent.getValue().addAll(myChildren);
-        }
-
-        // empty out group2groupcache table
-        DatabaseManager.updateQuery(myContext,
-                "DELETE FROM group2groupcache WHERE id >= 0");
-
-        // write out new one
-        for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
-        {
-            int parentID = parent.getKey().intValue();
-
-            for (Integer child : parent.getValue())
-            {
-                TableRow row = DatabaseManager.row("group2groupcache");
-
-                row.setColumn("parent_id", parentID);
-                row.setColumn("child_id", child);
-
-                DatabaseManager.insert(myContext, row);
-            }
-        }
-    }
-
-    /**
-     * Used recursively to generate a map of ALL of the children of the given
-     * parent
-     * 
-     * @param parents
-     *            Map of parent,child relationships
-     * @param parent
-     *            the parent you're interested in
-     * @return Map whose keys are all of the children of a parent
-     */
-    private Set<Integer> getChildren(Map<Integer,Set<Integer>> parents, Integer parent)
-    {
-        Set<Integer> myChildren = new HashSet<Integer>();
-
-        // degenerate case, this parent has no children
-        if (!parents.containsKey(parent))
-        {
-            return myChildren;
-        }
-
-        // got this far, so we must have children
-        Set<Integer> children =  parents.get(parent);
-
-        // now iterate over all of the children
-        Iterator<Integer> i = children.iterator();
-
-        while (i.hasNext())
-        {
-            Integer childID = i.next();
-
-            // add this child's ID to our return set
-            myChildren.add(childID);
-
-            // and now its children
-            myChildren.addAll(getChildren(parents, childID));
-        }
-
-        return myChildren;
-    }
-    
     public DSpaceObject getParentObject() throws SQLException
     {
         // could a collection/community administrator manage related groups?
@@ -0,0 +1,620 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.core.LogManager;
+import org.dspace.storage.rdbms.BatchWriter;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Maintains the group2groupcache table, the 'unwound' (transitive) form of
+ * the group2group table: it names every (ancestor, descendant) pair of
+ * groups.
+ * <p>
+ * When the subgroups of a group change, only the descendant sets of that
+ * group and of its ancestors can change. {@link #update(Context, int[])}
+ * recomputes just those sets, walking group2group downwards from the
+ * affected groups, and writes the difference with the stored rows instead of
+ * emptying and refilling the whole table.
+ * <p>
+ * Run as a command line tool it verifies the table against a full rebuild
+ * from group2group, and optionally repairs it.
+ *
+ * @version $Revision$
+ */
+public class Group2GroupCache
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(Group2GroupCache.class);
+
+    /** Maximum number of parameters in a single IN clause */
+    private static final int MAX_IN_PARAMETERS = 500;
+
+    /** Not instantiable */
+    private Group2GroupCache()
+    {
+    }
+
+    /**
+     * Bring group2groupcache up to date after the subgroups of the given
+     * groups have been changed in group2group.
+     *
+     * @param c
+     *            current context
+     * @param groupIDs
+     *            IDs of the groups whose subgroups changed
+     * @throws SQLException
+     */
+    public static void update(Context c, int... groupIDs) throws SQLException
+    {
+        if (groupIDs.length == 0)
+        {
+            return;
+        }
+
+        // the groups themselves and all their ancestors are affected; the
+        // ancestors of a group do not depend on its own subgroups
+        Set<Integer> affected = new HashSet<Integer>();
+        for (int groupID : groupIDs)
+        {
+            affected.add(Integer.valueOf(groupID));
+        }
+        affected.addAll(selectIDs(c, "SELECT parent_id AS id FROM group2groupcache WHERE child_id",
+                affected));
+
+        Map<Integer, Set<Integer>> children = loadChildren(c, affected);
+        Map<Integer, Set<Integer>> wanted = new HashMap<Integer, Set<Integer>>();
+        Map<Integer, Set<Integer>> memo = new HashMap<Integer, Set<Integer>>();
+        for (Integer parent : affected)
+        {
+            wanted.put(parent, descendants(children, parent, memo));
+        }
+
+        Map<Integer, Set<Integer>> current = loadCache(c, affected);
+
+        int changes = apply(c, affected, current, wanted);
+
+        log.debug(LogManager.getHeader(c, "update_group2groupcache",
+                "affected_groups=" + affected.size() + ",changes=" + changes));
+    }
+
+    /**
+     * Forget a group which is about to be deleted: its rows are removed from
+     * group2group and group2groupcache, and the descendant sets of its former
+     * ancestors are recomputed.
+     *
+     * @param c
+     *            current context
+     * @param groupID
+     *            ID of the group being deleted
+     * @throws SQLException
+     */
+    public static void remove(Context c, int groupID) throws SQLException
+    {
+        Set<Integer> ancestors = selectIDs(c,
+                "SELECT parent_id AS id FROM group2groupcache WHERE child_id",
+                Collections.singleton(Integer.valueOf(groupID)));
+        ancestors.remove(Integer.valueOf(groupID));
+
+        DatabaseManager.updateQuery(c,
+                "DELETE FROM group2groupcache WHERE parent_id= ? OR child_id= ? ",
+                groupID, groupID);
+
+        DatabaseManager.updateQuery(c,
+                "DELETE FROM group2group WHERE parent_id= ? OR child_id= ? ",
+                groupID, groupID);
+
+        if (!ancestors.isEmpty())
+        {
+            int[] ids = new int[ancestors.size()];
+            int i = 0;
+            for (Integer ancestor : ancestors)
+            {
+                ids[i++] = ancestor.intValue();
+            }
+            update(c, ids);
+        }
+    }
+
+    /**
+     * Rebuild the whole of group2groupcache from group2group, writing only the
+     * rows which differ.
+     *
+     * @param c
+     *            current context
+     * @return the number of rows inserted or deleted
+     * @throws SQLException
+     */
+    public static int rebuild(Context c) throws SQLException
+    {
+        Map<Integer, Set<Integer>> wanted = computeClosure(c);
+        Map<Integer, Set<Integer>> current = loadCache(c, null);
+
+        Set<Integer> parents = new HashSet<Integer>(wanted.keySet());
+        parents.addAll(current.keySet());
+
+        return apply(c, parents, current, wanted);
+    }
+
+    /**
+     * Compute the full transitive closure of group2group.
+     *
+     * @param c
+     *            current context
+     * @return map from each parent group ID to the IDs of all its descendants
+     * @throws SQLException
+     */
+    public static Map<Integer, Set<Integer>> computeClosure(Context c)
+            throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+
+        TableRowIterator tri = DatabaseManager.queryTable(c, "group2group",
+                "SELECT * FROM group2group");
+
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                addPair(children, row.getIntColumn("parent_id"), row.getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        Map<Integer, Set<Integer>> closure = new HashMap<Integer, Set<Integer>>();
+        Map<Integer, Set<Integer>> memo = new HashMap<Integer, Set<Integer>>();
+        for (Integer parent : children.keySet())
+        {
+            closure.put(parent, descendants(children, parent, memo));
+        }
+
+        return closure;
+    }
+
+    /**
+     * Load the stored group2groupcache rows.
+     *
+     * @param c
+     *            current context
+     * @param parents
+     *            parent IDs to load rows for, or <code>null</code> for all
+     * @return map from parent group ID to the IDs of its stored descendants
+     * @throws SQLException
+     */
+    static Map<Integer, Set<Integer>> loadCache(Context c, Collection<Integer> parents)
+            throws SQLException
+    {
+        Map<Integer, Set<Integer>> cache = new HashMap<Integer, Set<Integer>>();
+
+        if (parents == null)
+        {
+            loadPairs(c, "SELECT * FROM group2groupcache", new Object[0], cache);
+        }
+        else
+        {
+            for (Object[] chunk : chunks(parents))
+            {
+                loadPairs(c, "SELECT * FROM group2groupcache WHERE parent_id IN ("
+                        + placeholders(chunk.length) + ")", chunk, cache);
+            }
+        }
+
+        return cache;
+    }
+
+    /**
+     * Load the group2group rows reachable downwards from the given groups,
+     * one query per level of the hierarchy.
+     */
+    private static Map<Integer, Set<Integer>> loadChildren(Context c, Set<Integer> groupIDs)
+            throws SQLException
+    {
+        Map<Integer, Set<Integer>> children = new HashMap<Integer, Set<Integer>>();
+        Set<Integer> visited = new HashSet<Integer>(groupIDs);
+        Set<Integer> frontier = new HashSet<Integer>(groupIDs);
+
+        while (!frontier.isEmpty())
+        {
+            Map<Integer, Set<Integer>> level = new HashMap<Integer, Set<Integer>>();
+            for (Object[] chunk : chunks(frontier))
+            {
+                TableRowIterator tri = DatabaseManager.queryTable(c, "group2group",
+                        "SELECT * FROM group2group WHERE parent_id IN ("
+                                + placeholders(chunk.length) + ")", chunk);
+                loadPairs(tri, level);
+            }
+            children.putAll(level);
+
+            frontier = new HashSet<Integer>();
+            for (Set<Integer> childIDs : level.values())
+            {
+                for (Integer childID : childIDs)
+                {
+                    if (visited.add(childID))
+                    {
+                        frontier.add(childID);
+                    }
+                }
+            }
+        }
+
+        return children;
+    }
+
+    /**
+     * All descendants of a group, memoized across calls. Cycles in
+     * group2group are tolerated: a group on a cycle is its own descendant.
+     */
+    private static Set<Integer> descendants(Map<Integer, Set<Integer>> children,
+            Integer parent, Map<Integer, Set<Integer>> memo)
+    {
+        Set<Integer> result = memo.get(parent);
+        if (result != null)
+        {
+            return result;
+        }
+
+        result = new HashSet<Integer>();
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(parent);
+
+        while (!queue.isEmpty())
+        {
+            Set<Integer> childIDs = children.get(queue.removeFirst());
+            if (childIDs == null)
+            {
+                continue;
+            }
+
+            for (Integer childID : childIDs)
+            {
+                if (!result.add(childID))
+                {
+                    continue;
+                }
+
+                // descendants already worked out don't need walking again
+                Set<Integer> known = memo.get(childID);
+                if (known != null)
+                {
+                    result.addAll(known);
+                }
+                else
+                {
+                    queue.add(childID);
+                }
+            }
+        }
+
+        memo.put(parent, result);
+
+        return result;
+    }
+
+    /**
+     * Write the difference between the stored and the wanted descendant sets
+     * of the given parents: deletes as one JDBC batch, then inserts in
+     * batches with preallocated IDs.
+     *
+     * @return the number of rows inserted or deleted
+     */
+    private static int apply(Context c, Set<Integer> parents,
+            Map<Integer, Set<Integer>> current, Map<Integer, Set<Integer>> wanted)
+            throws SQLException
+    {
+        List<int[]> deletes = new ArrayList<int[]>();
+        List<int[]> inserts = new ArrayList<int[]>();
+        diff(parents, current, wanted, deletes, inserts);
+
+        if (!deletes.isEmpty())
+        {
+            PreparedStatement statement = null;
+            try
+            {
+                statement = c.getDBConnection().prepareStatement(
+                        "DELETE FROM group2groupcache WHERE parent_id= ? AND child_id= ? ");
+                for (int[] pair : deletes)
+                {
+                    statement.setInt(1, pair[0]);
+                    statement.setInt(2, pair[1]);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            finally
+            {
+                if (statement != null)
+                {
+                    try
+                    {
+                        statement.close();
+                    }
+                    catch (SQLException sqle)
+                    {
+                        log.error("SQL delete Error - ", sqle);
+                    }
+                }
+            }
+        }
+
+        if (!inserts.isEmpty())
+        {
+            BatchWriter writer = DatabaseManager.batch(c, "group2groupcache");
+            try
+            {
+                for (int[] pair : inserts)
+                {
+                    TableRow row = DatabaseManager.row("group2groupcache");
+
+                    row.setColumn("parent_id", pair[0]);
+                    row.setColumn("child_id", pair[1]);
+
+                    writer.insert(row);
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+
+        return deletes.size() + inserts.size();
+    }
+
+    /**
+     * Compare stored and wanted descendant sets, collecting the (parent,
+     * child) pairs to delete and to insert.
+     */
+    static void diff(Set<Integer> parents, Map<Integer, Set<Integer>> current,
+            Map<Integer, Set<Integer>> wanted, List<int[]> deletes, List<int[]> inserts)
+    {
+        Set<Integer> none = new HashSet<Integer>();
+
+        for (Integer parent : parents)
+        {
+            Set<Integer> have = current.containsKey(parent) ? current.get(parent) : none;
+            Set<Integer> want = wanted.containsKey(parent) ? wanted.get(parent) : none;
+
+            for (Integer child : have)
+            {
+                if (!want.contains(child))
+                {
+                    deletes.add(new int[] { parent.intValue(), child.intValue() });
+                }
+            }
+
+            for (Integer child : want)
+            {
+                if (!have.contains(child))
+                {
+                    inserts.add(new int[] { parent.intValue(), child.intValue() });
+                }
+            }
+        }
+    }
+
+    private static Set<Integer> selectIDs(Context c, String queryPrefix,
+            Collection<Integer> ids) throws SQLException
+    {
+        Set<Integer> result = new HashSet<Integer>();
+
+        for (Object[] chunk : chunks(ids))
+        {
+            TableRowIterator tri = DatabaseManager.query(c, queryPrefix + " IN ("
+                    + placeholders(chunk.length) + ")", chunk);
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    result.add(Integer.valueOf(tri.next().getIntColumn("id")));
+                }
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void loadPairs(Context c, String query, Object[] parameters,
+            Map<Integer, Set<Integer>> pairs) throws SQLException
+    {
+        loadPairs(DatabaseManager.queryTable(c, "group2groupcache", query, parameters), pairs);
+    }
+
+    private static void loadPairs(TableRowIterator tri, Map<Integer, Set<Integer>> pairs)
+            throws SQLException
+    {
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                addPair(pairs, row.getIntColumn("parent_id"), row.getIntColumn("child_id"));
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
+    private static void addPair(Map<Integer, Set<Integer>> pairs, int parentID, int childID)
+    {
+        Integer parent = Integer.valueOf(parentID);
+        Set<Integer> childIDs = pairs.get(parent);
+
+        if (childIDs == null)
+        {
+            childIDs = new HashSet<Integer>();
+            pairs.put(parent, childIDs);
+        }
+        childIDs.add(Integer.valueOf(childID));
+    }
+
+    private static List<Object[]> chunks(Collection<Integer> ids)
+    {
+        List<Object[]> chunks = new ArrayList<Object[]>();
+        List<Object> chunk = new ArrayList<Object>();
+
+        for (Integer id : ids)
+        {
+            chunk.add(id);
+            if (chunk.size() == MAX_IN_PARAMETERS)
+            {
+                chunks.add(chunk.toArray());
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+        {
+            chunks.add(chunk.toArray());
+        }
+
+        return chunks;
+    }
+
+    private static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Verify group2groupcache against a full rebuild from group2group, and
+     * optionally repair it.
+     *
+     * @param argv
+     *            command-line arguments
+     */
+    public static void main(String[] argv)
+    {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+
+        options.addOption("f", "fix", false, "repair the table if it differs from a full rebuild");
+        options.addOption("v", "verbose", false, "list every differing row");
+        options.addOption("h", "help", false, "help");
+
+        CommandLine line = null;
+        try
+        {
+            line = parser.parse(options, argv);
+        }
+        catch (ParseException e)
+        {
+            log.fatal(e);
+            System.exit(1);
+        }
+
+        if (line.hasOption('h'))
+        {
+            HelpFormatter myhelp = new HelpFormatter();
+            myhelp.printHelp("Group2GroupCache\n", options);
+            System.exit(0);
+        }
+
+        Context c = null;
+        try
+        {
+            c = new Context();
+
+            long start = System.currentTimeMillis();
+            Map<Integer, Set<Integer>> wanted = computeClosure(c);
+            Map<Integer, Set<Integer>> current = loadCache(c, null);
+
+            Set<Integer> parents = new HashSet<Integer>(wanted.keySet());
+            parents.addAll(current.keySet());
+
+            List<int[]> extra = new ArrayList<int[]>();
+            List<int[]> missing = new ArrayList<int[]>();
+            diff(parents, current, wanted, extra, missing);
+
+            if (line.hasOption('v'))
+            {
+                for (int[] pair : extra)
+                {
+                    System.out.println("extra: parent_id=" + pair[0] + " child_id=" + pair[1]);
+                }
+                for (int[] pair : missing)
+                {
+                    System.out.println("missing: parent_id=" + pair[0] + " child_id=" + pair[1]);
+                }
+            }
+
+            System.out.println("group2groupcache: " + extra.size() + " extra rows, "
+                    + missing.size() + " missing rows (checked in "
+                    + (System.currentTimeMillis() - start) + " ms)");
+
+            boolean consistent = extra.isEmpty() && missing.isEmpty();
+            if (!consistent && line.hasOption('f'))
+            {
+                apply(c, parents, current, wanted);
+                System.out.println("group2groupcache repaired");
+                consistent = true;
+            }
+
+            c.complete();
+            System.exit(consistent ? 0 : 1);
+        }
+        catch (SQLException e)
+        {
+            log.fatal("Caught exception:", e);
+            if (c != null && c.isValid())
+            {
+                c.abort();
+            }
+            System.exit(1);
+        }
+    }
+}
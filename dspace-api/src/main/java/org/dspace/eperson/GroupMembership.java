@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The complete, transitive set of groups an EPerson belongs to, held as a
+ * sorted array of group IDs so that membership tests neither touch the
+ * database nor allocate. Instances are immutable; they are created and
+ * validated by {@link GroupMembershipCache}.
+ *
+ * @version $Revision$
+ */
+public final class GroupMembership
+{
+    /** ID of the eperson, or -1 for an anonymous user */
+    private final int epersonID;
+
+    /** Sorted, duplicate-free group IDs */
+    private final int[] groupIDs;
+
+    /** Membership version this set was computed against */
+    private final long version;
+
+    /**
+     * Number of special groups of the context taken into account, or -1 if
+     * special groups were not included
+     */
+    private final int specialGroups;
+
+    /** Creation time, in milliseconds */
+    private final long created;
+
+    GroupMembership(int epersonID, int[] groupIDs, long version, int specialGroups)
+    {
+        this.epersonID = epersonID;
+        this.groupIDs = groupIDs;
+        this.version = version;
+        this.specialGroups = specialGroups;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the ID of the eperson, or -1 for an anonymous user
+     */
+    public int getEPersonID()
+    {
+        return epersonID;
+    }
+
+    /**
+     * Test whether the eperson is a member, directly or through subgroups, of
+     * the given group.
+     *
+     * @param groupID
+     *            ID of the group
+     * @return <code>true</code> if the eperson is a member
+     */
+    public boolean contains(int groupID)
+    {
+        return Arrays.binarySearch(groupIDs, groupID) >= 0;
+    }
+
+    /**
+     * @return a copy of the sorted group IDs
+     */
+    public int[] getGroupIDs()
+    {
+        return groupIDs.clone();
+    }
+
+    /**
+     * @return the group IDs as a new, modifiable Set
+     */
+    public Set<Integer> toSet()
+    {
+        Set<Integer> set = new HashSet<Integer>(groupIDs.length * 2);
+        for (int groupID : groupIDs)
+        {
+            set.add(Integer.valueOf(groupID));
+        }
+        return set;
+    }
+
+    /**
+     * @return the number of groups
+     */
+    public int size()
+    {
+        return groupIDs.length;
+    }
+
+    long getVersion()
+    {
+        return version;
+    }
+
+    int getSpecialGroups()
+    {
+        return specialGroups;
+    }
+
+    long getCreated()
+    {
+        return created;
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Resolves and caches the transitive group memberships of epeople.
+ * <p>
+ * A membership is resolved at most once per <code>Context</code> (it is kept
+ * in the context's object cache) and the database-derived part of it is also
+ * shared between contexts, in a bounded LRU map. Every change to group
+ * membership bumps a JVM-wide version number, which makes all previously
+ * resolved memberships stale. Since changes made by other processes (e.g.
+ * command line tools) cannot bump that version, shared entries also expire
+ * after a configurable age. A context that changed group membership and has
+ * not committed the change yet neither uses nor shares memberships, as its
+ * view of them is its own until the change is committed.
+ * <p>
+ * Configuration (dspace.cfg):
+ * <ul>
+ * <li><code>eperson.membership.cache.size</code> - number of epeople whose
+ * memberships are shared between requests (default 1000, 0 disables
+ * sharing)</li>
+ * <li><code>eperson.membership.cache.age</code> - maximum age in seconds of a
+ * shared membership (default 60)</li>
+ * </ul>
+ *
+ * @version $Revision$
+ */
+public class GroupMembershipCache
+{
+    /** Membership version, bumped on every membership change */
+    private static final AtomicLong version = new AtomicLong();
+
+    /** Maximum number of shared memberships */
+    private static final int maxSize = ConfigurationManager.getIntProperty(
+            "eperson.membership.cache.size", 1000);
+
+    /** Maximum age of a shared membership, in milliseconds */
+    private static final long maxAge = ConfigurationManager.getLongProperty(
+            "eperson.membership.cache.age", 60) * 1000;
+
+    /** Memberships shared between contexts, without special groups */
+    private static final Map<Integer, GroupMembership> shared = Collections
+            .synchronizedMap(new LinkedHashMap<Integer, GroupMembership>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, GroupMembership> eldest)
+                {
+                    return size() > maxSize;
+                }
+            });
+
+    /** Not instantiable */
+    private GroupMembershipCache()
+    {
+    }
+
+    /**
+     * Get all the groups an eperson is a member of, directly or through
+     * subgroups, including the anonymous group. If the eperson is the current
+     * user of the context (or is <code>null</code>, meaning anonymous), the
+     * special groups of the context and their parents are included too.
+     *
+     * @param c
+     *            current context
+     * @param e
+     *            eperson, or <code>null</code> for an anonymous user
+     * @return the eperson's group memberships
+     * @throws SQLException
+     */
+    public static GroupMembership getMembership(Context c, EPerson e)
+            throws SQLException
+    {
+        int epersonID = (e == null) ? -1 : e.getID();
+        EPerson currentUser = c.getCurrentUser();
+
+        // special groups belong to the current user of the context only
+        int[] specialGroupIDs = null;
+        if (e == null || currentUser == null || currentUser.getID() == e.getID())
+        {
+            specialGroupIDs = c.getSpecialGroupIDs();
+        }
+        int specialGroups = (specialGroupIDs == null) ? -1 : specialGroupIDs.length;
+
+        long currentVersion = version.get();
+
+        GroupMembership membership = (GroupMembership) c.fromCache(
+                GroupMembership.class, epersonID);
+
+        if (membership != null && membership.getVersion() == currentVersion
+                && membership.getSpecialGroups() == specialGroups)
+        {
+            return membership;
+        }
+
+        GroupMembership base = getSharedMembership(c, e, currentVersion);
+
+        if (specialGroupIDs != null && specialGroupIDs.length > 0)
+        {
+            int[] withSpecial = union(base.getGroupIDs(), specialGroupIDs);
+            withSpecial = union(withSpecial, getParentGroupIDs(c, specialGroupIDs));
+            membership = new GroupMembership(epersonID, withSpecial,
+                    currentVersion, specialGroups);
+        }
+        else
+        {
+            membership = new GroupMembership(epersonID, base.getGroupIDs(),
+                    currentVersion, specialGroups);
+        }
+
+        c.cache(membership, epersonID);
+
+        return membership;
+    }
+
+    /**
+     * Make all resolved memberships stale. Called whenever group membership
+     * or group nesting changes, and again once such a change is committed.
+     */
+    public static void invalidate()
+    {
+        version.incrementAndGet();
+        shared.clear();
+    }
+
+    /**
+     * @return the current membership version
+     */
+    public static long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * @return whether memberships of an eperson are shared between contexts
+     */
+    static boolean isShared(EPerson e)
+    {
+        return shared.containsKey(Integer.valueOf(e.getID()));
+    }
+
+    /**
+     * Get the database-derived memberships of an eperson, from the shared
+     * map if possible.
+     */
+    private static GroupMembership getSharedMembership(Context c, EPerson e,
+            long currentVersion) throws SQLException
+    {
+        if (e == null)
+        {
+            // anonymous users are only members of the anonymous group
+            return new GroupMembership(-1, new int[] { 0 }, currentVersion, -1);
+        }
+
+        // uncommitted changes must neither be shared, nor hidden by the
+        // memberships of other contexts
+        boolean sharing = maxSize > 0 && !c.isGroupMembershipChanged();
+
+        Integer key = Integer.valueOf(e.getID());
+        GroupMembership membership = sharing ? shared.get(key) : null;
+
+        if (membership != null && membership.getVersion() == currentVersion
+                && System.currentTimeMillis() - membership.getCreated() < maxAge)
+        {
+            return membership;
+        }
+
+        membership = new GroupMembership(e.getID(), loadGroupIDs(c, e),
+                currentVersion, -1);
+
+        if (sharing)
+        {
+            shared.put(key, membership);
+        }
+
+        return membership;
+    }
+
+    /**
+     * Load the groups an eperson is a member of, plus all their parents and
+     * the anonymous group.
+     */
+    private static int[] loadGroupIDs(Context c, EPerson e) throws SQLException
+    {
+        // two queries - first to get groups eperson is a member of
+        // second query gets parent groups for groups eperson is a member of
+        int[] groupIDs = new int[16];
+        int count = 0;
+
+        // all the users are members of the anonymous group
+        groupIDs[count++] = 0;
+
+        TableRowIterator tri = DatabaseManager.queryTable(c,
+                "epersongroup2eperson",
+                "SELECT * FROM epersongroup2eperson WHERE eperson_id= ?",
+                e.getID());
+
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+
+                if (count == groupIDs.length)
+                {
+                    groupIDs = Arrays.copyOf(groupIDs, count * 2);
+                }
+                groupIDs[count++] = row.getIntColumn("eperson_group_id");
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        groupIDs = sort(groupIDs, count);
+
+        return union(groupIDs, getParentGroupIDs(c, groupIDs));
+    }
+
+    /**
+     * Get all the ancestors of the given groups from the group2groupcache
+     * table.
+     */
+    private static int[] getParentGroupIDs(Context c, int[] groupIDs)
+            throws SQLException
+    {
+        StringBuilder groupQuery = new StringBuilder();
+        groupQuery.append("SELECT * FROM group2groupcache WHERE ");
+
+        // Build a list of query parameters
+        Object[] parameters = new Object[groupIDs.length];
+        for (int i = 0; i < groupIDs.length; i++)
+        {
+            parameters[i] = Integer.valueOf(groupIDs[i]);
+
+            if (i > 0)
+            {
+                groupQuery.append(" OR ");
+            }
+            groupQuery.append("child_id= ? ");
+        }
+
+        // NOTE: even through the query is built dynamically, all data is
+        // separated into the parameters array.
+        TableRowIterator tri = DatabaseManager.queryTable(c, "group2groupcache",
+                groupQuery.toString(), parameters);
+
+        int[] parentIDs = new int[16];
+        int count = 0;
+
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+
+                if (count == parentIDs.length)
+                {
+                    parentIDs = Arrays.copyOf(parentIDs, count * 2);
+                }
+                parentIDs[count++] = row.getIntColumn("parent_id");
+            }
+        }
+        finally
+        {
+            // close the TableRowIterator to free up resources
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+
+        return sort(parentIDs, count);
+    }
+
+    /**
+     * Sort the first <code>count</code> IDs and remove duplicates.
+     */
+    private static int[] sort(int[] ids, int count)
+    {
+        int[] sorted = Arrays.copyOf(ids, count);
+        Arrays.sort(sorted);
+
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++)
+        {
+            if (unique == 0 || sorted[unique - 1] != sorted[i])
+            {
+                sorted[unique++] = sorted[i];
+            }
+        }
+
+        return (unique == sorted.length) ? sorted : Arrays.copyOf(sorted, unique);
+    }
+
+    /**
+     * Merge two sets of IDs into a sorted, duplicate-free array.
+     */
+    private static int[] union(int[] a, int[] b)
+    {
+        int[] merged = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+
+        return sort(merged, merged.length);
+    }
+}
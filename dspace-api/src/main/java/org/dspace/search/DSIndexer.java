@@ -19,9 +19,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Locale;
-import java.util.Map;
 import java.util.TimeZone;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
@@ -43,6 +41,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -95,11 +94,16 @@ public class DSIndexer
 
     private static final long WRITE_LOCK_TIMEOUT = 30000 /* 30 sec */;
 
-    private static Thread delayedIndexFlusher = null;
+    /** Milliseconds a queued change waits at most, when search.index.delay is not set */
+    private static final long DEFAULT_INDEX_DELAY = 1000;
+
     private static int indexFlushDelay = ConfigurationManager.getIntProperty("search.index.delay", -1);
 
     private static int batchFlushAfterDocuments = ConfigurationManager.getIntProperty("search.batch.documents", 20);
     private static boolean batchProcessingMode = false;
+
+    /** The IndexWriter shared by this process, see getWriterManager() */
+    private static IndexWriterManager writerManager = null;
     
     // Class to hold the index configuration (one instance per config line)
     private static class IndexConfig
@@ -362,11 +366,49 @@ public class DSIndexer
     {
 
     	/* Create a new index, blowing away the old. */
-        openIndex(true).close();
+        getWriterManager().recreate();
         
         /* Reindex all content preemptively. */
         DSIndexer.updateIndex(c, true);
     }
+
+    /**
+     * create full index - replacing old index - building the documents of the
+     * items on several threads, each with its own Context and IndexWriter.
+     * The old index stays searchable until the new one replaces it.
+     *
+     * @param c context to use
+     * @param threads number of threads, 1 to build on this thread
+     */
+    public static void createIndex(Context c, int threads) throws SQLException, IOException
+    {
+        if (threads <= 1)
+        {
+            createIndex(c);
+            return;
+        }
+
+        IndexWriterManager manager = getWriterManager();
+
+        ParallelIndexBuilder builder = new ParallelIndexBuilder(new File(indexDirectory), threads);
+        try
+        {
+            manager.replace(builder.build(c));
+        }
+        finally
+        {
+            builder.cleanup();
+        }
+
+        try
+        {
+            optimizeIndex(c);
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
     
     /**
      * Optimize the existing index. Important to do regularly to reduce 
@@ -378,17 +420,7 @@ public class DSIndexer
      */
     public static void optimizeIndex(Context c) throws SQLException, IOException
     {
-        IndexWriter writer = openIndex(false);
-
-        try
-        {
-            flushIndexingTaskQueue(writer);
-            writer.optimize();
-        }
-        finally
-        {
-            writer.close();
-        }
+        getWriterManager().optimize();
     }
 
     /**
@@ -406,10 +438,14 @@ public class DSIndexer
         try
         {
             setBatchProcessingMode(true);
+
+            // keep the index write lock from the web applications until done
+            getWriterManager().requestHandoff();
+
             Context context = new Context();
             context.setIgnoreAuthorization(true);
 
-            String usage = "org.dspace.search.DSIndexer [-cbhof[r <item handle>]] or nothing to update/clean an existing index.";
+            String usage = "org.dspace.search.DSIndexer [-cbhof[r <item handle>][t <threads>]] or nothing to update/clean an existing index.";
             Options options = new Options();
             HelpFormatter formatter = new HelpFormatter();
             CommandLine line = null;
@@ -440,6 +476,13 @@ public class DSIndexer
                                     "if updating existing index, force each handle to be reindexed even if uptodate")
                             .create("f"));
 
+            options.addOption(OptionBuilder
+                            .withArgName("threads")
+                            .hasArg(true)
+                            .withDescription(
+                                    "with -b, number of threads building the documents of the items")
+                            .create("t"));
+
             options.addOption(OptionBuilder.isRequired(false).withDescription(
                     "print this help message").create("h"));
 
@@ -461,6 +504,21 @@ public class DSIndexer
                 System.exit(1);
             }
 
+            int threads = 1;
+            if (line.hasOption("t"))
+            {
+                try
+                {
+                    threads = Integer.parseInt(line.getOptionValue("t"));
+                }
+                catch (NumberFormatException e)
+                {
+                    formatter.printHelp(usage, "Invalid number of threads: "
+                            + line.getOptionValue("t"), options, "");
+                    System.exit(1);
+                }
+            }
+
             if (line.hasOption("r"))
             {
                 log.info("Removing " + line.getOptionValue("r") + " from Index");
@@ -479,7 +537,7 @@ public class DSIndexer
             else if (line.hasOption("b"))
             {
                 log.info("(Re)building index from scratch.");
-                createIndex(context);
+                createIndex(context, threads);
             }
             else
             {
@@ -493,6 +551,7 @@ public class DSIndexer
         finally
         {
             setBatchProcessingMode(false);
+            closeIndexWriter();
             Date endTime = new Date();
             System.out.println("Started: " + startTime.getTime());
             System.out.println("Ended: " + endTime.getTime());
@@ -516,10 +575,9 @@ public class DSIndexer
      * them in the index. Uses decaching to control memory footprint.
      * Uses indexContent and isStale to check state of item in index.
      * 
-     * At first it may appear counterintuitive to have an IndexWriter/Reader
-     * opened and closed on each DSO. But this allows the UI processes
-     * to step in and attain a lock and write to the index even if other
-     * processes/jvms are running a reindex.
+     * The changes are committed in groups by the IndexWriter shared by this
+     * process. The other processes/jvms release the index lock to it when
+     * asked, and keep their changes queued until it is done.
      * 
      * @param context
      * @param force 
@@ -530,7 +588,7 @@ public class DSIndexer
                 ItemIterator items = null;
                 try
                 {
-                    for(items = Item.findAll(context);items.hasNext();)
+                    for(items = Item.findAllStreaming(context);items.hasNext();)
                     {
                         Item item = (Item) items.next();
                         indexContent(context, item);
@@ -545,17 +603,7 @@ public class DSIndexer
                     }
                 }
 
-                for (Collection collection : Collection.findAll(context))
-                {
-                    indexContent(context, collection);
-    	            context.removeCached(collection, collection.getID());
-                }
-
-                for (Community community : Community.findAll(context))
-    	        {
-                    indexContent(context, community);
-    	            context.removeCached(community, community.getID());
-    	        }
+                updateContainers(context);
 
     	        optimizeIndex(context);
     		}
@@ -565,6 +613,24 @@ public class DSIndexer
     		}
     }
     
+    /**
+     * Updates all Collections and Communities in the index.
+     */
+    private static void updateContainers(Context context) throws SQLException
+    {
+        for (Collection collection : Collection.findAll(context))
+        {
+            indexContent(context, collection);
+            context.removeCached(collection, collection.getID());
+        }
+
+        for (Community community : Community.findAll(context))
+        {
+            indexContent(context, community);
+            context.removeCached(community, community.getID());
+        }
+    }
+
     /**
      * Iterates over all documents in the Lucene index and verifies they 
      * are in database, if not, they are removed.
@@ -575,35 +641,44 @@ public class DSIndexer
      */
     public static void cleanIndex(Context context) throws IOException, SQLException {
 
-    	IndexReader reader = DSQuery.getIndexReader();
-    	
-    	for(int i = 0 ; i < reader.numDocs(); i++)
+    	// the searcher is not closed while in use, even if the index changes
+    	IndexSearcher searcher = DSQuery.acquireSearcher();
+    	try
     	{
-    		if(!reader.isDeleted(i))
-    		{
-    			Document doc = reader.document(i);
-        		String handle = doc.get("handle");
-                if (!StringUtils.isEmpty(handle))
-                {
-                    DSpaceObject o = HandleManager.resolveToObject(context, handle);
-
-                    if (o == null)
-                    {
-                        log.info("Deleting: " + handle);
-                        /* Use IndexWriter to delete, its easier to manage write.lock */
-                        DSIndexer.unIndexContent(context, handle);
-                    }
-                    else
+        	IndexReader reader = searcher.getIndexReader();
+    	
+        	for(int i = 0 ; i < reader.numDocs(); i++)
+        	{
+        		if(!reader.isDeleted(i))
+        		{
+        			Document doc = reader.document(i);
+            		String handle = doc.get("handle");
+                    if (!StringUtils.isEmpty(handle))
                     {
-                        context.removeCached(o, o.getID());
-                        log.debug("Keeping: " + handle);
+                        DSpaceObject o = HandleManager.resolveToObject(context, handle);
+
+                        if (o == null)
+                        {
+                            log.info("Deleting: " + handle);
+                            /* Use IndexWriter to delete, its easier to manage write.lock */
+                            DSIndexer.unIndexContent(context, handle);
+                        }
+                        else
+                        {
+                            context.removeCached(o, o.getID());
+                            log.debug("Keeping: " + handle);
+                        }
                     }
-                }
-    		}
-    		else
-    		{
-    			log.debug("Encountered deleted doc: " + i);
-    		}
+        		}
+        		else
+        		{
+        			log.debug("Encountered deleted doc: " + i);
+        		}
+        	}
+    	}
+    	finally
+    	{
+    		DSQuery.releaseSearcher(searcher);
     	}
 	}
     
@@ -691,46 +766,29 @@ public class DSIndexer
 
     static void processIndexingTask(IndexingTask task) throws IOException
     {
-        if (batchProcessingMode)
-        {
-            addToIndexingTaskQueue(task);
-        }
-        else if (indexFlushDelay > 0)
+        while (true)
         {
-            addToIndexingTaskQueue(task);
-            startDelayedIndexFlusher();
-        }
-        else
-        {
-            IndexWriter writer = null;
-            try
+            IndexWriterManager manager = getWriterManager();
+            boolean queued;
+            if (batchProcessingMode || indexFlushDelay > 0)
             {
-                writer = openIndex(false);
-                executeIndexingTask(writer, task);
+                queued = manager.queue(task);
             }
-            finally
+            else
             {
-                if (task.getDocument() != null)
-                {
-                    closeAllReaders(task.getDocument());
-                }
+                // committed together with the changes made meanwhile
+                queued = manager.commit(task);
+            }
 
-                if (writer != null)
-                {
-                    try
-                    {
-                        writer.close();
-                    }
-                    catch (IOException e)
-                    {
-                        log.error("Unable to close IndexWriter", e);
-                    }
-                }
+            if (queued)
+            {
+                return;
             }
+            // closed meanwhile, open a new manager
         }
     }
 
-    private static void executeIndexingTask(IndexWriter writer, IndexingTask action) throws IOException
+    static void executeIndexingTask(IndexWriter writer, IndexingTask action) throws IOException
     {
         if (action != null)
         {
@@ -752,81 +810,94 @@ public class DSIndexer
         }
     }
 
-    private static Map<String, IndexingTask> queuedTaskMap = new HashMap<String, IndexingTask>();
-
-    static synchronized void addToIndexingTaskQueue(IndexingTask action)
-    {
-        if (action != null)
-        {
-            queuedTaskMap.put(action.getTerm().text(), action);
-            if (queuedTaskMap.size() >= batchFlushAfterDocuments)
-            {
-                flushIndexingTaskQueue();
-            }
-        }
-    }
-
     static void flushIndexingTaskQueue()
     {
-        if (queuedTaskMap.size() > 0)
+        IndexWriterManager manager = writerManager;
+        if (manager != null)
         {
-            IndexWriter writer = null;
-
             try
             {
-                writer = openIndex(false);
-                flushIndexingTaskQueue(writer);
+                manager.flush();
             }
             catch (IOException e)
             {
                 log.error(e);
             }
-            finally
-            {
-                if (writer != null)
-                {
-                    try
-                    {
-                        writer.close();
-                    }
-                    catch (IOException ex)
-                    {
-                        log.error(ex);
-                    }
-                }
-            }
         }
     }
 
-    private static synchronized void flushIndexingTaskQueue(IndexWriter writer)
+    /**
+     * Commit the queued changes and close the IndexWriter of this process,
+     * releasing the index write lock. A new one is opened when needed.
+     */
+    public static synchronized void closeIndexWriter()
     {
-        for (IndexingTask action : queuedTaskMap.values())
+        if (writerManager != null)
         {
-            try
-            {
-                executeIndexingTask(writer, action);
-            }
-            catch (IOException e)
-            {
-                log.error(e);
-            }
-            finally
-            {
-                if (action.getDocument() != null)
-                {
-                    closeAllReaders(action.getDocument());
-                }
-            }
+            writerManager.close();
+            writerManager = null;
         }
+    }
+
+    /**
+     * @return the number of changes queued and not written to the index yet
+     */
+    public static int getQueuedTaskCount()
+    {
+        IndexWriterManager manager = writerManager;
+        return manager == null ? 0 : manager.getQueuedTaskCount();
+    }
+
+    /**
+     * @return the number of commits made to the index by this process
+     */
+    public static long getCommitCount()
+    {
+        IndexWriterManager manager = writerManager;
+        return manager == null ? 0 : manager.getCommitCount();
+    }
+
+    /**
+     * @return the number of changes committed to the index by this process
+     */
+    public static long getCommittedTaskCount()
+    {
+        IndexWriterManager manager = writerManager;
+        return manager == null ? 0 : manager.getCommittedTaskCount();
+    }
 
-        queuedTaskMap.clear();
+    /**
+     * @return the average time, in milliseconds, a commit takes
+     */
+    public static long getAverageCommitMillis()
+    {
+        IndexWriterManager manager = writerManager;
+        return manager == null ? 0 : manager.getAverageCommitMillis();
+    }
 
-        // We've flushed, so we don't need this thread
-        if (delayedIndexFlusher != null)
+    /**
+     * @return the time, in milliseconds, between the oldest change of the last
+     *         commit being queued and it being committed
+     */
+    public static long getLastCommitLatency()
+    {
+        IndexWriterManager manager = writerManager;
+        return manager == null ? 0 : manager.getLastCommitLatency();
+    }
+
+    /**
+     * Get the IndexWriterManager of this process, creating it if needed.
+     */
+    private static synchronized IndexWriterManager getWriterManager()
+    {
+        if (writerManager == null)
         {
-            delayedIndexFlusher.interrupt();
-            delayedIndexFlusher = null;
+            long delay = indexFlushDelay > 0 ? indexFlushDelay : DEFAULT_INDEX_DELAY;
+            long idle = ConfigurationManager.getIntProperty("search.writer.idle", 10) * 1000L;
+            writerManager = new IndexWriterManager(new File(indexDirectory),
+                    batchFlushAfterDocuments, delay, idle);
         }
+        return writerManager;
     }
 
     ////////////////////////////////////
@@ -883,23 +954,31 @@ public class DSIndexer
 		boolean reindexItem = false;
 		boolean inIndex = false;
 		
-		IndexReader ir = DSQuery.getIndexReader();
-		
-		TermDocs docs = ir.termDocs(t);
-						
-		while(docs.next())
+		IndexSearcher searcher = DSQuery.acquireSearcher();
+		try
 		{
-			inIndex = true;
-			int id = docs.doc();
-			Document doc = ir.document(id);
+			IndexReader ir = searcher.getIndexReader();
+
+			TermDocs docs = ir.termDocs(t);
 
-			Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
+			while(docs.next())
+			{
+				inIndex = true;
+				int id = docs.doc();
+				Document doc = ir.document(id);
 
-			if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
-					lastModified.getTime()) {
-				reindexItem = true;
+				Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
+
+				if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
+						lastModified.getTime()) {
+					reindexItem = true;
+				}
 			}
 		}
+		finally
+		{
+			DSQuery.releaseSearcher(searcher);
+		}
 
 		return reindexItem || !inIndex;
 	}
@@ -907,10 +986,20 @@ public class DSIndexer
     /**
      * prepare index, opening writer, and wiping out existing index if necessary
      */
-    private static IndexWriter openIndex(boolean wipeExisting)
+    static IndexWriter openIndex(boolean wipeExisting)
+            throws IOException
+    {
+        return openIndex(new File(indexDirectory), wipeExisting);
+    }
+
+    /**
+     * open a writer on an index directory, with the configuration of the
+     * search index
+     */
+    static IndexWriter openIndex(File directory, boolean wipeExisting)
             throws IOException
     {
-        Directory dir = FSDirectory.open(new File(indexDirectory));
+        Directory dir = FSDirectory.open(directory);
         IndexWriterConfig iwc = new IndexWriterConfig(Version.LUCENE_33, getAnalyzer());
         if(wipeExisting){
             iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
@@ -1308,7 +1397,7 @@ public class DSIndexer
         return doc;
     }
 
-    private static void closeAllReaders(Document doc)
+    static void closeAllReaders(Document doc)
     {
         if (doc != null)
         {
@@ -1398,35 +1487,4 @@ public class DSIndexer
         
         return null;
     }
-
-    private static synchronized void startDelayedIndexFlusher()
-    {
-        if (delayedIndexFlusher != null && !delayedIndexFlusher.isAlive())
-        {
-            delayedIndexFlusher = null;
-        }
-
-        if (delayedIndexFlusher == null && queuedTaskMap.size() > 0)
-        {
-            delayedIndexFlusher = new Thread(new DelayedIndexFlushThread());
-            delayedIndexFlusher.start();
-        }
-    }
-
-    private static class DelayedIndexFlushThread implements Runnable
-    {
-        @Override
-        public void run()
-        {
-            try
-            {
-                Thread.sleep(indexFlushDelay);
-                DSIndexer.flushIndexingTaskQueue();
-            }
-            catch (InterruptedException e)
-            {
-                log.debug(e);
-            }
-        }
-    }
 }
@@ -9,13 +9,13 @@ package org.dspace.search;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.TokenMgrError;
@@ -25,11 +25,11 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
+import org.dspace.content.Item;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
@@ -55,15 +55,13 @@ public class DSQuery
 
     static final String COMMUNITY = "" + Constants.COMMUNITY;
 
-    // cache a Lucene IndexSearcher for more efficient searches
-    private static IndexSearcher searcher = null;
+    // share Lucene IndexSearchers between searches, reopened as the index changes
+    private static volatile SearcherManager manager = null;
 
     private static String indexDir = null;
     
     private static String operator = null;
     
-    private static long lastModified;
-    
     /** log4j logger */
     private static Logger log = Logger.getLogger(DSQuery.class);
 
@@ -113,10 +111,10 @@ public class DSQuery
         querystring = stripHandles(querystring); // remove handles from query string
         querystring = stripAsterisk(querystring); // remove asterisk from beginning of string
 
+        // grab a searcher, and do the search
+        IndexSearcher searcher = acquireSearcher();
         try
         {
-            // grab a searcher, and do the search
-            IndexSearcher searcher = getSearcher(c);
 
             QueryParser qp = new QueryParser(Version.LUCENE_33, "default", DSIndexer.getAnalyzer());
             log.debug("Final query string: " + querystring);
@@ -178,6 +176,8 @@ public class DSQuery
                     hitHandles.add( handleText );
                     hitIds.add( resourceId == null ? null: Integer.parseInt(resourceId) );
                 }
+
+                preloadItems(c, hitIds, hitTypes);
             }
         }
         catch (NumberFormatException e)
@@ -202,10 +202,52 @@ public class DSQuery
             log.warn(LogManager.getHeader(c, "Query too broad", e.toString()));
             qr.setErrorMsg("query-too-broad");
         }
+        finally
+        {
+            releaseSearcher(searcher);
+        }
 
         return qr;
     }
 
+    /**
+     * Load the items in a page of results in bulk, so that displaying them
+     * does not cost several queries per item. The items end up in the
+     * context's cache.
+     */
+    private static void preloadItems(Context c, List<Integer> hitIds, List<Integer> hitTypes)
+    {
+        List<Integer> itemIds = new ArrayList<Integer>();
+        for (int i = 0; i < hitIds.size() && i < hitTypes.size(); i++)
+        {
+            if (hitIds.get(i) != null && hitTypes.get(i).intValue() == Constants.ITEM)
+            {
+                itemIds.add(hitIds.get(i));
+            }
+        }
+
+        if (itemIds.isEmpty())
+        {
+            return;
+        }
+
+        int[] ids = new int[itemIds.size()];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = itemIds.get(i).intValue();
+        }
+
+        try
+        {
+            Item.findAll(c, ids);
+        }
+        catch (SQLException e)
+        {
+            // not fatal, the items will be loaded one by one when displayed
+            log.warn(LogManager.getHeader(c, "preload_items", e.toString()));
+        }
+    }
+
     private static TopDocs performQuery(QueryArgs args, IndexSearcher searcher, Query myquery, int max) throws IOException {
         TopDocs hits;
         try
@@ -380,21 +422,15 @@ public class DSQuery
     }
 
     /**
-     * Close any IndexSearcher that is currently open.
+     * Close the IndexSearchers that are open, once the searches using them are
+     * done.
      */
     public static synchronized void close()
     {
-        if (searcher != null)
+        if (manager != null)
         {
-            try
-            {
-                searcher.close();
-                searcher = null;
-            }
-            catch (IOException ioe)
-            {
-                log.error("DSQuery: Unable to close open IndexSearcher", ioe);
-            }
+            manager.close();
+            manager = null;
         }
     }
     
@@ -406,81 +442,68 @@ public class DSQuery
         }
     }
 
-    /*---------  protected methods ----------*/
+    /*---------  package methods ----------*/
 
-    /**	
-     * get an IndexReader.
+    /**
+     * Get the current IndexSearcher, shared with other searches. It must be
+     * given back to {@link #releaseSearcher} once the search is done, and is
+     * not closed before then even if the index changes meanwhile.
      * @throws IOException 
      */
-    protected static IndexReader getIndexReader() 
-    	throws IOException
+    static IndexSearcher acquireSearcher()
+            throws IOException
     {
-    	return getSearcher(null).getIndexReader();
+        while (true)
+        {
+            IndexSearcher searcher = getManager().acquire();
+            if (searcher != null)
+            {
+                return searcher;
+            }
+            // closed meanwhile, open a new manager
+        }
     }
-    
+
     /**
-     * get an IndexSearcher, hopefully a cached one (gives much better
-     * performance.) checks to see if the index has been modified - if so, it
-     * creates a new IndexSearcher
+     * Give back an IndexSearcher got from {@link #acquireSearcher}.
      */
-    protected static synchronized IndexSearcher getSearcher(Context c)
-            throws IOException
+    static void releaseSearcher(IndexSearcher searcher)
     {
-       
-        // If we have already opened a searcher, check to see if the index has been updated
-        // If it has, we need to close the existing searcher - we will open a new one later
-
-        Directory searchDir = FSDirectory.open(new File(indexDir));
+        SearcherManager.release(searcher);
+    }
 
-        if (searcher != null && lastModified != IndexReader.getCurrentVersion(searchDir))
+    /**
+     * Make the searches see the changes written to the index. The
+     * IndexSearcher is reopened in the background, so this does not wait for
+     * it; searches use the previous one until the new one is ready.
+     */
+    static void reopen()
+    {
+        SearcherManager current = manager;
+        if (current != null)
         {
-            try
-            {
-                // Close the cached IndexSearcher
-                searcher.close();
-            }
-            catch (IOException ioe)
-            {
-                // Index is probably corrupt. Log the error, but continue to either:
-                // 1) Return existing searcher (may yet throw exception, no worse than throwing here)
-                log.warn("DSQuery: Unable to check for updated index", ioe);
-            }
-            finally
-            {
-            	searcher = null;
-            }
+            current.requestReopen();
         }
+    }
 
-        // There is no existing searcher - either this is the first execution,
-        // or the index has been updated and we closed the old index.
-        if (searcher == null)
+    private static SearcherManager getManager()
+            throws IOException
+    {
+        SearcherManager current = manager;
+        if (current == null)
         {
-            // So, open a new searcher
-            lastModified = IndexReader.getCurrentVersion(searchDir);
-            String osName = System.getProperty("os.name");
-            if (osName != null && osName.toLowerCase().contains("windows"))
+            synchronized (DSQuery.class)
             {
-                searcher = new IndexSearcher(searchDir){
-                    /*
-                     * TODO: Has Lucene fixed this bug yet?
-                     * Lucene doesn't release read locks in
-                     * windows properly on finalize. Our hack
-                     * extend IndexSearcher to force close().
-                     */
-                    @Override
-                    protected void finalize() throws Throwable {
-                        this.close();
-                        super.finalize();
-                    }
-                };
-            }
-            else
-            {
-                searcher = new IndexSearcher(searchDir);
+                if (manager == null)
+                {
+                    // also picks up the changes made by other processes
+                    int interval = ConfigurationManager.getIntProperty("search.reopen.interval", 5);
+                    manager = new SearcherManager(FSDirectory.open(new File(indexDir)), interval * 1000L);
+                }
+                current = manager;
             }
         }
-
-        return searcher;
+        return current;
     }
 }
 
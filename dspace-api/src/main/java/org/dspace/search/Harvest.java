@@ -41,6 +41,9 @@ public class Harvest
     /** log4j logger */
     private static Logger log = Logger.getLogger(Harvest.class);
 
+    /** Number of harvested items loaded from the database at once */
+    private static final int LOAD_PAGE_SIZE = 100;
+
     /**
      * Obtain information about items that have been created, modified or
      * withdrawn within a given date range. You can also specify 'offset' and
@@ -49,6 +52,12 @@ public class Harvest
      * Note that dates are passed in the standard ISO8601 format used by DSpace
      * (and OAI-PMH).
      * <P>
+     * The items are ordered by last modified date, then by item ID. To split
+     * up a big harvest, resuming after the last item of the previous section
+     * with {@link #harvest(Context, DSpaceObject, String, String, Date, int,
+     * int, boolean, boolean, boolean, boolean)} is cheaper than skipping an
+     * offset, which reads all the items before it again.
+     * <P>
      * FIXME: Assumes all in_archive items have public metadata
      *
      * @param context
@@ -89,7 +98,69 @@ public class Harvest
             boolean items, boolean collections, boolean withdrawn,
             boolean nonAnon) throws SQLException, ParseException
     {
+        return harvest(context, scope, startDate, endDate, null, 0, offset, limit,
+                items, collections, withdrawn, nonAnon);
+    }
+
+    /**
+     * Obtain information about items that have been created, modified or
+     * withdrawn within a given date range, ordered by last modified date,
+     * then by item ID, and starting after a given item. A big harvest is
+     * split up into sections by starting each after the last item of the
+     * previous one; as the database finds that item with an index, each
+     * section costs the same however far into the harvest it is.
+     * <P>
+     * An item modified while the harvest is under way moves to its end, so
+     * that it is harvested again in its new state.
+     *
+     * @param context
+     *            DSpace context
+     * @param scope
+     *            a Collection, Community, or <code>null</code> indicating the scope is
+     *            all of DSpace
+     * @param startDate
+     *            start of date range, or <code>null</code>
+     * @param endDate
+     *            end of date range, or <code>null</code>
+     * @param afterDate
+     *            the <code>datestamp</code> of the item to start after, as
+     *            returned in its <code>HarvestedItemInfo</code>, or
+     *            <code>null</code> to start at the beginning
+     * @param afterID
+     *            the <code>itemID</code> of the item to start after
+     * @param limit
+     *            the number of matching items to return. Specify 0 to return
+     *            the rest of the list.
+     * @param items
+     *            if <code>true</code> the <code>item</code> field of each
+     *            <code>HarvestedItemInfo</code> object is filled out
+     * @param collections
+     *            if <code>true</code> the <code>collectionHandles</code>
+     *            field of each <code>HarvestedItemInfo</code> object is
+     *            filled out
+     * @param withdrawn
+     *            If <code>true</code>, information about withdrawn items is
+     *            included
+     * @param nonAnon
+     *            If items without anonymous access should be included or not
+     * @return List of <code>HarvestedItemInfo</code> objects
+     * @throws java.sql.SQLException
+     * @throws java.text.ParseException If the date is not in a supported format
+     */
+    public static List<HarvestedItemInfo> harvest(Context context, DSpaceObject scope,
+            String startDate, String endDate, Date afterDate, int afterID, int limit,
+            boolean items, boolean collections, boolean withdrawn,
+            boolean nonAnon) throws SQLException, ParseException
+    {
+        return harvest(context, scope, startDate, endDate, afterDate, afterID, 0, limit,
+                items, collections, withdrawn, nonAnon);
+    }
 
+    private static List<HarvestedItemInfo> harvest(Context context, DSpaceObject scope,
+            String startDate, String endDate, Date afterDate, int afterID,
+            int offset, int limit, boolean items, boolean collections,
+            boolean withdrawn, boolean nonAnon) throws SQLException, ParseException
+    {
         // Put together our query. Note there is no need for an
         // "in_archive=true" condition, we are using the existence of
         // Handles as our 'existence criterion'.
@@ -184,80 +255,138 @@ public class Harvest
             }
         }
 
-        // Order by item ID, so that for a given harvest the order will be
-        // consistent. This is so that big harvests can be broken up into
-        // several smaller operations (e.g. for OAI resumption tokens.)
-        query += " ORDER BY handle.resource_id";
-
-        log.debug(LogManager.getHeader(context, "harvest SQL", query));
-
-        Object[] parametersArray = parameters.toArray();
-        TableRowIterator tri = DatabaseManager.query(context, query, parametersArray);
+        boolean oracle = "oracle".equals(ConfigurationManager.getProperty("db.name"));
         List<HarvestedItemInfo> infoObjects = new LinkedList<HarvestedItemInfo>();
 
         // Count of items read from the record set that match the selection criteria.
         // Note : Until 'index > offset' the records are not added to the output set.
         int index = 0;
 
-        // Count of items added to the output set.
-        int itemCounter = 0;
+        // Position of the last row read, the next query starts after it
+        Timestamp lastModified = (afterDate == null) ? null : toTimestamp(afterDate);
+        int lastID = afterID;
 
-        try
+        // Rows are read with a LIMIT of the items still wanted. When items
+        // without anonymous access are left out, a query may not fill the
+        // page, and the next one starts after its last row.
+        while (true)
         {
-            // Process results of query into HarvestedItemInfo objects
-            while ((tri.hasNext()) && ((limit == 0) || (itemCounter < limit)))
+            int wanted = (limit == 0) ? 0 : (offset - Math.min(index, offset)) + (limit - infoObjects.size());
+
+            StringBuilder page = new StringBuilder(query);
+            List<Serializable> pageParameters = new ArrayList<Serializable>(parameters);
+            if (lastModified != null)
             {
-                TableRow row = tri.next();
+                page.append(" AND (item.last_modified > ? OR (item.last_modified = ? AND item.item_id > ?)) ");
+                pageParameters.add(lastModified);
+                pageParameters.add(lastModified);
+                pageParameters.add(Integer.valueOf(lastID));
+            }
 
-                HarvestedItemInfo itemInfo = new HarvestedItemInfo();
-                itemInfo.context = context;
-                itemInfo.handle = row.getStringColumn("handle");
-                itemInfo.itemID = row.getIntColumn("resource_id");
-                itemInfo.datestamp = row.getDateColumn("last_modified");
-                itemInfo.withdrawn = row.getBooleanColumn("withdrawn");
+            // Order by date and item ID, so that for a given harvest the
+            // order will be consistent, and the next page of a big harvest
+            // (e.g. for OAI resumption tokens) can start after the last item
+            // of the previous one.
+            page.append(" ORDER BY item.last_modified, handle.resource_id");
 
-                if (collections)
+            if (wanted > 0)
+            {
+                if (oracle)
                 {
-                    // Add collections data
-                    fillCollections(context, itemInfo);
+                    page.insert(0, "SELECT * FROM (");
+                    page.append(") WHERE rownum <= ?");
                 }
-
-                if (items)
+                else
                 {
-                    // Add the item reference
-                    itemInfo.item = Item.find(context, itemInfo.itemID);
+                    page.append(" LIMIT ?");
                 }
+                pageParameters.add(Integer.valueOf(wanted));
+            }
+
+            String pageQuery = page.toString();
+            log.debug(LogManager.getHeader(context, "harvest SQL", pageQuery));
+
+            TableRowIterator tri = DatabaseManager.query(context, pageQuery, pageParameters.toArray());
+            int read = 0;
 
-                if ((nonAnon) || (itemInfo.item == null) || (withdrawn && itemInfo.withdrawn))
+            try
+            {
+                // Process results of query into HarvestedItemInfo objects, a
+                // page of rows at a time so that the items can be loaded in bulk
+                List<TableRow> rows = new ArrayList<TableRow>(LOAD_PAGE_SIZE);
+                while ((tri.hasNext()) && ((limit == 0) || (infoObjects.size() < limit)))
                 {
-                    index++;
-                    if (index > offset)
+                    rows.clear();
+                    while (tri.hasNext() && rows.size() < LOAD_PAGE_SIZE)
                     {
-                        infoObjects.add(itemInfo);
-                        itemCounter++;
+                        rows.add(tri.next());
                     }
-                }
-                else
-                {
-                    // We only want items that allow for anonymous access.
-                    if (anonAccessAllowed(context, itemInfo))
+                    read += rows.size();
+
+                    Item[] pageItems = null;
+                    if (items)
                     {
-                        index++;
-                        if (index > offset)
+                        int[] ids = new int[rows.size()];
+                        for (int i = 0; i < ids.length; i++)
                         {
-                            infoObjects.add(itemInfo);
-                            itemCounter++;
+                            ids[i] = rows.get(i).getIntColumn("resource_id");
+                        }
+                        pageItems = Item.findAll(context, ids);
+                    }
+
+                    for (int i = 0; (i < rows.size()) && ((limit == 0) || (infoObjects.size() < limit)); i++)
+                    {
+                        TableRow row = rows.get(i);
+
+                        HarvestedItemInfo itemInfo = new HarvestedItemInfo();
+                        itemInfo.context = context;
+                        itemInfo.handle = row.getStringColumn("handle");
+                        itemInfo.itemID = row.getIntColumn("resource_id");
+                        itemInfo.datestamp = row.getDateColumn("last_modified");
+                        itemInfo.withdrawn = row.getBooleanColumn("withdrawn");
+
+                        lastModified = toTimestamp(itemInfo.datestamp);
+                        lastID = itemInfo.itemID;
+
+                        if (items)
+                        {
+                            // Add the item reference
+                            itemInfo.item = pageItems[i];
+                        }
+
+                        // We only want items that allow for anonymous access,
+                        // unless asked otherwise
+                        if ((nonAnon) || (itemInfo.item == null) || (withdrawn && itemInfo.withdrawn)
+                                || anonAccessAllowed(context, itemInfo))
+                        {
+                            index++;
+                            if (index > offset)
+                            {
+                                if (collections)
+                                {
+                                    // Add collections data
+                                    fillCollections(context, itemInfo);
+                                }
+
+                                infoObjects.add(itemInfo);
+                            }
                         }
                     }
                 }
             }
-        }
-        finally
-        {
-            // close the TableRowIterator to free up resources
-            if (tri != null)
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+
+            // Stop when the list is complete, or there are no more rows
+            if (wanted == 0 || infoObjects.size() >= limit || read < wanted)
             {
-                tri.close();
+                break;
             }
         }
 
@@ -385,6 +514,22 @@ public class Harvest
         return new Timestamp(df.parse(t).getTime());
     }
 
+    /**
+     * Convert a datestamp read from the database to a java.sql.Timestamp
+     * object, keeping its precision
+     *
+     * @param date The datestamp
+     * @return The Timestamp
+     */
+    private static Timestamp toTimestamp(Date date)
+    {
+        if (date instanceof Timestamp)
+        {
+            return (Timestamp) date;
+        }
+        return new Timestamp(date.getTime());
+    }
+
     /**
      * Does the item allow anonymous access ? ie. authorizedGroups must include id=0.
      */
@@ -0,0 +1,244 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * A cache of the metadata of items as rendered for harvesting, so that
+ * harvesters paging through the whole repository time and again do not run
+ * the crosswalks again for the items that have not changed.
+ * <p>
+ * Each rendering is stored in a file of its own, under the item, the metadata
+ * format, the last modified date of the item it was made from and a digest
+ * of the configuration of the crosswalks it was made with. It is only found
+ * again while the item keeps that date and the crosswalks that configuration:
+ * a modified item, or any item after a crosswalk change, is rendered again on
+ * the next request, and the rendering replaces the old one. Changes that
+ * leave the date alone, such as a new bitstream or a mapping to another
+ * collection, are caught by the <code>HarvestedRecordCacheConsumer</code>,
+ * which removes the renderings of the items concerned.
+ * <p>
+ * Changes to resource policies, including those made by setting or lifting
+ * an embargo, neither change the date of the item nor raise an event the
+ * consumer is given, so the renderings of the items concerned are not
+ * removed: the cache must be cleared after such changes when the renderings
+ * depend on them, as they do when restricted items or bitstreams are
+ * harvested.
+ * <p>
+ * The cache is kept in the directory set by <code>cache.dir</code> in the
+ * <code>oai</code> module configuration, and is disabled if it is not set.
+ * Failing to read or write the cache is logged and otherwise ignored, as the
+ * rendering can always be made again.
+ *
+ * @version $Revision$
+ */
+public class HarvestedRecordCache
+{
+    private static final Logger log = Logger.getLogger(HarvestedRecordCache.class);
+
+    /** Number of directories the items are spread over */
+    private static final int BUCKETS = 1000;
+
+    private static final String SUFFIX = ".xml";
+
+    private static final String ENCODING = "UTF-8";
+
+    /** The cache in the configured directory, if any */
+    private static HarvestedRecordCache instance;
+
+    private static boolean configured;
+
+    private final File dir;
+
+    /**
+     * @param dir the directory to keep the cache in
+     */
+    HarvestedRecordCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the cache in the configured directory.
+     *
+     * @return the cache, or <code>null</code> if no directory is configured
+     */
+    public static synchronized HarvestedRecordCache getInstance()
+    {
+        if (!configured)
+        {
+            String path = ConfigurationManager.getProperty("oai", "cache.dir");
+            if (path != null && path.trim().length() > 0)
+            {
+                instance = new HarvestedRecordCache(new File(path.trim()));
+                log.info("Caching harvested records in " + path.trim());
+            }
+            configured = true;
+        }
+        return instance;
+    }
+
+    /**
+     * Get the rendering of an item in a metadata format.
+     *
+     * @param itemID
+     *            internal ID of the item
+     * @param metadataPrefix
+     *            the metadata format
+     * @param lastModified
+     *            the last modified date of the item
+     * @param configuration
+     *            digest of the configuration of the crosswalks
+     * @return the rendering, or <code>null</code> if none is cached for that
+     *         date and configuration
+     */
+    public String get(int itemID, String metadataPrefix, Date lastModified, String configuration)
+    {
+        File file = getFile(itemID, metadataPrefix, lastModified, configuration);
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            return FileUtils.readFileToString(file, ENCODING);
+        }
+        catch (IOException e)
+        {
+            // possibly replaced or removed while being read
+            log.warn("Unable to read " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store the rendering of an item in a metadata format, replacing any
+     * rendering made from an earlier version of the item, or with another
+     * configuration.
+     *
+     * @param itemID
+     *            internal ID of the item
+     * @param metadataPrefix
+     *            the metadata format
+     * @param lastModified
+     *            the last modified date of the item the rendering was made
+     *            from
+     * @param configuration
+     *            digest of the configuration of the crosswalks the rendering
+     *            was made with
+     * @param metadata
+     *            the rendering
+     */
+    public void put(int itemID, String metadataPrefix, Date lastModified, String configuration,
+            String metadata)
+    {
+        File file = getFile(itemID, metadataPrefix, lastModified, configuration);
+        File formatDir = file.getParentFile();
+        File temp = null;
+
+        try
+        {
+            if (!formatDir.isDirectory() && !formatDir.mkdirs() && !formatDir.isDirectory())
+            {
+                throw new IOException("Unable to create " + formatDir);
+            }
+
+            // write to a file of its own first, so that readers never see
+            // a partial rendering
+            temp = File.createTempFile(metadataPrefix, ".tmp", formatDir);
+            FileUtils.writeStringToFile(temp, metadata, ENCODING);
+            if (!temp.renameTo(file))
+            {
+                // another thread got there first with the same rendering
+                if (!file.isFile())
+                {
+                    throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+            }
+            else
+            {
+                temp = null;
+            }
+
+            File[] renderings = formatDir.listFiles();
+            if (renderings != null)
+            {
+                for (File rendering : renderings)
+                {
+                    if (rendering.getName().endsWith(SUFFIX) && !rendering.equals(file))
+                    {
+                        rendering.delete();
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to cache " + metadataPrefix + " of item " + itemID + ": " + e.getMessage());
+        }
+        finally
+        {
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove all the renderings of an item.
+     *
+     * @param itemID
+     *            internal ID of the item
+     */
+    public void remove(int itemID)
+    {
+        File itemDir = getItemDir(itemID);
+        try
+        {
+            FileUtils.deleteDirectory(itemDir);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to remove " + itemDir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the renderings of all items.
+     *
+     * @throws IOException
+     *             if the cache directory cannot be emptied
+     */
+    public void clear() throws IOException
+    {
+        if (dir.isDirectory())
+        {
+            FileUtils.cleanDirectory(dir);
+        }
+    }
+
+    private File getItemDir(int itemID)
+    {
+        return new File(new File(dir, String.valueOf(itemID % BUCKETS)), String.valueOf(itemID));
+    }
+
+    private File getFile(int itemID, String metadataPrefix, Date lastModified, String configuration)
+    {
+        return new File(new File(getItemDir(itemID), metadataPrefix),
+                lastModified.getTime() + "-" + configuration + SUFFIX);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Bundle;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Class for removing the cached harvesting renderings of items that have
+ * changed, or been deleted.
+ *
+ * @see HarvestedRecordCache
+ * @version $Revision$
+ */
+public class HarvestedRecordCacheConsumer implements Consumer
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(HarvestedRecordCacheConsumer.class);
+
+    // IDs of the items whose renderings are to be removed
+    private Set<Integer> itemsToRemove = null;
+
+    public void initialize() throws Exception
+    {
+        // No-op
+    }
+
+    /**
+     * Consume a content event -- just build the set of items whose
+     * renderings are to be removed.
+     *
+     * @param ctx
+     *            DSpace context
+     * @param event
+     *            Content event
+     */
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        if (HarvestedRecordCache.getInstance() == null)
+        {
+            return;
+        }
+
+        if (itemsToRemove == null)
+        {
+            itemsToRemove = new HashSet<Integer>();
+        }
+
+        switch (event.getSubjectType())
+        {
+        case Constants.ITEM:
+            itemsToRemove.add(Integer.valueOf(event.getSubjectID()));
+            break;
+
+        case Constants.COLLECTION:
+            // an item mapped to or removed from a collection
+            if (event.getObjectType() == Constants.ITEM)
+            {
+                itemsToRemove.add(Integer.valueOf(event.getObjectID()));
+            }
+            break;
+
+        case Constants.BUNDLE:
+            // bitstreams added to or removed from an item
+            DSpaceObject subject = event.getSubject(ctx);
+            if (subject != null)
+            {
+                for (Item item : ((Bundle) subject).getItems())
+                {
+                    itemsToRemove.add(Integer.valueOf(item.getID()));
+                }
+            }
+            break;
+
+        default:
+            log.warn("HarvestedRecordCacheConsumer should not have been given this kind of Subject in an event, skipping: "
+                    + event.toString());
+            break;
+        }
+    }
+
+    /**
+     * Remove the renderings of the items, now that the changes have been
+     * committed.
+     */
+    public void end(Context ctx) throws Exception
+    {
+        if (itemsToRemove != null)
+        {
+            HarvestedRecordCache cache = HarvestedRecordCache.getInstance();
+            for (Integer itemID : itemsToRemove)
+            {
+                cache.remove(itemID.intValue());
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Removed harvesting renderings of Item, id=" + itemID);
+                }
+            }
+        }
+
+        // "free" the resources
+        itemsToRemove = null;
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+        // No-op
+    }
+}
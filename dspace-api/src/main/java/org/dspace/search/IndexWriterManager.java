@@ -0,0 +1,927 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockObtainFailedException;
+
+/**
+ * Keeps one IndexWriter of the search index open for the whole process, and
+ * commits the indexing tasks given to it in groups.
+ * <p>
+ * Tasks are queued, and a background thread writes and commits the queue at
+ * once when it holds <code>maxDocs</code> tasks, when its oldest task waited
+ * <code>maxLatency</code> milliseconds, or as soon as a caller waits for its
+ * task to be committed. The tasks queued while a commit is running are
+ * committed together by the next one, so that busy periods pay for fewer
+ * commits instead of opening and closing a writer for every few tasks.
+ * <p>
+ * The writer holds the index write lock, so it is closed when it was not used
+ * for <code>idleTimeout</code> milliseconds, and when another process asks
+ * for the lock: a process that finds the index locked, or that will write a
+ * lot (such as the command line indexer), writes its id in the
+ * {@link #HANDOFF_FILE} of the index directory and renews it while it needs
+ * the lock. The other processes then close their writer, and keep their
+ * tasks queued until the file is removed, or not renewed for
+ * {@link #HANDOFF_TIMEOUT} milliseconds; callers waiting for their tasks to
+ * be committed keep waiting meanwhile, for up to {@link #WAIT_TIMEOUT}
+ * milliseconds, after which their tasks are left queued. A process holding the lock notices a
+ * request within {@link #POLL_INTERVAL} of it, once the batch it may be
+ * writing is committed, so the process asking for the lock waits until it is
+ * released before opening its writer.
+ *
+ * @version $Revision$
+ */
+class IndexWriterManager
+{
+    private static final Logger log = Logger.getLogger(IndexWriterManager.class);
+
+    /** File, in the index directory, by which a process asks for the write lock */
+    static final String HANDOFF_FILE = "writer.handoff";
+
+    /** Milliseconds after which a handoff request that was not renewed is ignored */
+    static final long HANDOFF_TIMEOUT = 60000;
+
+    /**
+     * Milliseconds a caller, or closing, waits for its tasks to be committed,
+     * as long as the IndexWriter waits for the write lock
+     */
+    static final long WAIT_TIMEOUT = 30000;
+
+    /** Longest the committer sleeps, so that it notices handoff requests */
+    private static final long POLL_INTERVAL = 1000;
+
+    private final File handoffFile;
+    private final String id = UUID.randomUUID().toString();
+    private final int maxDocs;
+    private final long maxLatency;
+    private final long idleTimeout;
+    private final long waitTimeout;
+
+    /** Guards the queue, the batch numbers, the handoff state and the metrics */
+    private final Object lock = new Object();
+
+    /** Tasks not written yet, by the text of their term */
+    private Map<String, IndexingTask> queue = new LinkedHashMap<String, IndexingTask>();
+    private long queuedSince;
+
+    /** Number of the batch the queued tasks will be committed in */
+    private long batch = 1;
+    /** Number of the last batch committed, or failed */
+    private long committed = 0;
+    private long failedBatch = 0;
+    private IOException failure;
+
+    /** Number of callers waiting for their task to be committed */
+    private int waiting;
+    /** Number of the last batch a flush waits for */
+    private long flushTo;
+
+    /** Whether another process asked for the write lock */
+    private boolean handedOff;
+    /** Whether this process asked for the write lock until it is closed */
+    private boolean ownsHandoff;
+    /** Whether this process asked for the write lock and waits for it */
+    private boolean awaitingRelease;
+    private boolean closed;
+
+    private long commits;
+    private long committedTasks;
+    private long commitMillis;
+    private long lastLatency;
+
+    /** Guards the writer, which is used by one thread at a time */
+    private final Object writerLock = new Object();
+    private IndexWriter writer;
+    private long lastUsed;
+    private volatile boolean writerOpen;
+
+    /**
+     * Create the manager and start its committer thread. The writer is
+     * opened when it is first needed.
+     *
+     * @param indexDir the index directory
+     * @param maxDocs number of queued tasks committed at once
+     * @param maxLatency milliseconds a task may stay queued
+     * @param idleTimeout milliseconds after which an unused writer is closed
+     */
+    IndexWriterManager(File indexDir, int maxDocs, long maxLatency, long idleTimeout)
+    {
+        this(indexDir, maxDocs, maxLatency, idleTimeout, WAIT_TIMEOUT);
+    }
+
+    /**
+     * @param waitTimeout milliseconds a caller waits for its tasks to be
+     *            committed
+     */
+    IndexWriterManager(File indexDir, int maxDocs, long maxLatency, long idleTimeout,
+            long waitTimeout)
+    {
+        this.handoffFile = new File(indexDir, HANDOFF_FILE);
+        this.maxDocs = Math.max(maxDocs, 1);
+        this.maxLatency = Math.max(maxLatency, 0);
+        this.idleTimeout = Math.max(idleTimeout, 0);
+        this.waitTimeout = Math.max(waitTimeout, 1);
+
+        Thread committer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                commitLoop();
+            }
+        }, "dspace-index-commit");
+        committer.setDaemon(true);
+        committer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+        {
+            public void run()
+            {
+                close();
+            }
+        }, "dspace-index-close"));
+    }
+
+    /**
+     * Queue a task, to be committed within <code>maxLatency</code>.
+     *
+     * @param task the task
+     * @return false if the manager was closed, and the task not queued
+     */
+    boolean queue(IndexingTask task)
+    {
+        synchronized (lock)
+        {
+            return enqueue(task) > 0;
+        }
+    }
+
+    /**
+     * Queue a task, and wait until it is committed. If another process holds
+     * the write lock, the task stays queued and this waits until the lock is
+     * released and the task committed, or for {@link #WAIT_TIMEOUT}
+     * milliseconds, leaving the task queued.
+     *
+     * @param task the task
+     * @return false if the manager was closed, and the task not queued
+     * @throws IOException if the batch of the task could not be committed
+     */
+    boolean commit(IndexingTask task) throws IOException
+    {
+        synchronized (lock)
+        {
+            long mine = enqueue(task);
+            if (mine == 0)
+            {
+                return false;
+            }
+            waiting++;
+            lock.notifyAll();
+            try
+            {
+                awaitBatch(mine);
+            }
+            finally
+            {
+                waiting--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Commit the queued tasks, and wait until they are committed.
+     *
+     * @throws IOException if they could not be committed
+     */
+    void flush() throws IOException
+    {
+        synchronized (lock)
+        {
+            // also wait for the batch being written, if any
+            long mine = queue.isEmpty() ? batch - 1 : batch;
+            flushTo = Math.max(flushTo, mine);
+            lock.notifyAll();
+            awaitBatch(mine);
+        }
+    }
+
+    /**
+     * Commit the queued tasks, then merge the index into one segment.
+     *
+     * @throws IOException
+     */
+    void optimize() throws IOException
+    {
+        flush();
+        synchronized (writerLock)
+        {
+            IndexWriter w = getWriter(false);
+            w.optimize();
+            w.commit();
+        }
+        DSQuery.reopen();
+    }
+
+    /**
+     * Replace the index with an empty one. The tasks still queued are
+     * written to the new index.
+     *
+     * @throws IOException
+     */
+    void recreate() throws IOException
+    {
+        synchronized (writerLock)
+        {
+            closeWriter();
+            getWriter(true).commit();
+        }
+        DSQuery.reopen();
+    }
+
+    /**
+     * Replace the documents of the index with those of other indexes, in a
+     * single commit: searches see the old documents until the new ones are
+     * all in place. The tasks still queued are written first, and replaced
+     * too.
+     *
+     * @param dirs the indexes
+     * @throws IOException if they could not be added, in which case the
+     *         index is left as it was
+     */
+    void replace(Directory... dirs) throws IOException
+    {
+        flush();
+        synchronized (writerLock)
+        {
+            IndexWriter w = getWriter(false);
+            try
+            {
+                w.deleteAll();
+                w.addIndexes(dirs);
+                w.commit();
+            }
+            catch (IOException e)
+            {
+                // do not let the next batch commit a partial index
+                rollbackWriter();
+                throw e;
+            }
+        }
+        DSQuery.reopen();
+    }
+
+    /**
+     * Ask the other processes to release the write lock, and keep it until
+     * this manager is closed.
+     *
+     * @throws IOException if the request cannot be written
+     */
+    void requestHandoff() throws IOException
+    {
+        synchronized (lock)
+        {
+            ownsHandoff = true;
+            writeHandoff();
+        }
+    }
+
+    /**
+     * Commit the queued tasks, close the writer and stop the committer. If
+     * another process holds the write lock, this waits until it is released
+     * to commit them, or for {@link #WAIT_TIMEOUT} milliseconds, after which
+     * they are not written.
+     */
+    void close()
+    {
+        Map<String, IndexingTask> tasks;
+        long last;
+        long since;
+        boolean handoff;
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            ownsHandoff = false;
+            lock.notifyAll();
+
+            if (handedOff && !queue.isEmpty())
+            {
+                log.info("Waiting for another process to release the search index, to write "
+                        + queue.size() + " changes to it");
+            }
+            long deadline = System.currentTimeMillis() + waitTimeout;
+            try
+            {
+                long now = System.currentTimeMillis();
+                while (handedOff && !queue.isEmpty() && now < deadline)
+                {
+                    lock.wait(Math.min(POLL_INTERVAL, deadline - now));
+                    now = System.currentTimeMillis();
+                    updateHandoff(now);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            tasks = queue;
+            queue = new LinkedHashMap<String, IndexingTask>();
+            last = batch++;
+            since = queuedSince;
+            handoff = handedOff;
+            if (handoff && !tasks.isEmpty())
+            {
+                // timed out, or interrupted, while waiting
+                committed = last;
+                failedBatch = last;
+                failure = new IOException("The search index is in use by another process");
+                lock.notifyAll();
+            }
+        }
+
+        if (handoff && !tasks.isEmpty())
+        {
+            log.error("The search index is in use by another process, "
+                    + tasks.size() + " changes were not written to it: " + tasks.keySet());
+            for (IndexingTask task : tasks.values())
+            {
+                DSIndexer.closeAllReaders(task.getDocument());
+            }
+        }
+        else if (!tasks.isEmpty())
+        {
+            write(tasks, last, since);
+        }
+
+        synchronized (writerLock)
+        {
+            closeWriter();
+        }
+        if (id.equals(readHandoff()))
+        {
+            handoffFile.delete();
+        }
+
+        synchronized (lock)
+        {
+            log.info("Closed the search index writer: " + commits + " commits of "
+                    + committedTasks + " tasks, " + getAverageCommitMillis() + " ms per commit");
+        }
+    }
+
+    /**
+     * @return the number of tasks queued and not written yet
+     */
+    int getQueuedTaskCount()
+    {
+        synchronized (lock)
+        {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return the number of commits made
+     */
+    long getCommitCount()
+    {
+        synchronized (lock)
+        {
+            return commits;
+        }
+    }
+
+    /**
+     * @return the number of tasks committed
+     */
+    long getCommittedTaskCount()
+    {
+        synchronized (lock)
+        {
+            return committedTasks;
+        }
+    }
+
+    /**
+     * @return the average time, in milliseconds, taken to write and commit a
+     *         batch of tasks
+     */
+    long getAverageCommitMillis()
+    {
+        synchronized (lock)
+        {
+            return commits == 0 ? 0 : commitMillis / commits;
+        }
+    }
+
+    /**
+     * @return the time, in milliseconds, the oldest task of the last batch
+     *         waited from being queued until it was committed
+     */
+    long getLastCommitLatency()
+    {
+        synchronized (lock)
+        {
+            return lastLatency;
+        }
+    }
+
+    /**
+     * Add a task to the queue, replacing a queued task for the same object.
+     * The caller holds the lock.
+     *
+     * @return the batch the task will be committed in, or 0 if closed
+     */
+    private long enqueue(IndexingTask task)
+    {
+        if (closed)
+        {
+            return 0;
+        }
+        if (queue.isEmpty())
+        {
+            queuedSince = System.currentTimeMillis();
+        }
+        IndexingTask replaced = queue.put(task.getTerm().text(), task);
+        if (replaced != null)
+        {
+            DSIndexer.closeAllReaders(replaced.getDocument());
+        }
+        if (queue.size() >= maxDocs)
+        {
+            lock.notifyAll();
+        }
+        return batch;
+    }
+
+    /**
+     * Wait until a batch is committed, which may take until another process
+     * releases the write lock. If it is not committed within
+     * <code>waitTimeout</code>, its tasks are left queued to be committed
+     * later. The caller holds the lock.
+     */
+    private void awaitBatch(long mine) throws IOException
+    {
+        long deadline = System.currentTimeMillis() + waitTimeout;
+        while (committed < mine)
+        {
+            long now = System.currentTimeMillis();
+            if (now >= deadline)
+            {
+                log.error("The search index was not released by another process within "
+                        + waitTimeout + " ms, changes will be written to it once it is");
+                return;
+            }
+            try
+            {
+                lock.wait(deadline - now);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the search index");
+            }
+        }
+        if (failure != null && failedBatch == mine)
+        {
+            throw new IOException("Unable to write to the search index", failure);
+        }
+    }
+
+    /**
+     * The caller holds the lock.
+     */
+    private boolean isDue(long now)
+    {
+        return !queue.isEmpty()
+                && (queue.size() >= maxDocs || waiting > 0 || flushTo >= batch
+                        || now - queuedSince >= maxLatency);
+    }
+
+    private void commitLoop()
+    {
+        while (true)
+        {
+            Map<String, IndexingTask> tasks = null;
+            long number = 0;
+            long since = 0;
+            boolean handoff;
+            synchronized (lock)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                updateHandoff(now);
+                handoff = handedOff;
+                if (!handoff && isDue(now))
+                {
+                    tasks = queue;
+                    number = batch++;
+                    since = queuedSince;
+                    queue = new LinkedHashMap<String, IndexingTask>();
+                }
+            }
+
+            if (tasks != null)
+            {
+                write(tasks, number, since);
+                continue;
+            }
+
+            synchronized (writerLock)
+            {
+                if (writer != null
+                        && (handoff || System.currentTimeMillis() - lastUsed >= idleTimeout))
+                {
+                    closeWriter();
+                }
+            }
+
+            synchronized (lock)
+            {
+                long now = System.currentTimeMillis();
+                if (!closed && (handedOff || !isDue(now)))
+                {
+                    long timeout = POLL_INTERVAL;
+                    if (!queue.isEmpty() && !handedOff)
+                    {
+                        timeout = Math.max(Math.min(timeout, maxLatency - (now - queuedSince)), 1);
+                    }
+                    try
+                    {
+                        lock.wait(timeout);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write and commit a batch of tasks.
+     */
+    private void write(Map<String, IndexingTask> tasks, long number, long since)
+    {
+        long started = System.currentTimeMillis();
+        IOException error = null;
+        boolean requeued = false;
+        synchronized (writerLock)
+        {
+            try
+            {
+                IndexWriter w;
+                try
+                {
+                    w = getWriter(false);
+                }
+                catch (LockObtainFailedException e)
+                {
+                    // nothing written yet, keep the tasks if another process
+                    // asked for the lock meanwhile
+                    requeued = requeue(tasks, since);
+                    if (requeued)
+                    {
+                        return;
+                    }
+                    throw e;
+                }
+                for (IndexingTask task : tasks.values())
+                {
+                    try
+                    {
+                        DSIndexer.executeIndexingTask(w, task);
+                    }
+                    catch (IOException e)
+                    {
+                        log.error("Unable to index " + task.getTerm().text(), e);
+                    }
+                }
+                w.commit();
+            }
+            catch (IOException e)
+            {
+                error = e;
+                log.error("Unable to commit " + tasks.size() + " changes to the search index", e);
+                rollbackWriter();
+            }
+            finally
+            {
+                if (!requeued)
+                {
+                    for (IndexingTask task : tasks.values())
+                    {
+                        DSIndexer.closeAllReaders(task.getDocument());
+                    }
+                }
+            }
+        }
+
+        long done = System.currentTimeMillis();
+        synchronized (lock)
+        {
+            committed = number;
+            if (error == null)
+            {
+                commits++;
+                committedTasks += tasks.size();
+                commitMillis += done - started;
+                lastLatency = done - since;
+            }
+            else
+            {
+                failedBatch = number;
+                failure = error;
+            }
+            lock.notifyAll();
+        }
+
+        if (error == null)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Committed " + tasks.size() + " changes to the search index in "
+                        + (done - started) + " ms, " + (done - since) + " ms after the first was queued");
+            }
+            DSQuery.reopen();
+        }
+    }
+
+    /**
+     * Put back the tasks of a batch that could not be written, in front of
+     * the tasks queued meanwhile, if another process asked for the write
+     * lock: they are committed once it is released.
+     *
+     * @return false if no other process asked for the lock, or the manager
+     *         was closed meanwhile
+     */
+    private boolean requeue(Map<String, IndexingTask> tasks, long since)
+    {
+        synchronized (lock)
+        {
+            String holder = readHandoff();
+            if (closed || holder == null || holder.equals(id))
+            {
+                return false;
+            }
+
+            Map<String, IndexingTask> merged = new LinkedHashMap<String, IndexingTask>(tasks);
+            for (IndexingTask task : queue.values())
+            {
+                IndexingTask replaced = merged.put(task.getTerm().text(), task);
+                if (replaced != null)
+                {
+                    DSIndexer.closeAllReaders(replaced.getDocument());
+                }
+            }
+            queue = merged;
+            queuedSince = since;
+            updateHandoff(System.currentTimeMillis());
+            log.info("The search index was requested by another process, "
+                    + tasks.size() + " changes will be written to it once it is released");
+            return true;
+        }
+    }
+
+    /**
+     * Get the writer, opening it if needed. The caller holds the writer lock.
+     *
+     * @param create whether to replace the index with an empty one
+     * @throws LockObtainFailedException if another process holds the write
+     *         lock, and does not release it
+     */
+    private IndexWriter getWriter(boolean create) throws IOException
+    {
+        if (writer == null)
+        {
+            Directory dir = FSDirectory.open(handoffFile.getParentFile());
+            if (IndexWriter.isLocked(dir))
+            {
+                awaitRelease(dir);
+            }
+            writer = DSIndexer.openIndex(create);
+            writerOpen = true;
+        }
+        lastUsed = System.currentTimeMillis();
+        return writer;
+    }
+
+    /**
+     * Ask the process holding the write lock to release it, and wait until it
+     * does. The caller holds the writer lock.
+     *
+     * @throws LockObtainFailedException if the lock is not released within
+     *         {@link #HANDOFF_TIMEOUT}, or another process asked for it
+     *         meanwhile
+     */
+    private void awaitRelease(Directory dir) throws IOException
+    {
+        synchronized (lock)
+        {
+            writeHandoff();
+            awaitingRelease = true;
+        }
+        try
+        {
+            long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT;
+            while (IndexWriter.isLocked(dir))
+            {
+                String holder = readHandoff();
+                if (holder != null && !holder.equals(id))
+                {
+                    throw new LockObtainFailedException("The search index was requested by another process");
+                }
+                if (System.currentTimeMillis() >= deadline)
+                {
+                    throw new LockObtainFailedException("The search index was not released by the process holding it");
+                }
+                try
+                {
+                    Thread.sleep(POLL_INTERVAL / 10);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the search index");
+                }
+            }
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                awaitingRelease = false;
+            }
+        }
+    }
+
+    /**
+     * The caller holds the writer lock.
+     */
+    private void closeWriter()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to close IndexWriter", e);
+                rollbackWriter();
+            }
+            finally
+            {
+                writer = null;
+                writerOpen = false;
+            }
+        }
+    }
+
+    /**
+     * Discard the changes not committed and close the writer. The caller
+     * holds the writer lock.
+     */
+    private void rollbackWriter()
+    {
+        if (writer != null)
+        {
+            try
+            {
+                writer.rollback();
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to roll back IndexWriter", e);
+            }
+            finally
+            {
+                writer = null;
+                writerOpen = false;
+            }
+        }
+    }
+
+    /**
+     * Check the handoff file: renew it if this process asked for the lock,
+     * or remove it if it no longer needs it. The caller holds the lock.
+     */
+    private void updateHandoff(long now)
+    {
+        boolean before = handedOff;
+        String holder = readHandoff();
+        if (holder == null)
+        {
+            handedOff = false;
+        }
+        else if (holder.equals(id))
+        {
+            handedOff = false;
+            if (ownsHandoff || writerOpen || awaitingRelease)
+            {
+                handoffFile.setLastModified(now);
+            }
+            else
+            {
+                handoffFile.delete();
+            }
+        }
+        else if (ownsHandoff)
+        {
+            // this process keeps the lock until it is closed
+            try
+            {
+                writeHandoff();
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to renew the search index handoff request", e);
+            }
+        }
+        else
+        {
+            handedOff = now - handoffFile.lastModified() < HANDOFF_TIMEOUT;
+        }
+
+        if (handedOff != before)
+        {
+            log.info(handedOff ? "Releasing the search index to another process"
+                    : "The search index was released by another process");
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the id of the process that asked for the lock, or null
+     */
+    private String readHandoff()
+    {
+        if (!handoffFile.exists())
+        {
+            return null;
+        }
+        try
+        {
+            BufferedReader in = new BufferedReader(new FileReader(handoffFile));
+            try
+            {
+                return in.readLine();
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // removed meanwhile
+            return null;
+        }
+    }
+
+    /**
+     * The caller holds the lock.
+     */
+    private void writeHandoff() throws IOException
+    {
+        Writer out = new FileWriter(handoffFile);
+        try
+        {
+            out.write(id);
+        }
+        finally
+        {
+            out.close();
+        }
+        handedOff = false;
+    }
+}
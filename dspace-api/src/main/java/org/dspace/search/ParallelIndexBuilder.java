@@ -0,0 +1,357 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Builds the documents of all the items in the archive on several threads,
+ * for a rebuild of the search index. The documents of the collections and
+ * communities are built afterwards, so that the indexes built hold the whole
+ * repository.
+ * <p>
+ * Each thread has its own Context and its own IndexWriter, on a directory of
+ * its own next to the search index, so that the threads share nothing but
+ * the list of items: reading the full text, analysing it and writing the
+ * segments all happen in parallel. The directories then replace the contents
+ * of the search index in a single commit, with
+ * <code>IndexWriter.addIndexes</code>, which copies their segments without
+ * analysing them again; the old index stays searchable meanwhile.
+ *
+ * @version $Revision$
+ */
+class ParallelIndexBuilder
+{
+    private static final Logger log = Logger.getLogger(ParallelIndexBuilder.class);
+
+    /** Items between progress reports */
+    private static final int REPORT_INTERVAL = 1000;
+
+    /** Items between clearing the cache of a worker's Context */
+    private static final int CACHE_INTERVAL = 100;
+
+    private final File buildDir;
+    private final int threads;
+
+    private int[] itemIDs;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger done = new AtomicInteger();
+
+    /** Number of items that could not be indexed */
+    private final AtomicInteger itemFailures = new AtomicInteger();
+
+    /** Set when a worker fails, to stop the others */
+    private volatile boolean failed;
+
+    /**
+     * @param indexDir the search index directory; the threads build their
+     *            indexes in a directory next to it
+     * @param threads number of threads
+     */
+    ParallelIndexBuilder(File indexDir, int threads)
+    {
+        this.buildDir = new File(indexDir.getPath() + "-build");
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Build the documents of all the items in the archive, and of all the
+     * collections and communities.
+     *
+     * @param context context to list the items with
+     * @return the indexes built, to be added to the search index
+     * @throws SQLException
+     * @throws IOException if a thread was unable to build its index, or any
+     *             item could not be indexed
+     */
+    Directory[] build(Context context) throws SQLException, IOException
+    {
+        itemIDs = findItemIDs(context);
+        log.info("Indexing " + itemIDs.length + " items on " + threads + " threads");
+
+        FileUtils.deleteDirectory(buildDir);
+        Worker[] workers = new Worker[threads];
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Worker(new File(buildDir, "part-" + i));
+            running[i] = new Thread(workers[i], "dspace-index-build-" + i);
+            running[i].start();
+        }
+
+        Directory[] dirs = new Directory[threads + 1];
+        for (int i = 0; i < threads; i++)
+        {
+            try
+            {
+                running[i].join();
+            }
+            catch (InterruptedException e)
+            {
+                failed = true;
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while building the search index", e);
+            }
+            if (workers[i].failure != null)
+            {
+                throw new IOException("Unable to build the search index", workers[i].failure);
+            }
+            dirs[i] = FSDirectory.open(workers[i].dir);
+        }
+
+        log.info("Indexed " + done.get() + " items");
+        if (itemFailures.get() > 0)
+        {
+            // do not replace the whole index with a partial one
+            throw new IOException(itemFailures.get() + " of " + itemIDs.length
+                    + " items could not be indexed, the search index was not replaced");
+        }
+
+        dirs[threads] = buildContainers(context);
+        return dirs;
+    }
+
+    /**
+     * Remove the indexes built by the threads.
+     */
+    void cleanup()
+    {
+        try
+        {
+            FileUtils.deleteDirectory(buildDir);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to remove " + buildDir, e);
+        }
+    }
+
+    /**
+     * Add the documents of all the collections and communities to an index
+     * of their own.
+     */
+    private Directory buildContainers(Context context) throws SQLException, IOException
+    {
+        File dir = new File(buildDir, "containers");
+        IndexWriter writer = DSIndexer.openIndex(dir, true);
+        try
+        {
+            for (Collection collection : Collection.findAll(context))
+            {
+                add(writer, collection);
+                context.removeCached(collection, collection.getID());
+            }
+
+            for (Community community : Community.findAll(context))
+            {
+                add(writer, community);
+                context.removeCached(community, community.getID());
+            }
+
+            writer.close();
+            writer = null;
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.rollback();
+            }
+        }
+        return FSDirectory.open(dir);
+    }
+
+    private static void add(IndexWriter writer, DSpaceObject dso) throws SQLException, IOException
+    {
+        IndexingTask task = DSIndexer.prepareIndexingTask(dso, true);
+        try
+        {
+            if (task != null && task.getDocument() != null)
+            {
+                writer.addDocument(task.getDocument());
+            }
+        }
+        finally
+        {
+            if (task != null)
+            {
+                DSIndexer.closeAllReaders(task.getDocument());
+            }
+        }
+    }
+
+    private static int[] findItemIDs(Context context) throws SQLException
+    {
+        TableRowIterator rows = DatabaseManager.query(context,
+                "SELECT item_id FROM item WHERE in_archive='1' ORDER BY item_id");
+        try
+        {
+            int[] ids = new int[64];
+            int count = 0;
+            while (rows.hasNext())
+            {
+                TableRow row = rows.next();
+                if (count == ids.length)
+                {
+                    int[] grown = new int[count * 2];
+                    System.arraycopy(ids, 0, grown, 0, count);
+                    ids = grown;
+                }
+                ids[count++] = row.getIntColumn("item_id");
+            }
+            int[] found = new int[count];
+            System.arraycopy(ids, 0, found, 0, count);
+            return found;
+        }
+        finally
+        {
+            rows.close();
+        }
+    }
+
+    /**
+     * Takes the next item from the list until there are none left, and adds
+     * its document to an index of its own.
+     */
+    private class Worker implements Runnable
+    {
+        private final File dir;
+        private Exception failure;
+
+        /** Replaced after a database error, which may have made it unusable */
+        private Context context;
+
+        Worker(File dir)
+        {
+            this.dir = dir;
+        }
+
+        public void run()
+        {
+            IndexWriter writer = null;
+            try
+            {
+                openContext();
+                writer = DSIndexer.openIndex(dir, true);
+
+                int processed = 0;
+                for (int i = next.getAndIncrement(); i < itemIDs.length && !failed; i = next.getAndIncrement())
+                {
+                    index(writer, itemIDs[i]);
+
+                    if (++processed % CACHE_INTERVAL == 0)
+                    {
+                        context.clearCache();
+                    }
+                    int total = done.incrementAndGet();
+                    if (total % REPORT_INTERVAL == 0)
+                    {
+                        log.info("Indexed " + total + " of " + itemIDs.length + " items");
+                    }
+                }
+
+                writer.close();
+                writer = null;
+            }
+            catch (Exception e)
+            {
+                log.error("Unable to build " + dir, e);
+                failure = e;
+                failed = true;
+            }
+            finally
+            {
+                if (writer != null)
+                {
+                    try
+                    {
+                        writer.rollback();
+                    }
+                    catch (IOException e)
+                    {
+                        log.error("Unable to roll back IndexWriter", e);
+                    }
+                }
+                if (context != null && context.isValid())
+                {
+                    context.abort();
+                }
+            }
+        }
+
+        private void openContext() throws SQLException
+        {
+            context = new Context();
+            context.setIgnoreAuthorization(true);
+        }
+
+        /**
+         * Add the document of an item. An item that cannot be read or
+         * indexed is logged and counted, so that the index built does not
+         * replace the search index, and the other items are indexed with a
+         * new Context if the failure was a database error.
+         */
+        private void index(IndexWriter writer, int itemID) throws SQLException
+        {
+            IndexingTask task = null;
+            try
+            {
+                Item item = Item.find(context, itemID);
+                if (item == null)
+                {
+                    return;
+                }
+
+                task = DSIndexer.prepareIndexingTask(item, true);
+
+                // deleting from an index being built is a no-op
+                if (task != null && task.getDocument() != null)
+                {
+                    writer.addDocument(task.getDocument());
+                }
+                item.decache();
+            }
+            catch (SQLException e)
+            {
+                log.error("Unable to index item " + itemID + ": " + e.getMessage(), e);
+                itemFailures.incrementAndGet();
+                context.abort();
+                openContext();
+            }
+            catch (Exception e)
+            {
+                log.error("Unable to index item " + itemID + ": " + e.getMessage(), e);
+                itemFailures.incrementAndGet();
+            }
+            finally
+            {
+                if (task != null)
+                {
+                    DSIndexer.closeAllReaders(task.getDocument());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+
+/**
+ * Shares an IndexSearcher of the search index between threads, and replaces
+ * it when the index changes.
+ * <p>
+ * Searches {@link #acquire()} the current searcher and {@link #release} it
+ * when they are done; neither takes a lock. Each searcher counts the
+ * searches using it, plus one while it is the current searcher, and its
+ * reader is closed when the count drops to zero, so a search always finishes
+ * on the searcher it started with. A reopen is done by a background thread,
+ * every so often and when {@link #requestReopen()} is called after the index
+ * was written. It uses <code>IndexReader.reopen()</code>, which only opens
+ * the segments that changed.
+ *
+ * @version $Revision$
+ */
+class SearcherManager
+{
+    private static final Logger log = Logger.getLogger(SearcherManager.class);
+
+    private final Directory directory;
+    private final long interval;
+
+    /** Serialises the reopens, not the searches */
+    private final Object reopenLock = new Object();
+
+    /** Wakes the reopener up */
+    private final Object signal = new Object();
+    private boolean requested;
+
+    private volatile ManagedSearcher current;
+    private volatile boolean closed;
+
+    /**
+     * Create the manager and start its reopener thread.
+     *
+     * @param directory the index
+     * @param interval milliseconds between checks for changes made by other
+     *            processes, or 0 to only reopen when requested
+     */
+    SearcherManager(Directory directory, long interval)
+    {
+        this.directory = directory;
+        this.interval = interval;
+
+        Thread reopener = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                reopenLoop();
+            }
+        }, "dspace-search-reopen");
+        reopener.setDaemon(true);
+        reopener.start();
+    }
+
+    /**
+     * Get the current searcher, which must be given back to
+     * {@link #release} when the search is done.
+     *
+     * @return the searcher, or null if the manager was closed
+     * @throws IOException if the index cannot be opened
+     */
+    IndexSearcher acquire() throws IOException
+    {
+        while (!closed)
+        {
+            ManagedSearcher searcher = current;
+            if (searcher == null)
+            {
+                // first search
+                synchronized (reopenLock)
+                {
+                    if (current == null && !closed)
+                    {
+                        current = new ManagedSearcher(IndexReader.open(directory, true));
+                    }
+                }
+            }
+            else if (searcher.tryIncRef())
+            {
+                return searcher;
+            }
+            // else it was replaced and closed meanwhile, try the new one
+        }
+        return null;
+    }
+
+    /**
+     * Give back a searcher got from {@link #acquire()}.
+     *
+     * @param searcher the searcher, may be null
+     */
+    static void release(IndexSearcher searcher)
+    {
+        if (searcher != null)
+        {
+            ((ManagedSearcher) searcher).decRef();
+        }
+    }
+
+    /**
+     * Ask the reopener to check for changes now, without waiting for it.
+     */
+    void requestReopen()
+    {
+        synchronized (signal)
+        {
+            requested = true;
+            signal.notify();
+        }
+    }
+
+    /**
+     * Replace the current searcher if the index changed.
+     *
+     * @return whether the searcher was replaced
+     * @throws IOException
+     */
+    boolean maybeReopen() throws IOException
+    {
+        synchronized (reopenLock)
+        {
+            ManagedSearcher old = current;
+            if (old == null || closed)
+            {
+                // opened by the first search
+                return false;
+            }
+
+            IndexReader reader = old.getIndexReader();
+            if (reader.isCurrent())
+            {
+                return false;
+            }
+
+            IndexReader reopened = reader.reopen();
+            if (reopened == reader)
+            {
+                return false;
+            }
+
+            current = new ManagedSearcher(reopened);
+            old.decRef();
+            return true;
+        }
+    }
+
+    /**
+     * Stop reopening, and close the current searcher once the searches
+     * using it are done.
+     */
+    void close()
+    {
+        synchronized (reopenLock)
+        {
+            closed = true;
+            if (current != null)
+            {
+                current.decRef();
+                current = null;
+            }
+        }
+        requestReopen();
+    }
+
+    private void reopenLoop()
+    {
+        while (!closed)
+        {
+            try
+            {
+                synchronized (signal)
+                {
+                    if (!requested)
+                    {
+                        signal.wait(interval);
+                    }
+                    requested = false;
+                }
+                maybeReopen();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (Exception e)
+            {
+                // the current searcher stays in use
+                log.warn("Unable to reopen the search index: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * An IndexSearcher counting the searches using it.
+     */
+    private static final class ManagedSearcher extends IndexSearcher
+    {
+        /** Searches using the searcher, plus one while it is current */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        ManagedSearcher(IndexReader reader)
+        {
+            super(reader);
+        }
+
+        /**
+         * @return false if the searcher is closed or closing
+         */
+        boolean tryIncRef()
+        {
+            int count;
+            do
+            {
+                count = refs.get();
+                if (count <= 0)
+                {
+                    return false;
+                }
+            }
+            while (!refs.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void decRef()
+        {
+            if (refs.decrementAndGet() == 0)
+            {
+                try
+                {
+                    // the searcher does not close readers it was given
+                    close();
+                    getIndexReader().close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Unable to close IndexSearcher", e);
+                }
+            }
+        }
+    }
+}
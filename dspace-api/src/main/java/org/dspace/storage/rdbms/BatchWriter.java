@@ -0,0 +1,350 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.Context;
+
+/**
+ * Writes many rows of one table using JDBC batches. Obtain one with
+ * {@link DatabaseManager#batch(Context, String)}.
+ * <p>
+ * Inserted, updated and deleted rows are queued and sent to the database
+ * with <code>addBatch</code>/<code>executeBatch</code> whenever the batch is
+ * full, when the kind of operation changes (so that operations reach the
+ * database in the order they were requested), and on {@link #flush()} and
+ * {@link #close()}. Each kind of operation uses a single prepared statement
+ * for the lifetime of the writer.
+ * <p>
+ * New rows get their primary keys from the table's sequence when the batch
+ * they are in is sent, in one round trip for as many IDs as the batch has new
+ * rows, so that no IDs are taken that are not used. The key is set on the row
+ * then, so callers that need it must call {@link #flush()} first.
+ * Queued rows are only read when they are sent, so they must not be changed
+ * until then.
+ * <p>
+ * Unlike {@link DatabaseManager#update(Context, TableRow)}, updates write
+ * all columns of the row, not only those that changed.
+ *
+ * @version $Revision$
+ */
+public class BatchWriter
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BatchWriter.class);
+
+    private static final int NONE = 0;
+    private static final int INSERT = 1;
+    private static final int UPDATE = 2;
+    private static final int DELETE = 3;
+
+    private final Context context;
+    private final String table;
+    private final int batchSize;
+
+    private final ColumnInfo primaryKey;
+    private final Collection<ColumnInfo> columns;
+
+    /** Columns bound by the update statement: non-key columns, then the key */
+    private final List<ColumnInfo> updateColumns = new ArrayList<ColumnInfo>();
+
+    private PreparedStatement insertStatement;
+    private PreparedStatement updateStatement;
+    private PreparedStatement deleteStatement;
+
+    /** Kind of the queued operations */
+    private int pending = NONE;
+
+    /** Queued rows */
+    private final List<TableRow> queued = new ArrayList<TableRow>();
+
+    /** Number of rows written */
+    private int written = 0;
+
+    BatchWriter(Context context, String table, int batchSize) throws SQLException
+    {
+        this.context = context;
+        this.table = table;
+        this.batchSize = Math.max(batchSize, 1);
+
+        columns = DatabaseManager.getColumnInfo(table);
+        primaryKey = DatabaseManager.getPrimaryKeyColumnInfo(table);
+
+        if (columns == null || primaryKey == null)
+        {
+            throw new SQLException("Cannot batch writes to table " + table);
+        }
+
+        for (ColumnInfo col : columns)
+        {
+            if (!col.isPrimaryKey())
+            {
+                updateColumns.add(col);
+            }
+        }
+        updateColumns.add(primaryKey);
+    }
+
+    /**
+     * Queue a new row for insertion. If its primary key is not set, it is
+     * given one from the table's sequence when the row is sent.
+     *
+     * @param row
+     *            a row of this writer's table, e.g. from
+     *            {@link DatabaseManager#row(String)}
+     * @throws SQLException
+     */
+    public void insert(TableRow row) throws SQLException
+    {
+        if (insertStatement == null)
+        {
+            insertStatement = prepare(insertSQL());
+        }
+
+        queue(INSERT, row);
+    }
+
+    /**
+     * Queue an existing row for update. All its columns are written.
+     *
+     * @param row
+     *            the row to update
+     * @throws SQLException
+     */
+    public void update(TableRow row) throws SQLException
+    {
+        if (updateStatement == null)
+        {
+            updateStatement = prepare(updateSQL());
+        }
+
+        queue(UPDATE, row);
+    }
+
+    /**
+     * Queue a row for deletion, by primary key.
+     *
+     * @param row
+     *            the row to delete
+     * @throws SQLException
+     */
+    public void delete(TableRow row) throws SQLException
+    {
+        if (deleteStatement == null)
+        {
+            deleteStatement = prepare("DELETE FROM " + table + " WHERE "
+                    + primaryKey.getName() + " = ?");
+        }
+
+        queue(DELETE, row);
+    }
+
+    /**
+     * Send all queued operations to the database.
+     *
+     * @throws SQLException
+     */
+    public void flush() throws SQLException
+    {
+        if (queued.isEmpty())
+        {
+            return;
+        }
+
+        if (pending == INSERT)
+        {
+            allocateIDs();
+        }
+
+        PreparedStatement statement = statementFor(pending);
+        Collection<ColumnInfo> bound = boundColumns(pending);
+        for (TableRow row : queued)
+        {
+            DatabaseManager.loadParameters(statement, bound, row);
+            statement.addBatch();
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Executing batch of " + queued.size() + " operations on " + table);
+        }
+
+        statement.executeBatch();
+        written += queued.size();
+        queued.clear();
+        pending = NONE;
+    }
+
+    /**
+     * Send all queued operations to the database and release the prepared
+     * statements. The writer must not be used afterwards.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            close(insertStatement);
+            close(updateStatement);
+            close(deleteStatement);
+            insertStatement = null;
+            updateStatement = null;
+            deleteStatement = null;
+        }
+    }
+
+    /**
+     * @return the number of rows inserted, updated or deleted so far,
+     *         excluding queued operations not yet flushed
+     */
+    public int getWrittenCount()
+    {
+        return written;
+    }
+
+    private void queue(int operation, TableRow row) throws SQLException
+    {
+        if (pending != operation)
+        {
+            flush();
+            pending = operation;
+        }
+
+        queued.add(row);
+
+        if (queued.size() >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Give the queued new rows without a primary key one, taking exactly as
+     * many IDs from the sequence as are needed.
+     */
+    private void allocateIDs() throws SQLException
+    {
+        String pk = primaryKey.getCanonicalizedName();
+        List<TableRow> keyless = new ArrayList<TableRow>();
+        for (TableRow row : queued)
+        {
+            if (row.isColumnNull(pk))
+            {
+                keyless.add(row);
+            }
+        }
+
+        if (keyless.isEmpty())
+        {
+            return;
+        }
+
+        int[] ids = DatabaseManager.nextIDs(context, table, keyless.size());
+        for (int i = 0; i < ids.length; i++)
+        {
+            keyless.get(i).setColumn(pk, ids[i]);
+        }
+    }
+
+    private String insertSQL()
+    {
+        StringBuilder names = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (ColumnInfo col : columns)
+        {
+            if (names.length() > 0)
+            {
+                names.append(",");
+                values.append(",");
+            }
+            names.append(col.getName());
+            values.append("?");
+        }
+
+        return "INSERT INTO " + table + " ( " + names + ") VALUES ( " + values + ")";
+    }
+
+    private String updateSQL()
+    {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        String separator = "";
+        for (ColumnInfo col : updateColumns)
+        {
+            if (!col.isPrimaryKey())
+            {
+                sql.append(separator).append(col.getName()).append(" = ?");
+                separator = ", ";
+            }
+        }
+
+        return sql.append(" WHERE ").append(primaryKey.getName()).append(" = ?").toString();
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Preparing batch statement \"" + sql + "\"");
+        }
+
+        return context.getDBConnection().prepareStatement(sql);
+    }
+
+    private Collection<ColumnInfo> boundColumns(int operation)
+    {
+        switch (operation)
+        {
+            case INSERT:
+                return columns;
+            case UPDATE:
+                return updateColumns;
+            default:
+                List<ColumnInfo> key = new ArrayList<ColumnInfo>(1);
+                key.add(primaryKey);
+                return key;
+        }
+    }
+
+    private PreparedStatement statementFor(int operation)
+    {
+        switch (operation)
+        {
+            case INSERT:
+                return insertStatement;
+            case UPDATE:
+                return updateStatement;
+            default:
+                return deleteStatement;
+        }
+    }
+
+    private static void close(PreparedStatement statement)
+    {
+        if (statement != null)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException sqle)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The columns of a {@link TableRow}: their canonical names, in order, and a
+ * lookup from column name to position.
+ * <p>
+ * A layout is immutable apart from its lookup, which also remembers the
+ * non-canonical spellings it has been asked for, so that a column is only
+ * lower-cased the first time it is looked up under a given spelling. Layouts
+ * are shared by all rows with the same columns, normally the rows of one
+ * table, so a row only holds its values.
+ *
+ * @version $Revision$
+ */
+final class ColumnLayout
+{
+    /** Maximum number of layouts kept, as queries can select any columns */
+    private static final int MAX_LAYOUTS = 1000;
+
+    /** Maximum number of spellings remembered per layout */
+    private static final int MAX_ALIASES = 256;
+
+    /** Shared layouts, by column names as given */
+    private static final ConcurrentMap<List<String>, ColumnLayout> layouts =
+            new ConcurrentHashMap<List<String>, ColumnLayout>();
+
+    /** Canonical column names, in order */
+    private final String[] names;
+
+    /** Position of each column, by canonical name and other spellings seen */
+    private final ConcurrentMap<String, Integer> positions = new ConcurrentHashMap<String, Integer>();
+
+    private ColumnLayout(List<String> columns)
+    {
+        List<String> canonical = new ArrayList<String>(columns.size());
+        for (String column : columns)
+        {
+            String name = ColumnInfo.canonicalize(column);
+            if (!positions.containsKey(name))
+            {
+                positions.put(name, Integer.valueOf(canonical.size()));
+                canonical.add(name);
+            }
+        }
+        names = canonical.toArray(new String[canonical.size()]);
+    }
+
+    /**
+     * Get the shared layout for the given columns.
+     *
+     * @param columns
+     *            column names, in any case; duplicates are ignored
+     * @return the layout
+     */
+    static ColumnLayout forColumns(List<String> columns)
+    {
+        ColumnLayout layout = layouts.get(columns);
+        if (layout == null)
+        {
+            if (layouts.size() >= MAX_LAYOUTS)
+            {
+                layouts.clear();
+            }
+
+            layout = new ColumnLayout(columns);
+            ColumnLayout existing = layouts.putIfAbsent(
+                    Collections.unmodifiableList(new ArrayList<String>(columns)), layout);
+            if (existing != null)
+            {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    int size()
+    {
+        return names.length;
+    }
+
+    /**
+     * @return the canonical name of the column at the given position
+     */
+    String getName(int i)
+    {
+        return names[i];
+    }
+
+    /**
+     * Find the position of a column.
+     *
+     * @param column
+     *            the column name (case-insensitive)
+     * @return the position, or -1 if there is no such column
+     */
+    int indexOf(String column)
+    {
+        Integer position = positions.get(column);
+        if (position == null)
+        {
+            position = positions.get(ColumnInfo.canonicalize(column));
+            if (position == null)
+            {
+                return -1;
+            }
+
+            if (positions.size() < names.length + MAX_ALIASES)
+            {
+                positions.putIfAbsent(column, position);
+            }
+        }
+        return position.intValue();
+    }
+}
@@ -303,6 +303,136 @@ public class DatabaseManager
         }
     }
 
+    /**
+     * Return an iterator with the results of the query, read from the
+     * database a few rows at a time rather than all at once, for jobs that
+     * go through very large result sets such as every item in the archive.
+     * The table parameter indicates the type of result. If table is null, the
+     * column names are read from the ResultSetMetaData.
+     * <p>
+     * The rows are read through a forward-only cursor with the fetch size set
+     * by <code>db.fetchsize</code>. On PostgreSQL the cursor only lasts as
+     * long as the current transaction, so the context must not be committed
+     * or aborted until the iterator has been closed; use a separate context
+     * for the query if the rows are processed in transactions of their own.
+     * 
+     * @param context
+     *            The context object
+     * @param table
+     *            The name of the table which results
+     * @param query
+     *            The SQL query
+     * @param parameters
+     * 			  A set of SQL parameters to be included in query. The order of 
+     * 			  the parameters must correspond to the order of their reference  
+     * 			  within the query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static TableRowIterator queryTableStreaming(Context context, String table, String query, Object... parameters) throws SQLException
+    {
+        if (log.isDebugEnabled())
+        {
+            StringBuilder sb = new StringBuilder("Running streaming query \"").append(query).append("\"  with parameters: ");
+            for (int i = 0; i < parameters.length; i++)
+            {
+                if (i > 0)
+                {
+                    sb.append(",");
+                }
+                sb.append(parameters[i].toString());
+            }
+            log.debug(sb.toString());
+        }
+
+        PreparedStatement statement = prepareStreamingStatement(context.getDBConnection(), query);
+        try
+        {
+            loadParameters(statement, parameters);
+
+            TableRowIterator retTRI = (table == null)
+                    ? new TableRowIterator(statement.executeQuery())
+                    : new TableRowIterator(statement.executeQuery(), canonicalize(table));
+
+            retTRI.setStatement(statement);
+            return retTRI;
+        }
+        catch (SQLException sqle)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException s)
+            {
+            }
+
+            throw sqle;
+        }
+    }
+
+    /**
+     * Return an iterator with the results of the query, read from the
+     * database a few rows at a time. See
+     * {@link #queryTableStreaming(Context, String, String, Object...)}.
+     * 
+     * @param context
+     *            The context object
+     * @param query
+     *            The SQL query
+     * @param parameters
+     * 			  A set of SQL parameters to be included in query. The order of 
+     * 			  the parameters must correspond to the order of their reference 
+     * 			  within the query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static TableRowIterator queryStreaming(Context context, String query,
+            Object... parameters) throws SQLException
+    {
+        return queryTableStreaming(context, null, query, parameters);
+    }
+
+    /**
+     * Prepare a statement whose results are read through a forward-only,
+     * read-only cursor, fetching <code>db.fetchsize</code> rows at a time.
+     * For the cursor to be used on PostgreSQL, the connection must not be in
+     * auto-commit mode.
+     * 
+     * @param connection
+     *            The connection to prepare the statement on
+     * @param query
+     *            The SQL query
+     * @return the prepared statement
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static PreparedStatement prepareStreamingStatement(Connection connection, String query)
+            throws SQLException
+    {
+        PreparedStatement statement = connection.prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try
+        {
+            statement.setFetchSize(ConfigurationManager.getIntProperty("db.fetchsize", 1000));
+        }
+        catch (SQLException sqle)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException s)
+            {
+            }
+
+            throw sqle;
+        }
+        return statement;
+    }
+
     /**
      * Return the single row result to this query, or null if no result. If more
      * than one row results, only the first is returned.
@@ -657,6 +787,25 @@ public class DatabaseManager
         return new TableRow(canonicalize(table), getColumnNames(table));
     }
 
+    /**
+     * Get a writer that sends inserts, updates and deletes of rows of the
+     * given table to the database in JDBC batches, for code that writes many
+     * rows at once. The batch size is set by <code>db.batch.size</code>. The
+     * writer must be closed when done with, which flushes any queued rows.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table to write to
+     * @return a new batch writer
+     * @throws SQLException
+     */
+    public static BatchWriter batch(Context context, String table) throws SQLException
+    {
+        return new BatchWriter(context, canonicalize(table),
+                ConfigurationManager.getIntProperty("db.batch.size", 100));
+    }
+
     /**
      * Insert a table row into the RDBMS.
      * 
@@ -1594,7 +1743,7 @@ public class DatabaseManager
 	    }
 	}
 
-    private static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         int count = 0;
         for (ColumnInfo info : columns)
@@ -1782,6 +1931,66 @@ public class DatabaseManager
         }
     }
 
+    /**
+     * Take a range of new IDs from the sequence of a table in a single query.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table
+     * @param count
+     *            The number of IDs wanted
+     * @return the new IDs
+     * @throws SQLException
+     */
+    static int[] nextIDs(Context context, String table, int count) throws SQLException
+    {
+        String sql;
+        if (isOracle)
+        {
+            sql = "SELECT " + table + "_seq.nextval FROM dual CONNECT BY level <= ?";
+        }
+        else
+        {
+            sql = "SELECT nextval('" + table + "_seq') FROM generate_series(1, ?)";
+        }
+
+        int[] ids = new int[count];
+        int found = 0;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(sql);
+            statement.setInt(1, count);
+            rs = statement.executeQuery();
+            while (found < count && rs.next())
+            {
+                ids[found++] = rs.getInt(1);
+            }
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                try { rs.close(); } catch (SQLException sqle) { }
+            }
+
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+
+        if (found < count)
+        {
+            throw new SQLException("Unable to retrieve sequence IDs");
+        }
+
+        return ids;
+    }
+
     /**
      * Generic version of row insertion with separate id get / insert
      * @param context
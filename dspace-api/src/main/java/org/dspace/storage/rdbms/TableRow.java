@@ -7,33 +7,36 @@
  */
 package org.dspace.storage.rdbms;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Represents a database row.
+ * <p>
+ * The values are held in an array, in the order of a {@link ColumnLayout}
+ * that is shared by all rows with the same columns, along with a set of the
+ * columns that have changed.
  * 
  * @author Peter Breton
  * @version $Revision$
  */
 public class TableRow
 {
-    /** Marker object to indicate NULLs. */
-    private static final Object NULL_OBJECT = new Object();
-
     /** The name of the database table containing this row */
     private String table;
 
+    /** The columns of this row */
+    private final ColumnLayout layout;
+
     /**
-     * A map of column names to column values. The key of the map is a String,
-     * the column name; the value is an Object, either an Integer, Boolean,
-     * Date, or String. If the value is NULL_OBJECT, then the column was NULL.
+     * The column values, by position in the layout. Each value is an Integer,
+     * Long, Double, Boolean, Date or String, or null if the column is NULL.
      */
-    private Map<String, Object> data = new HashMap<String, Object>();
+    private final Object[] data;
 
-    private Map<String, Boolean> changed = new HashMap<String, Boolean>();
+    /** Positions of the columns that have changed */
+    private final BitSet changed;
 
     /**
      * Constructor
@@ -47,15 +50,27 @@ public class TableRow
      *            IllegalArgumentException to be thrown.
      */
     public TableRow(String table, List<String> columns)
+    {
+        this(table, ColumnLayout.forColumns(columns));
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param table
+     *            The name of the database table containing this row.
+     * @param layout
+     *            The columns of the row.
+     */
+    TableRow(String table, ColumnLayout layout)
     {
         this.table = table;
+        this.layout = layout;
 
-        for (String column : columns)
-        {
-            String canonicalized = ColumnInfo.canonicalize(column);
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        int size = layout.size();
+        data = new Object[size];
+        changed = new BitSet(size);
+        changed.set(0, size);
     }
 
     /**
@@ -82,14 +97,7 @@ public class TableRow
      */
     public boolean hasColumn(String column)
     {
-        try
-        {
-            return canonicalizeAndCheck(column) != null;
-        }
-        catch (IllegalArgumentException e)
-        {
-            return false;
-        }
+        return layout.indexOf(column) >= 0;
     }
 
     /**
@@ -101,12 +109,8 @@ public class TableRow
      */
     public boolean hasColumnChanged(String column)
     {
-        return hasColumnChangedCanonicalized(ColumnInfo.canonicalize(column));
-    }
-
-    boolean hasColumnChangedCanonicalized(String column)
-    {
-        return changed.get(column) == Boolean.TRUE;
+        int i = layout.indexOf(column);
+        return i >= 0 && changed.get(i);
     }
 
     /**
@@ -118,12 +122,7 @@ public class TableRow
      */
     public boolean isColumnNull(String column)
     {
-        return isColumnNullCanonicalized(canonicalizeAndCheck(column));
-    }
-
-    boolean isColumnNullCanonicalized(String column)
-    {
-        return data.get(column) == NULL_OBJECT;
+        return data[indexOf(column)] == null;
     }
 
     /**
@@ -139,17 +138,10 @@ public class TableRow
      */
     public int getIntColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return -1;
-        }
-
-        Object value = data.get(canonicalized);
-
+        Object value = data[indexOf(column)];
         if (value == null)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return -1;
         }
 
         if (!(value instanceof Integer))
@@ -172,17 +164,10 @@ public class TableRow
      */
     public long getLongColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return -1;
-        }
-
-        Object value = data.get(canonicalized);
-
+        Object value = data[indexOf(column)];
         if (value == null)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return -1;
         }
 
         // If the value is an integer, it can be represented without error as a long
@@ -212,17 +197,10 @@ public class TableRow
      */
     public double getDoubleColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return -1;
-        }
-
-        Object value = data.get(canonicalized);
-
+        Object value = data[indexOf(column)];
         if (value == null)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return -1;
         }
         
         if (!(value instanceof Double))
@@ -246,17 +224,10 @@ public class TableRow
      */
     public String getStringColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return null;
-        }
-
-        Object value = data.get(canonicalized);
-
+        Object value = data[indexOf(column)];
         if (value == null)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return null;
         }
 
         if (!(value instanceof String))
@@ -280,20 +251,13 @@ public class TableRow
      */
     public boolean getBooleanColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
+        Object value = data[indexOf(column)];
+        if (value == null)
         {
             return false;
         }
 
-        Object value = data.get(canonicalized);
-
         // make sure that we tolerate integers or booleans
-        if (value == null)
-        {
-            throw new IllegalArgumentException("Column " + column + " not present");
-        }
-
         if ((value instanceof Boolean))
         {
             return ((Boolean) value).booleanValue();
@@ -328,17 +292,10 @@ public class TableRow
      */
     public java.util.Date getDateColumn(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (isColumnNullCanonicalized(canonicalized))
-        {
-            return null;
-        }
-
-        Object value = data.get(canonicalized);
-
+        Object value = data[indexOf(column)];
         if (value == null)
         {
-            throw new IllegalArgumentException("Column " + column + " not present");
+            return null;
         }
 
         if (!(value instanceof java.util.Date))
@@ -359,12 +316,7 @@ public class TableRow
      */
     public void setColumnNull(String column)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        if (data.get(canonicalized) != NULL_OBJECT)
-        {
-            data.put(canonicalized, NULL_OBJECT);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), null);
     }
     /**
      * Set column to the boolean b.
@@ -378,26 +330,16 @@ public class TableRow
      */
     public void setColumn(String column, boolean b)
     {
-        String canonicalized = canonicalizeAndCheck(column);
+        int i = indexOf(column);
         if (DatabaseManager.isOracle())
         {
             // if oracle, use 1 or 0 for true/false
-            Integer value = b ? Integer.valueOf(1) : Integer.valueOf(0);
-            if (!value.equals(data.get(canonicalized)))
-            {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
-            }
+            set(i, b ? Integer.valueOf(1) : Integer.valueOf(0));
         }
         else
         {
             // default to postgres true/false
-            Boolean value = b ? Boolean.TRUE : Boolean.FALSE;
-            if (!value.equals(data.get(canonicalized)))
-            {
-                data.put(canonicalized, value);
-                changed.put(canonicalized, Boolean.TRUE);
-            }
+            set(i, b ? Boolean.TRUE : Boolean.FALSE);
         }
     }
 
@@ -413,13 +355,7 @@ public class TableRow
      */
     public void setColumn(String column, String s)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Object value = (s == null) ? NULL_OBJECT : s;
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), s);
     }
 
     /**
@@ -434,13 +370,7 @@ public class TableRow
      */
     public void setColumn(String column, int i)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Integer value = Integer.valueOf(i);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), Integer.valueOf(i));
     }
 
     /**
@@ -455,13 +385,7 @@ public class TableRow
      */
     public void setColumn(String column, long l)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Long value = Long.valueOf(l);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), Long.valueOf(l));
     }
 
     /**
@@ -476,13 +400,7 @@ public class TableRow
      */
     public void setColumn(String column, double d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Double value = new Double(d);
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), Double.valueOf(d));
     }
 
     /**
@@ -498,13 +416,7 @@ public class TableRow
      */
     public void setColumn(String column, java.util.Date d)
     {
-        String canonicalized = canonicalizeAndCheck(column);
-        Object value = (d == null) ? NULL_OBJECT : d;
-        if (!value.equals(data.get(canonicalized)))
-        {
-            data.put(canonicalized, value);
-            changed.put(canonicalized, Boolean.TRUE);
-        }
+        set(indexOf(column), d);
     }
 
     ////////////////////////////////////////
@@ -532,11 +444,10 @@ public class TableRow
     	
     	result.append(NEWLINE);
 
-        for (Iterator iterator = data.keySet().iterator(); iterator.hasNext();)
+        for (int i = 0; i < data.length; i++)
         {
-            String column = (String) iterator.next();
-            result.append("\t").append(column).append(" = ").append(
-                    isColumnNull(column) ? "NULL" : data.get(column)).append(
+            result.append("\t").append(layout.getName(i)).append(" = ").append(
+                    (data[i] == null) ? "NULL" : data[i]).append(
                     NEWLINE);
         }
 
@@ -544,13 +455,21 @@ public class TableRow
     }
 
     /**
-     * Return a hash code for this object.
+     * Return a hash code for this object. Like {@link #equals}, it depends on
+     * the value of each column, by canonical name, but neither on the order
+     * of the columns nor on the table.
      * 
      * @return int hash of object
      */
     public int hashCode()
     {
-        return toString().hashCode();
+        int hash = 0;
+        for (int i = 0; i < data.length; i++)
+        {
+            hash += layout.getName(i).hashCode()
+                    ^ ((data[i] == null) ? 0 : data[i].hashCode());
+        }
+        return hash;
     }
 
     /**
@@ -566,23 +485,55 @@ public class TableRow
             return false;
         }
 
-        return data.equals(((TableRow) obj).data);
+        TableRow other = (TableRow) obj;
+        if (layout != other.layout)
+        {
+            // same columns in another order, or another set of columns
+            if (data.length != other.data.length)
+            {
+                return false;
+            }
+
+            for (int i = 0; i < data.length; i++)
+            {
+                int j = other.layout.indexOf(layout.getName(i));
+                if (j < 0 || !equal(data[i], other.data[j]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return Arrays.equals(data, other.data);
     }
 
-    private String canonicalizeAndCheck(String column)
+    private int indexOf(String column)
     {
-        if (data.containsKey(column))
+        int i = layout.indexOf(column);
+        if (i < 0)
         {
-            return column;
+            throw new IllegalArgumentException("No such column " + ColumnInfo.canonicalize(column));
         }
+        return i;
+    }
 
-        String canonicalized = ColumnInfo.canonicalize(column);
-        if (data.containsKey(canonicalized))
+    /**
+     * Set the value at a position, noting the change if it differs from the
+     * current value.
+     */
+    private void set(int i, Object value)
+    {
+        if (!equal(value, data[i]))
         {
-            return canonicalized;
+            data[i] = value;
+            changed.set(i);
         }
+    }
 
-        throw new IllegalArgumentException("No such column " + canonicalized);
+    private static boolean equal(Object a, Object b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
     }
 
     /**
@@ -594,9 +545,6 @@ public class TableRow
      */
     void resetChanged()
     {
-        for (String column : changed.keySet())
-        {
-            changed.put(column, Boolean.FALSE);
-        }
+        changed.clear();
     }
 }
@@ -0,0 +1,66 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authenticate;
+
+import static org.junit.Assert.fail;
+
+import org.dspace.AbstractUnitTest;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class IPAuthentication
+ */
+public class IPAuthenticationTest extends AbstractUnitTest
+{
+    /**
+     * Test of addMatchers method, with well formed ranges.
+     */
+    @Test
+    public void testAddMatchers()
+    {
+        new IPAuthentication().addMatchers(new IPRangeIndex.Builder(), "Test",
+                "18., 192.25.0.0/255.255.0.0, -192.25.1.0/24");
+    }
+
+    /**
+     * Test of addMatchers method, with a negative range whose netmask is not
+     * contiguous: leaving it out would widen the group.
+     */
+    @Test
+    public void testAddMatchersInvalidMask()
+    {
+        try
+        {
+            new IPAuthentication().addMatchers(new IPRangeIndex.Builder(), "Test",
+                    "192.25.0.0/255.255.0.0, -192.25.0.0/255.0.255.0");
+            fail("Non-contiguous netmask accepted");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Test of addMatchers method, with a malformed range.
+     */
+    @Test
+    public void testAddMatchersMalformed()
+    {
+        try
+        {
+            new IPAuthentication().addMatchers(new IPRangeIndex.Builder(), "Test",
+                    "-192.25.x.0/24");
+            fail("Malformed range accepted");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+}
@@ -117,6 +117,86 @@ public class IPMatcherTest extends AbstractUnitTest
                 .match(IP6_FULL_ADDRESS2));
     }
     
+    /**
+     * Test method for
+     * {@link org.dspace.authenticate.IPMatcher#match(java.lang.String)}
+     * with an IPv4 network in CIDR notation.
+     */
+    @Test
+    public void testIp4CidrMatch()
+    throws IPMatcherException
+    {
+        IPMatcher matcher = new IPMatcher("192.168.10.0/24");
+        assertTrue("IPv4 CIDR match fails", matcher.match("192.168.10.17"));
+        assertTrue("IPv4 CIDR match fails", matcher.match("192.168.10.255"));
+        assertFalse("IPv4 CIDR nonmatch succeeds", matcher.match("192.168.11.17"));
+
+        matcher = new IPMatcher("10.1.2.3/12");
+        assertTrue("IPv4 CIDR match fails", matcher.match("10.15.200.1"));
+        assertFalse("IPv4 CIDR nonmatch succeeds", matcher.match("10.16.0.0"));
+
+        matcher = new IPMatcher("192.168.10.17/32");
+        assertTrue("IPv4 /32 match fails", matcher.match("192.168.10.17"));
+        assertFalse("IPv4 /32 nonmatch succeeds", matcher.match("192.168.10.18"));
+    }
+
+    /**
+     * Test method for
+     * {@link org.dspace.authenticate.IPMatcher#match(java.lang.String)}
+     * with an IPv4 network and netmask.
+     */
+    @Test
+    public void testIp4NetmaskMatch()
+    throws IPMatcherException
+    {
+        IPMatcher matcher = new IPMatcher("192.168.10.0/255.255.255.128");
+        assertTrue("IPv4 netmask match fails", matcher.match("192.168.10.100"));
+        assertFalse("IPv4 netmask nonmatch succeeds", matcher.match("192.168.10.200"));
+    }
+
+    /**
+     * Test method for {@link org.dspace.authenticate.IPMatcher#IPMatcher(java.lang.String)}.
+     */
+    @Test(expected=IPMatcherException.class)
+    public void testIPMatcherIp4CidrPartial()
+    throws IPMatcherException
+    {
+        new IPMatcher("192.168.10/24"); // CIDR needs a full network address
+    }
+
+    /**
+     * Test method for
+     * {@link org.dspace.authenticate.IPMatcher#match(java.lang.String)}
+     * with a /128 IPv6 mask.
+     */
+    @Test
+    public void testIp6FullMaskMatch()
+    throws IPMatcherException
+    {
+        IPMatcher matcher = new IPMatcher(IP6_FULL_ADDRESS1 + "/128");
+        assertTrue("IPv6 /128 match fails", matcher.match(IP6_FULL_ADDRESS1));
+        assertFalse("IPv6 /128 nonmatch succeeds", matcher.match(IP6_FULL_ADDRESS2));
+    }
+
+    /**
+     * Test method for
+     * {@link org.dspace.authenticate.IPMatcher#match(java.lang.String)}
+     * with IPv4-mapped IPv6 addresses, which match as the IPv4 address they
+     * map.
+     */
+    @Test
+    public void testIp4MappedMatch()
+    throws IPMatcherException
+    {
+        IPMatcher matcher = new IPMatcher("192.168.10.0/24");
+        assertTrue("IPv4-mapped match fails", matcher.match("::ffff:192.168.10.17"));
+        assertFalse("IPv4-mapped nonmatch succeeds", matcher.match("::ffff:192.168.11.17"));
+
+        matcher = new IPMatcher("::ffff:192.168.10.17");
+        assertTrue("IPv4-mapped range match fails", matcher.match("192.168.10.17"));
+        assertFalse("IPv4-mapped range nonmatch succeeds", matcher.match("192.168.10.18"));
+    }
+
     @AfterClass
     static public void cleanup()
     {
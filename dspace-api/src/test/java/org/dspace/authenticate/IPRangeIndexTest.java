@@ -0,0 +1,194 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authenticate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.dspace.AbstractUnitTest;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class IPRangeIndex
+ */
+public class IPRangeIndexTest extends AbstractUnitTest
+{
+    /**
+     * Test of lookup method, with IPv4 specifications.
+     */
+    @Test
+    public void testIp4() throws IPMatcherException
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder()
+                .add("18.", 1)
+                .add("192.25.0.0/255.255.0.0", 2)
+                .add("10.1.2.0/24", 3)
+                .add("10.1.2.7", 4)
+                .addRange("172.16.0.10", "172.16.1.20", 5)
+                .build();
+
+        assertArrayEquals(new int[] { 1 }, index.lookup("18.255.0.1"));
+        assertArrayEquals(new int[] { 2 }, index.lookup("192.25.100.200"));
+        assertArrayEquals(new int[] { 3 }, index.lookup("10.1.2.6"));
+        assertArrayEquals(new int[] { 3, 4 }, index.lookup("10.1.2.7"));
+        assertArrayEquals(new int[] { 3 }, index.lookup("10.1.2.255"));
+        assertArrayEquals(new int[] { 5 }, index.lookup("172.16.0.255"));
+        assertArrayEquals(new int[] { 5 }, index.lookup("172.16.1.20"));
+        assertFalse("Address after range matches", index.contains("172.16.1.21"));
+        assertFalse("Address before range matches", index.contains("172.16.0.9"));
+        assertFalse("Address outside ranges matches", index.contains("19.0.0.1"));
+        assertFalse("Address outside ranges matches", index.contains("10.1.3.0"));
+    }
+
+    /**
+     * Test of lookup method, with IPv6 specifications and addresses.
+     */
+    @Test
+    public void testIp6() throws IPMatcherException
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder()
+                .add("2001:18e8:3::/48", 1)
+                .add("2001:18e8:3:171:218:8bff:fe2a:56a4", 2)
+                .add("fe80::/10", 3)
+                .build();
+
+        assertArrayEquals(new int[] { 1, 2 }, index.lookup("2001:18e8:3:171:218:8bff:fe2a:56a4"));
+        assertArrayEquals(new int[] { 1 }, index.lookup("2001:18E8:3:171:218:8bff:fe2a:56a3"));
+        assertArrayEquals(new int[] { 1 }, index.lookup("2001:18e8:3::"));
+        assertArrayEquals(new int[] { 3 }, index.lookup("febf:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse("Address outside ranges matches", index.contains("2001:18e8:4::1"));
+        assertFalse("Address outside ranges matches", index.contains("::1"));
+    }
+
+    /**
+     * IPv4-mapped IPv6 addresses are the IPv4 addresses they map.
+     */
+    @Test
+    public void testIp4Mapped() throws IPMatcherException
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder()
+                .add("10.1.2.0/24", 1)
+                .build();
+
+        assertTrue("Mapped address does not match", index.contains("::ffff:10.1.2.3"));
+        assertTrue("Mapped address does not match", index.contains("0:0:0:0:0:ffff:a01:203"));
+        assertFalse("Mapped address outside range matches", index.contains("::ffff:10.1.3.3"));
+    }
+
+    /**
+     * Ranges covering the whole address space, and its last address.
+     */
+    @Test
+    public void testEdges() throws IPMatcherException
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder()
+                .add("::/0", 1)
+                .add("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff/128", 2)
+                .build();
+
+        assertArrayEquals(new int[] { 1 }, index.lookup("::"));
+        assertArrayEquals(new int[] { 1 }, index.lookup("1.2.3.4"));
+        assertArrayEquals(new int[] { 1, 2 }, index.lookup("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertEquals(2, index.size());
+    }
+
+    /**
+     * Adjacent and overlapping ranges with the same value are merged.
+     */
+    @Test
+    public void testMerge() throws IPMatcherException
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder()
+                .add("10.0.0.0/24", 1)
+                .add("10.0.1.0/24", 1)
+                .add("10.0.0.128/25", 1)
+                .build();
+
+        assertEquals(1, index.size());
+        assertTrue("Address in merged range does not match", index.contains("10.0.1.255"));
+    }
+
+    /**
+     * Malformed addresses are rejected.
+     */
+    @Test
+    public void testMalformed()
+    {
+        IPRangeIndex index = new IPRangeIndex.Builder().build();
+        String[] malformed = { "", "1.2.3", "1.2.3.4.", "1.2.3.256", "1..2.3",
+                "1234:5", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::", ":1::",
+                "fe80::1%eth0" };
+        for (String ip : malformed)
+        {
+            try
+            {
+                index.contains(ip);
+                fail("Malformed address accepted: " + ip);
+            }
+            catch (IPMatcherException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Non-contiguous netmasks are rejected.
+     */
+    @Test(expected=IPMatcherException.class)
+    public void testNonContiguousNetmask() throws IPMatcherException
+    {
+        new IPRangeIndex.Builder().add("10.0.0.0/255.0.255.0", 1);
+    }
+
+    /**
+     * The index finds what a list of IPMatchers finds.
+     */
+    @Test
+    public void testAgainstMatchers() throws IPMatcherException
+    {
+        Random random = new Random(42);
+        IPRangeIndex.Builder builder = new IPRangeIndex.Builder();
+        List<IPMatcher> matchers = new ArrayList<IPMatcher>();
+        for (int i = 0; i < 2000; i++)
+        {
+            String spec = "10." + random.nextInt(4) + "." + random.nextInt(256)
+                    + "." + random.nextInt(256) + "/" + (16 + random.nextInt(17));
+            builder.add(spec, i);
+            matchers.add(new IPMatcher(spec));
+        }
+        IPRangeIndex index = builder.build();
+
+        for (int i = 0; i < 5000; i++)
+        {
+            String ip = "10." + random.nextInt(5) + "." + random.nextInt(256)
+                    + "." + random.nextInt(256);
+            List<Integer> expected = new ArrayList<Integer>();
+            for (int m = 0; m < matchers.size(); m++)
+            {
+                if (matchers.get(m).match(ip))
+                {
+                    expected.add(m);
+                }
+            }
+            int[] found = index.lookup(ip);
+            assertEquals("Wrong number of ranges for " + ip, expected.size(), found.length);
+            for (int f = 0; f < found.length; f++)
+            {
+                assertEquals("Wrong range for " + ip, expected.get(f).intValue(), found[f]);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit Tests for class ItemMetadata
+ */
+public class ItemMetadataTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemMetadataTest.class);
+
+    /**
+     * ItemMetadata instance for the tests
+     */
+    private ItemMetadata md;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        md = new ItemMetadata();
+        md.add(value("dc", "title", null, "en", "Title"));
+        md.add(value("dc", "title", "alternative", "en", "Alternative"));
+        md.add(value("dc", "subject", null, "en", "one"));
+        md.add(value("dc", "subject", null, null, "two"));
+        md.add(value("dc", "subject", null, "de", "drei"));
+        md.add(value("test", "subject", null, "en", "other schema"));
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        md = null;
+        super.destroy();
+    }
+
+    /**
+     * Test of find method with a fully specified field.
+     */
+    @Test
+    public void testFindExact()
+    {
+        DCValue[] found = md.find("dc", "subject", null, Item.ANY);
+        assertThat("testFindExact 0", found.length, equalTo(3));
+        assertThat("testFindExact 1", found[0].value, equalTo("one"));
+        assertThat("testFindExact 2", found[1].value, equalTo("two"));
+        assertThat("testFindExact 3", found[2].value, equalTo("drei"));
+
+        found = md.find("dc", "subject", null, null);
+        assertThat("testFindExact 4", found.length, equalTo(1));
+        assertThat("testFindExact 5", found[0].value, equalTo("two"));
+
+        found = md.find("dc", "subject", null, "de");
+        assertThat("testFindExact 6", found.length, equalTo(1));
+        assertThat("testFindExact 7", found[0].schema, equalTo("dc"));
+        assertThat("testFindExact 8", found[0].element, equalTo("subject"));
+        assertThat("testFindExact 9", found[0].language, equalTo("de"));
+
+        assertThat("testFindExact 10", md.find("dc", "nothing", null, Item.ANY).length, equalTo(0));
+    }
+
+    /**
+     * Test of find method with wildcards.
+     */
+    @Test
+    public void testFindWildcard()
+    {
+        assertThat("testFindWildcard 0", md.find("dc", "title", Item.ANY, Item.ANY).length, equalTo(2));
+        assertThat("testFindWildcard 1", md.find(Item.ANY, "subject", null, "en").length, equalTo(2));
+        assertThat("testFindWildcard 2", md.find("dc", Item.ANY, Item.ANY, Item.ANY).length, equalTo(5));
+        assertThat("testFindWildcard 3", md.find(Item.ANY, Item.ANY, Item.ANY, Item.ANY).length, equalTo(6));
+    }
+
+    /**
+     * Test that values added after a lookup are found.
+     */
+    @Test
+    public void testAddAfterFind()
+    {
+        assertThat("testAddAfterFind 0", md.find("dc", "title", null, Item.ANY).length, equalTo(1));
+        md.add(value("dc", "title", null, "en", "Second title"));
+        DCValue[] found = md.find("dc", "title", null, Item.ANY);
+        assertThat("testAddAfterFind 1", found.length, equalTo(2));
+        assertThat("testAddAfterFind 2", found[1].value, equalTo("Second title"));
+        assertThat("testAddAfterFind 3", md.size(), equalTo(7));
+    }
+
+    /**
+     * Test of remove method.
+     */
+    @Test
+    public void testRemove()
+    {
+        assertThat("testRemove 0", md.find("dc", "subject", null, Item.ANY).length, equalTo(3));
+        assertThat("testRemove 1", md.remove("dc", "subject", null, "en"), equalTo(1));
+        assertThat("testRemove 2", md.find("dc", "subject", null, Item.ANY).length, equalTo(2));
+        assertThat("testRemove 3", md.remove(Item.ANY, Item.ANY, Item.ANY, Item.ANY), equalTo(5));
+        assertThat("testRemove 4", md.size(), equalTo(0));
+        assertThat("testRemove 5", md.find("dc", "title", null, Item.ANY).length, equalTo(0));
+    }
+
+    /**
+     * Test that copies are returned, not the stored values.
+     */
+    @Test
+    public void testCopies()
+    {
+        md.find("dc", "title", null, "en")[0].value = "changed";
+        assertThat("testCopies 0", md.get(0).value, equalTo("Title"));
+        assertThat("testCopies 1", md.toArray().length, equalTo(6));
+    }
+
+    /**
+     * Test that language codes are shared between values.
+     */
+    @Test
+    public void testLanguageInterned()
+    {
+        ItemMetadata other = new ItemMetadata();
+        other.add(value("dc", "title", null, new String("en"), "Other title"));
+        assertThat("testLanguageInterned 0", other.get(0).language, sameInstance(md.get(0).language));
+    }
+
+    /**
+     * Test of find on an item with many values, against a plain scan.
+     */
+    @Test
+    public void testLargeItem()
+    {
+        ItemMetadata large = new ItemMetadata();
+        String[] elements = {"contributor", "subject", "description", "identifier"};
+        for (int i = 0; i < 250; i++)
+        {
+            large.add(value("dc", elements[i % elements.length], (i % 3 == 0) ? null : "other",
+                    (i % 2 == 0) ? "en" : null, "value " + i));
+        }
+
+        DCValue[] found = large.find("dc", "subject", "other", Item.ANY);
+        int expected = 0;
+        for (int i = 0; i < large.size(); i++)
+        {
+            DCValue dcv = large.get(i);
+            if ("subject".equals(dcv.element) && "other".equals(dcv.qualifier))
+            {
+                assertThat("testLargeItem " + i, found[expected].value, equalTo(dcv.value));
+                expected++;
+            }
+        }
+        assertThat("testLargeItem size", found.length, equalTo(expected));
+    }
+
+    private static DCValue value(String schema, String element, String qualifier,
+            String lang, String text)
+    {
+        DCValue dcv = new DCValue();
+        dcv.schema = schema;
+        dcv.element = element;
+        dcv.qualifier = qualifier;
+        dcv.language = lang;
+        dcv.value = text;
+        return dcv;
+    }
+}
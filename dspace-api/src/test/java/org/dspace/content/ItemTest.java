@@ -32,6 +32,8 @@ import org.dspace.authorize.AuthorizeManager;
 import org.dspace.authorize.ResourcePolicy;
 import org.dspace.content.authority.MetadataAuthorityManager;
 import org.dspace.core.Constants;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
 
 /**
  * Unit Tests for class Item
@@ -114,6 +116,35 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertThat("testItemFind 2", found.getName(), nullValue());
     }
 
+    /**
+     * Test of findAll method, of class Item.
+     */
+    @Test
+    public void testItemFindAll() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        it.addMetadata("dc", "description", null, null, "bulk loaded");
+        it.addMetadata("dc", "subject", null, null, new String[] {"one", "two"});
+        File f = new File(testProps.get("test.bitstream").toString());
+        Bitstream bs = it.createSingleBitstream(new FileInputStream(f), "ORIGINAL");
+        it.update();
+        context.restoreAuthSystemState();
+
+        int id = it.getID();
+        context.clearCache();
+
+        Item[] found = Item.findAll(context, new int[] {id, -1, id});
+        assertThat("testItemFindAll 0", found.length, equalTo(3));
+        assertThat("testItemFindAll 1", found[0], notNullValue());
+        assertThat("testItemFindAll 2", found[1], nullValue());
+        assertThat("testItemFindAll 3", found[2], sameInstance(found[0]));
+        assertThat("testItemFindAll 4", Item.find(context, id), sameInstance(found[0]));
+        assertThat("testItemFindAll 5", found[0].getMetadata("dc", "description", null, Item.ANY)[0].value, equalTo("bulk loaded"));
+        assertThat("testItemFindAll 6", found[0].getMetadata("dc", "subject", null, Item.ANY).length, equalTo(2));
+        assertThat("testItemFindAll 7", found[0].getBundles("ORIGINAL").length, equalTo(1));
+        assertThat("testItemFindAll 8", found[0].getBundles("ORIGINAL")[0].getBitstreams()[0].getID(), equalTo(bs.getID()));
+    }
+
     /**
      * Test of create method, of class Item.
      */
@@ -146,6 +177,34 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testFindAll 1",added);
     }
 
+    /**
+     * Test of findAllStreaming method, of class Item.
+     */
+    @Test
+    public void testFindAllStreaming() throws Exception
+    {
+        ItemIterator all = Item.findAllStreaming(context);
+        assertThat("testFindAllStreaming 0", all, notNullValue());
+
+        boolean added = false;
+        try
+        {
+            while(all.hasNext())
+            {
+                Item tmp = all.next();
+                if(tmp.equals(it))
+                {
+                    added = true;
+                }
+            }
+        }
+        finally
+        {
+            all.close();
+        }
+        assertTrue("testFindAllStreaming 1",added);
+    }
+
     /**
      * Test of findBySubmitter method, of class Item.
      */
@@ -1093,6 +1152,45 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         it.update();
     }
 
+    /**
+     * Test that update only rewrites the metadata that changed.
+     */
+    @Test
+    public void testUpdateMetadataDiff() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        it.addMetadata("dc", "description", null, null, "unchanged");
+        it.addMetadata("dc", "subject", null, null, new String[] {"one", "two", "three"});
+        it.update();
+
+        int unchangedID = storedValueID("unchanged");
+        int firstID = storedValueID("one");
+
+        it.clearMetadata("dc", "subject", null, Item.ANY);
+        it.addMetadata("dc", "subject", null, null, new String[] {"one", "deux"});
+        it.update();
+        context.restoreAuthSystemState();
+
+        assertThat("testUpdateMetadataDiff 0", storedValueID("unchanged"), equalTo(unchangedID));
+        assertThat("testUpdateMetadataDiff 1", storedValueID("one"), equalTo(firstID));
+        assertThat("testUpdateMetadataDiff 2", storedValueID("two"), equalTo(-1));
+        assertThat("testUpdateMetadataDiff 3", storedValueID("three"), equalTo(-1));
+
+        context.clearCache();
+        DCValue[] subjects = Item.find(context, it.getID()).getMetadata("dc", "subject", null, Item.ANY);
+        assertThat("testUpdateMetadataDiff 4", subjects.length, equalTo(2));
+        assertThat("testUpdateMetadataDiff 5", subjects[0].value, equalTo("one"));
+        assertThat("testUpdateMetadataDiff 6", subjects[1].value, equalTo("deux"));
+    }
+
+    private int storedValueID(String value) throws SQLException
+    {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT metadata_value_id FROM MetadataValue WHERE item_id= ? AND text_value= ?",
+                it.getID(), value);
+        return (row == null) ? -1 : row.getIntColumn("metadata_value_id");
+    }
+
     /**
      * Test of update method, of class Item.
      */
@@ -0,0 +1,163 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests incremental maintenance of the group2groupcache table against a full
+ * rebuild from group2group.
+ */
+public class Group2GroupCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(Group2GroupCacheTest.class);
+
+    private Group top;
+    private Group middle;
+    private Group bottom;
+    private Group other;
+
+    /**
+     * Create a small hierarchy: top > middle > bottom, and an unrelated
+     * group.
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            top = Group.create(context);
+            middle = Group.create(context);
+            bottom = Group.create(context);
+            other = Group.create(context);
+
+            middle.addMember(bottom);
+            middle.update();
+            top.addMember(middle);
+            top.update();
+            context.restoreAuthSystemState();
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        top = null;
+        middle = null;
+        bottom = null;
+        other = null;
+        super.destroy();
+    }
+
+    @Test
+    public void testAddMember() throws Exception
+    {
+        assertConsistent();
+        assertTrue("top > bottom", descendants(top).contains(bottom.getID()));
+
+        bottom.addMember(other);
+        bottom.update();
+
+        assertConsistent();
+        assertTrue("top > other", descendants(top).contains(other.getID()));
+        assertTrue("middle > other", descendants(middle).contains(other.getID()));
+    }
+
+    @Test
+    public void testRemoveMember() throws Exception
+    {
+        middle.removeMember(bottom);
+        middle.update();
+
+        assertConsistent();
+        assertFalse("top > bottom", descendants(top).contains(bottom.getID()));
+        assertTrue("top > middle", descendants(top).contains(middle.getID()));
+    }
+
+    @Test
+    public void testRemoveWithOtherPath() throws Exception
+    {
+        // bottom is reachable from top both directly and through middle
+        top.addMember(bottom);
+        top.update();
+        middle.removeMember(bottom);
+        middle.update();
+
+        assertConsistent();
+        assertTrue("top > bottom", descendants(top).contains(bottom.getID()));
+    }
+
+    @Test
+    public void testDeleteGroup() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        middle.delete();
+        context.restoreAuthSystemState();
+
+        assertConsistent();
+        assertFalse("top > bottom", descendants(top).contains(bottom.getID()));
+    }
+
+    @Test
+    public void testRebuild() throws Exception
+    {
+        assertEquals("nothing to change", 0, Group2GroupCache.rebuild(context));
+        assertConsistent();
+    }
+
+    private Set<Integer> descendants(Group g) throws SQLException
+    {
+        Set<Integer> parent = new HashSet<Integer>();
+        parent.add(g.getID());
+        Set<Integer> children = Group2GroupCache.loadCache(context, parent).get(g.getID());
+        return children == null ? new HashSet<Integer>() : children;
+    }
+
+    private void assertConsistent() throws SQLException
+    {
+        Map<Integer, Set<Integer>> wanted = Group2GroupCache.computeClosure(context);
+        Map<Integer, Set<Integer>> current = Group2GroupCache.loadCache(context, null);
+
+        for (Map.Entry<Integer, Set<Integer>> entry : wanted.entrySet())
+        {
+            if (!entry.getValue().isEmpty())
+            {
+                assertEquals("descendants of " + entry.getKey(), entry.getValue(),
+                        current.get(entry.getKey()));
+            }
+        }
+        for (Integer parent : current.keySet())
+        {
+            assertTrue("no stray rows for " + parent, wanted.containsKey(parent));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class GroupMembershipCache
+ */
+public class GroupMembershipCacheTest extends AbstractUnitTest
+{
+    /**
+     * A membership resolved while a change is not committed is not seen by
+     * other contexts, and is gone once the change is rolled back.
+     */
+    @Test
+    public void testUncommittedChange() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        EPerson eperson = EPerson.create(context);
+        eperson.setEmail("membership-cache@example.com");
+        eperson.update();
+        Group group = Group.create(context);
+        context.restoreAuthSystemState();
+        context.commit();
+
+        Context changing = new Context();
+        try
+        {
+            changing.turnOffAuthorisationSystem();
+            Group changed = Group.find(changing, group.getID());
+            changed.addMember(EPerson.find(changing, eperson.getID()));
+            changed.update();
+
+            assertTrue("testUncommittedChange 0",
+                    Group.allMemberGroupIDs(changing, eperson).contains(group.getID()));
+            assertFalse("testUncommittedChange 1", GroupMembershipCache.isShared(eperson));
+        }
+        finally
+        {
+            changing.abort();
+        }
+
+        assertFalse("testUncommittedChange 2",
+                Group.allMemberGroupIDs(context, eperson).contains(group.getID()));
+        Context other = new Context();
+        try
+        {
+            assertFalse("testUncommittedChange 3",
+                    Group.allMemberGroupIDs(other, eperson).contains(group.getID()));
+        }
+        finally
+        {
+            other.abort();
+        }
+    }
+}
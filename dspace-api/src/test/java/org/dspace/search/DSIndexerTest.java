@@ -0,0 +1,355 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.ConfigurationManager;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit Tests for the IndexWriter shared by DSIndexer
+ */
+public class DSIndexerTest extends AbstractUnitTest
+{
+    /** Managers opened by a test, closed after it */
+    private List<IndexWriterManager> managers = new ArrayList<IndexWriterManager>();
+
+    @After
+    @Override
+    public void destroy()
+    {
+        DSIndexer.setBatchProcessingMode(false);
+        getHandoffFile().delete();
+        for (IndexWriterManager manager : managers)
+        {
+            manager.close();
+        }
+        super.destroy();
+    }
+
+    /**
+     * A change is committed before indexing returns.
+     */
+    @Test
+    public void testCommit() throws Exception
+    {
+        long commits = DSIndexer.getCommitCount();
+        long tasks = DSIndexer.getCommittedTaskCount();
+
+        DSIndexer.unIndexContent(context, "123456789/does-not-exist");
+
+        assertEquals("Change left queued", 0, DSIndexer.getQueuedTaskCount());
+        assertEquals("Change not committed", commits + 1, DSIndexer.getCommitCount());
+        assertEquals("Change not committed", tasks + 1, DSIndexer.getCommittedTaskCount());
+    }
+
+    /**
+     * In batch mode changes are queued, and all committed at the end.
+     */
+    @Test
+    public void testBatch() throws Exception
+    {
+        DSIndexer.setBatchProcessingMode(true);
+        long tasks = DSIndexer.getCommittedTaskCount();
+
+        DSIndexer.unIndexContent(context, "123456789/does-not-exist-1");
+        DSIndexer.unIndexContent(context, "123456789/does-not-exist-2");
+
+        DSIndexer.setBatchProcessingMode(false);
+        assertEquals("Changes left queued", 0, DSIndexer.getQueuedTaskCount());
+        assertEquals("Changes not committed", tasks + 2, DSIndexer.getCommittedTaskCount());
+    }
+
+    /**
+     * A parallel rebuild leaves a searchable index holding the items and
+     * their collection, and no build directories.
+     */
+    @Test
+    public void testCreateIndexParallel() throws Exception
+    {
+        context.turnOffAuthorisationSystem();
+        Collection collection = Community.create(null, context).createCollection();
+        collection.setMetadata("name", "Parallelcollection");
+        collection.update();
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        wsi.getItem().addMetadata("dc", "description", "abstract", null, "Parallelrebuild");
+        Item item = InstallItem.installItem(context, wsi);
+        context.restoreAuthSystemState();
+        context.commit();
+
+        // only the rebuild can bring them back
+        DSIndexer.unIndexContent(context, item);
+        DSIndexer.unIndexContent(context, collection);
+        assertFalse("Item not removed", search("Parallelrebuild").contains(item.getHandle()));
+
+        DSIndexer.createIndex(context, 3);
+
+        File indexDir = new File(ConfigurationManager.getProperty("search.dir"));
+        assertTrue("Index missing", IndexReader.indexExists(FSDirectory.open(indexDir)));
+        assertFalse("Build directories left", new File(indexDir.getPath() + "-build").exists());
+        assertTrue("Item not searchable", search("Parallelrebuild").contains(item.getHandle()));
+        assertTrue("Collection not searchable",
+                search("Parallelcollection").contains(collection.getHandle()));
+    }
+
+    private List<String> search(String query) throws Exception
+    {
+        QueryArgs args = new QueryArgs();
+        args.setQuery(query);
+        QueryResults results = DSQuery.doQuery(context, args);
+        assertNull("Index not searchable", results.getErrorMsg());
+        return results.getHitHandles();
+    }
+
+    /**
+     * While another process asks for the index, the writer is released and
+     * a caller waits until its change is committed after the index is
+     * released again.
+     */
+    @Test
+    public void testHandoffHolder() throws Exception
+    {
+        IndexWriterManager manager = handOff();
+
+        TaskRunner commit = new TaskRunner()
+        {
+            void run(IndexWriterManager m) throws Exception
+            {
+                m.commit(task("2"));
+            }
+        };
+        commit.start(manager);
+        Thread.sleep(1500);
+        assertTrue("Returned while handed off", commit.isAlive());
+        assertEquals("Change not queued", 1, manager.getQueuedTaskCount());
+
+        getHandoffFile().delete();
+        commit.finish();
+        assertEquals("Change not committed", 2, manager.getCommittedTaskCount());
+    }
+
+    /**
+     * Closing while another process has the index waits until it is
+     * released, and commits the queued changes.
+     */
+    @Test
+    public void testHandoffClose() throws Exception
+    {
+        IndexWriterManager manager = handOff();
+        manager.queue(task("2"));
+
+        TaskRunner close = new TaskRunner()
+        {
+            void run(IndexWriterManager m) throws Exception
+            {
+                m.close();
+            }
+        };
+        close.start(manager);
+        Thread.sleep(1500);
+        assertTrue("Closed while handed off", close.isAlive());
+
+        getHandoffFile().delete();
+        close.finish();
+        assertEquals("Change not committed", 2, manager.getCommittedTaskCount());
+    }
+
+    /**
+     * A caller gives up waiting after the wait timeout, leaving its change
+     * queued, and the change is committed once the index is released.
+     */
+    @Test
+    public void testHandoffTimeout() throws Exception
+    {
+        IndexWriterManager manager = handOff(1000);
+
+        long started = System.currentTimeMillis();
+        assertTrue("Change not queued", manager.commit(task("2")));
+        assertTrue("Returned before the timeout", System.currentTimeMillis() - started >= 1000);
+        assertEquals("Change not left queued", 1, manager.getQueuedTaskCount());
+
+        getHandoffFile().delete();
+        for (int i = 0; i < 50 && manager.getCommittedTaskCount() < 2; i++)
+        {
+            Thread.sleep(100);
+        }
+        assertEquals("Change not committed", 2, manager.getCommittedTaskCount());
+    }
+
+    /**
+     * Closing while another process has the index gives up after the wait
+     * timeout.
+     */
+    @Test
+    public void testHandoffCloseTimeout() throws Exception
+    {
+        IndexWriterManager manager = handOff(1000);
+        manager.queue(task("2"));
+
+        long started = System.currentTimeMillis();
+        manager.close();
+        assertTrue("Closed before the timeout", System.currentTimeMillis() - started >= 1000);
+        assertEquals("Change committed while handed off", 1, manager.getCommittedTaskCount());
+    }
+
+    /**
+     * A manager that finds the index locked asks the holder to release it,
+     * and gets the lock once the holder closed its writer; the holder gets it
+     * back once the other is closed.
+     */
+    @Test
+    public void testHandoffRequest() throws Exception
+    {
+        DSIndexer.closeIndexWriter();
+        IndexWriterManager holder = open();
+        holder.commit(task("1"));
+        assertTrue("Writer not open", isLocked());
+
+        IndexWriterManager requester = open();
+        assertTrue("Change not queued", requester.commit(task("2")));
+        assertEquals("Change not committed", 1, requester.getCommittedTaskCount());
+        assertTrue("Handoff not requested", getHandoffFile().exists());
+
+        TaskRunner commit = new TaskRunner()
+        {
+            void run(IndexWriterManager m) throws Exception
+            {
+                m.commit(task("3"));
+            }
+        };
+        commit.start(holder);
+        Thread.sleep(1500);
+        assertTrue("Holder wrote while handed off", commit.isAlive());
+
+        requester.close();
+        assertFalse("Handoff not removed", getHandoffFile().exists());
+        commit.finish();
+        assertEquals("Change not committed", 2, holder.getCommittedTaskCount());
+    }
+
+    /**
+     * Open a manager holding the writer, then ask for the index as another
+     * process would, and wait until the writer is released.
+     */
+    private IndexWriterManager handOff() throws Exception
+    {
+        return handOff(IndexWriterManager.WAIT_TIMEOUT);
+    }
+
+    private IndexWriterManager handOff(long waitTimeout) throws Exception
+    {
+        DSIndexer.closeIndexWriter();
+        IndexWriterManager manager = open(waitTimeout);
+        manager.commit(task("1"));
+        assertTrue("Writer not open", isLocked());
+
+        FileUtils.writeStringToFile(getHandoffFile(), "another-process");
+        for (int i = 0; i < 50 && isLocked(); i++)
+        {
+            Thread.sleep(100);
+        }
+        assertFalse("Writer not released", isLocked());
+        return manager;
+    }
+
+    private IndexWriterManager open()
+    {
+        return open(IndexWriterManager.WAIT_TIMEOUT);
+    }
+
+    private IndexWriterManager open(long waitTimeout)
+    {
+        IndexWriterManager manager = new IndexWriterManager(getIndexDir(), 20, 0, 60000, waitTimeout);
+        managers.add(manager);
+        return manager;
+    }
+
+    private static IndexingTask task(String name)
+    {
+        return new IndexingTask(IndexingTask.Action.DELETE,
+                new Term("handle", "123456789/handoff-" + name), null);
+    }
+
+    private static boolean isLocked() throws Exception
+    {
+        return IndexWriter.isLocked(FSDirectory.open(getIndexDir()));
+    }
+
+    private static File getIndexDir()
+    {
+        return new File(ConfigurationManager.getProperty("search.dir"));
+    }
+
+    private static File getHandoffFile()
+    {
+        return new File(getIndexDir(), IndexWriterManager.HANDOFF_FILE);
+    }
+
+    /**
+     * Runs a call to a manager on a thread of its own.
+     */
+    private abstract static class TaskRunner extends Thread
+    {
+        private IndexWriterManager manager;
+
+        private Exception error;
+
+        abstract void run(IndexWriterManager m) throws Exception;
+
+        void start(IndexWriterManager m)
+        {
+            manager = m;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                run(manager);
+            }
+            catch (Exception e)
+            {
+                error = e;
+            }
+        }
+
+        void finish() throws Exception
+        {
+            join(10000);
+            assertFalse("Still waiting", isAlive());
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.AbstractUnitTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit Tests for class HarvestedRecordCache
+ */
+public class HarvestedRecordCacheTest extends AbstractUnitTest
+{
+    private File dir;
+
+    private HarvestedRecordCache cache;
+
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        dir = new File(System.getProperty("java.io.tmpdir"), "oai-cache-test");
+        cache = new HarvestedRecordCache(dir);
+    }
+
+    @After
+    @Override
+    public void destroy()
+    {
+        FileUtils.deleteQuietly(dir);
+        super.destroy();
+    }
+
+    /**
+     * A rendering is found again for the date it was made from.
+     */
+    @Test
+    public void testGet() throws Exception
+    {
+        Date modified = new Date(1000L);
+        cache.put(1, "oai_dc", modified, "abc", "<dc>é</dc>");
+
+        assertEquals("testGet 0", "<dc>é</dc>", cache.get(1, "oai_dc", modified, "abc"));
+        assertNull("testGet 1", cache.get(1, "mets", modified, "abc"));
+        assertNull("testGet 2", cache.get(2, "oai_dc", modified, "abc"));
+    }
+
+    /**
+     * A rendering of a modified item is not found, and is replaced.
+     */
+    @Test
+    public void testModified() throws Exception
+    {
+        cache.put(1, "oai_dc", new Date(1000L), "abc", "<old/>");
+
+        assertNull("testModified 0", cache.get(1, "oai_dc", new Date(2000L), "abc"));
+
+        cache.put(1, "oai_dc", new Date(2000L), "abc", "<new/>");
+        assertEquals("testModified 1", "<new/>", cache.get(1, "oai_dc", new Date(2000L), "abc"));
+        assertNull("testModified 2", cache.get(1, "oai_dc", new Date(1000L), "abc"));
+    }
+
+    /**
+     * Removing an item removes its renderings in all formats.
+     */
+    @Test
+    public void testRemove() throws Exception
+    {
+        Date modified = new Date(1000L);
+        cache.put(1, "oai_dc", modified, "abc", "<dc/>");
+        cache.put(1, "mets", modified, "abc", "<mets/>");
+        cache.put(2, "oai_dc", modified, "abc", "<dc/>");
+
+        cache.remove(1);
+
+        assertNull("testRemove 0", cache.get(1, "oai_dc", modified, "abc"));
+        assertNull("testRemove 1", cache.get(1, "mets", modified, "abc"));
+        assertEquals("testRemove 2", "<dc/>", cache.get(2, "oai_dc", modified, "abc"));
+    }
+
+    /**
+     * A rendering made with another configuration of the crosswalks is not
+     * found, and is replaced.
+     */
+    @Test
+    public void testConfiguration() throws Exception
+    {
+        Date modified = new Date(1000L);
+        cache.put(1, "oai_dc", modified, "abc", "<old/>");
+
+        assertNull("testConfiguration 0", cache.get(1, "oai_dc", modified, "def"));
+
+        cache.put(1, "oai_dc", modified, "def", "<new/>");
+        assertEquals("testConfiguration 1", "<new/>", cache.get(1, "oai_dc", modified, "def"));
+        assertNull("testConfiguration 2", cache.get(1, "oai_dc", modified, "abc"));
+    }
+}
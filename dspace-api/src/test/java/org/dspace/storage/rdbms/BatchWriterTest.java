@@ -0,0 +1,143 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit Tests for class BatchWriter
+ */
+public class BatchWriterTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BatchWriterTest.class);
+
+    /** Resource type used for the test rows, so they are easy to find */
+    private static final int TEST_TYPE = 999;
+
+    /**
+     * Test of insert method, across several batches and ID ranges.
+     */
+    @Test
+    public void testInsert() throws Exception
+    {
+        List<TableRow> rows = new ArrayList<TableRow>();
+        BatchWriter writer = new BatchWriter(context, "handle", 3);
+        for (int i = 0; i < 7; i++)
+        {
+            TableRow row = DatabaseManager.row("handle");
+            row.setColumn("handle", "batch/" + i);
+            row.setColumn("resource_type_id", TEST_TYPE);
+            row.setColumn("resource_id", i);
+            writer.insert(row);
+            rows.add(row);
+        }
+        writer.close();
+
+        assertThat("testInsert 0", writer.getWrittenCount(), equalTo(7));
+
+        Set<Integer> ids = new HashSet<Integer>();
+        for (TableRow row : rows)
+        {
+            ids.add(row.getIntColumn("handle_id"));
+            TableRow stored = DatabaseManager.find(context, "handle", row.getIntColumn("handle_id"));
+            assertThat("testInsert 1", stored, notNullValue());
+            assertThat("testInsert 2", stored.getStringColumn("handle"),
+                    equalTo(row.getStringColumn("handle")));
+        }
+        assertThat("testInsert 3", ids.size(), equalTo(7));
+    }
+
+    /**
+     * Test of update and delete methods, mixed with inserts.
+     */
+    @Test
+    public void testUpdateDelete() throws Exception
+    {
+        BatchWriter writer = new BatchWriter(context, "handle", 10);
+        TableRow first = DatabaseManager.row("handle");
+        first.setColumn("handle", "batch/first");
+        first.setColumn("resource_type_id", TEST_TYPE);
+        first.setColumn("resource_id", 1);
+        writer.insert(first);
+
+        TableRow second = DatabaseManager.row("handle");
+        second.setColumn("handle", "batch/second");
+        second.setColumn("resource_type_id", TEST_TYPE);
+        second.setColumn("resource_id", 2);
+        writer.insert(second);
+
+        // operations must reach the database in order
+        first.setColumn("handle", "batch/changed");
+        writer.update(first);
+        writer.delete(second);
+        writer.close();
+
+        assertThat("testUpdateDelete 0", writer.getWrittenCount(), equalTo(4));
+        TableRow stored = DatabaseManager.find(context, "handle", first.getIntColumn("handle_id"));
+        assertThat("testUpdateDelete 1", stored.getStringColumn("handle"), equalTo("batch/changed"));
+        assertThat("testUpdateDelete 2", stored.getIntColumn("resource_id"), equalTo(1));
+        assertThat("testUpdateDelete 3",
+                DatabaseManager.find(context, "handle", second.getIntColumn("handle_id")), nullValue());
+    }
+
+    /**
+     * Test that only as many IDs are taken from the sequence as rows are
+     * inserted.
+     */
+    @Test
+    public void testAllocation() throws Exception
+    {
+        BatchWriter writer = new BatchWriter(context, "handle", 100);
+        TableRow row = null;
+        for (int i = 0; i < 2; i++)
+        {
+            row = DatabaseManager.row("handle");
+            row.setColumn("handle", "batch/allocation/" + i);
+            row.setColumn("resource_type_id", TEST_TYPE);
+            row.setColumn("resource_id", i);
+            writer.insert(row);
+        }
+        writer.close();
+
+        int next = DatabaseManager.nextIDs(context, "handle", 1)[0];
+        assertThat("testAllocation 0", next, equalTo(row.getIntColumn("handle_id") + 1));
+    }
+
+    /**
+     * Test that nothing is written until the batch is flushed.
+     */
+    @Test
+    public void testFlush() throws Exception
+    {
+        BatchWriter writer = DatabaseManager.batch(context, "Handle");
+        TableRow row = DatabaseManager.row("handle");
+        row.setColumn("handle", "batch/flush");
+        row.setColumn("resource_type_id", TEST_TYPE);
+        row.setColumn("resource_id", 1);
+        writer.insert(row);
+
+        assertThat("testFlush 0", writer.getWrittenCount(), equalTo(0));
+        assertThat("testFlush 1", row.isColumnNull("handle_id"), equalTo(true));
+
+        writer.flush();
+        assertThat("testFlush 2", writer.getWrittenCount(), equalTo(1));
+        assertThat("testFlush 3",
+                DatabaseManager.find(context, "handle", row.getIntColumn("handle_id")), notNullValue());
+        writer.close();
+    }
+}
@@ -318,6 +318,47 @@ public class MockDatabaseManager
         }
     }
 
+    /**
+     * Return an iterator with the results of the query, read from the
+     * database a few rows at a time rather than all at once.
+     *
+     * @param context
+     *            The context object
+     * @param table
+     *            The name of the table which results
+     * @param query
+     *            The SQL query
+     * @param parameters
+     * 			  A set of SQL parameters to be included in query. The order of
+     * 			  the parameters must correspond to the order of their reference
+     * 			  within the query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    public static TableRowIterator queryTableStreaming(Context context, String table, String query, Object... parameters) throws SQLException
+    {
+        PreparedStatement statement = DatabaseManager.prepareStreamingStatement(context.getDBConnection(), query);
+        try
+        {
+            loadParameters(statement, parameters);
+
+            TableRowIterator retTRI = (table == null)
+                    ? new TableRowIterator(statement.executeQuery())
+                    : new TableRowIterator(statement.executeQuery(), canonicalize(table));
+
+            retTRI.setStatement(statement);
+            return retTRI;
+        }
+        catch (SQLException sqle)
+        {
+            try { statement.close(); } catch (SQLException s) { }
+
+            throw sqle;
+        }
+    }
+
     /**
      * Return the single row result to this query, or null if no result. If more
      * than one row results, only the first is returned.
@@ -755,6 +796,55 @@ public class MockDatabaseManager
         execute(context.getDBConnection(), sql.toString(), info, row);
     }
 
+    /**
+     * Take a range of new IDs from the sequence of a table in a single query.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The RDBMS table
+     * @param count
+     *            The number of IDs wanted
+     * @return the new IDs
+     * @throws SQLException
+     */
+    @Mock
+    static int[] nextIDs(Context context, String table, int count) throws SQLException
+    {
+        int[] ids = new int[count];
+        int found = 0;
+        Statement statement = null;
+        ResultSet rs = null;
+
+        try
+        {
+            // H2 has no generate_series, but SYSTEM_RANGE does the same
+            statement = context.getDBConnection().createStatement();
+            rs = statement.executeQuery("SELECT NEXTVAL('" + table + "_seq') FROM SYSTEM_RANGE(1, " + count + ")");
+            while (found < count && rs.next())
+            {
+                ids[found++] = rs.getInt(1);
+            }
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                try { rs.close(); } catch (SQLException sqle) { }
+            }
+
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+
+        if (found < count)
+            throw new SQLException("Unable to retrieve sequence IDs");
+
+        return ids;
+    }
+
     /**
      * Update changes to the RDBMS. Note that if the update fails, the values in
      * the row will NOT be reverted.
@@ -1805,7 +1895,7 @@ public class MockDatabaseManager
     }
 
     @Mock
-    private static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         int count = 0;
         for (ColumnInfo info : columns)
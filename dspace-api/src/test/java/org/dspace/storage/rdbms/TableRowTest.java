@@ -0,0 +1,190 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Unit Tests for class TableRow
+ */
+public class TableRowTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(TableRowTest.class);
+
+    /**
+     * TableRow instance for the tests
+     */
+    private TableRow row;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        row = new TableRow("test", Arrays.asList("Test_ID", "name", "size", "created"));
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        row = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that column names are case-insensitive.
+     */
+    @Test
+    public void testColumnNames()
+    {
+        assertTrue("testColumnNames 0", row.hasColumn("test_id"));
+        assertTrue("testColumnNames 1", row.hasColumn("TEST_ID"));
+        assertFalse("testColumnNames 2", row.hasColumn("other"));
+
+        row.setColumn("TEST_ID", 5);
+        assertThat("testColumnNames 3", row.getIntColumn("test_id"), equalTo(5));
+        assertThat("testColumnNames 4", row.getIntColumn("Test_Id"), equalTo(5));
+    }
+
+    /**
+     * Test that unknown columns are rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownColumn()
+    {
+        row.setColumn("other", 1);
+    }
+
+    /**
+     * Test of NULL values.
+     */
+    @Test
+    public void testNull()
+    {
+        assertTrue("testNull 0", row.isColumnNull("name"));
+        assertThat("testNull 1", row.getStringColumn("name"), nullValue());
+        assertThat("testNull 2", row.getIntColumn("size"), equalTo(-1));
+        assertThat("testNull 3", row.getDateColumn("created"), nullValue());
+
+        row.setColumn("name", "value");
+        assertFalse("testNull 4", row.isColumnNull("name"));
+        row.setColumn("name", (String) null);
+        assertTrue("testNull 5", row.isColumnNull("name"));
+        row.setColumn("size", 3L);
+        row.setColumnNull("size");
+        assertThat("testNull 6", row.getLongColumn("size"), equalTo(-1L));
+    }
+
+    /**
+     * Test of value types.
+     */
+    @Test
+    public void testTypes()
+    {
+        Date now = new Date();
+        row.setColumn("size", 7);
+        row.setColumn("created", now);
+        assertThat("testTypes 0", row.getLongColumn("size"), equalTo(7L));
+        assertTrue("testTypes 1", row.getBooleanColumn("size"));
+        assertThat("testTypes 2", row.getDateColumn("created"), equalTo(now));
+
+        try
+        {
+            row.getStringColumn("size");
+            fail("testTypes 3");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /**
+     * Test of the change flags.
+     */
+    @Test
+    public void testChanged()
+    {
+        assertTrue("testChanged 0", row.hasColumnChanged("name"));
+
+        row.setColumn("name", "value");
+        row.resetChanged();
+        assertFalse("testChanged 1", row.hasColumnChanged("name"));
+        assertFalse("testChanged 2", row.hasColumnChanged("other"));
+
+        row.setColumn("name", "value");
+        assertFalse("testChanged 3", row.hasColumnChanged("name"));
+        row.setColumn("NAME", "new value");
+        assertTrue("testChanged 4", row.hasColumnChanged("name"));
+        assertFalse("testChanged 5", row.hasColumnChanged("size"));
+    }
+
+    /**
+     * Test of equals, including rows with the same columns in another order.
+     */
+    @Test
+    public void testEquals()
+    {
+        TableRow same = new TableRow("test", Arrays.asList("Test_ID", "name", "size", "created"));
+        TableRow reordered = new TableRow("test", Arrays.asList("name", "size", "created", "test_id"));
+        TableRow fewer = new TableRow("test", Arrays.asList("test_id", "name", "size"));
+
+        row.setColumn("test_id", 1);
+        same.setColumn("test_id", 1);
+        reordered.setColumn("test_id", 1);
+        fewer.setColumn("test_id", 1);
+
+        assertThat("testEquals 0", row, equalTo(same));
+        assertThat("testEquals 1", row, equalTo(reordered));
+        assertThat("testEquals 2", row, not(equalTo(fewer)));
+
+        same.setColumn("name", "value");
+        assertThat("testEquals 3", row, not(equalTo(same)));
+    }
+
+    /**
+     * Test of hashCode, which must agree with equals whatever the order of
+     * the columns.
+     */
+    @Test
+    public void testHashCode()
+    {
+        TableRow reordered = new TableRow("other", Arrays.asList("name", "size", "created", "test_id"));
+
+        row.setColumn("test_id", 1);
+        row.setColumn("name", "value");
+        reordered.setColumn("test_id", 1);
+        reordered.setColumn("name", "value");
+
+        assertThat("testHashCode 0", row, equalTo(reordered));
+        assertThat("testHashCode 1", row.hashCode(), equalTo(reordered.hashCode()));
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.dspace.core.Constants;
+import org.dspace.utils.DSpace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the displayed values of facet and filter values that have to be
+ * looked up in the database, such as the names of the communities and
+ * collections of the location facets, across requests.
+ * <p/>
+ * Entries are kept in a bounded LRU map keyed by field and value. They are
+ * removed by the {@link IndexEventConsumer} when the object they name changes
+ * and, since changes made by other processes are not seen, also expire after
+ * a configurable age.
+ * <p/>
+ * Configuration (discovery.cfg):
+ * <ul>
+ * <li><code>facet.cache.size</code> - number of values kept (default 1000,
+ * 0 disables the cache)</li>
+ * <li><code>facet.cache.age</code> - maximum age in seconds of a value
+ * (default 300)</li>
+ * </ul>
+ */
+public class DisplayValueCache {
+
+    private static final int maxSize = new DSpace().getConfigurationService()
+            .getPropertyAsType("discovery.facet.cache.size", 1000);
+
+    private static final long maxAge = new DSpace().getConfigurationService()
+            .getPropertyAsType("discovery.facet.cache.age", 300) * 1000L;
+
+    private static final Map<String, Entry> values = Collections.synchronizedMap(
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxSize;
+                }
+            });
+
+    /** Not instantiable */
+    private DisplayValueCache() {
+    }
+
+    /**
+     * @return whether values are cached
+     */
+    public static boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get the cached displayed value of a field value.
+     *
+     * @param field the field
+     * @param value the value as stored in the index
+     * @return the displayed value, or null if it is not cached
+     */
+    public static String get(String field, String value) {
+        String key = key(field, value);
+        Entry entry = values.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > maxAge) {
+            values.remove(key);
+            return null;
+        }
+        return entry.displayed;
+    }
+
+    /**
+     * Cache the displayed value of a field value.
+     *
+     * @param field the field
+     * @param value the value as stored in the index
+     * @param displayed the displayed value
+     */
+    public static void put(String field, String value, String displayed) {
+        if (maxSize > 0 && displayed != null) {
+            values.put(key(field, value), new Entry(displayed));
+        }
+    }
+
+    /**
+     * Remove the values naming an object, as it has changed.
+     *
+     * @param type the type of the object
+     * @param id the ID of the object
+     */
+    public static void invalidate(int type, int id) {
+        if (type == Constants.COMMUNITY) {
+            values.remove(key("location.comm", String.valueOf(id)));
+        } else if (type == Constants.COLLECTION) {
+            values.remove(key("location.coll", String.valueOf(id)));
+        }
+    }
+
+    /**
+     * Remove all the cached values.
+     */
+    public static void clear() {
+        values.clear();
+    }
+
+    private static String key(String field, String value) {
+        return field + '\u0000' + value;
+    }
+
+    private static class Entry {
+        private final String displayed;
+        private final long created = System.currentTimeMillis();
+
+        Entry(String displayed) {
+            this.displayed = displayed;
+        }
+    }
+}
@@ -41,7 +41,7 @@ public class IndexClient {
         Context context = new Context();
         context.setIgnoreAuthorization(true);
 
-        String usage = "org.dspace.discovery.IndexClient [-cbhf[r <item handle>]] or nothing to update/clean an existing index.";
+        String usage = "org.dspace.discovery.IndexClient [-cbhfq[r <item handle>][t <threads>]] or nothing to update/clean an existing index.";
         Options options = new Options();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine line = null;
@@ -73,6 +73,17 @@ public class IndexClient {
                                 "if updating existing index, force each handle to be reindexed even if uptodate")
                         .create("f"));
 
+        options
+                .addOption(OptionBuilder
+                        .withArgName("threads")
+                        .hasArg(true)
+                        .withDescription(
+                                "number of threads used to build item documents when (re)building or updating the index")
+                        .create("t"));
+
+        options.addOption(OptionBuilder.isRequired(false).withDescription(
+                "apply the index updates waiting in the queue").create("q"));
+
         options.addOption(OptionBuilder.isRequired(false).withDescription(
                 "print this help message").create("h"));
 
@@ -102,6 +113,16 @@ public class IndexClient {
 
         IndexingService indexer = dspace.getServiceManager().getServiceByName(IndexingService.class.getName(),IndexingService.class);
 
+        int threads = dspace.getConfigurationService().getPropertyAsType("discovery.index.threads", 1);
+        if (line.hasOption("t")) {
+            try {
+                threads = Integer.parseInt(line.getOptionValue("t"));
+            } catch (NumberFormatException e) {
+                formatter.printHelp(usage, "Invalid number of threads: " + line.getOptionValue("t"), options, "");
+                System.exit(1);
+            }
+        }
+
         if (line.hasOption("r")) {
             log.info("Removing " + line.getOptionValue("r") + " from Index");
             indexer.unIndexContent(context, line.getOptionValue("r"));
@@ -110,14 +131,27 @@ public class IndexClient {
             indexer.cleanIndex(line.hasOption("f"));
         } else if (line.hasOption("b")) {
             log.info("(Re)building index from scratch.");
-            indexer.createIndex(context);
+            if (threads > 1) {
+                indexer.updateIndex(context, true, threads);
+            } else {
+                indexer.createIndex(context);
+            }
+        } else if (line.hasOption("q")) {
+            System.out.println("Index queue: " + IndexQueue.getDepth(context) + " entries, oldest queued "
+                    + IndexQueue.getLag(context) + " ms ago");
+            long taken = new IndexQueue(indexer).drain();
+            System.out.println("Applied " + taken + " queued entries");
         } else if (line.hasOption("o")) {
             log.info("Optimizing search core.");
             indexer.optimize();
         } else {
             log.info("Updating and Cleaning Index");
             indexer.cleanIndex(line.hasOption("f"));
-            indexer.updateIndex(context, line.hasOption("f"));
+            if (threads > 1) {
+                indexer.updateIndex(context, line.hasOption("f"), threads);
+            } else {
+                indexer.updateIndex(context, line.hasOption("f"));
+            }
         }
 
         log.info("Done with indexing");
@@ -16,7 +16,10 @@ import org.dspace.event.Consumer;
 import org.dspace.event.Event;
 import org.dspace.utils.DSpace;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -69,6 +72,12 @@ public class IndexEventConsumer implements Consumer {
             return;
         }
 
+        if ((st == Constants.COLLECTION || st == Constants.COMMUNITY)
+                && event.getEventType() != Event.ADD && event.getEventType() != Event.REMOVE) {
+            // a name shown in the location facets may have changed
+            DisplayValueCache.invalidate(st, event.getSubjectID());
+        }
+
         DSpaceObject subject = event.getSubject(ctx);
 
         DSpaceObject object = event.getObject(ctx);
@@ -126,6 +135,11 @@ public class IndexEventConsumer implements Consumer {
                     log.debug("consume() adding event to update queue: " + event.toString());
                     objectsToUpdate.add(object);
                 }
+                if (et == Event.REMOVE && st == Constants.COLLECTION && subject != null) {
+                    // the item is no longer found in the results of the
+                    // collection, and of its communities
+                    objectsToUpdate.add(subject);
+                }
                 break;
 
             case Event.DELETE:
@@ -156,6 +170,17 @@ public class IndexEventConsumer implements Consumer {
      */
     public void end(Context ctx) throws Exception {
 
+        if (objectsToUpdate != null && handlesToDelete != null && IndexQueue.isEnabled()) {
+            try {
+                enqueue();
+                objectsToUpdate = null;
+                handlesToDelete = null;
+                return;
+            } catch (Exception e) {
+                log.error("Unable to queue index updates, applying them now: " + e.getMessage(), e);
+            }
+        }
+
         if (objectsToUpdate != null && handlesToDelete != null) {
 
             // update the changed Items not deleted because they were on create list
@@ -168,6 +193,7 @@ public class IndexEventConsumer implements Consumer {
                 if (hdl != null && !handlesToDelete.contains(hdl)) {
                     try {
                         indexer.indexContent(ctx, iu, true);
+                        SearchResultCache.invalidate(ctx, iu);
                         log.debug("Indexed "
                                 + Constants.typeText[iu.getType()]
                                 + ", id=" + String.valueOf(iu.getID())
@@ -182,6 +208,7 @@ public class IndexEventConsumer implements Consumer {
             for (String hdl : handlesToDelete) {
                 try {
                     indexer.unIndexContent(ctx, hdl, true);
+                    SearchResultCache.clear();
                     if (log.isDebugEnabled())
                     {
                         log.debug("UN-Indexed Item, handle=" + hdl);
@@ -200,6 +227,26 @@ public class IndexEventConsumer implements Consumer {
         handlesToDelete = null;
     }
 
+    /**
+     * Record the updates in the index queue, to be applied by its worker.
+     */
+    private void enqueue() throws SQLException {
+        List<DSpaceObject> updates = new ArrayList<DSpaceObject>(objectsToUpdate.size());
+        for (DSpaceObject iu : objectsToUpdate) {
+            String hdl = iu.getHandle();
+            if (hdl != null && !handlesToDelete.contains(hdl)) {
+                updates.add(iu);
+            }
+        }
+
+        IndexQueue.enqueue(updates, handlesToDelete);
+        IndexQueue.startWorker(indexer);
+        if (log.isDebugEnabled()) {
+            log.debug("Queued " + updates.size() + " index updates and "
+                    + handlesToDelete.size() + " removals");
+        }
+    }
+
     public void finish(Context ctx) throws Exception {
         // No-op
 
@@ -0,0 +1,476 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.storage.rdbms.BatchWriter;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.dspace.utils.DSpace;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Queue of index updates, applied in the background.
+ * <p/>
+ * When <code>discovery.index.async</code> is set, the
+ * {@link IndexEventConsumer} records the objects to index and the handles to
+ * remove in the <code>discovery_index_queue</code> table instead of updating
+ * the index in the request that committed the change. A worker thread, started
+ * in each JVM that queues updates, claims the oldest unclaimed entries in
+ * batches, keeps only the last entry for each handle, applies them and commits
+ * the index once per batch. Entries that fail are released again and retried
+ * with the next batches, up to <code>discovery.index.async.retries</code>
+ * times; the worker waits longer after each batch with failures.
+ * <p/>
+ * As the queue is a table, updates queued by a process that exits before they
+ * are applied are picked up by any other worker, or by
+ * <code>index-discovery -q</code>. Entries claimed by a worker that exited
+ * while applying them are claimed again after <code>CLAIM_TIMEOUT</code>.
+ */
+public class IndexQueue implements Runnable {
+
+    private static final Logger log = Logger.getLogger(IndexQueue.class);
+
+    private static final String TABLE = "discovery_index_queue";
+
+    /** Action of an entry that (re)indexes an object */
+    public static final int UPDATE = 1;
+
+    /** Action of an entry that removes a handle from the index */
+    public static final int DELETE = 2;
+
+    /** Number of handles in one IN list, Oracle allows no more than 1000 */
+    private static final int IN_LIST_SIZE = 500;
+
+    /** Longest wait after failed batches */
+    private static final long MAX_BACKOFF = 5 * 60 * 1000L;
+
+    /** Age after which a claim is taken to be abandoned */
+    private static final long CLAIM_TIMEOUT = 10 * 60 * 1000L;
+
+    /** Longest wait for the worker to finish its batch when it is stopped */
+    private static final long STOP_TIMEOUT = 30 * 1000L;
+
+    private static IndexQueue worker;
+
+    private static Thread thread;
+
+    private final IndexingService indexer;
+    private final int batchSize;
+    private final long interval;
+    private final int retries;
+
+    /** Identifies the entries claimed by this worker */
+    private final String id = UUID.randomUUID().toString();
+
+    /** Number of entries that failed in the last batch */
+    private int failed;
+
+    /** Number of failed attempts, by handle */
+    private final Map<String, Integer> failures = new HashMap<String, Integer>();
+
+    private volatile long applied;
+    private volatile long dropped;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param indexer the service that updates the index
+     */
+    public IndexQueue(IndexingService indexer) {
+        ConfigurationService config = new DSpace().getConfigurationService();
+        this.indexer = indexer;
+        this.batchSize = Math.max(config.getPropertyAsType("discovery.index.async.batchsize", 100), 1);
+        this.interval = Math.max(config.getPropertyAsType("discovery.index.async.interval", 5), 1) * 1000L;
+        this.retries = Math.max(config.getPropertyAsType("discovery.index.async.retries", 5), 1);
+    }
+
+    /**
+     * @return whether index updates should be queued
+     */
+    public static boolean isEnabled() {
+        return new DSpace().getConfigurationService().getPropertyAsType("discovery.index.async", false);
+    }
+
+    /**
+     * Queue index updates. They are written with a context of their own, as
+     * the changes they stem from have already been committed.
+     *
+     * @param updates objects to index, which must have a handle
+     * @param deletes handles to remove from the index
+     * @throws SQLException
+     */
+    public static void enqueue(Collection<DSpaceObject> updates, Collection<String> deletes)
+            throws SQLException {
+        Context context = new Context();
+        try {
+            Date now = new Date();
+            BatchWriter writer = DatabaseManager.batch(context, TABLE);
+            try {
+                for (DSpaceObject dso : updates) {
+                    TableRow row = DatabaseManager.row(TABLE);
+                    row.setColumn("resource_type_id", dso.getType());
+                    row.setColumn("resource_id", dso.getID());
+                    row.setColumn("handle", dso.getHandle());
+                    row.setColumn("action", UPDATE);
+                    row.setColumn("queued", now);
+                    writer.insert(row);
+                }
+                for (String handle : deletes) {
+                    TableRow row = DatabaseManager.row(TABLE);
+                    row.setColumn("handle", handle);
+                    row.setColumn("action", DELETE);
+                    row.setColumn("queued", now);
+                    writer.insert(row);
+                }
+            } finally {
+                writer.close();
+            }
+            context.complete();
+        } finally {
+            if (context.isValid()) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Start the worker of this JVM, unless it is running.
+     *
+     * @param indexer the service that updates the index
+     */
+    public static synchronized void startWorker(IndexingService indexer) {
+        if (worker == null) {
+            worker = new IndexQueue(indexer);
+            thread = new Thread(worker, "discovery-index-queue");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the worker of this JVM, if it is running, and wait for it to
+     * finish the batch it is applying. Entries it has claimed but not applied
+     * are claimed again by the next worker after <code>CLAIM_TIMEOUT</code>.
+     */
+    public static synchronized void stopWorker() {
+        if (worker == null) {
+            return;
+        }
+        worker.stopped = true;
+        thread.interrupt();
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            log.error("The index queue worker did not stop within " + STOP_TIMEOUT + " ms");
+        }
+        worker = null;
+        thread = null;
+    }
+
+    /**
+     * @return the worker of this JVM, or null if it has not been started
+     */
+    public static synchronized IndexQueue getWorker() {
+        return worker;
+    }
+
+    /**
+     * @param context the dspace context
+     * @return the number of entries in the queue
+     * @throws SQLException
+     */
+    public static long getDepth(Context context) throws SQLException {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS depth FROM " + TABLE);
+        return row == null ? 0 : row.getLongColumn("depth");
+    }
+
+    /**
+     * @param context the dspace context
+     * @return how long, in milliseconds, the oldest entry has been queued
+     * @throws SQLException
+     */
+    public static long getLag(Context context) throws SQLException {
+        TableRow row = DatabaseManager.querySingle(context,
+                "SELECT MIN(queued) AS oldest FROM " + TABLE);
+        Date oldest = row == null ? null : row.getDateColumn("oldest");
+        return oldest == null ? 0 : Math.max(System.currentTimeMillis() - oldest.getTime(), 0);
+    }
+
+    /**
+     * @return the number of entries applied by this worker
+     */
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    /**
+     * @return the number of entries this worker gave up on
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public void run() {
+        int failedBatches = 0;
+        // the interrupt may be lost in the database or index client
+        while (!stopped) {
+            try {
+                boolean succeeded;
+                try {
+                    if (process() == 0) {
+                        Thread.sleep(interval);
+                    }
+                    succeeded = failed == 0;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    succeeded = false;
+                    log.error("Unable to apply queued index updates: " + e.getMessage(), e);
+                }
+
+                if (succeeded) {
+                    failedBatches = 0;
+                } else {
+                    // the index is likely to be unavailable, don't hammer it
+                    failedBatches++;
+                    long backoff = Math.min(interval << Math.min(failedBatches, 16), MAX_BACKOFF);
+                    log.warn("Queued index updates failed, retrying in " + backoff + " ms");
+                    Thread.sleep(backoff);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply queued updates until the queue is empty, or until a batch has
+     * entries that fail, which are left in the queue.
+     *
+     * @return the number of entries taken from the queue
+     * @throws SQLException
+     * @throws SearchServiceException
+     */
+    public long drain() throws SQLException, SearchServiceException {
+        long total = 0;
+        int taken;
+        while ((taken = process()) > 0) {
+            total += taken;
+            if (failed > 0) {
+                log.warn(failed + " queued index updates failed, stopping");
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Apply the oldest batch of unclaimed queued updates. Entries for a
+     * handle that are applied are removed along with the older entries for
+     * the same handle, as the object was read after they were queued. Entries
+     * that fail are released, to be taken again by a later batch.
+     *
+     * @return the number of entries taken from the queue
+     * @throws SQLException
+     * @throws SearchServiceException
+     */
+    public int process() throws SQLException, SearchServiceException {
+        failed = 0;
+        if (claim() == 0) {
+            return 0;
+        }
+
+        Context context = new Context();
+        try {
+            context.turnOffAuthorisationSystem();
+
+            // the last entry for each handle, in queue order
+            Map<String, TableRow> latest = new LinkedHashMap<String, TableRow>();
+            int taken = 0;
+            int lastID = -1;
+            TableRowIterator rows = DatabaseManager.queryTableStreaming(context, TABLE,
+                    "SELECT * FROM " + TABLE + " WHERE claimed_by = ? ORDER BY queue_id", id);
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    latest.remove(row.getStringColumn("handle"));
+                    latest.put(row.getStringColumn("handle"), row);
+                    lastID = row.getIntColumn("queue_id");
+                    taken++;
+                }
+            } finally {
+                rows.close();
+            }
+
+            if (taken == 0) {
+                return 0;
+            }
+
+            long started = System.currentTimeMillis();
+            List<String> done = new ArrayList<String>(latest.size());
+            List<DSpaceObject> indexed = new ArrayList<DSpaceObject>(latest.size());
+            for (Map.Entry<String, TableRow> entry : latest.entrySet()) {
+                String handle = entry.getKey();
+                try {
+                    DSpaceObject dso = apply(context, handle, entry.getValue());
+                    if (dso != null) {
+                        indexed.add(dso);
+                    }
+                    done.add(handle);
+                } catch (Exception e) {
+                    failed++;
+                    Integer attempts = failures.get(handle);
+                    attempts = attempts == null ? 1 : attempts + 1;
+                    if (attempts >= retries) {
+                        log.error("Giving up indexing " + handle + " after "
+                                + attempts + " attempts: " + e.getMessage(), e);
+                        done.add(handle);
+                        dropped++;
+                    } else {
+                        log.warn("Unable to index " + handle + ", will retry: " + e.getMessage());
+                        failures.put(handle, attempts);
+                    }
+                }
+            }
+
+            indexer.commit();
+
+            if (indexed.size() < done.size()) {
+                // documents were removed, from unknown scopes
+                SearchResultCache.clear();
+            } else {
+                for (DSpaceObject dso : indexed) {
+                    SearchResultCache.invalidate(context, dso);
+                }
+            }
+
+            for (int from = 0; from < done.size(); from += IN_LIST_SIZE) {
+                List<String> chunk = done.subList(from, Math.min(from + IN_LIST_SIZE, done.size()));
+                StringBuilder sql = new StringBuilder("DELETE FROM " + TABLE
+                        + " WHERE queue_id <= ? AND handle IN (");
+                Object[] parameters = new Object[chunk.size() + 1];
+                parameters[0] = lastID;
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                    parameters[i + 1] = chunk.get(i);
+                }
+                sql.append(")");
+                DatabaseManager.updateQuery(context, sql.toString(), parameters);
+            }
+
+            // release the entries that failed
+            DatabaseManager.updateQuery(context, "UPDATE " + TABLE
+                    + " SET claimed_by = NULL, claimed = NULL WHERE claimed_by = ?", id);
+            context.complete();
+
+            failures.keySet().removeAll(done);
+            applied += done.size();
+            log.info("Applied " + done.size() + " queued index updates from "
+                    + taken + " entries in " + (System.currentTimeMillis() - started) + " ms");
+            return taken;
+        } finally {
+            if (context.isValid()) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Claim the oldest batch of entries that are not claimed, or whose claim
+     * was abandoned. The claims are committed before the entries are applied,
+     * so that the workers of other JVMs leave them alone; when two workers
+     * claim the same entry at once, the database lets only one of them have
+     * it.
+     *
+     * @return the number of entries claimed
+     * @throws SQLException
+     */
+    private int claim() throws SQLException {
+        Context context = new Context();
+        try {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            Timestamp expired = new Timestamp(now.getTime() - CLAIM_TIMEOUT);
+
+            List<Integer> ids = new ArrayList<Integer>(batchSize);
+            TableRowIterator rows = DatabaseManager.queryTableStreaming(context, TABLE,
+                    "SELECT * FROM " + TABLE + " WHERE claimed_by IS NULL OR claimed < ?"
+                    + " ORDER BY queue_id", expired);
+            try {
+                while (ids.size() < batchSize && rows.hasNext()) {
+                    ids.add(rows.next().getIntColumn("queue_id"));
+                }
+            } finally {
+                rows.close();
+            }
+
+            int claimed = 0;
+            for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+                List<Integer> chunk = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size()));
+                StringBuilder sql = new StringBuilder("UPDATE " + TABLE
+                        + " SET claimed_by = ?, claimed = ?"
+                        + " WHERE (claimed_by IS NULL OR claimed < ?) AND queue_id IN (");
+                Object[] parameters = new Object[chunk.size() + 3];
+                parameters[0] = id;
+                parameters[1] = now;
+                parameters[2] = expired;
+                for (int i = 0; i < chunk.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                    parameters[i + 3] = chunk.get(i);
+                }
+                sql.append(")");
+                claimed += DatabaseManager.updateQuery(context, sql.toString(), parameters);
+            }
+            context.complete();
+            return claimed;
+        } finally {
+            if (context.isValid()) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * @return the object indexed, or null if the handle was removed
+     */
+    private DSpaceObject apply(Context context, String handle, TableRow row) throws Exception {
+        if (row.getIntColumn("action") == DELETE) {
+            indexer.unIndexContentChecked(context, handle);
+            return null;
+        }
+
+        DSpaceObject dso = DSpaceObject.find(context,
+                row.getIntColumn("resource_type_id"), row.getIntColumn("resource_id"));
+        if (dso == null) {
+            // deleted since it was queued
+            indexer.unIndexContentChecked(context, handle);
+        } else {
+            indexer.indexContentChecked(context, dso, true);
+        }
+        return dso;
+    }
+}
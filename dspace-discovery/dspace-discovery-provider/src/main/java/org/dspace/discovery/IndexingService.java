@@ -28,6 +28,13 @@ public interface IndexingService {
     void indexContent(Context context, DSpaceObject dso,
                       boolean force) throws SQLException;
 
+    /**
+     * Same as indexContent(context, dso, force), except that a failure to
+     * update the index is thrown instead of being logged.
+     */
+    void indexContentChecked(Context context, DSpaceObject dso,
+                             boolean force) throws SQLException, SearchServiceException;
+
     void unIndexContent(Context context, DSpaceObject dso)
             throws SQLException, IOException;
 
@@ -37,6 +44,13 @@ public interface IndexingService {
     void unIndexContent(Context context, String handle, boolean commit)
             throws SQLException, IOException;
 
+    /**
+     * Remove a document from the index without committing, throwing a
+     * failure to update the index instead of logging it.
+     */
+    void unIndexContentChecked(Context context, String handle)
+            throws SearchServiceException;
+
     void reIndexContent(Context context, DSpaceObject dso)
             throws SQLException, IOException;
 
@@ -46,8 +60,12 @@ public interface IndexingService {
 
     void updateIndex(Context context, boolean force);
 
+    void updateIndex(Context context, boolean force, int threads);
+
     void cleanIndex(boolean force) throws IOException,
             SQLException, SearchServiceException;
 
+    void commit() throws SearchServiceException;
+
     void optimize();
 }
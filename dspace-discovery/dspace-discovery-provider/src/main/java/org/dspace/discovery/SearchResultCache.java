@@ -0,0 +1,337 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.utils.DSpace;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of the searches that every visitor of a page runs, such
+ * as the recent submissions and sidebar facets of the home, community and
+ * collection pages, across requests.
+ * <p/>
+ * Results are keyed by the scope of the search, whether the user is logged
+ * in, and the search itself with its filters in a canonical order. Since
+ * DSpace objects belong to a context, a result is stored as the types and IDs
+ * of the objects found plus the facets, and the objects are loaded again
+ * (items in bulk) for each request that uses it.
+ * <p/>
+ * The results of a scope are removed when changes to objects in that scope
+ * are indexed, see {@link #invalidate(Context, DSpaceObject)}. A result is
+ * not stored if anything was invalidated while it was being searched for, as
+ * it may have been read before the change was indexed. Results also
+ * expire after a configurable age, as changes indexed by other processes are
+ * not seen. Hits and misses are counted and logged now and then.
+ * <p/>
+ * Configuration (discovery.cfg):
+ * <ul>
+ * <li><code>search.cache.size</code> - number of results kept (default 200,
+ * 0 disables the cache)</li>
+ * <li><code>search.cache.age</code> - maximum age in seconds of a result
+ * (default 60)</li>
+ * </ul>
+ */
+public class SearchResultCache {
+
+    private static final Logger log = Logger.getLogger(SearchResultCache.class);
+
+    /** Scope of searches outside of any community or collection */
+    private static final String SITE = "site";
+
+    /** Number of lookups between two log messages with the hit ratio */
+    private static final long LOG_INTERVAL = 1000;
+
+    private static final int maxSize = new DSpace().getConfigurationService()
+            .getPropertyAsType("discovery.search.cache.size", 200);
+
+    private static final long maxAge = new DSpace().getConfigurationService()
+            .getPropertyAsType("discovery.search.cache.age", 60) * 1000L;
+
+    private static final Map<String, Entry> results = Collections.synchronizedMap(
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxSize;
+                }
+            });
+
+    /** Incremented by each invalidation, before any result is removed */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /** Not instantiable */
+    private SearchResultCache() {
+    }
+
+    /**
+     * Search, using a cached result if there is one.
+     *
+     * @param context the dspace context
+     * @param dso the scope of the search, null for the whole repository
+     * @param query the search
+     * @return the result
+     * @throws SearchServiceException
+     */
+    public static DiscoverResult search(Context context, DSpaceObject dso, DiscoverQuery query)
+            throws SearchServiceException {
+        if (maxSize <= 0) {
+            return SearchUtils.getSearchService().search(context, dso, query);
+        }
+
+        String scope = dso == null ? SITE : dso.getHandle();
+        String key = scope + '\u0000' + (context.getCurrentUser() == null ? "anonymous" : "authenticated")
+                + '\u0000' + toKey(query);
+
+        Entry entry = results.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.created <= maxAge) {
+            try {
+                DiscoverResult result = entry.toResult(context);
+                if (result != null) {
+                    count(hits);
+                    return result;
+                }
+            } catch (SQLException e) {
+                log.warn("Unable to load a cached search result: " + e.getMessage(), e);
+            }
+        }
+
+        count(misses);
+        long before = generation.get();
+        DiscoverResult result = SearchUtils.getSearchService().search(context, dso, query);
+        Entry created = new Entry(scope, result);
+        synchronized (results) {
+            if (generation.get() == before) {
+                results.put(key, created);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove the results of the scopes an object is in, as it has changed in
+     * the index. For an item these are the scopes it is in now; the
+     * collections it was removed from are invalidated on their own, see
+     * {@link IndexEventConsumer}.
+     *
+     * @param context the dspace context
+     * @param dso the object, which may have been deleted
+     */
+    public static void invalidate(Context context, DSpaceObject dso) {
+        // stop searches running now from storing their results first
+        generation.incrementAndGet();
+        if (results.isEmpty()) {
+            return;
+        }
+
+        if (!(dso instanceof Item)) {
+            // the hierarchy may have changed too
+            clear();
+            return;
+        }
+
+        try {
+            Set<String> scopes = new HashSet<String>();
+            scopes.add(SITE);
+            for (Collection collection : ((Item) dso).getCollections()) {
+                scopes.add(collection.getHandle());
+            }
+            for (Community community : ((Item) dso).getCommunities()) {
+                scopes.add(community.getHandle());
+            }
+            invalidate(scopes);
+        } catch (SQLException e) {
+            log.warn("Unable to find the scopes of item " + dso.getID() + ": " + e.getMessage(), e);
+            clear();
+        }
+    }
+
+    /**
+     * Remove all the cached results.
+     */
+    public static void clear() {
+        synchronized (results) {
+            generation.incrementAndGet();
+            results.clear();
+        }
+    }
+
+    /**
+     * @return the number of searches answered from the cache
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of searches sent to the search service
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of searches answered from the cache, between 0 and 1
+     */
+    public static double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static void invalidate(Set<String> scopes) {
+        synchronized (results) {
+            for (Iterator<Entry> it = results.values().iterator(); it.hasNext();) {
+                if (scopes.contains(it.next().scope)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static void count(AtomicLong counter) {
+        counter.incrementAndGet();
+        if ((hits.get() + misses.get()) % LOG_INTERVAL == 0) {
+            log.info("Search result cache: " + results.size() + " results, " + hits.get() + " hits, "
+                    + misses.get() + " misses, hit ratio " + Math.round(getHitRatio() * 100) + "%");
+        }
+    }
+
+    /**
+     * Write a search as a string that is the same for the same search,
+     * whatever the order its filters were added in.
+     */
+    private static String toKey(DiscoverQuery query) {
+        StringBuilder key = new StringBuilder();
+        key.append("q=").append(query.getQuery());
+        key.append("&fq=").append(sorted(query.getFilterQueries()));
+        key.append("&type=").append(query.getDSpaceObjectFilter());
+        key.append("&present=").append(sorted(query.getFieldPresentQueries()));
+        key.append("&start=").append(query.getStart());
+        key.append("&rows=").append(query.getMaxResults());
+        key.append("&sort=").append(query.getSortField()).append(' ').append(query.getSortOrder());
+        key.append("&facet=");
+        for (DiscoverFacetField facet : query.getFacetFields()) {
+            key.append(facet.getField()).append(',').append(facet.getType()).append(',')
+                    .append(facet.getLimit()).append(',').append(facet.getSortOrder()).append(',')
+                    .append(facet.getPrefix()).append(';');
+        }
+        key.append("&facetQuery=").append(sorted(query.getFacetQueries()));
+        key.append("&facetMinCount=").append(query.getFacetMinCount());
+        key.append("&facetOffset=").append(query.getFacetOffset());
+        key.append("&fields=").append(query.getSearchFields());
+        key.append("&properties=").append(new TreeMap<String, List<String>>(query.getProperties()));
+        return key.toString();
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> result = new ArrayList<String>(values);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A search result without its DSpace objects.
+     */
+    private static class Entry {
+        private final String scope;
+        private final long created = System.currentTimeMillis();
+
+        private final long totalSearchResults;
+        private final int start;
+        private final int maxResults;
+        private final int[] types;
+        private final int[] ids;
+        private final List<List<DiscoverResult.SearchDocument>> searchDocuments;
+        private final Map<String, List<DiscoverResult.FacetResult>> facetResults;
+
+        Entry(String scope, DiscoverResult result) {
+            this.scope = scope;
+            this.totalSearchResults = result.getTotalSearchResults();
+            this.start = result.getStart();
+            this.maxResults = result.getMaxResults();
+
+            List<DSpaceObject> dsos = result.getDspaceObjects();
+            this.types = new int[dsos.size()];
+            this.ids = new int[dsos.size()];
+            this.searchDocuments = new ArrayList<List<DiscoverResult.SearchDocument>>(dsos.size());
+            for (int i = 0; i < dsos.size(); i++) {
+                types[i] = dsos.get(i).getType();
+                ids[i] = dsos.get(i).getID();
+                searchDocuments.add(result.getSearchDocument(dsos.get(i)));
+            }
+
+            this.facetResults = new LinkedHashMap<String, List<DiscoverResult.FacetResult>>();
+            for (Map.Entry<String, List<DiscoverResult.FacetResult>> facet : result.getFacetResults().entrySet()) {
+                facetResults.put(facet.getKey(), new ArrayList<DiscoverResult.FacetResult>(facet.getValue()));
+            }
+        }
+
+        /**
+         * @return the result with its objects loaded in the given context, or
+         * null if one of them no longer exists
+         */
+        DiscoverResult toResult(Context context) throws SQLException {
+            // load the items in bulk, so that find() takes them from the cache
+            int items = 0;
+            for (int type : types) {
+                if (type == Constants.ITEM) {
+                    items++;
+                }
+            }
+            if (1 < items) {
+                int[] itemIDs = new int[items];
+                for (int i = 0, j = 0; i < types.length; i++) {
+                    if (types[i] == Constants.ITEM) {
+                        itemIDs[j++] = ids[i];
+                    }
+                }
+                Item.findAll(context, itemIDs);
+            }
+
+            DiscoverResult result = new DiscoverResult();
+            result.setTotalSearchResults(totalSearchResults);
+            result.setStart(start);
+            result.setMaxResults(maxResults);
+            for (int i = 0; i < types.length; i++) {
+                DSpaceObject dso = DSpaceObject.find(context, types[i], ids[i]);
+                if (dso == null) {
+                    return null;
+                }
+                result.addDSpaceObject(dso);
+                for (DiscoverResult.SearchDocument doc : searchDocuments.get(i)) {
+                    result.addSearchDocument(dso, doc);
+                }
+            }
+            for (Map.Entry<String, List<DiscoverResult.FacetResult>> facet : facetResults.entrySet()) {
+                List<DiscoverResult.FacetResult> values = facet.getValue();
+                result.addFacetResult(facet.getKey(), values.toArray(new DiscoverResult.FacetResult[values.size()]));
+            }
+            return result;
+        }
+    }
+}
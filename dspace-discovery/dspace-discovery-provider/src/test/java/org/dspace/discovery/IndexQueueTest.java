@@ -0,0 +1,197 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit Tests for class IndexQueue
+ */
+public class IndexQueueTest extends AbstractUnitTest {
+
+    private static final String HANDLE = "123456789/queue-test";
+
+    /** Handles removed from the index by the indexer */
+    private List<String> removed;
+
+    /** Whether the indexer fails to update the index */
+    private boolean failing;
+
+    private IndexQueue queue;
+
+    @Before
+    @Override
+    public void init() {
+        super.init();
+        removed = new ArrayList<String>();
+        failing = false;
+        queue = new IndexQueue((IndexingService) Proxy.newProxyInstance(
+                IndexingService.class.getClassLoader(), new Class[]{IndexingService.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("unIndexContentChecked")) {
+                            if (failing) {
+                                throw new SearchServiceException("index unavailable");
+                            }
+                            removed.add((String) args[1]);
+                        }
+                        return null;
+                    }
+                }));
+    }
+
+    @After
+    @Override
+    public void destroy() {
+        try {
+            DatabaseManager.updateQuery(context, "DELETE FROM discovery_index_queue");
+            context.commit();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        super.destroy();
+    }
+
+    /**
+     * Applied entries are removed from the queue.
+     */
+    @Test
+    public void testProcess() throws Exception {
+        IndexQueue.enqueue(new ArrayList<DSpaceObject>(), Arrays.asList(HANDLE, HANDLE));
+
+        assertThat("testProcess 0", queue.process(), equalTo(2));
+        assertThat("testProcess 1", removed, equalTo(Arrays.asList(HANDLE)));
+        assertThat("testProcess 2", IndexQueue.getDepth(context), equalTo(0L));
+        assertThat("testProcess 3", queue.process(), equalTo(0));
+    }
+
+    /**
+     * Entries the indexer fails to apply stay queued, and are taken again
+     * until they have failed as many times as allowed.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        IndexQueue.enqueue(new ArrayList<DSpaceObject>(), Arrays.asList(HANDLE));
+        failing = true;
+
+        assertThat("testFailure 0", queue.process(), equalTo(1));
+        assertThat("testFailure 1", IndexQueue.getDepth(context), equalTo(1L));
+        assertThat("testFailure 2", queue.getDroppedCount(), equalTo(0L));
+        TableRow row = DatabaseManager.querySingleTable(context, "discovery_index_queue",
+                "SELECT * FROM discovery_index_queue");
+        assertThat("testFailure 3", row.getStringColumn("claimed_by"), nullValue());
+
+        // the default number of retries
+        for (int i = 1; i < 5; i++) {
+            assertThat("testFailure 4", queue.process(), equalTo(1));
+        }
+        assertThat("testFailure 5", IndexQueue.getDepth(context), equalTo(0L));
+        assertThat("testFailure 6", queue.getDroppedCount(), equalTo(1L));
+    }
+
+    /**
+     * Entries the indexer fails to apply stay queued when draining.
+     */
+    @Test
+    public void testDrainFailure() throws Exception {
+        IndexQueue.enqueue(new ArrayList<DSpaceObject>(), Arrays.asList(HANDLE));
+        failing = true;
+
+        assertThat("testDrainFailure 0", queue.drain(), equalTo(1L));
+        assertThat("testDrainFailure 1", IndexQueue.getDepth(context), equalTo(1L));
+    }
+
+    /**
+     * Entries claimed by another worker are left alone until the claim is
+     * abandoned.
+     */
+    @Test
+    public void testClaimed() throws Exception {
+        IndexQueue.enqueue(new ArrayList<DSpaceObject>(), Arrays.asList(HANDLE));
+        claim(new Timestamp(System.currentTimeMillis()));
+
+        assertThat("testClaimed 0", queue.process(), equalTo(0));
+        assertThat("testClaimed 1", removed.size(), equalTo(0));
+        assertThat("testClaimed 2", IndexQueue.getDepth(context), equalTo(1L));
+
+        claim(new Timestamp(System.currentTimeMillis() - 24 * 60 * 60 * 1000L));
+
+        assertThat("testClaimed 3", queue.process(), equalTo(1));
+        assertThat("testClaimed 4", removed, equalTo(Arrays.asList(HANDLE)));
+        assertThat("testClaimed 5", IndexQueue.getDepth(context), equalTo(0L));
+    }
+
+    /**
+     * A stopped worker thread ends, and a new worker can be started.
+     */
+    @Test
+    public void testStopWorker() throws Exception {
+        IndexingService indexer = (IndexingService) Proxy.newProxyInstance(
+                IndexingService.class.getClassLoader(), new Class[]{IndexingService.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+
+        IndexQueue.startWorker(indexer);
+        assertThat("testStopWorker 0", IndexQueue.getWorker() != null, equalTo(true));
+        assertThat("testStopWorker 1", isWorkerRunning(), equalTo(true));
+
+        IndexQueue.stopWorker();
+        assertThat("testStopWorker 2", IndexQueue.getWorker(), nullValue());
+        assertThat("testStopWorker 3", isWorkerRunning(), equalTo(false));
+
+        IndexQueue.startWorker(indexer);
+        assertThat("testStopWorker 4", isWorkerRunning(), equalTo(true));
+        IndexQueue.stopWorker();
+        assertThat("testStopWorker 5", isWorkerRunning(), equalTo(false));
+    }
+
+    private boolean isWorkerRunning() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("discovery-index-queue") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void claim(Timestamp claimed) throws Exception {
+        Context other = new Context();
+        try {
+            DatabaseManager.updateQuery(other,
+                    "UPDATE discovery_index_queue SET claimed_by = ?, claimed = ?", "other", claimed);
+            other.complete();
+        } finally {
+            if (other.isValid()) {
+                other.abort();
+            }
+        }
+    }
+}
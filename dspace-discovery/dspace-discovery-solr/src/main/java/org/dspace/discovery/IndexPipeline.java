@@ -0,0 +1,337 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes items in Discovery on several threads.
+ * <p/>
+ * Item IDs are handed to the pipeline with {@link #add(int)}. A pool of
+ * workers, each with a context of its own, loads the items and builds their
+ * Solr documents, and a single writer sends the documents to Solr in batches.
+ * The queues between these stages are bounded, so a producer that is faster
+ * than the workers, or workers that are faster than Solr, are held back
+ * rather than filling memory.
+ * <p/>
+ * Progress and throughput are logged as documents are written, and summed
+ * up by {@link #finish()}.
+ */
+class IndexPipeline {
+
+    private static final Logger log = Logger.getLogger(IndexPipeline.class);
+
+    /** Tells a worker that there are no more items */
+    private static final Integer END_OF_ITEMS = new Integer(-1);
+
+    /** Tells the writer that there are no more documents */
+    private static final Object END_OF_DOCUMENTS = new Object();
+
+    /** Number of items a worker processes before clearing its context cache */
+    private static final int CLEAR_CACHE_INTERVAL = 100;
+
+    private final SolrServiceImpl service;
+    private final int threads;
+    private final int batchSize;
+    private final int progressInterval;
+
+    /** IDs of the items waiting to be processed */
+    private final BlockingQueue<Integer> items;
+
+    /** Documents to add, and handles of documents to delete */
+    private final BlockingQueue<Object> output;
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private Thread writer;
+
+    private boolean force;
+    private long started;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong built = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param service the service that builds the documents
+     * @param threads number of worker threads
+     * @param batchSize number of documents sent to Solr at once
+     * @param queueSize capacity of each queue between the stages
+     */
+    IndexPipeline(SolrServiceImpl service, int threads, int batchSize, int queueSize) {
+        this.service = service;
+        this.threads = Math.max(threads, 1);
+        this.batchSize = Math.max(batchSize, 1);
+        this.progressInterval = Math.max(this.batchSize, 10000 / this.batchSize * this.batchSize);
+        this.items = new ArrayBlockingQueue<Integer>(Math.max(queueSize, this.threads));
+        this.output = new ArrayBlockingQueue<Object>(Math.max(queueSize, this.batchSize));
+    }
+
+    /**
+     * Start the workers and the writer.
+     *
+     * @param force whether items are reindexed even if their document is up to date
+     */
+    void start(boolean force) {
+        this.force = force;
+        this.started = System.currentTimeMillis();
+
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "discovery-index-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "discovery-index-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue an item to be indexed, waiting if the queue is full.
+     *
+     * @param itemID the ID of the item
+     * @throws InterruptedException
+     */
+    void add(int itemID) throws InterruptedException {
+        items.put(Integer.valueOf(itemID));
+        added.incrementAndGet();
+    }
+
+    /**
+     * Queue a document to be removed from the index, waiting if the queue is
+     * full.
+     *
+     * @param handle the handle of the document
+     * @throws InterruptedException
+     */
+    void remove(String handle) throws InterruptedException {
+        output.put(handle);
+    }
+
+    /**
+     * Wait for all the queued items to be indexed, and stop the threads.
+     *
+     * @throws InterruptedException
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            items.put(END_OF_ITEMS);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (writer != null) {
+            output.put(END_OF_DOCUMENTS);
+            writer.join();
+        }
+
+        String summary = "Discovery index pipeline finished: " + getProgress();
+        log.info(summary);
+        System.out.println(summary);
+    }
+
+    /**
+     * @return a description of the progress so far
+     */
+    String getProgress() {
+        long elapsed = Math.max(System.currentTimeMillis() - started, 1);
+        return added.get() + " items queued, " + built.get() + " built, "
+                + skipped.get() + " up to date, " + removed.get() + " removed, "
+                + failed.get() + " failed, " + written.get() + " written in "
+                + elapsed + " ms (" + (written.get() * 1000 / elapsed) + " documents/s)";
+    }
+
+    long getWrittenCount() {
+        return written.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Worker loop: load items and build their documents. A failure is
+     * counted against the item it happened on, and the worker carries on with
+     * the next item, with a new context in case the old one is unusable.
+     */
+    private void work() {
+        Context context = null;
+        try {
+            int processed = 0;
+            while (true) {
+                Integer itemID = items.take();
+                if (itemID == END_OF_ITEMS) {
+                    break;
+                }
+
+                try {
+                    if (context == null) {
+                        context = new Context();
+                        context.turnOffAuthorisationSystem();
+                    }
+
+                    process(context, itemID.intValue());
+
+                    if (++processed % CLEAR_CACHE_INTERVAL == 0) {
+                        context.clearCache();
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("Unable to index item " + itemID + ": " + e.getMessage(), e);
+                    abort(context);
+                    context = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            abort(context);
+        }
+    }
+
+    private static void abort(Context context) {
+        if (context != null && context.isValid()) {
+            context.abort();
+        }
+    }
+
+    /**
+     * Build the document of an item. Failures are left to the caller, which
+     * replaces the context they may have made unusable.
+     */
+    private void process(Context context, int itemID)
+            throws InterruptedException, SQLException, IOException, SearchServiceException {
+        Item item = Item.find(context, itemID);
+        if (item == null) {
+            return;
+        }
+
+        String handle = item.getHandle();
+        if (handle == null) {
+            handle = HandleManager.findHandle(context, item);
+        }
+
+        if (item.isArchived() && !item.isWithdrawn()) {
+            if (force || service.requiresIndexing(handle, item.getLastModified())) {
+                output.put(service.buildItemDocument(context, item, handle));
+                built.incrementAndGet();
+            } else {
+                skipped.incrementAndGet();
+            }
+        } else if (handle != null) {
+            // not in the archive, so make sure it is not in the index
+            output.put(handle);
+        }
+
+        item.decache();
+    }
+
+    /**
+     * Writer loop: send documents and deletions to Solr in batches.
+     */
+    private void write() {
+        List<SolrInputDocument> documents = new ArrayList<SolrInputDocument>(batchSize);
+        List<String> handles = new ArrayList<String>(batchSize);
+        try {
+            while (true) {
+                Object next = output.take();
+                if (next == END_OF_DOCUMENTS) {
+                    break;
+                }
+
+                if (next instanceof SolrInputDocument) {
+                    documents.add((SolrInputDocument) next);
+                    if (documents.size() >= batchSize) {
+                        flushDocuments(documents);
+                    }
+                } else {
+                    handles.add((String) next);
+                    if (handles.size() >= batchSize) {
+                        flushDeletes(handles);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushDocuments(documents);
+            flushDeletes(handles);
+        }
+    }
+
+    private void flushDocuments(List<SolrInputDocument> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        try {
+            service.getSolr().add(documents);
+            long before = written.get();
+            long after = written.addAndGet(documents.size());
+            if (before / progressInterval != after / progressInterval) {
+                log.info("Discovery index progress: " + getProgress());
+            }
+        } catch (SolrServerException e) {
+            failed.addAndGet(documents.size());
+            log.error("Unable to write " + documents.size() + " documents: " + e.getMessage(), e);
+        } catch (IOException e) {
+            failed.addAndGet(documents.size());
+            log.error("Unable to write " + documents.size() + " documents: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            failed.addAndGet(documents.size());
+            log.error("Unable to write " + documents.size() + " documents: " + e.getMessage(), e);
+        }
+        documents.clear();
+    }
+
+    private void flushDeletes(List<String> handles) {
+        if (handles.isEmpty()) {
+            return;
+        }
+
+        try {
+            service.getSolr().deleteById(handles);
+            removed.addAndGet(handles.size());
+        } catch (SolrServerException e) {
+            log.error("Unable to remove " + handles.size() + " documents: " + e.getMessage(), e);
+        } catch (IOException e) {
+            log.error("Unable to remove " + handles.size() + " documents: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.error("Unable to remove " + handles.size() + " documents: " + e.getMessage(), e);
+        }
+        handles.clear();
+    }
+}
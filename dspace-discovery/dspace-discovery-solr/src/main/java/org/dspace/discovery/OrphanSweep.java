@@ -0,0 +1,174 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes the documents of objects that no longer exist from the Discovery
+ * index.
+ * <p/>
+ * Every document is visited, in pages sorted by handle, each page starting
+ * after the last handle of the previous one. The handles of a page are looked
+ * up in the <code>handle</code> table with a few <code>IN</code> queries, so
+ * no DSpace objects are instantiated, and the handles that are not bound to
+ * an object are deleted from the index in batches. Only one page is held in
+ * memory at a time.
+ */
+class OrphanSweep {
+
+    private static final Logger log = Logger.getLogger(OrphanSweep.class);
+
+    /** Number of handles in one IN list, Oracle allows no more than 1000 */
+    private static final int IN_LIST_SIZE = 500;
+
+    private final SolrServer solr;
+    private final int pageSize;
+    private final int batchSize;
+
+    private long checked;
+    private long deleted;
+
+    /**
+     * @param solr the server holding the index
+     * @param pageSize number of documents read from Solr at once
+     * @param batchSize number of documents deleted at once
+     */
+    OrphanSweep(SolrServer solr, int pageSize, int batchSize) {
+        this.solr = solr;
+        this.pageSize = Math.max(pageSize, 1);
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Sweep the whole index.
+     *
+     * @param context the dspace context
+     * @throws SQLException
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    void run(Context context) throws SQLException, SolrServerException, IOException {
+        long started = System.currentTimeMillis();
+        List<String> orphans = new ArrayList<String>(batchSize);
+
+        String last = null;
+        boolean exhausted = false;
+        while (!exhausted) {
+            List<String> handles = nextPage(last);
+            exhausted = handles.size() < pageSize;
+            if (handles.isEmpty()) {
+                break;
+            }
+            last = handles.get(handles.size() - 1);
+            checked += handles.size();
+
+            Set<String> bound = findBound(context, handles);
+            for (String handle : handles) {
+                if (!bound.contains(handle)) {
+                    log.info("Deleting: " + handle);
+                    orphans.add(handle);
+                    if (orphans.size() >= batchSize) {
+                        delete(orphans);
+                    }
+                }
+            }
+        }
+        delete(orphans);
+
+        if (deleted > 0) {
+            solr.commit();
+        }
+
+        String summary = "Discovery orphan sweep: " + checked + " documents checked, "
+                + deleted + " deleted in " + (System.currentTimeMillis() - started) + " ms";
+        log.info(summary);
+        System.out.println(summary);
+    }
+
+    /**
+     * Read the handles of the documents following the given handle.
+     */
+    private List<String> nextPage(String after) throws SolrServerException {
+        SolrQuery query = new SolrQuery();
+        if (after == null) {
+            query.setQuery("*:*");
+        } else {
+            // inclusive, as mixed range brackets are not understood by Solr 3
+            query.setQuery("handle:[\"" + escape(after) + "\" TO *]");
+        }
+        query.setFields("handle");
+        query.setSortField("handle", SolrQuery.ORDER.asc);
+        // one more than a page, to make up for the repeated first handle
+        query.setRows(after == null ? pageSize : pageSize + 1);
+
+        SolrDocumentList results = solr.query(query).getResults();
+        List<String> handles = new ArrayList<String>(results.size());
+        for (SolrDocument doc : results) {
+            String handle = (String) doc.getFirstValue("handle");
+            if (handle != null && !handle.equals(after)) {
+                handles.add(handle);
+            }
+        }
+        return handles;
+    }
+
+    /**
+     * Find which of the given handles are bound to an object.
+     */
+    private Set<String> findBound(Context context, List<String> handles) throws SQLException {
+        Set<String> bound = new HashSet<String>(handles.size() * 2);
+        for (int from = 0; from < handles.size(); from += IN_LIST_SIZE) {
+            List<String> chunk = handles.subList(from, Math.min(from + IN_LIST_SIZE, handles.size()));
+
+            StringBuilder sql = new StringBuilder(
+                    "SELECT handle FROM handle WHERE resource_id IS NOT NULL AND handle IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+
+            TableRowIterator rows = DatabaseManager.query(context, sql.toString(), chunk.toArray());
+            try {
+                while (rows.hasNext()) {
+                    bound.add(rows.next().getStringColumn("handle"));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+        return bound;
+    }
+
+    private void delete(List<String> handles) throws SolrServerException, IOException {
+        if (!handles.isEmpty()) {
+            solr.deleteById(handles);
+            deleted += handles.size();
+            handles.clear();
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
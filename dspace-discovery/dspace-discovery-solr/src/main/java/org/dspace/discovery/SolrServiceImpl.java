@@ -28,6 +28,11 @@ import org.dspace.content.Collection;
 import org.dspace.core.*;
 import org.dspace.discovery.configuration.*;
 import org.dspace.handle.HandleManager;
+import org.dspace.kernel.mixins.ShutdownService;
+import org.dspace.services.ConfigurationService;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
 import org.dspace.utils.DSpace;
 import org.springframework.stereotype.Service;
 
@@ -59,7 +64,7 @@ import java.util.*;
  * @author Ben Bosman (ben at atmire dot com)
  */
 @Service
-public class SolrServiceImpl implements SearchService, IndexingService {
+public class SolrServiceImpl implements SearchService, IndexingService, ShutdownService {
 
     private static final Logger log = Logger.getLogger(SolrServiceImpl.class);
 
@@ -104,6 +109,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         return solr;
     }
 
+    /**
+     * Stop the worker applying queued index updates, which would otherwise
+     * outlive the webapp that started it.
+     */
+    public void shutdown() {
+        IndexQueue.stopWorker();
+    }
+
     /**
      * If the handle for the "dso" already exists in the index, and the "dso"
      * has a lastModified timestamp that is newer than the document in the index
@@ -133,6 +146,27 @@ public class SolrServiceImpl implements SearchService, IndexingService {
     public void indexContent(Context context, DSpaceObject dso,
                              boolean force) throws SQLException {
 
+        try {
+            indexContentChecked(context, dso, force);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Same as indexContent(context, dso, force), except that a failure to
+     * update the index is thrown instead of being logged, so that the caller
+     * can try again.
+     *
+     * @param context Users Context
+     * @param dso     DSpace Object (Item, Collection or Community
+     * @param force   Force update even if not stale.
+     * @throws SQLException
+     * @throws SearchServiceException if the index could not be updated
+     */
+    public void indexContentChecked(Context context, DSpaceObject dso,
+                                    boolean force) throws SQLException, SearchServiceException {
+
         String handle = dso.getHandle();
 
         if (handle == null) {
@@ -149,7 +183,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                          */
                         if (requiresIndexing(handle, ((Item) dso).getLastModified())
                                 || force) {
-                            unIndexContent(context, handle);
+                            unIndexContentChecked(context, handle);
                             buildDocument(context, (Item) dso);
                         }
                     } else {
@@ -159,7 +193,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                          * content on search/retrieval and allow admins the ability
                          * to still search for withdrawn Items.
                          */
-                        unIndexContent(context, handle);
+                        unIndexContentChecked(context, handle);
                         log.info("Removed Item: " + handle + " from Index");
                     }
                     break;
@@ -178,9 +212,10 @@ public class SolrServiceImpl implements SearchService, IndexingService {
                     log
                             .error("Only Items, Collections and Communities can be Indexed");
             }
-
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
+        } catch (SolrServerException e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new SearchServiceException(e.getMessage(), e);
         }
     }
 
@@ -235,6 +270,25 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Remove a document from the index, without committing, throwing a
+     * failure instead of logging it so that the caller can try again.
+     *
+     * @param context the dspace context
+     * @param handle the handle of the object to be deleted
+     * @throws SearchServiceException if the index could not be updated
+     */
+    public void unIndexContentChecked(Context context, String handle)
+            throws SearchServiceException {
+        try {
+            getSolr().deleteById(handle);
+        } catch (SolrServerException e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
+    }
+
     /**
      * reIndexContent removes something from the index, then re-indexes it
      *
@@ -284,22 +338,30 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * opened and closed on each DSO. But this allows the UI processes to step
      * in and attain a lock and write to the index even if other processes/jvms
      * are running a reindex.
+     * <p/>
+     * Unless forced, the stale items are found in bulk as described in
+     * {@link #updateIndex(Context, boolean, int)}.
      *
      * @param context the dspace context
      * @param force whether or not to force the reindexing
      */
     public void updateIndex(Context context, boolean force) {
+        if (!force) {
+            // compare the whole index with the database in bulk instead
+            updateIndex(context, false, 1);
+            return;
+        }
+
         try {
             ItemIterator items = null;
             try {
-                for (items = Item.findAll(context); items.hasNext();) {
+                for (items = Item.findAllStreaming(context); items.hasNext();) {
                     Item item = items.next();
                     indexContent(context, item, force);
                     item.decache();
                 }
             } finally {
-                if (items != null)
-                {
+                if (items != null) {
                     items.close();
                 }
             }
@@ -324,9 +386,78 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         }
     }
 
+    /**
+     * Iterates over all Items, Collections and Communities and updates them in
+     * the index like {@link #updateIndex(Context, boolean)}, but builds the
+     * item documents on several threads, each with a context of its own, and
+     * sends them to Solr in batches of <code>discovery.index.batchsize</code>
+     * documents. Progress and throughput are logged while it runs.
+     * <p/>
+     * Unless forced, only the items that are not up to date in the index are
+     * indexed. They are found by a {@link StaleItemScan}, which reads the
+     * index in pages of <code>discovery.index.scan.pagesize</code> documents
+     * rather than querying it for each item, and which also removes the
+     * documents of items that are no longer in the archive.
+     *
+     * @param context the dspace context
+     * @param force whether or not to force the reindexing
+     * @param threads the number of threads building documents
+     */
+    public void updateIndex(Context context, boolean force, int threads) {
+        try {
+            // make sure the server is set up before the threads share it
+            getSolr();
+
+            ConfigurationService config = new DSpace().getConfigurationService();
+            IndexPipeline pipeline = new IndexPipeline(this, threads,
+                    config.getPropertyAsType("discovery.index.batchsize", 100),
+                    config.getPropertyAsType("discovery.index.queuesize", 1000));
+            // the scan decides which items are stale, so the workers need not
+            pipeline.start(true);
+
+            TableRowIterator rows = null;
+            try {
+                if (force) {
+                    rows = DatabaseManager.queryStreaming(context,
+                            "SELECT item_id FROM item WHERE in_archive='1'");
+                    while (rows.hasNext()) {
+                        pipeline.add(rows.next().getIntColumn("item_id"));
+                    }
+                } else {
+                    new StaleItemScan(getSolr(), LAST_INDEXED_FIELD,
+                            config.getPropertyAsType("discovery.index.scan.pagesize", 10000))
+                            .run(context, pipeline);
+                }
+            } finally {
+                if (rows != null) {
+                    rows.close();
+                }
+                pipeline.finish();
+            }
+
+            Collection[] collections = Collection.findAll(context);
+            for (Collection collection : collections) {
+                indexContent(context, collection, force);
+                context.removeCached(collection, collection.getID());
+            }
+
+            Community[] communities = Community.findAll(context);
+            for (Community community : communities) {
+                indexContent(context, community, force);
+                context.removeCached(community, community.getID());
+            }
+
+            getSolr().commit();
+
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
     /**
      * Iterates over all documents in the Lucene index and verifies they are in
-     * database, if not, they are removed.
+     * database, if not, they are removed. The documents are checked a page at
+     * a time against the handle table by an {@link OrphanSweep}.
      *
      * @param force whether or not to force a clean index
      * @throws IOException IO exception
@@ -344,32 +475,11 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             if (force) {
                 getSolr().deleteByQuery("*:*");
             } else {
-                SolrQuery query = new SolrQuery();
-                query.setQuery("*:*");
-                QueryResponse rsp = getSolr().query(query);
-                SolrDocumentList docs = rsp.getResults();
-
-                Iterator iter = docs.iterator();
-                while (iter.hasNext()) {
-
-                 SolrDocument doc = (SolrDocument) iter.next();
-
-                String handle = (String) doc.getFieldValue("handle");
-
-                DSpaceObject o = HandleManager.resolveToObject(context, handle);
-
-                if (o == null) {
-                    log.info("Deleting: " + handle);
-                    /*
-                          * Use IndexWriter to delete, its easier to manage
-                          * write.lock
-                          */
-                    unIndexContent(context, handle);
-                } else {
-                    context.removeCached(o, o.getID());
-                    log.debug("Keeping: " + handle);
-                }
-            }
+                ConfigurationService config = new DSpace().getConfigurationService();
+                new OrphanSweep(getSolr(),
+                        config.getPropertyAsType("discovery.index.scan.pagesize", 10000),
+                        config.getPropertyAsType("discovery.index.batchsize", 100))
+                        .run(context);
             }
         } catch(Exception e){
 
@@ -382,6 +492,21 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
 
 
+    }
+
+    /**
+     * Commit the changes made to the index, making them visible to searches.
+     *
+     * @throws SearchServiceException if the changes could not be committed
+     */
+    public void commit() throws SearchServiceException {
+        try {
+            getSolr().commit();
+        } catch (SolrServerException e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new SearchServiceException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -456,7 +581,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @throws IOException io exception
      * @throws SearchServiceException if something went wrong with querying the solr server
      */
-    private boolean requiresIndexing(String handle, Date lastModified)
+    boolean requiresIndexing(String handle, Date lastModified)
             throws SQLException, IOException, SearchServiceException {
 
         boolean reindexItem = false;
@@ -542,13 +667,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @param doc the solr document to be written to the server
      * @throws IOException IO exception
      */
-    private void writeDocument(SolrInputDocument doc) throws IOException {
-
-        try {
-            getSolr().add(doc);
-        } catch (SolrServerException e) {
-            log.error(e.getMessage(), e);
-        }
+    private void writeDocument(SolrInputDocument doc) throws IOException, SolrServerException {
+        getSolr().add(doc);
     }
 
     /**
@@ -559,7 +679,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @throws IOException
      */
     private void buildDocument(Community community)
-    throws SQLException, IOException {
+    throws SQLException, IOException, SolrServerException {
         // Create Document
         SolrInputDocument doc = buildDocument(Constants.COMMUNITY, community.getID(),
                 community.getHandle(), null);
@@ -588,7 +708,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @throws IOException IO exception
      */
     private void buildDocument(Collection collection)
-    throws SQLException, IOException {
+    throws SQLException, IOException, SolrServerException {
         List<String> locations = getCollectionLocations(collection);
 
         // Create Lucene Document
@@ -620,13 +740,32 @@ public class SolrServiceImpl implements SearchService, IndexingService {
      * @throws IOException
      */
     private void buildDocument(Context context, Item item)
-            throws SQLException, IOException {
+            throws SQLException, IOException, SolrServerException {
         String handle = item.getHandle();
 
         if (handle == null) {
             handle = HandleManager.findHandle(context, item);
         }
 
+        SolrInputDocument doc = buildItemDocument(context, item, handle);
+
+        // write the index
+        writeDocument(doc);
+        log.info("Wrote Item: " + handle + " to Index");
+    }
+
+    /**
+     * Build the Solr document for a DSpace Item, without writing it.
+     *
+     * @param context Users Context
+     * @param item    The DSpace Item to be indexed
+     * @param handle  The handle of the item
+     * @return the document
+     * @throws SQLException
+     * @throws IOException
+     */
+    SolrInputDocument buildItemDocument(Context context, Item item, String handle)
+            throws SQLException, IOException {
         // get the location string (for searching by collection & community)
         List<String> locations = getItemLocations(item);
 
@@ -894,21 +1033,8 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             }
         } catch (RuntimeException e) {
             log.error(e.getMessage(), e);
-        }
-
-        //Do any additional indexing, depends on the plugins
-        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
-        for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins) {
-            solrServiceIndexPlugin.additionalIndex(item, doc);
-        }
-
-        // write the index and close the inputstreamreaders
-        try {
-            writeDocument(doc);
-            log.info("Wrote Item: " + handle + " to Index");
-        } catch (RuntimeException e) {
-            log.error("Error while writing item to discovery index: " + handle + " message:"+ e.getMessage(), e);
         } finally {
+            // the text has been read, so close the inputstreamreaders
             Iterator<InputStreamReader> itr = readers.iterator();
             while (itr.hasNext()) {
                 InputStreamReader reader = itr.next();
@@ -918,6 +1044,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             }
             log.debug("closed " + readers.size() + " readers");
         }
+
+        //Do any additional indexing, depends on the plugins
+        List<SolrServiceIndexPlugin> solrServiceIndexPlugins = new DSpace().getServiceManager().getServicesByType(SolrServiceIndexPlugin.class);
+        for (SolrServiceIndexPlugin solrServiceIndexPlugin : solrServiceIndexPlugins) {
+            solrServiceIndexPlugin.additionalIndex(item, doc);
+        }
+
+        return doc;
     }
 
     /**
@@ -1268,6 +1402,9 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             result.setMaxResults(query.getMaxResults());
             result.setTotalSearchResults(solrQueryResponse.getResults().getNumFound());
 
+            //Load the items of this page in bulk rather than one by one
+            preloadItems(context, solrQueryResponse.getResults());
+
             List<String> searchFields = query.getSearchFields();
             for (SolrDocument doc : solrQueryResponse.getResults()) {
                 DSpaceObject dso = findDSpaceObject(context, doc);
@@ -1294,6 +1431,7 @@ public class SolrServiceImpl implements SearchService, IndexingService {
             //Resolve our facet field values
             List<FacetField> facetFields = solrQueryResponse.getFacetFields();
             if(facetFields != null){
+                preloadLocationNames(context, facetFields);
                 for (int i = 0; i <  facetFields.size(); i++) {
                     FacetField facetField = facetFields.get(i);
                     DiscoverFacetField facetFieldConfig = query.getFacetFields().get(i);
@@ -1338,6 +1476,92 @@ public class SolrServiceImpl implements SearchService, IndexingService {
         return result;
     }
 
+    /**
+     * Load all the items referenced by a list of search results at once, so
+     * that they are in the context's cache when the results are resolved.
+     *
+     * @param context DSpace context object
+     * @param docs the search results
+     * @throws SQLException
+     */
+    private static void preloadItems(Context context, SolrDocumentList docs) throws SQLException {
+        List<Integer> itemIds = new ArrayList<Integer>();
+        for (SolrDocument doc : docs) {
+            Integer type = (Integer) doc.getFirstValue("search.resourcetype");
+            Integer id = (Integer) doc.getFirstValue("search.resourceid");
+            if (type != null && id != null && type == Constants.ITEM) {
+                itemIds.add(id);
+            }
+        }
+
+        if (1 < itemIds.size()) {
+            int[] ids = new int[itemIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = itemIds.get(i);
+            }
+            Item.findAll(context, ids);
+        }
+    }
+
+    /**
+     * Look up the names of all the communities and collections in the
+     * location facets that are not cached yet, with one query per type, so
+     * that resolving the displayed facet values does not query the database
+     * for each value.
+     *
+     * @param context DSpace context object
+     * @param facetFields the facets of a search response
+     * @throws SQLException
+     */
+    private static void preloadLocationNames(Context context, List<FacetField> facetFields) throws SQLException {
+        if (!DisplayValueCache.isEnabled()) {
+            return;
+        }
+
+        for (FacetField facetField : facetFields) {
+            String table;
+            if ("location.comm".equals(facetField.getName())) {
+                table = "community";
+            } else if ("location.coll".equals(facetField.getName())) {
+                table = "collection";
+            } else {
+                continue;
+            }
+
+            List<Object> ids = new ArrayList<Object>();
+            if (facetField.getValues() != null) {
+                for (FacetField.Count facetValue : facetField.getValues()) {
+                    String value = facetValue.getName();
+                    if (value != null && value.matches("\\d+")
+                            && DisplayValueCache.get(facetField.getName(), value) == null) {
+                        ids.add(Integer.valueOf(value));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                continue;
+            }
+
+            StringBuilder query = new StringBuilder("SELECT " + table + "_id AS id, name FROM " + table
+                    + " WHERE " + table + "_id IN (");
+            for (int i = 0; i < ids.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+
+            TableRowIterator rows = DatabaseManager.query(context, query.toString(), ids.toArray());
+            try {
+                while (rows.hasNext()) {
+                    TableRow row = rows.next();
+                    DisplayValueCache.put(facetField.getName(),
+                            String.valueOf(row.getIntColumn("id")), row.getStringColumn("name"));
+                }
+            } finally {
+                rows.close();
+            }
+        }
+    }
+
     private static DSpaceObject findDSpaceObject(Context context, SolrDocument doc) throws SQLException {
 
         Integer type = (Integer) doc.getFirstValue("search.resourcetype");
@@ -1496,7 +1720,14 @@ public class SolrServiceImpl implements SearchService, IndexingService {
 
     private String transformDisplayedValue(Context context, String field, String value) throws SQLException {
         if(field.equals("location.comm") || field.equals("location.coll")){
-            value = locationToName(context, field, value);
+            String name = DisplayValueCache.get(field, value);
+            if(name == null){
+                name = locationToName(context, field, value);
+                if(name != null && !name.equals(value)){
+                    DisplayValueCache.put(field, value, name);
+                }
+            }
+            value = name;
         }else
         if(field.endsWith("_filter")){
             //We have a filter make sure we split !
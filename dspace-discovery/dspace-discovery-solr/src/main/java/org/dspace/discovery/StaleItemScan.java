@@ -0,0 +1,162 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.discovery;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * Finds the items whose Discovery documents are out of date, without asking
+ * Solr about each item.
+ * <p/>
+ * The item documents are read from Solr in pages sorted by item ID, holding
+ * only the ID, handle and time of indexing, and merged with the archived
+ * items read from the database in the same order. Items that are newer than
+ * their document, or have none, are queued in an {@link IndexPipeline} to be
+ * indexed, and documents without an archived item are queued to be removed.
+ */
+class StaleItemScan {
+
+    private static final Logger log = Logger.getLogger(StaleItemScan.class);
+
+    private static final String ID_FIELD = "search.resourceid";
+
+    private final SolrServer solr;
+    private final String lastIndexedField;
+    private final int pageSize;
+
+    private long upToDate;
+    private long stale;
+    private long missing;
+    private long orphaned;
+
+    /**
+     * @param solr the server holding the index
+     * @param lastIndexedField the field holding the time a document was indexed
+     * @param pageSize number of documents read from Solr at once
+     */
+    StaleItemScan(SolrServer solr, String lastIndexedField, int pageSize) {
+        this.solr = solr;
+        this.lastIndexedField = lastIndexedField;
+        this.pageSize = Math.max(pageSize, 1);
+    }
+
+    /**
+     * Compare the index with the database, queueing the items that need to
+     * be indexed and the documents that need to be removed.
+     *
+     * @param context the dspace context
+     * @param pipeline the started pipeline to queue the work in
+     * @throws SQLException
+     * @throws SolrServerException
+     * @throws InterruptedException
+     */
+    void run(Context context, IndexPipeline pipeline)
+            throws SQLException, SolrServerException, InterruptedException {
+        long started = System.currentTimeMillis();
+
+        TableRowIterator rows = null;
+        try {
+            rows = DatabaseManager.queryStreaming(context,
+                    "SELECT item_id, last_modified FROM item "
+                    + "WHERE in_archive='1' AND withdrawn='0' ORDER BY item_id");
+            DocumentPages documents = new DocumentPages();
+
+            TableRow row = rows.hasNext() ? rows.next() : null;
+            SolrDocument doc = documents.next();
+            while (row != null || doc != null) {
+                int itemID = row != null ? row.getIntColumn("item_id") : Integer.MAX_VALUE;
+                int docID = doc != null ? getID(doc) : Integer.MAX_VALUE;
+
+                if (row != null && (doc == null || itemID < docID)) {
+                    missing++;
+                    pipeline.add(itemID);
+                    row = rows.hasNext() ? rows.next() : null;
+                } else if (row == null || docID < itemID) {
+                    orphaned++;
+                    pipeline.remove((String) doc.getFirstValue("handle"));
+                    doc = documents.next();
+                } else {
+                    Object value = doc.getFirstValue(lastIndexedField);
+                    Date lastModified = row.getDateColumn("last_modified");
+                    if (!(value instanceof Date)
+                            || (lastModified != null && ((Date) value).before(lastModified))) {
+                        stale++;
+                        pipeline.add(itemID);
+                    } else {
+                        upToDate++;
+                    }
+                    row = rows.hasNext() ? rows.next() : null;
+                    doc = documents.next();
+                }
+            }
+        } finally {
+            if (rows != null) {
+                rows.close();
+            }
+        }
+
+        log.info("Discovery staleness scan: " + upToDate + " up to date, "
+                + stale + " stale, " + missing + " missing, " + orphaned
+                + " orphaned in " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    private static int getID(SolrDocument doc) {
+        Object value = doc.getFirstValue(ID_FIELD);
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    /**
+     * Reads the item documents in pages, using the last ID of each page as
+     * the start of the next one so that deep pages cost no more than the
+     * first.
+     */
+    private class DocumentPages {
+
+        private Iterator<SolrDocument> page;
+        private int lastID = -1;
+        private boolean exhausted;
+
+        SolrDocument next() throws SolrServerException {
+            if ((page == null || !page.hasNext()) && !exhausted) {
+                SolrQuery query = new SolrQuery();
+                // not a filter query, as each page would fill the filter cache
+                query.setQuery("search.resourcetype:" + Constants.ITEM
+                        + " AND " + ID_FIELD + ":[" + (lastID + 1) + " TO *]");
+                query.setFields(ID_FIELD, "handle", lastIndexedField);
+                query.setSortField(ID_FIELD, SolrQuery.ORDER.asc);
+                query.setRows(pageSize);
+
+                SolrDocumentList results = solr.query(query).getResults();
+                exhausted = results.size() < pageSize;
+                page = results.iterator();
+            }
+
+            if (page == null || !page.hasNext()) {
+                return null;
+            }
+
+            SolrDocument doc = page.next();
+            lastID = getID(doc);
+            return doc;
+        }
+    }
+}
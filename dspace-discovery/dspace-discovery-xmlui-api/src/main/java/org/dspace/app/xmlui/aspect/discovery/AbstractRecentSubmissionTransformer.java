@@ -136,8 +136,7 @@ public abstract class AbstractRecentSubmissionTransformer extends AbstractDSpace
                             DiscoverQuery.SORT_ORDER.desc
                     );
                 }
-                SearchService service = SearchUtils.getSearchService();
-                queryResults = service.search(context, dso, queryArgs);
+                queryResults = SearchResultCache.search(context, dso, queryArgs);
             }else{
                 //No configuration, no results
                 queryResults = null;
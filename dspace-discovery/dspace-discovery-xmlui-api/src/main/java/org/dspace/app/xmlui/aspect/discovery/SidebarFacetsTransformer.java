@@ -161,7 +161,7 @@ public class SidebarFacetsTransformer extends AbstractDSpaceTransformer implemen
 
         //We do not need to retrieve any dspace objects, only facets
         queryArgs.setMaxResults(0);
-        queryResults =  getSearchService().search(context, dso,  queryArgs);
+        queryResults = SearchResultCache.search(context, dso, queryArgs);
     }
 
     @Override
@@ -368,7 +368,7 @@ public class SidebarFacetsTransformer extends AbstractDSpaceTransformer implemen
                             yearRangeQuery.setSortField(dateFacet + "_sort", DiscoverQuery.SORT_ORDER.asc);
                             yearRangeQuery.addFilterQueries(filterQueries);
                             yearRangeQuery.addSearchField(dateFacet);
-                            DiscoverResult lastYearResult = getSearchService().search(context, scope, yearRangeQuery);
+                            DiscoverResult lastYearResult = SearchResultCache.search(context, scope, yearRangeQuery);
 
 
                             if(0 < lastYearResult.getDspaceObjects().size()){
@@ -379,7 +379,7 @@ public class SidebarFacetsTransformer extends AbstractDSpaceTransformer implemen
                             }
                             //Now get the first year
                             yearRangeQuery.setSortField(dateFacet + "_sort", DiscoverQuery.SORT_ORDER.desc);
-                            DiscoverResult firstYearResult = getSearchService().search(context, scope, yearRangeQuery);
+                            DiscoverResult firstYearResult = SearchResultCache.search(context, scope, yearRangeQuery);
                             if( 0 < firstYearResult.getDspaceObjects().size()){
                                 java.util.List<DiscoverResult.SearchDocument> searchDocuments = firstYearResult.getSearchDocument(firstYearResult.getDspaceObjects().get(0));
                                 if(0 < searchDocuments.size() && 0 < searchDocuments.get(0).getSearchFieldValues(dateFacet).size()){
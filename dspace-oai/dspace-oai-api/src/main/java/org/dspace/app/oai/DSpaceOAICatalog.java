@@ -8,7 +8,9 @@
 package org.dspace.app.oai;
 
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.text.ParseException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -195,7 +197,85 @@ public class DSpaceOAICatalog extends AbstractCatalog
                                         : metadataPrefix)));
 
         // We can produce oai_dc and simple DC for all items, so just return IDs
+        Map m = doIdentifierHarvest(from, until, set, metadataPrefix, null, 0);
+
+        // If there were zero results, return the appropriate error
+        Iterator i = (Iterator) m.get("identifiers");
+
+        if ((i == null) || !i.hasNext())
+        {
+            log.info(LogManager.getHeader(null, "oai_error", "no_items_match"));
+            throw new NoItemsMatchException();
+        }
+
+        return m;
+    }
+
+    /**
+     * Retrieve the next set of identifiers associated with the resumptionToken
+     * 
+     * @param resumptionToken
+     *            implementation-dependent format taken from the previous
+     *            listIdentifiers() Map result.
+     * @return a Map object containing entries for "headers" and "identifiers"
+     *         Iterators (both containing Strings) as well as an optional
+     *         "resumptionMap" Map.
+     * @exception BadResumptionTokenException
+     *                the value of the resumptionToken is invalid or expired.
+     * @exception OAIInternalServerError
+     *                signals an http status code 500 problem
+     */
+    public Map listIdentifiers(String resumptionToken)
+            throws BadResumptionTokenException, OAIInternalServerError
+    {
+        log.info(LogManager.getHeader(null, "oai_request",
+                "verb=listIdentifiers,resumptionToken=" + resumptionToken));
+
+        Object[] params = decodeResumptionToken(resumptionToken);
+
+        /*
+         * We catch BadArgumentExceptions here, because doIdentifierHarvest()
+         * throws BadArgumentExcpetions when the set spec is bad. set spec bad
+         * == bad resumption token.
+         */
+        try
+        {
+            return doIdentifierHarvest((String) params[0], (String) params[1],
+                    (String) params[2], (String) params[3], (Date) params[4],
+                    ((Integer) params[5]).intValue());
+        }
+        catch (BadArgumentException bae)
+        {
+            log.info(LogManager.getHeader(null, "oai_error",
+                    "bad_resumption_token"));
+            throw new BadResumptionTokenException();
+        }
+    }
+
+    /**
+     * Method to do the actual harvest of identifiers
+     * 
+     * @param from
+     *            OAI 'from' parameter
+     * @param until
+     *            OAI 'until' parameter
+     * @param set
+     *            OAI 'set' parameter
+     * @param metadataPrefix
+     *            OAI 'metadataPrefix' parameter
+     * @param afterDate
+     *            datestamp of the item to start this harvest after, or null
+     * @param afterID
+     *            ID of the item to start this harvest after
+     * 
+     * @return the Map for listIdentifiers to return
+     */
+    private Map doIdentifierHarvest(String from, String until, String set,
+            String metadataPrefix, Date afterDate, int afterID)
+            throws OAIInternalServerError, BadArgumentException
+    {
         Context context = null;
+        Map results = new HashMap();
 
         // Lists to put results in
         List<String> headers = new LinkedList<String>();
@@ -205,38 +285,41 @@ public class DSpaceOAICatalog extends AbstractCatalog
         {
             context = new Context();
 
-            // Get the relevant OAIItemInfo objects to make headers
+            // Get the relevant OAIItemInfo objects to make headers, and one
+            // more to know whether to provide a resumption token
             DSpaceObject scope = resolveSet(context, set);
             boolean includeAll = ConfigurationManager.getBooleanProperty("oai", "harvest.includerestricted.oai", true);
-            // Warning: In large repositories, setting harvest.includerestricted.oai to false may cause
-            // performance problems as all items will need to have their authorization permissions checked,
-            // but because we haven't implemented resumption tokens in ListIdentifiers, ALL items will
-            // need checking whenever a ListIdentifiers request is made.
-            List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, scope, from, until, 0, 0, // Everything
-                                                                                // for
-                                                                                // now
+            List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, scope, from, until,
+                    afterDate, afterID, MAX_RECORDS + 1,
                     !includeAll, true, true, includeAll);
 
             // No Item objects, but we need to know collections they're in and
             // withdrawn items
-            if (itemInfos.size() == 0)
-            {
-                log.info(LogManager.getHeader(null, "oai_error",
-                        "no_items_match"));
-                throw new NoItemsMatchException();
-            }
-
-            // Build up lists of headers and identifiers
-            Iterator<HarvestedItemInfo> i = itemInfos.iterator();
-
-            while (i.hasNext())
+            HarvestedItemInfo last = null;
+            for (HarvestedItemInfo itemInfo : itemInfos)
             {
-                HarvestedItemInfo itemInfo = i.next();
+                if (headers.size() == MAX_RECORDS)
+                {
+                    break;
+                }
 
                 String[] header = getRecordFactory().createHeader(itemInfo);
 
                 headers.add(header[0]);
                 identifiers.add(header[1]);
+                last = itemInfo;
+            }
+
+            // Put results in form needed to return
+            results.put("headers", headers.iterator());
+            results.put("identifiers", identifiers.iterator());
+
+            log.info(LogManager.getHeader(context, "oai_harvest", "results=" + headers.size()));
+
+            if (itemInfos.size() > MAX_RECORDS)
+            {
+                results.put("resumptionMap", getResumptionMap(makeResumptionToken(
+                        from, until, set, metadataPrefix, last)));
             }
         }
         catch (SQLException se)
@@ -260,35 +343,9 @@ public class DSpaceOAICatalog extends AbstractCatalog
             }
         }
 
-        // Put results in form needed to return
-        Map<String, Iterator<String>> results = new HashMap<String, Iterator<String>>();
-        results.put("headers", headers.iterator());
-        results.put("identifiers", identifiers.iterator());
-
         return results;
     }
 
-    /**
-     * Retrieve the next set of identifiers associated with the resumptionToken
-     * 
-     * @param resumptionToken
-     *            implementation-dependent format taken from the previous
-     *            listIdentifiers() Map result.
-     * @return a Map object containing entries for "headers" and "identifiers"
-     *         Iterators (both containing Strings) as well as an optional
-     *         "resumptionMap" Map.
-     * @exception BadResumptionTokenException
-     *                the value of the resumptionToken is invalid or expired.
-     * @exception OAIInternalServerError
-     *                signals an http status code 500 problem
-     */
-    public Map listIdentifiers(String resumptionToken)
-            throws BadResumptionTokenException, OAIInternalServerError
-    {
-        // Resumption tokens not yet supported
-        throw new BadResumptionTokenException();
-    }
-
     /**
      * Retrieve the specified metadata for the specified identifier
      * 
@@ -442,7 +499,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
                                 + ((metadataPrefix == null) ? "null"
                                         : metadataPrefix)));
 
-        Map m = doRecordHarvest(from, until, set, metadataPrefix, 0);
+        Map m = doRecordHarvest(from, until, set, metadataPrefix, null, 0);
 
         // Null means bad metadata prefix was bad
         if (m == null)
@@ -485,13 +542,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
         log.info(LogManager.getHeader(null, "oai_request",
                 "verb=listRecords,resumptionToken=" + resumptionToken));
 
-        /*
-         * FIXME: This may return zero records if the previous harvest returned
-         * a number of records that's an exact multiple of MAX_RECORDS. I hope
-         * that's OK.
-         */
         Object[] params = decodeResumptionToken(resumptionToken);
-        Integer offset = (Integer) params[4];
 
         Map m = null;
 
@@ -503,7 +554,8 @@ public class DSpaceOAICatalog extends AbstractCatalog
         try
         {
             m = doRecordHarvest((String) params[0], (String) params[1],
-                    (String) params[2], (String) params[3], offset.intValue());
+                    (String) params[2], (String) params[3], (Date) params[4],
+                    ((Integer) params[5]).intValue());
         }
         catch (BadArgumentException bae)
         {
@@ -532,15 +584,17 @@ public class DSpaceOAICatalog extends AbstractCatalog
      *            OAI 'set' parameter
      * @param metadataPrefix
      *            OAI 'metadataPrefix' parameter
-     * @param offset
-     *            where to start this harvest
+     * @param afterDate
+     *            datestamp of the item to start this harvest after, or null
+     * @param afterID
+     *            ID of the item to start this harvest after
      * 
      * @return the Map for listRecords to return, or null if the metadataPrefix
      *         is invalid
      */
     private Map doRecordHarvest(String from, String until, String set,
-            String metadataPrefix, int offset) throws OAIInternalServerError,
-            BadArgumentException
+            String metadataPrefix, Date afterDate, int afterID)
+            throws OAIInternalServerError, BadArgumentException
     {
         Context context = null;
         String schemaURL = getCrosswalks().getSchemaURL(metadataPrefix);
@@ -558,18 +612,26 @@ public class DSpaceOAICatalog extends AbstractCatalog
         {
             context = new Context();
 
-            // Get the relevant HarvestedItemInfo objects to make headers
+            // Get the relevant HarvestedItemInfo objects to make headers, and
+            // one more to know whether to provide a resumption token
             DSpaceObject scope = resolveSet(context, set);
             boolean includeAll = ConfigurationManager.getBooleanProperty("oai", "harvest.includerestricted.oai", true);
             List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, scope, from, until,
-                    offset, MAX_RECORDS, // Limit amount returned from one
-                                         // request
+                    afterDate, afterID, MAX_RECORDS + 1, // Limit amount returned from one
+                                                         // request
                     true, true, true, includeAll); // Need items, containers + withdrawals
 
             // Build list of XML records from item info objects
             int ignore = 0;
+            HarvestedItemInfo last = null;
             for (HarvestedItemInfo itemInfo : itemInfos)
             {
+                if (records.size() + ignore == MAX_RECORDS)
+                {
+                    break;
+                }
+                last = itemInfo;
+
                 try
                 {
                     String recordXML = getRecordFactory().create(itemInfo, schemaURL, metadataPrefix);
@@ -599,12 +661,12 @@ public class DSpaceOAICatalog extends AbstractCatalog
 
             log.info(LogManager.getHeader(context, "oai_harvest", "results=" + records.size() + ", ignore=" + ignore));
 
-            // If we have MAX_RECORDS records, we need to provide a resumption
-            // token
-            if ((records.size() + ignore) >= MAX_RECORDS)
+            // If there are more than MAX_RECORDS records, we need to provide
+            // a resumption token
+            if (itemInfos.size() > MAX_RECORDS)
             {
                 String resumptionToken = makeResumptionToken(from, until, set,
-                        metadataPrefix, offset + MAX_RECORDS);
+                        metadataPrefix, last);
 
                 if (log.isDebugEnabled())
                 {
@@ -825,13 +887,14 @@ public class DSpaceOAICatalog extends AbstractCatalog
      *            OAI 'set' parameter
      * @param prefix
      *            OAI 'metadataPrefix' parameter
-     * @param offset
-     *            where to start the next harvest
+     * @param last
+     *            the last item of this harvest, which the next one starts
+     *            after
      * 
      * @return the appropriate resumption token
      */
     private String makeResumptionToken(String from, String until, String set,
-            String prefix, int offset)
+            String prefix, HarvestedItemInfo last)
     {
         StringBuffer token = new StringBuffer();
 
@@ -861,8 +924,15 @@ public class DSpaceOAICatalog extends AbstractCatalog
             token.append(prefix);
         }
 
+        // The datestamp to the nanosecond, as the database stores it, and
+        // the item ID: <milliseconds>.<nanoseconds>.<item ID>
         token.append("/");
-        token.append(String.valueOf(offset));
+        token.append(last.datestamp.getTime());
+        token.append(".");
+        token.append((last.datestamp instanceof Timestamp) ? ((Timestamp) last.datestamp).getNanos()
+                : (int) (last.datestamp.getTime() % 1000) * 1000000);
+        token.append(".");
+        token.append(last.itemID);
 
         return (token.toString());
     }
@@ -872,13 +942,14 @@ public class DSpaceOAICatalog extends AbstractCatalog
      * 
      * @param token
      *            the resumption token
-     * @return a 5-long array of Objects; 4 Strings (from, until, set, prefix)
-     *         and an Integer (the offset)
+     * @return a 6-long array of Objects; 4 Strings (from, until, set, prefix),
+     *         a Timestamp and an Integer (the datestamp and ID of the item
+     *         to start after)
      */
     private Object[] decodeResumptionToken(String token)
             throws BadResumptionTokenException
     {
-        Object[] obj = new Object[5];
+        Object[] obj = new Object[6];
         StringTokenizer st = new StringTokenizer(token, "/", true);
 
         try
@@ -916,13 +987,26 @@ public class DSpaceOAICatalog extends AbstractCatalog
                 throw new BadResumptionTokenException();
             }
 
-            obj[4] = Integer.valueOf(st.nextToken());
+            String[] position = st.nextToken().split("\\.");
+            if (position.length != 3)
+            {
+                throw new BadResumptionTokenException();
+            }
+            Timestamp after = new Timestamp(Long.parseLong(position[0]));
+            after.setNanos(Integer.parseInt(position[1]));
+            obj[4] = after;
+            obj[5] = Integer.valueOf(position[2]);
         }
         catch (NumberFormatException nfe)
         {
             // Stack trace loss as OAI Exception does not support cause
             throw new BadResumptionTokenException();
         }
+        catch (IllegalArgumentException iae)
+        {
+            // Nanoseconds out of range
+            throw new BadResumptionTokenException();
+        }
         catch (NoSuchElementException nsee)
         {
             // Stack trace loss as OAI Exception does not support cause
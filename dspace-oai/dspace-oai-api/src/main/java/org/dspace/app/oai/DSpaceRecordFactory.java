@@ -7,30 +7,125 @@
  */
 package org.dspace.app.oai;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
 import org.dspace.content.DCDate;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
 import org.dspace.search.HarvestedItemInfo;
+import org.dspace.search.HarvestedRecordCache;
 
 import ORG.oclc.oai.server.catalog.RecordFactory;
+import ORG.oclc.oai.server.crosswalk.Crosswalk;
+import ORG.oclc.oai.server.crosswalk.CrosswalkItem;
 import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
 
 /**
  * Implementation of the OAICat RecordFactory base class for DSpace items.
+ * <p>
+ * If the <code>HarvestedRecordCache</code> is enabled, records are made
+ * with the metadata rendered by the crosswalks found in the cache, and the
+ * metadata of items not found there is cached when rendered. The metadata
+ * is cached under a digest of the configuration of the crosswalks, so that
+ * a crosswalk change is not hidden by the renderings made before it.
  * 
  * @author Robert Tansley
  * @version $Revision$
  */
 public class DSpaceRecordFactory extends RecordFactory
 {
+    private static final Logger log = Logger.getLogger(DSpaceRecordFactory.class);
+
+    /** Digest of the configuration of the crosswalks, when caching */
+    private final String configuration;
+
     public DSpaceRecordFactory(Properties properties)
     {
         // We don't use the OAICat properties; pass on up
         super(properties);
+
+        configuration = HarvestedRecordCache.getInstance() == null ? null
+                : digestConfiguration(properties);
+    }
+
+    /**
+     * Digest the configuration the crosswalks render the metadata with: the
+     * OAICat properties, which choose the crosswalks, the crosswalk and
+     * plugin properties of dspace.cfg, the oai module configuration and the
+     * files of the crosswalks directory.
+     * 
+     * @param properties
+     *            the OAICat properties
+     * @return the digest
+     */
+    static String digestConfiguration(Properties properties)
+    {
+        StringBuilder config = new StringBuilder();
+        append(config, properties, "");
+        append(config, ConfigurationManager.getProperties(), "crosswalk.");
+        append(config, ConfigurationManager.getProperties(), "plugin.");
+        append(config, ConfigurationManager.getProperties("oai"), "");
+
+        File[] files = new File(ConfigurationManager.getProperty("dspace.dir"), "config"
+                + File.separator + "crosswalks").listFiles();
+        if (files != null)
+        {
+            Arrays.sort(files);
+            for (File file : files)
+            {
+                if (!file.isFile())
+                {
+                    continue;
+                }
+                config.append(file.getName()).append('=');
+                try
+                {
+                    config.append(Utils.getMD5(FileUtils.readFileToByteArray(file)));
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to read " + file + ": " + e.getMessage());
+                }
+                config.append('\n');
+            }
+        }
+
+        return Utils.getMD5(config.toString());
+    }
+
+    private static void append(StringBuilder config, Properties properties, String prefix)
+    {
+        if (properties == null)
+        {
+            return;
+        }
+        for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(properties).entrySet())
+        {
+            if (String.valueOf(entry.getKey()).startsWith(prefix))
+            {
+                config.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * @return the digest of the configuration of the crosswalks the metadata
+     *         is cached under, or <code>null</code> if it is not cached
+     */
+    String getConfiguration()
+    {
+        return configuration;
     }
 
     public String fromOAIIdentifier(String identifier)
@@ -43,8 +138,73 @@ public class DSpaceRecordFactory extends RecordFactory
             String metadataPrefix) throws IllegalArgumentException,
             CannotDisseminateFormatException
     {
-        // Not supported
-        return null;
+        if (HarvestedRecordCache.getInstance() == null)
+        {
+            // Let RecordFactory run the crosswalk
+            return null;
+        }
+
+        // The same record as RecordFactory makes, without about sections
+        StringBuffer record = new StringBuffer("<record>");
+        record.append(createHeader(nativeItem)[0]);
+        record.append("<metadata>");
+        record.append(getMetadata((HarvestedItemInfo) nativeItem, metadataPrefix));
+        record.append("</metadata>");
+        record.append("</record>");
+
+        return record.toString();
+    }
+
+    /**
+     * Get the metadata of an item rendered in a metadata format, from the
+     * cache if it is there, or else from the crosswalk, caching it.
+     * 
+     * @param itemInfo
+     *            the item, which must have been harvested with its Item
+     * @param metadataPrefix
+     *            the metadata format
+     * @return the metadata
+     * @throws CannotDisseminateFormatException
+     *             if the item cannot be rendered in the format
+     */
+    String getMetadata(HarvestedItemInfo itemInfo, String metadataPrefix)
+            throws CannotDisseminateFormatException
+    {
+        HarvestedRecordCache cache = HarvestedRecordCache.getInstance();
+
+        String metadata = null;
+        if (cache != null)
+        {
+            metadata = cache.get(itemInfo.itemID, metadataPrefix, itemInfo.datestamp, configuration);
+        }
+
+        if (metadata == null)
+        {
+            metadata = getCrosswalk(metadataPrefix).createMetadata(itemInfo);
+            if (cache != null)
+            {
+                cache.put(itemInfo.itemID, metadataPrefix, itemInfo.datestamp, configuration,
+                        metadata);
+            }
+        }
+
+        return metadata;
+    }
+
+    private Crosswalk getCrosswalk(String metadataPrefix)
+            throws CannotDisseminateFormatException
+    {
+        Iterator i = getCrosswalks().iterator();
+        while (i.hasNext())
+        {
+            Map.Entry entry = (Map.Entry) i.next();
+            if (metadataPrefix.equals(entry.getKey()))
+            {
+                return ((CrosswalkItem) entry.getValue()).getCrosswalk();
+            }
+        }
+
+        throw new CannotDisseminateFormatException(metadataPrefix);
     }
 
     public String getOAIIdentifier(Object nativeItem)
@@ -0,0 +1,230 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.oai;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+import org.dspace.search.Harvest;
+import org.dspace.search.HarvestedItemInfo;
+import org.dspace.search.HarvestedRecordCache;
+
+import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
+
+/**
+ * Command line tool to fill the <code>HarvestedRecordCache</code> with the
+ * metadata of all the items in the archive, in each metadata format, so that
+ * the first harvest after a rebuild or a crosswalk change does not have to
+ * render it. Items whose metadata is already cached, with the current
+ * configuration of the crosswalks, are left alone.
+ * <p>
+ * The metadata is rendered with an anonymous context, as it is for OAI-PMH
+ * requests, using the crosswalks configured in <code>oaicat.properties</code>.
+ *
+ * @version $Revision$
+ */
+public class RecordCacheBuilder
+{
+    private static final Logger log = Logger.getLogger(RecordCacheBuilder.class);
+
+    /** Number of items harvested at a time */
+    private static final int PAGE_SIZE = 100;
+
+    private final DSpaceRecordFactory factory;
+
+    private final HarvestedRecordCache cache;
+
+    private int rendered;
+
+    private int cached;
+
+    private int failed;
+
+    RecordCacheBuilder(DSpaceRecordFactory factory, HarvestedRecordCache cache)
+    {
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    /**
+     * Render the metadata of all the items not yet cached.
+     *
+     * @param prefixes
+     *            the metadata formats to render
+     */
+    void build(List<String> prefixes) throws Exception
+    {
+        Context context = new Context();
+        try
+        {
+            boolean includeAll = ConfigurationManager.getBooleanProperty("oai", "harvest.includerestricted.oai", true);
+            Date afterDate = null;
+            int afterID = 0;
+            List<HarvestedItemInfo> itemInfos;
+            do
+            {
+                itemInfos = Harvest.harvest(context, null, null, null,
+                        afterDate, afterID, PAGE_SIZE, true, false, false, includeAll);
+                for (HarvestedItemInfo itemInfo : itemInfos)
+                {
+                    for (String prefix : prefixes)
+                    {
+                        build(itemInfo, prefix);
+                    }
+                    afterDate = itemInfo.datestamp;
+                    afterID = itemInfo.itemID;
+                }
+                context.clearCache();
+
+                System.out.println("Rendered " + rendered + ", already cached " + cached
+                        + ", failed " + failed);
+            }
+            while (itemInfos.size() == PAGE_SIZE);
+        }
+        finally
+        {
+            context.abort();
+        }
+    }
+
+    private void build(HarvestedItemInfo itemInfo, String prefix)
+    {
+        if (cache.get(itemInfo.itemID, prefix, itemInfo.datestamp, factory.getConfiguration()) != null)
+        {
+            cached++;
+            return;
+        }
+
+        try
+        {
+            factory.getMetadata(itemInfo, prefix);
+            rendered++;
+        }
+        catch (CannotDisseminateFormatException e)
+        {
+            // not every item is available in every format
+            if (log.isDebugEnabled())
+            {
+                log.debug("Couldn't disseminate " + prefix + " for " + itemInfo.handle);
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Unable to render " + prefix + " for " + itemInfo.handle, e);
+            failed++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final String usage = RecordCacheBuilder.class.getCanonicalName();
+
+        CommandLineParser parser = new PosixParser();
+        HelpFormatter hf = new HelpFormatter();
+
+        Options options = new Options();
+
+        options.addOption("h", "help", false, "help");
+        options.addOption("c", "clear", false,
+                "remove all cached records first, e.g. after changing resource policies or embargoes");
+        options.addOption("p", "prefix", true,
+                "metadata prefixes to render, separated by commas (default all)");
+
+        CommandLine line = null;
+
+        try
+        {
+            line = parser.parse(options, args);
+        }
+        catch (ParseException pe)
+        {
+            hf.printHelp(usage, options);
+            System.exit(1);
+        }
+
+        if (line.hasOption('h') || line.getArgs().length != 0)
+        {
+            hf.printHelp(usage, options);
+            System.exit(line.hasOption('h') ? 0 : 1);
+        }
+
+        HarvestedRecordCache cache = HarvestedRecordCache.getInstance();
+        if (cache == null)
+        {
+            System.err.println("The OAI record cache is disabled (cache.dir in the oai configuration)");
+            System.exit(1);
+        }
+
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(ConfigurationManager.getProperty("dspace.dir")
+                + File.separator + "config" + File.separator + "oaicat.properties");
+        try
+        {
+            properties.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        DSpaceRecordFactory factory = new DSpaceRecordFactory(properties);
+
+        List<String> prefixes = new ArrayList<String>();
+        if (line.hasOption('p'))
+        {
+            for (String prefix : line.getOptionValue('p').split(","))
+            {
+                prefix = prefix.trim();
+                if (prefix.length() == 0)
+                {
+                    continue;
+                }
+                if (factory.getCrosswalks().getSchemaURL(prefix) == null)
+                {
+                    System.err.println("Unknown metadata prefix: " + prefix);
+                    System.exit(1);
+                }
+                prefixes.add(prefix);
+            }
+        }
+        else
+        {
+            Iterator i = factory.getCrosswalks().iterator();
+            while (i.hasNext())
+            {
+                prefixes.add((String) ((Map.Entry) i.next()).getKey());
+            }
+        }
+
+        if (line.hasOption('c'))
+        {
+            cache.clear();
+            System.out.println("Cleared the OAI record cache");
+        }
+
+        RecordCacheBuilder builder = new RecordCacheBuilder(factory, cache);
+        builder.build(prefixes);
+
+        System.exit(builder.failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,337 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Changes or deletes large numbers of statistics documents.
+ * <p>
+ * The statistics core has no unique key, so a document can only be changed
+ * by deleting it with a query and adding the changed copy. The documents
+ * matching a query are read in pages sorted by time. Each page covers a
+ * window of time, which the next page starts after, so that no offset has to
+ * be skipped and the documents already changed are not read again. The
+ * documents of a window are deleted at once, their changed copies added in
+ * one request, and the index is committed every so many documents without
+ * waiting for a new searcher.
+ * <p>
+ * Lists of values, such as the spider IP addresses, are compiled into a few
+ * queries of up to {@link #MAX_CLAUSES} clauses each.
+ *
+ * @version $Revision$
+ */
+class BulkUpdater
+{
+    private static final Logger log = Logger.getLogger(BulkUpdater.class);
+
+    /** Clauses per compiled query, below the default maxBooleanClauses (1024) */
+    static final int MAX_CLAUSES = 500;
+
+    /**
+     * Changes a document.
+     */
+    interface Change
+    {
+        /**
+         * @param doc the document, to change in place
+         */
+        void apply(SolrDocument doc);
+    }
+
+    private final SolrServer solr;
+    private final int pageSize;
+    private final long commitInterval;
+
+    /** Documents changed or deleted since the last commit */
+    private long uncommitted;
+
+    /**
+     * @param solr the statistics core
+     * @param pageSize number of documents read, and added, at once
+     * @param commitInterval number of documents changed between commits
+     */
+    BulkUpdater(SolrServer solr, int pageSize, long commitInterval)
+    {
+        this.solr = solr;
+        this.pageSize = Math.max(pageSize, 1);
+        this.commitInterval = Math.max(commitInterval, 1);
+    }
+
+    /**
+     * Change the documents matching a query.
+     *
+     * @param query the documents to change
+     * @param change the change
+     * @return the number of documents changed
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    long update(String query, Change change) throws SolrServerException, IOException
+    {
+        long total = count(query);
+        long done = 0;
+        long started = System.currentTimeMillis();
+        Progress progress = new Progress("Updated", total, started);
+
+        // start of the current window, inclusive, null at first
+        Date from = null;
+        while (true)
+        {
+            SolrQuery page = new SolrQuery("(" + query + ") AND time:["
+                    + (from == null ? "*" : format(from)) + " TO *]");
+            page.setSortField("time", SolrQuery.ORDER.asc);
+            page.setRows(pageSize);
+            SolrDocumentList docs = solr.query(page).getResults();
+            if (docs.isEmpty())
+            {
+                break;
+            }
+
+            // the window ends before the time of the last document, unless
+            // the page is the last one or all its documents have that time
+            List<SolrDocument> window = new ArrayList<SolrDocument>(docs.size());
+            Date first = (Date) docs.get(0).getFieldValue("time");
+            Date last = (Date) docs.get(docs.size() - 1).getFieldValue("time");
+            Date until;
+            if (docs.getNumFound() <= docs.size())
+            {
+                window.addAll(docs);
+                until = new Date(last.getTime() + 1);
+            }
+            else if (first.equals(last))
+            {
+                // the documents of that time cannot be split between
+                // windows, read them all a page at a time
+                String same = "(" + query + ") AND time:\"" + format(last) + "\"";
+                long count = count(same);
+                for (int start = 0; start < count; start += pageSize)
+                {
+                    SolrQuery samePage = new SolrQuery(same);
+                    samePage.setStart(start);
+                    samePage.setRows(pageSize);
+                    window.addAll(solr.query(samePage).getResults());
+                }
+                until = new Date(last.getTime() + 1);
+            }
+            else
+            {
+                for (SolrDocument doc : docs)
+                {
+                    if (((Date) doc.getFieldValue("time")).before(last))
+                    {
+                        window.add(doc);
+                    }
+                }
+                until = last;
+            }
+
+            List<SolrInputDocument> changed = new ArrayList<SolrInputDocument>(window.size());
+            for (SolrDocument doc : window)
+            {
+                change.apply(doc);
+                changed.add(ClientUtils.toSolrInputDocument(doc));
+            }
+
+            // dates are stored to the millisecond
+            solr.deleteByQuery("(" + query + ") AND time:["
+                    + (from == null ? "*" : format(from)) + " TO "
+                    + format(new Date(until.getTime() - 1)) + "]");
+            solr.add(changed);
+
+            done += changed.size();
+            progress.report(done);
+            commitEvery(changed.size());
+            from = until;
+        }
+
+        progress.finish(done);
+        return done;
+    }
+
+    /**
+     * Delete the documents matching a query.
+     *
+     * @param query the documents to delete
+     * @return the number of documents deleted
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    long delete(String query) throws SolrServerException, IOException
+    {
+        long total = count(query);
+        if (total > 0)
+        {
+            solr.deleteByQuery(query);
+            commitEvery(total);
+        }
+        return total;
+    }
+
+    /**
+     * Commit the changes made since the last commit.
+     *
+     * @throws SolrServerException
+     * @throws IOException
+     */
+    void commit() throws SolrServerException, IOException
+    {
+        solr.commit();
+        uncommitted = 0;
+    }
+
+    private void commitEvery(long changed) throws SolrServerException, IOException
+    {
+        uncommitted += changed;
+        if (uncommitted >= commitInterval)
+        {
+            // do not wait for the new searcher, the pages do not need it
+            solr.commit(false, false);
+            uncommitted = 0;
+        }
+    }
+
+    private long count(String query) throws SolrServerException
+    {
+        SolrQuery count = new SolrQuery(query);
+        count.setRows(0);
+        return solr.query(count).getResults().getNumFound();
+    }
+
+    /**
+     * @return a date as it is written in statistics queries
+     */
+    private static String format(Date date)
+    {
+        return DateFormatUtils.formatUTC(date, SolrLogger.DATE_FORMAT_8601);
+    }
+
+    /**
+     * Compile spider IP address patterns into queries.
+     *
+     * @param patterns addresses, possibly ending with wildcards, as given by
+     *            the SpiderDetector
+     * @return the queries, each matching some of the addresses
+     */
+    static List<String> compileIPQueries(Collection<String> patterns)
+    {
+        List<String> clauses = new ArrayList<String>(patterns.size());
+        for (String pattern : patterns)
+        {
+            StringBuilder clause = new StringBuilder("ip:");
+            for (char c : pattern.toCharArray())
+            {
+                if (c == '*' || c == '?')
+                {
+                    clause.append(c);
+                }
+                else
+                {
+                    clause.append(ClientUtils.escapeQueryChars(String.valueOf(c)));
+                }
+            }
+            clauses.add(clause.toString());
+        }
+        return join(clauses);
+    }
+
+    /**
+     * Compile user agents into queries matching them exactly.
+     *
+     * @param agents the user agents
+     * @return the queries, each matching some of the agents
+     */
+    static List<String> compileAgentQueries(Collection<String> agents)
+    {
+        List<String> clauses = new ArrayList<String>(agents.size());
+        for (String agent : agents)
+        {
+            clauses.add("userAgent:" + ClientUtils.escapeQueryChars(agent));
+        }
+        return join(clauses);
+    }
+
+    private static List<String> join(List<String> clauses)
+    {
+        List<String> queries = new ArrayList<String>();
+        for (int from = 0; from < clauses.size(); from += MAX_CLAUSES)
+        {
+            StringBuilder query = new StringBuilder();
+            for (String clause : clauses.subList(from, Math.min(from + MAX_CLAUSES, clauses.size())))
+            {
+                if (query.length() > 0)
+                {
+                    query.append(" OR ");
+                }
+                query.append(clause);
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * Reports the documents processed, and how fast, every few seconds.
+     */
+    static class Progress
+    {
+        /** Milliseconds between reports */
+        private static final long INTERVAL = 10000;
+
+        private final String action;
+        private final long total;
+        private final long started;
+        private long reported;
+
+        Progress(String action, long total, long started)
+        {
+            this.action = action;
+            this.total = total;
+            this.started = started;
+            this.reported = started;
+        }
+
+        void report(long done)
+        {
+            long now = System.currentTimeMillis();
+            if (now - reported >= INTERVAL)
+            {
+                reported = now;
+                print(done, now);
+            }
+        }
+
+        void finish(long done)
+        {
+            print(done, System.currentTimeMillis());
+        }
+
+        private void print(long done, long now)
+        {
+            long elapsed = Math.max(now - started, 1);
+            String message = action + " " + done + " of " + total + " documents in "
+                    + (elapsed / 1000) + " s (" + (done * 1000 / elapsed) + " documents/s)";
+            System.out.println(message);
+            log.info(message);
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.eperson.EPerson;
 import org.dspace.statistics.util.DnsLookup;
+import org.dspace.statistics.util.LocationLookup;
 import org.dspace.statistics.util.LocationUtils;
 import org.dspace.statistics.util.SpiderDetector;
 
@@ -73,6 +74,9 @@ public class SolrLogger
 
     private static Map<String, String> metadataStorageInfo;
 
+    /** Background poster of usage events, null if events are posted inline */
+    private static final StatisticsPipeline pipeline;
+
     static
     {
         log.info("solr-statistics.spidersfile:" + ConfigurationManager.getProperty("solr-statistics", "spidersfile"));
@@ -98,30 +102,8 @@ public class SolrLogger
         // Read in the file so we don't have to do it all the time
         //spiderIps = SpiderDetector.getSpiderIpAddresses();
 
-        LookupService service = null;
-        // Get the db file for the location
-        String dbfile = ConfigurationManager.getProperty("solr-statistics", "dbfile");
-        if (dbfile != null)
-        {
-            try
-            {
-                service = new LookupService(dbfile,
-                        LookupService.GEOIP_STANDARD);
-            }
-            catch (FileNotFoundException fe)
-            {
-                log.error("The GeoLite Database file is missing (" + dbfile + ")! Solr Statistics cannot generate location based reports! Please see the DSpace installation instructions for instructions to install this file.", fe);
-            }
-            catch (IOException e)
-            {
-                log.error("Unable to load GeoLite Database file (" + dbfile + ")! You may need to reinstall it. See the DSpace installation instructions for more details.", e);
-            }
-        }
-        else
-        {
-            log.error("The required 'dbfile' configuration is missing in solr-statistics.cfg!");
-        }
-        locationService = service;
+        // The location database is shared with the other statistics tools
+        locationService = LocationLookup.getService();
 
         if ("true".equals(ConfigurationManager.getProperty("useProxies")))
         {
@@ -146,10 +128,31 @@ public class SolrLogger
             log.info("solr-statistics.metadata.item." + count + "=" + metadataVal);
             count++;
         }
+
+        if (solr != null && ConfigurationManager.getBooleanProperty("solr-statistics", "async.enabled", true))
+        {
+            pipeline = new StatisticsPipeline(solr,
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.threads", 2),
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.queuesize", 10000),
+                    ConfigurationManager.getIntProperty("solr-statistics", "async.batchsize", 100),
+                    ConfigurationManager.getProperty("solr-statistics", "async.overflow") == null
+                            ? StatisticsPipeline.BLOCK
+                            : ConfigurationManager.getProperty("solr-statistics", "async.overflow").trim(),
+                    ConfigurationManager.getLongProperty("solr-statistics", "async.overflow.timeout", 100));
+        }
+        else
+        {
+            pipeline = null;
+        }
     }
 
     /**
      * Store a usage event into Solr.
+     * <p>
+     * Only what is needed from the request is read here. Unless
+     * <code>solr-statistics.async.enabled</code> is false, the rest of the work
+     * (reverse DNS, location, parents) and the update of Solr are left to the
+     * background {@link StatisticsPipeline}.
      * 
      * @param dspaceObject the object used.
      * @param request the current request context.
@@ -165,134 +168,166 @@ public class SolrLogger
 
         boolean isSpiderBot = SpiderDetector.isSpider(request);
 
-        try
+        if(isSpiderBot &&
+                !ConfigurationManager.getBooleanProperty("solr-statistics", "logBots",true))
         {
-            if(isSpiderBot &&
-                    !ConfigurationManager.getBooleanProperty("solr-statistics", "logBots",true))
-            {
-                return;
-            }
+            return;
+        }
 
+        StatisticsEvent event = new StatisticsEvent(dspaceObject.getType(),
+                dspaceObject.getID(), getIP(request), request.getHeader("User-Agent"),
+                currentUser == null ? -1 : currentUser.getID(), new Date(), isSpiderBot);
 
-                        
-            SolrInputDocument doc1 = new SolrInputDocument();
-            // Save our basic info that we already have
+        if (pipeline != null && pipeline.offer(event))
+        {
+            return;
+        }
+
+        try
+        {
+            solr.add(buildDocument(dspaceObject, event));
+            //commits are executed automatically using the solr autocommit
+//            solr.commit(false, false);
+   
+        }
+        catch (RuntimeException re)
+        {
+            throw re;
+        }
+        catch (Exception e)
+        {
+        	log.error(e.getMessage(), e);
+        }
+    }
 
-            String ip = request.getRemoteAddr();
+    /**
+     * Get the address of the client of a request, taking proxies into
+     * account if configured to.
+     */
+    private static String getIP(HttpServletRequest request)
+    {
+        String ip = request.getRemoteAddr();
 
-	        if(isUseProxies() && request.getHeader("X-Forwarded-For") != null)
+        if(isUseProxies() && request.getHeader("X-Forwarded-For") != null)
+        {
+            /* This header is a comma delimited list */
+            for(String xfip : request.getHeader("X-Forwarded-For").split(","))
             {
-                /* This header is a comma delimited list */
-	            for(String xfip : request.getHeader("X-Forwarded-For").split(","))
+                /* proxy itself will sometime populate this header with the same value in
+                    remote address. ordering in spec is vague, we'll just take the last
+                    not equal to the proxy
+                */
+                if(!request.getHeader("X-Forwarded-For").contains(ip))
                 {
-                    /* proxy itself will sometime populate this header with the same value in
-                        remote address. ordering in spec is vague, we'll just take the last
-                        not equal to the proxy
-                    */
-                    if(!request.getHeader("X-Forwarded-For").contains(ip))
-                    {
-                        ip = xfip.trim();
-                    }
+                    ip = xfip.trim();
                 }
-	        }
-
-            doc1.addField("ip", ip);
-                        
-            doc1.addField("id", dspaceObject.getID());
-            doc1.addField("type", dspaceObject.getType());
-            // Save the current time
-            doc1.addField("time", DateFormatUtils.format(new Date(), DATE_FORMAT_8601));
-            if (currentUser != null)
-            {
-                doc1.addField("epersonid", currentUser.getID());
             }
+        }
+
+        return ip;
+    }
+
+    /**
+     * Build the statistics document of a usage event.
+     *
+     * @param dspaceObject the object used, loaded in any context
+     * @param event the event
+     * @return the document
+     * @throws SQLException
+     */
+    static SolrInputDocument buildDocument(DSpaceObject dspaceObject, StatisticsEvent event)
+            throws SQLException
+    {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        // Save our basic info that we already have
+
+        String ip = event.getIP();
 
+        doc1.addField("ip", ip);
+
+        doc1.addField("id", dspaceObject.getID());
+        doc1.addField("type", dspaceObject.getType());
+        // Save the time of the event
+        doc1.addField("time", DateFormatUtils.format(event.getTime(), DATE_FORMAT_8601));
+        if (event.getEPersonID() != -1)
+        {
+            doc1.addField("epersonid", event.getEPersonID());
+        }
+
+        try
+        {
+            String dns = DnsLookup.reverseDnsCached(ip);
+            doc1.addField("dns", dns.toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(),e);
+        }
+
+        // Save the location information if valid, save the event without
+        // location information if not valid
+        Location location = LocationLookup.getLocation(ip);
+        if (location != null
+                && !("--".equals(location.countryCode)
+                        && location.latitude == -180 && location.longitude == -180))
+        {
             try
             {
-            	String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
+                doc1.addField("continent", LocationUtils
+                        .getContinentCode(location.countryCode));
             }
             catch (Exception e)
             {
-    			log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-    		}
-            
-            // Save the location information if valid, save the event without
-            // location information if not valid
-            Location location = locationService.getLocation(ip);
-            if (location != null
-                    && !("--".equals(location.countryCode)
-                            && location.latitude == -180 && location.longitude == -180))
-            {
-                try
-                {
-                    doc1.addField("continent", LocationUtils
-                            .getContinentCode(location.countryCode));
-                }
-                catch (Exception e)
-                {
-                    System.out
-                            .println("COUNTRY ERROR: " + location.countryCode);
-                }
-                doc1.addField("countryCode", location.countryCode);
-                doc1.addField("city", location.city);
-                doc1.addField("latitude", location.latitude);
-                doc1.addField("longitude", location.longitude);
-                doc1.addField("isBot",isSpiderBot);
-
-                if(request.getHeader("User-Agent") != null)
-                {
-                    doc1.addField("userAgent", request.getHeader("User-Agent"));
-                }
+                System.out
+                        .println("COUNTRY ERROR: " + location.countryCode);
             }
-            
-            if (dspaceObject instanceof Item)
-            {
-                Item item = (Item) dspaceObject;
-                // Store the metadata
-                for (Object storedField : metadataStorageInfo.keySet())
-                {
-                    String dcField = metadataStorageInfo
-                            .get(storedField);
+            doc1.addField("countryCode", location.countryCode);
+            doc1.addField("city", location.city);
+            doc1.addField("latitude", location.latitude);
+            doc1.addField("longitude", location.longitude);
+            doc1.addField("isBot", event.isSpider());
 
-                    DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
-                            dcField.split("\\.")[1], dcField.split("\\.")[2],
-                            Item.ANY);
-                    for (DCValue val1 : vals)
-                    {
-                        String val = val1.value;
-                        doc1.addField(String.valueOf(storedField), val);
-                        doc1.addField(storedField + "_search", val
-                                .toLowerCase());
-                    }
-                }
+            if(event.getUserAgent() != null)
+            {
+                doc1.addField("userAgent", event.getUserAgent());
             }
+        }
 
-            if(dspaceObject instanceof Bitstream)
+        if (dspaceObject instanceof Item)
+        {
+            Item item = (Item) dspaceObject;
+            // Store the metadata
+            for (Object storedField : metadataStorageInfo.keySet())
             {
-                Bitstream bit = (Bitstream) dspaceObject;
-                Bundle[] bundles = bit.getBundles();
-                for (Bundle bundle : bundles) {
-                    doc1.addField("bundleName", bundle.getName());
+                String dcField = metadataStorageInfo
+                        .get(storedField);
+
+                DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
+                        dcField.split("\\.")[1], dcField.split("\\.")[2],
+                        Item.ANY);
+                for (DCValue val1 : vals)
+                {
+                    String val = val1.value;
+                    doc1.addField(String.valueOf(storedField), val);
+                    doc1.addField(storedField + "_search", val
+                            .toLowerCase());
                 }
             }
-
-            storeParents(doc1, dspaceObject);
-
-            solr.add(doc1);
-            //commits are executed automatically using the solr autocommit
-//            solr.commit(false, false);
-   
-        }
-        catch (RuntimeException re)
-        {
-            throw re;
         }
-        catch (Exception e)
+
+        if(dspaceObject instanceof Bitstream)
         {
-        	log.error(e.getMessage(), e);
+            Bitstream bit = (Bitstream) dspaceObject;
+            Bundle[] bundles = bit.getBundles();
+            for (Bundle bundle : bundles) {
+                doc1.addField("bundleName", bundle.getName());
+            }
         }
+
+        storeParents(doc1, dspaceObject);
+
+        return doc1;
     }
 
     public static Map<String, String> getMetadataStorageInfo()
@@ -369,6 +404,24 @@ public class SolrLogger
         return useProxies;
     }
 
+    /**
+     * @return the number of usage events waiting to be posted in the
+     *         background
+     */
+    public static int getPendingEventCount()
+    {
+        return pipeline == null ? 0 : pipeline.getQueueDepth();
+    }
+
+    /**
+     * @return the number of usage events dropped because too many were
+     *         waiting to be posted
+     */
+    public static long getDroppedEventCount()
+    {
+        return pipeline == null ? 0 : pipeline.getDroppedCount();
+    }
+
     /**
      * Delete data from the index, as described by a query.
      * 
@@ -478,57 +531,75 @@ public class SolrLogger
     }
 
 
+    /**
+     * Flag the documents of the spider IP addresses as bots. The addresses
+     * are compiled into a few queries, whose matching documents are
+     * streamed and re-added in bulk.
+     */
     public static void markRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
-
-            try {
-
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        solr.add(newInput);
-                        log.info("Marked " + doc.getFieldValue("ip") + " as bot");
-                    }
-                };
-
+        try
+        {
+            BulkUpdater updater = getBulkUpdater();
+            for (String query : BulkUpdater.compileIPQueries(SpiderDetector.getSpiderIpPatterns()))
+            {
                 /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
-
-                solr.commit();
-
-            } catch (Exception e) {
-                log.error(e.getMessage(),e);
+                updater.update("(" + query + ") AND -isBot:true", MARK_BOT);
             }
-
-
+            updater.commit();
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
         }
-
     }
 
     public static void markRobotByUserAgent(String agent){
-        try {
+        markRobotsByUserAgent(Collections.singletonList(agent));
+    }
 
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        solr.add(newInput);
-                    }
-                };
+    /**
+     * Flag the documents of a list of user agents as bots.
+     *
+     * @param agents the user agents, matched exactly
+     */
+    public static void markRobotsByUserAgent(java.util.Collection<String> agents)
+    {
+        try
+        {
+            BulkUpdater updater = getBulkUpdater();
+            for (String query : BulkUpdater.compileAgentQueries(agents))
+            {
+                /* query for agent, exclude results previously set as bots. */
+                updater.update("(" + query + ") AND -isBot:true", MARK_BOT);
+            }
+            updater.commit();
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
+        }
+    }
 
-                /* query for ip, exclude results previously set as bots. */
-                processor.execute("userAgent:"+agent+ " AND -isBot:true");
+    /* Change flagging a document as a bot */
+    private static final BulkUpdater.Change MARK_BOT = new BulkUpdater.Change()
+    {
+        public void apply(SolrDocument doc)
+        {
+            doc.removeFields("isBot");
+            doc.addField("isBot", true);
+        }
+    };
 
-                solr.commit();
-            } catch (Exception e) {
-                log.error(e.getMessage(),e);
-            }
+    /**
+     * @return an updater of the statistics core, configured with
+     *         maintenance.pagesize and maintenance.commit.interval
+     */
+    private static BulkUpdater getBulkUpdater()
+    {
+        return new BulkUpdater(solr,
+                ConfigurationManager.getIntProperty("solr-statistics", "maintenance.pagesize", 10000),
+                ConfigurationManager.getLongProperty("solr-statistics", "maintenance.commit.interval", 100000));
     }
 
     public static void deleteRobotsByIsBotFlag()
@@ -552,8 +623,20 @@ public class SolrLogger
 
     public static void deleteRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
-            deleteIP(ip);
+        try
+        {
+            BulkUpdater updater = getBulkUpdater();
+            long deleted = 0;
+            for (String query : BulkUpdater.compileIPQueries(SpiderDetector.getSpiderIpPatterns()))
+            {
+                deleted += updater.delete(query);
+            }
+            updater.commit();
+            log.info("Deleted " + deleted + " documents of spider IP addresses");
+        }
+        catch (Exception e)
+        {
+            log.error(e.getMessage(), e);
         }
     }
 
@@ -565,73 +648,54 @@ public class SolrLogger
      * List<Object> oldvals = new ArrayList<Object>(); oldvals.add(fieldValue);
      * update(query, addField, fieldName, vals, oldvals); }
      */
-    public static void update(String query, String action,
-            List<String> fieldNames, List<List<Object>> fieldValuesList)
+    public static void update(String query, final String action,
+            final List<String> fieldNames, final List<List<Object>> fieldValuesList)
             throws SolrServerException, IOException
     {
-        // Since there is NO update
-        // We need to get our documents
-        // QueryResponse queryResponse = solr.query()//query(query, null, -1,
-        // null, null, null);
-
-        final List<SolrDocument> docsToUpdate = new ArrayList<SolrDocument>();
-
-        ResultProcessor processor = new ResultProcessor(){
-                public void process(List<SolrDocument> docs) throws IOException, SolrServerException {
-                    docsToUpdate.addAll(docs);
-                }
-            };
-
-        processor.execute(query);
-
-        // We have all the docs delete the ones we don't need
-        solr.deleteByQuery(query);
-
-        // Add the new (updated onces
-        for (int i = 0; i < docsToUpdate.size(); i++)
+        // Since there is NO update, the matching documents are replaced
+        // by changed copies
+        BulkUpdater updater = getBulkUpdater();
+        updater.update(query, new BulkUpdater.Change()
         {
-            SolrDocument solrDocument = docsToUpdate.get(i);
-            // Now loop over our fieldname actions
-            for (int j = 0; j < fieldNames.size(); j++)
+            public void apply(SolrDocument solrDocument)
             {
-                String fieldName = fieldNames.get(j);
-                List<Object> fieldValues = fieldValuesList.get(j);
-
-                if (action.equals("addOne") || action.equals("replace"))
+                // Now loop over our fieldname actions
+                for (int j = 0; j < fieldNames.size(); j++)
                 {
-                    if (action.equals("replace"))
-                    {
-                        solrDocument.removeFields(fieldName);
-                    }
+                    String fieldName = fieldNames.get(j);
+                    List<Object> fieldValues = fieldValuesList.get(j);
 
-                    for (Object fieldValue : fieldValues)
+                    if (action.equals("addOne") || action.equals("replace"))
                     {
-                        solrDocument.addField(fieldName, fieldValue);
+                        if (action.equals("replace"))
+                        {
+                            solrDocument.removeFields(fieldName);
+                        }
+
+                        for (Object fieldValue : fieldValues)
+                        {
+                            solrDocument.addField(fieldName, fieldValue);
+                        }
                     }
-                }
-                else if (action.equals("remOne"))
-                {
-                    // Remove the field
-                    java.util.Collection<Object> values = solrDocument
-                            .getFieldValues(fieldName);
-                    solrDocument.removeFields(fieldName);
-                    for (Object value : values)
+                    else if (action.equals("remOne"))
                     {
-                        // Keep all the values besides the one we need to remove
-                        if (!fieldValues.contains((value)))
+                        // Remove the field
+                        java.util.Collection<Object> values = solrDocument
+                                .getFieldValues(fieldName);
+                        solrDocument.removeFields(fieldName);
+                        for (Object value : values)
                         {
-                            solrDocument.addField(fieldName, value);
+                            // Keep all the values besides the one we need to remove
+                            if (!fieldValues.contains((value)))
+                            {
+                                solrDocument.addField(fieldName, value);
+                            }
                         }
                     }
                 }
             }
-            SolrInputDocument newInput = ClientUtils
-                    .toSolrInputDocument(solrDocument);
-            solr.add(newInput);
-        }
-        solr.commit();
-        // System.out.println("SolrLogger.update(\""+query+"\"):"+(new
-        // Date().getTime() - start)+"ms,"+numbFound+"records");
+        });
+        updater.commit();
     }
 
     public static void query(String query, int max) throws SolrServerException
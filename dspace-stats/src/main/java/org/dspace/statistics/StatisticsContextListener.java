@@ -0,0 +1,35 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.dspace.core.ConfigurationManager;
+
+/**
+ * Posts the usage events still waiting in the background when the web
+ * application is stopped. It must be declared after the
+ * <code>DSpaceContextListener</code>, so that it runs while the database pool
+ * is still there.
+ *
+ * @version $Revision$
+ */
+public class StatisticsContextListener implements ServletContextListener
+{
+    public void contextInitialized(ServletContextEvent event)
+    {
+        // No-op, the pipeline is started when the first event is posted
+    }
+
+    public void contextDestroyed(ServletContextEvent event)
+    {
+        StatisticsPipeline.closeAll(ConfigurationManager.getLongProperty("solr-statistics",
+                "async.shutdown.timeout", 30000));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.Date;
+
+/**
+ * What is known about a usage event when it happens: the object used and
+ * the parts of the request that the statistics record. It holds no
+ * references to the request or to a context, so that it can be turned into a
+ * statistics document on another thread, after the request is finished.
+ *
+ * @version $Revision$
+ */
+final class StatisticsEvent
+{
+    private final int type;
+    private final int id;
+    private final String ip;
+    private final String userAgent;
+    private final int epersonID;
+    private final long time;
+    private final boolean spider;
+
+    /**
+     * @param type type of the object used
+     * @param id ID of the object used
+     * @param ip address of the client
+     * @param userAgent User-Agent header of the request, may be null
+     * @param epersonID ID of the current user, or -1 if anonymous
+     * @param time when the object was used
+     * @param spider whether the client is a known spider
+     */
+    StatisticsEvent(int type, int id, String ip, String userAgent,
+            int epersonID, Date time, boolean spider)
+    {
+        this.type = type;
+        this.id = id;
+        this.ip = ip;
+        this.userAgent = userAgent;
+        this.epersonID = epersonID;
+        this.time = time.getTime();
+        this.spider = spider;
+    }
+
+    int getType()
+    {
+        return type;
+    }
+
+    int getID()
+    {
+        return id;
+    }
+
+    String getIP()
+    {
+        return ip;
+    }
+
+    String getUserAgent()
+    {
+        return userAgent;
+    }
+
+    int getEPersonID()
+    {
+        return epersonID;
+    }
+
+    Date getTime()
+    {
+        return new Date(time);
+    }
+
+    boolean isSpider()
+    {
+        return spider;
+    }
+}
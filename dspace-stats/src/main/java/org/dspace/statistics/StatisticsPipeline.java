@@ -0,0 +1,344 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+
+/**
+ * Posts usage events to the statistics core in the background.
+ * <p>
+ * Events are put in a bounded queue by the request threads. Worker threads
+ * take them in batches, load the objects used with a context of their own,
+ * build the statistics documents (reverse DNS, location, parents...) and add
+ * each batch to Solr at once. When the queue is full, the configured
+ * overflow policy decides whether the event is dropped, waited for, or posted
+ * by the request thread as if there were no queue.
+ * <p>
+ * When the web application stops, {@link #closeAll(long)} lets the workers
+ * post the events still waiting, and commits them.
+ *
+ * @version $Revision$
+ */
+class StatisticsPipeline
+{
+    private static final Logger log = Logger.getLogger(StatisticsPipeline.class);
+
+    /** Overflow policy: drop the event */
+    static final String DROP = "drop";
+
+    /** Overflow policy: wait for room in the queue, then drop the event */
+    static final String BLOCK = "block";
+
+    /** Overflow policy: post the event on the request thread */
+    static final String INLINE = "inline";
+
+    /** How long a worker waits for more events before adding a partial batch */
+    private static final long POLL_TIMEOUT = 1000;
+
+    /** Number of posted events between two log messages with the metrics */
+    private static final long LOG_INTERVAL = 10000;
+
+    /** The pipelines not closed yet */
+    private static final List<StatisticsPipeline> pipelines =
+            Collections.synchronizedList(new ArrayList<StatisticsPipeline>());
+
+    private final SolrServer solr;
+    private final int batchSize;
+    private final String overflow;
+    private final long blockTimeout;
+
+    private final BlockingQueue<StatisticsEvent> queue;
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    /** Set when the pipeline is closed, the workers stop once the queue is empty */
+    private volatile boolean closed = false;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Create the pipeline and start its workers.
+     *
+     * @param solr the statistics core
+     * @param threads number of worker threads
+     * @param queueSize number of events that can wait in the queue
+     * @param batchSize number of documents added to Solr at once
+     * @param overflow what to do with an event when the queue is full, one of
+     *            {@link #DROP}, {@link #BLOCK} and {@link #INLINE}
+     * @param blockTimeout how long to wait for room in the queue, in
+     *            milliseconds, with the {@link #BLOCK} policy
+     */
+    StatisticsPipeline(SolrServer solr, int threads, int queueSize,
+            int batchSize, String overflow, long blockTimeout)
+    {
+        this.solr = solr;
+        this.batchSize = Math.max(batchSize, 1);
+        this.overflow = overflow;
+        this.blockTimeout = blockTimeout;
+        this.queue = new ArrayBlockingQueue<StatisticsEvent>(Math.max(queueSize, 1));
+
+        for (int i = 0; i < Math.max(threads, 1); i++)
+        {
+            Thread worker = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    work();
+                }
+            }, "statistics-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        pipelines.add(this);
+    }
+
+    /**
+     * Close all the pipelines, see {@link #close(long)}.
+     *
+     * @param timeout how long to wait for the events still waiting to be
+     *            posted, in milliseconds
+     */
+    static void closeAll(long timeout)
+    {
+        List<StatisticsPipeline> open;
+        synchronized (pipelines)
+        {
+            open = new ArrayList<StatisticsPipeline>(pipelines);
+        }
+        for (StatisticsPipeline pipeline : open)
+        {
+            pipeline.close(timeout);
+        }
+    }
+
+    /**
+     * Stop taking events, wait for the workers to post the events still
+     * waiting, and commit them. Events offered from now on are left to the
+     * caller to post.
+     *
+     * @param timeout how long to wait for the workers, in milliseconds
+     */
+    void close(long timeout)
+    {
+        closed = true;
+        pipelines.remove(this);
+
+        long deadline = System.currentTimeMillis() + timeout;
+        try
+        {
+            for (Thread worker : workers)
+            {
+                long left = deadline - System.currentTimeMillis();
+                if (left > 0)
+                {
+                    worker.join(left);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!queue.isEmpty())
+        {
+            log.warn("Statistics pipeline closed with " + queue.size()
+                    + " usage events not posted: " + getMetrics());
+        }
+
+        try
+        {
+            solr.commit();
+        }
+        catch (Exception e)
+        {
+            log.error("Unable to commit the posted usage events: " + e.getMessage(), e);
+        }
+        log.info("Statistics pipeline closed: " + getMetrics());
+    }
+
+    /**
+     * Queue an event, applying the overflow policy if the queue is full.
+     *
+     * @param event the event
+     * @return false if the caller should post the event itself
+     */
+    boolean offer(StatisticsEvent event)
+    {
+        if (closed)
+        {
+            return false;
+        }
+
+        if (queue.offer(event))
+        {
+            queued.incrementAndGet();
+            return true;
+        }
+
+        if (INLINE.equals(overflow))
+        {
+            return false;
+        }
+
+        if (BLOCK.equals(overflow))
+        {
+            try
+            {
+                if (queue.offer(event, blockTimeout, TimeUnit.MILLISECONDS))
+                {
+                    queued.incrementAndGet();
+                    return true;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (dropped.incrementAndGet() % 1000 == 1)
+        {
+            log.warn("Statistics queue is full, usage events are being dropped: " + getMetrics());
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of events waiting in the queue
+     */
+    int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    long getQueuedCount()
+    {
+        return queued.get();
+    }
+
+    long getPostedCount()
+    {
+        return posted.get();
+    }
+
+    long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return a description of the state of the pipeline
+     */
+    String getMetrics()
+    {
+        return queue.size() + " waiting, " + queued.get() + " queued, "
+                + posted.get() + " posted, " + dropped.get() + " dropped, "
+                + failed.get() + " failed";
+    }
+
+    private void work()
+    {
+        List<StatisticsEvent> events = new ArrayList<StatisticsEvent>(batchSize);
+        while (!closed || !queue.isEmpty())
+        {
+            try
+            {
+                StatisticsEvent first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                events.add(first);
+                queue.drainTo(events, batchSize - 1);
+                post(events);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (Exception e)
+            {
+                failed.addAndGet(events.size());
+                log.error("Unable to post " + events.size() + " usage events: " + e.getMessage(), e);
+            }
+            finally
+            {
+                events.clear();
+            }
+        }
+    }
+
+    private void post(List<StatisticsEvent> events) throws Exception
+    {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(events.size());
+
+        Context context = new Context();
+        try
+        {
+            for (StatisticsEvent event : events)
+            {
+                try
+                {
+                    DSpaceObject dso = DSpaceObject.find(context, event.getType(), event.getID());
+                    if (dso != null)
+                    {
+                        docs.add(SolrLogger.buildDocument(dso, event));
+                    }
+                    else
+                    {
+                        failed.incrementAndGet();
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    failed.incrementAndGet();
+                    log.error("Unable to record usage of " + event.getType() + "/"
+                            + event.getID() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        finally
+        {
+            context.abort();
+        }
+
+        if (!docs.isEmpty())
+        {
+            solr.add(docs);
+            long before = posted.get();
+            long after = posted.addAndGet(docs.size());
+            if (before / LOG_INTERVAL != after / LOG_INTERVAL)
+            {
+                log.info("Statistics pipeline: " + getMetrics());
+            }
+        }
+    }
+}
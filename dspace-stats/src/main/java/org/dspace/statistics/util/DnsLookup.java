@@ -14,12 +14,47 @@ import java.io.IOException;
 
 /**
  * XBill DNS resolver to retrieve hostnames for client IP addresses.
+ * <p>
+ * {@link #reverseDnsCached(String)} answers from a cache shared by the whole
+ * JVM, configured in solr-statistics.cfg with <code>resolver.cache.size</code>
+ * (default 10000 addresses), <code>resolver.cache.ttl</code> (seconds a
+ * hostname is kept, default 3600) and <code>resolver.cache.failure.ttl</code>
+ * (seconds a failed lookup is remembered, default 300).
  * 
  * @author kevinvandevelde at atmire.com
  * @author ben at atmire.com
  */
 public class DnsLookup {
 
+    private static final LookupCache<String, String> cache = new LookupCache<String, String>(
+            new LookupCache.Loader<String, String>() {
+                public String load(String hostIp) throws IOException {
+                    return reverseDns(hostIp);
+                }
+            },
+            ConfigurationManager.getIntProperty("solr-statistics", "resolver.cache.size", 10000),
+            ConfigurationManager.getLongProperty("solr-statistics", "resolver.cache.ttl", 3600) * 1000,
+            ConfigurationManager.getLongProperty("solr-statistics", "resolver.cache.failure.ttl", 300) * 1000);
+
+    /**
+     * Get the hostname of an IP address from the shared cache, resolving it
+     * if it is not cached.
+     *
+     * @param hostIp the IP address
+     * @return the hostname, or the address if it has none
+     * @throws IOException if the lookup failed, now or recently
+     */
+    public static String reverseDnsCached(String hostIp) throws IOException {
+        return cache.get(hostIp);
+    }
+
+    /**
+     * @return the shared cache of hostnames
+     */
+    public static LookupCache<String, String> getCache() {
+        return cache;
+    }
+
     public static String reverseDns(String hostIp) throws IOException {
          Resolver res = new ExtendedResolver();
          
@@ -7,181 +7,289 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.dspace.authenticate.IPMatcherException;
+import org.dspace.authenticate.IPRangeIndex;
+
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP Address matching over ranges of IP Addresses.
+ * A table of IPv4 and IPv6 addresses and ranges, to match single addresses
+ * against. The ranges are kept in an {@link IPRangeIndex}, rebuilt on the
+ * first lookup after ranges were added, so that a lookup is a binary search
+ * that allocates nothing, however many ranges there are.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP Addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /* Ranges added since the index was built, and before */
+    private final IPRangeIndex.Builder builder = new IPRangeIndex.Builder();
+
+    /* Index of the ranges, null when ranges were added since it was built */
+    private volatile IPRangeIndex index;
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Can be a full v4 or v6 IP, a partial v4 IP of at least three places
+     * (which matches the whole subnet), a CIDR or network/netmask range, or
+     * a range of full IPs {@code first - last}.
      *
      * @param ip
      */
-    public void add(String ip) throws IPFormatException {
-
-        String[] start;
-
-        String[] end;
+    public synchronized void add(String ip) throws IPFormatException {
 
         String[] range = ip.split("-");
 
-        if (range.length >= 2) {
-
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
-
-            if (start.length != 4 || end.length != 4)
-            {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
-            }
-
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+        try {
+            if (range.length >= 2) {
+                String first = range[0].trim().split("/")[0];
+                String last = range[1].trim().split("/")[0];
+                builder.addRange(first, last, 0);
+            } else {
+                String spec = ip.trim();
+                if (spec.indexOf(':') < 0 && spec.indexOf('/') < 0 && spec.split("\\.").length < 3) {
+                    throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+                }
+                builder.add(spec, 0);
             }
+        } catch (IPMatcherException e) {
+            throw new IPFormatException(ip + " - " + e.getMessage());
+        }
 
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
-
-            String[] subnets = ip.split("\\.");
-
-            if (subnets.length < 3) {
-                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+        index = null;
+    }
 
-            }
+    /** Check whether a given address is contained in this netblock.
+     * 
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
 
-            start = subnets;
-            end = subnets;
+        try {
+            return getIndex().contains(ip);
+        } catch (IPMatcherException e) {
+            throw new IPFormatException("needs to be single IP Address");
         }
 
-        if (start.length >= 3) {
-
+    }
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+    /** Convert to a Set of the IPv4 addresses, and of the first three places
+     * of the subnets the table contains all of. Large ranges make large sets,
+     * use {@link #toPatterns()} to query for the addresses.
+     * @return this table's IPv4 content as a Set
+     */
+    public Set<String> toSet() {
+        HashSet<String> set = new HashSet<String>();
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
+        IPRangeIndex ranges = getIndex();
+        for (int i = 0; i < ranges.size(); i++) {
+            if (ranges.getStartHigh(i) != 0 || ranges.getStartLow(i) > 0xffffffffL) {
+                // IPv6
+                continue;
             }
 
-            Map<String, Set<String>> second = first.get(start[1]);
-
-
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+            long start = ranges.getStartLow(i);
+            long end = ranges.getEndHigh(i) != 0 ? 0xffffffffL : Math.min(ranges.getEndLow(i), 0xffffffffL);
+            while (start <= end) {
+                if ((start & 0xff) == 0 && start + 0xff <= end) {
+                    set.add((start >>> 24) + "." + ((start >>> 16) & 0xff) + "." + ((start >>> 8) & 0xff));
+                    start += 0x100;
+                } else {
+                    set.add((start >>> 24) + "." + ((start >>> 16) & 0xff) + "." + ((start >>> 8) & 0xff) + "." + (start & 0xff));
+                    start++;
+                }
             }
+        }
 
-            Set<String> third = second.get(start[2]);
+        return set;
+    }
 
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+    /**
+     * Convert to patterns matching the addresses of the table as Java writes
+     * them, and so as they are stored in the statistics core: IPv4 addresses
+     * as dotted quads, IPv6 addresses as eight groups of lowercase hex digits
+     * without leading zeros. A pattern is a whole address, or ends with
+     * wildcards ({@code *} for any rest of the address, {@code ?} for one hex
+     * digit). Each range is covered by whole octets (IPv4) or hex digits
+     * (IPv6) where it can be, so that a large range is a handful of patterns
+     * rather than all of its addresses. IPv6 ranges within the first group
+     * are left out, as they cannot be written without a leading wildcard.
+     *
+     * @return the patterns
+     */
+    public Set<String> toPatterns() {
+        Set<String> patterns = new LinkedHashSet<String>();
+
+        IPRangeIndex ranges = getIndex();
+        for (int i = 0; i < ranges.size(); i++) {
+            long startHigh = ranges.getStartHigh(i);
+            long startLow = ranges.getStartLow(i);
+            long endHigh = ranges.getEndHigh(i);
+            long endLow = ranges.getEndLow(i);
+
+            if (startHigh == 0 && compare(0, startLow, 0, 0xffffffffL) <= 0) {
+                // IPv4, up to the end of the IPv4 space
+                boolean beyond = compare(endHigh, endLow, 0, 0xffffffffL) > 0;
+                addIPv4(patterns, startLow, beyond ? 0xffffffffL : endLow);
+                if (!beyond) {
+                    continue;
+                }
+                startLow = 0x100000000L;
             }
+            addIPv6(patterns, startHigh, startLow, endHigh, endLow);
+        }
 
-            //now populate fourth place (* or value 0-254);
-
-            if (start.length == 3) {
-                third.add("*");
-            }
+        return patterns;
+    }
 
-            if (third.contains("*")) {
-                return;
+    /**
+     * Add the patterns of an IPv4 range: the largest blocks of whole trailing
+     * octets that fit in what is left of it, from its start.
+     */
+    private static void addIPv4(Set<String> patterns, long start, long end) {
+        while (start <= end) {
+            int free = 0;
+            while (free < 3) {
+                long mask = (1L << (8 * (free + 1))) - 1;
+                if ((start & mask) != 0 || (start | mask) > end) {
+                    break;
+                }
+                free++;
             }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
+            StringBuilder pattern = new StringBuilder();
+            for (int octet = 0; octet < 4 - free; octet++) {
+                if (octet > 0) {
+                    pattern.append('.');
                 }
+                pattern.append((start >>> (24 - 8 * octet)) & 0xff);
             }
+            patterns.add(free == 0 ? pattern.toString() : pattern.append(".*").toString());
+
+            start = (start | ((1L << (8 * free)) - 1)) + 1;
         }
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    /**
+     * Add the patterns of an IPv6 range: the largest blocks of whole trailing
+     * hex digits that fit in what is left of it, from its start.
      */
-    public boolean contains(String ip) throws IPFormatException {
+    private static void addIPv6(Set<String> patterns, long startHigh, long startLow,
+            long endHigh, long endLow) {
+        while (compare(startHigh, startLow, endHigh, endLow) <= 0) {
+            int free = 0;
+            while (free < 31) {
+                long maskHigh = maskHigh(4 * (free + 1));
+                long maskLow = maskLow(4 * (free + 1));
+                if ((startHigh & maskHigh) != 0 || (startLow & maskLow) != 0
+                        || compare(startHigh | maskHigh, startLow | maskLow, endHigh, endLow) > 0) {
+                    break;
+                }
+                free++;
+            }
 
-        String[] subnets = ip.split("\\.");
+            addIPv6Block(patterns, startHigh, startLow, free);
 
-        if (subnets.length != 4)
-        {
-            throw new IPFormatException("needs to be single IP Address");
+            long lastHigh = startHigh | maskHigh(4 * free);
+            long lastLow = startLow | maskLow(4 * free);
+            if (lastHigh == -1L && lastLow == -1L) {
+                break;
+            }
+            startLow = lastLow + 1;
+            startHigh = startLow == 0 ? lastHigh + 1 : lastHigh;
         }
+    }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
-
-        if (first == null)
-        {
-            return false;
+    /**
+     * Add the patterns of the addresses starting with the given address but
+     * for its last {@code free} hex digits.
+     */
+    private static void addIPv6Block(Set<String> patterns, long high, long low, int free) {
+        int groups = (32 - free) / 4;
+        int digits = (32 - free) % 4;
+
+        StringBuilder prefix = new StringBuilder();
+        for (int g = 0; g < groups; g++) {
+            if (g > 0) {
+                prefix.append(':');
+            }
+            prefix.append(Long.toHexString(group(high, low, g)));
         }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
-
-        if (second == null)
-        {
-            return false;
+        if (digits == 0) {
+            patterns.add(groups == 8 ? prefix.toString() : prefix.append(":*").toString());
+            return;
         }
 
-        Set<String> third = second.get(subnets[2]);
-
-        if (third == null)
-        {
-            return false;
+        if (groups > 0) {
+            prefix.append(':');
+        }
+        String rest = groups < 7 ? ":*" : "";
+        long leading = group(high, low, groups) >>> (4 * (4 - digits));
+        if (leading != 0) {
+            patterns.add(prefix + Long.toHexString(leading) + wildcards(4 - digits) + rest);
+        } else if (groups > 0) {
+            // leading zeros are not written, so the group may be shorter
+            for (int length = 1; length <= 4 - digits; length++) {
+                patterns.add(prefix + wildcards(length) + rest);
+            }
         }
-
-        return third.contains(subnets[3]) || third.contains("*");
-
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * @return group {@code g} (0 to 7) of an IPv6 address
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static long group(long high, long low, int g) {
+        return g < 4 ? (high >>> (16 * (3 - g))) & 0xffff : (low >>> (16 * (7 - g))) & 0xffff;
+    }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+    private static long maskHigh(int bits) {
+        return bits > 64 ? (1L << (bits - 64)) - 1 : 0;
+    }
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+    private static long maskLow(int bits) {
+        return bits >= 64 ? -1L : (1L << bits) - 1;
+    }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+    private static String wildcards(int count) {
+        StringBuilder wildcards = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            wildcards.append('?');
+        }
+        return wildcards.toString();
+    }
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
-                    } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
-                    }
+    /**
+     * Compare two unsigned 128 bit numbers.
+     */
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        if (aHigh != bHigh) {
+            return (aHigh + Long.MIN_VALUE) < (bHigh + Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (aLow != bLow) {
+            return (aLow + Long.MIN_VALUE) < (bLow + Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
 
+    /**
+     * @return the index of the ranges, built if ranges were added since
+     */
+    private IPRangeIndex getIndex() {
+        IPRangeIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = builder.build();
+                    index = current;
                 }
             }
         }
-
-        return set;
+        return current;
     }
 
 
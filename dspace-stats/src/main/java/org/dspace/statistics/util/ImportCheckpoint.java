@@ -0,0 +1,130 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Records how far the {@link StatisticsImporter} got in each segment of the
+ * log files it imports, so that an interrupted import can be resumed. The
+ * offsets are kept in a properties file, keyed by segment, which is
+ * rewritten (to a temporary file that then replaces it) each time offsets
+ * are saved.
+ * <p>
+ * The offsets reached are only saved once the documents of the lines before
+ * them have been committed to solr, so that documents lost by solr are never
+ * recorded as imported: the importer takes the offsets reached, commits, and
+ * then saves them.
+ *
+ * @version $Revision$
+ */
+class ImportCheckpoint
+{
+    private final File file;
+
+    /** Offsets saved */
+    private final Properties offsets = new Properties();
+
+    /** Offsets reached since they were last taken */
+    private final Properties reached = new Properties();
+
+    /**
+     * @param file the checkpoint file, read if it exists
+     * @throws IOException if the file exists but cannot be read
+     */
+    ImportCheckpoint(File file) throws IOException
+    {
+        this.file = file;
+        if (file.exists())
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                offsets.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @param segment key of the segment
+     * @return the offset of the first line of the segment not imported yet,
+     *         or -1 if the segment was not started
+     */
+    synchronized long getOffset(String segment)
+    {
+        String offset = offsets.getProperty(segment);
+        return offset == null ? -1 : Long.parseLong(offset);
+    }
+
+    /**
+     * Record the offset reached in a segment. It is saved by the next
+     * {@link #save(Properties)} of the offsets taken after it.
+     *
+     * @param segment key of the segment
+     * @param offset the offset of the first line of the segment not added to
+     *            solr yet
+     */
+    synchronized void setOffset(String segment, long offset)
+    {
+        reached.setProperty(segment, String.valueOf(offset));
+    }
+
+    /**
+     * Take the offsets reached since they were last taken.
+     *
+     * @return the offsets, by segment
+     */
+    synchronized Properties takeOffsets()
+    {
+        Properties taken = new Properties();
+        taken.putAll(reached);
+        reached.clear();
+        return taken;
+    }
+
+    /**
+     * Save offsets, once the documents of the lines before them have been
+     * committed.
+     *
+     * @param committed offsets taken before the commit
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    synchronized void save(Properties committed) throws IOException
+    {
+        if (committed.isEmpty())
+        {
+            return;
+        }
+        offsets.putAll(committed);
+
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try
+        {
+            offsets.store(out, "StatisticsImporter checkpoint");
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+        {
+            throw new IOException("Unable to replace the checkpoint file " + file);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+
+import com.maxmind.geoip.Location;
+import com.maxmind.geoip.LookupService;
+
+/**
+ * The GeoLite database shared by the statistics, with a cache of the
+ * locations of the addresses seen last, configured in solr-statistics.cfg
+ * with <code>geoip.cache.size</code> (default 10000 addresses) and
+ * <code>geoip.cache.ttl</code> (seconds a location is kept, default 86400).
+ *
+ * @version $Revision$
+ */
+public class LocationLookup
+{
+    private static final Logger log = Logger.getLogger(LocationLookup.class);
+
+    private static LookupService service;
+
+    private static boolean loaded;
+
+    private static final LookupCache<String, Location> cache = new LookupCache<String, Location>(
+            new LookupCache.Loader<String, Location>()
+            {
+                public Location load(String ip) throws IOException
+                {
+                    LookupService lookupService = getService();
+                    return lookupService == null ? null : lookupService.getLocation(ip);
+                }
+            },
+            ConfigurationManager.getIntProperty("solr-statistics", "geoip.cache.size", 10000),
+            ConfigurationManager.getLongProperty("solr-statistics", "geoip.cache.ttl", 86400) * 1000,
+            0);
+
+    /** Not instantiable */
+    private LocationLookup()
+    {
+    }
+
+    /**
+     * Get the GeoLite database, opening it the first time.
+     *
+     * @return the database, or null if it could not be opened
+     */
+    public static synchronized LookupService getService()
+    {
+        if (!loaded)
+        {
+            loaded = true;
+            // Get the db file for the location
+            String dbfile = ConfigurationManager.getProperty("solr-statistics", "dbfile");
+            if (dbfile != null)
+            {
+                try
+                {
+                    service = new LookupService(dbfile,
+                            LookupService.GEOIP_STANDARD);
+                }
+                catch (FileNotFoundException fe)
+                {
+                    log.error("The GeoLite Database file is missing (" + dbfile + ")! Solr Statistics cannot generate location based reports! Please see the DSpace installation instructions for instructions to install this file.", fe);
+                }
+                catch (IOException e)
+                {
+                    log.error("Unable to load GeoLite Database file (" + dbfile + ")! You may need to reinstall it. See the DSpace installation instructions for more details.", e);
+                }
+            }
+            else
+            {
+                log.error("The required 'dbfile' configuration is missing in solr-statistics.cfg!");
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Get the location of an IP address.
+     *
+     * @param ip the address
+     * @return the location, or null if it is unknown or there is no database
+     */
+    public static Location getLocation(String ip)
+    {
+        try
+        {
+            return cache.get(ip);
+        }
+        catch (IOException e)
+        {
+            // the database does not throw these
+            return null;
+        }
+    }
+
+    /**
+     * @return the shared cache of locations
+     */
+    public static LookupCache<String, Location> getCache()
+    {
+        return cache;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe cache of the results of slow lookups, such as
+ * reverse DNS. Results expire after a time to live, and failed lookups are
+ * remembered too, for a shorter time, so that an address that cannot be
+ * resolved does not wait for the resolver every time it is seen.
+ * <p>
+ * The cache is locked only to read and update the map, never while a lookup
+ * runs, so two threads may look up the same key at the same time.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @version $Revision$
+ */
+public class LookupCache<K, V>
+{
+    /**
+     * Looks up the value of a key that is not in the cache.
+     */
+    public interface Loader<K, V>
+    {
+        V load(K key) throws IOException;
+    }
+
+    private final Loader<K, V> loader;
+    private final long ttl;
+    private final long failureTtl;
+
+    private final Map<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param loader looks up the values
+     * @param maxSize maximum number of keys kept
+     * @param ttl how long a value is kept, in milliseconds
+     * @param failureTtl how long a failed lookup is remembered, in
+     *            milliseconds
+     */
+    public LookupCache(Loader<K, V> loader, final int maxSize, long ttl, long failureTtl)
+    {
+        this.loader = loader;
+        this.ttl = ttl;
+        this.failureTtl = failureTtl;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the value of a key, looking it up if it is not cached.
+     *
+     * @param key the key
+     * @return the value, which may be null if the loader returned null
+     * @throws IOException if the lookup failed, now or recently
+     */
+    public V get(K key) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Entry<V> entry;
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+        }
+
+        if (entry != null && now < entry.expires)
+        {
+            hits.incrementAndGet();
+            if (entry.failure != null)
+            {
+                throw new IOException("Lookup of " + key + " failed recently: " + entry.failure);
+            }
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        try
+        {
+            V value = loader.load(key);
+            put(key, new Entry<V>(value, null, now + ttl));
+            return value;
+        }
+        catch (IOException e)
+        {
+            put(key, new Entry<V>(null, String.valueOf(e.getMessage()), now + failureTtl));
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of keys cached, including failed ones
+     */
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that were not cached
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Forget all the cached values.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    private void put(K key, Entry<V> entry)
+    {
+        synchronized (entries)
+        {
+            entries.put(key, entry);
+        }
+    }
+
+    private static final class Entry<V>
+    {
+        private final V value;
+        private final String failure;
+        private final long expires;
+
+        Entry(V value, String failure, long expires)
+        {
+            this.value = value;
+            this.failure = failure;
+            this.expires = expires;
+        }
+    }
+}
@@ -33,9 +33,9 @@ public class SpiderDetector {
     private static Logger log = Logger.getLogger(SpiderDetector.class);
 
     /**
-     * Sparse HAshTable structure to hold IP Address Ranges.
+     * Sorted range index of the spider IP Addresses, loaded on first use.
      */
-    private static IPTable table = null;
+    private static volatile IPTable table = null;
 
     /**
      * Utility method which Reads the ip addresses out a file & returns them in a Set
@@ -59,12 +59,12 @@ public class SpiderDetector {
             if (!line.startsWith("#")) {
                 line = line.trim();
 
-                if (!line.equals("") && !Character.isDigit(line.charAt(0))) {
+                if (!line.equals("") && !Character.isDigit(line.charAt(0)) && line.indexOf(':') < 0) {
                     // is a hostname
                     // add this functionality later...
                 } else if (!line.equals("")) {
                     ips.add(line);
-                    // is full v4 ip (too tired to deal with v6)...
+                    // is a v4 or v6 ip or range
                 }
             } else {
                 //   ua.add(line.replaceFirst("#","").replaceFirst("UA","").trim());
@@ -86,15 +86,27 @@ public class SpiderDetector {
         return table.toSet();
     }
 
+    /**
+     * Get patterns matching all the Spider Addresses, IPv4 and IPv6, as
+     * they are stored in the statistics core.
+     *
+     * @return the patterns, see {@link IPTable#toPatterns()}
+     */
+    public static Set<String> getSpiderIpPatterns() {
+
+        loadSpiderIpAddresses();
+        return table.toPatterns();
+    }
+
     /*
         private loader to populate the table from files.
      */
 
-    private static void loadSpiderIpAddresses() {
+    private static synchronized void loadSpiderIpAddresses() {
 
 
         if (table == null) {
-            table = new IPTable();
+            IPTable loading = new IPTable();
 
             String filePath = ConfigurationManager.getProperty("dspace.dir");
 
@@ -104,7 +116,11 @@ public class SpiderDetector {
                 if (spidersDir.exists() && spidersDir.isDirectory()) {
                     for (File file : spidersDir.listFiles()) {
                         for (String ip : readIpAddresses(file)) {
-                            table.add(ip);
+                            try {
+                                loading.add(ip);
+                            } catch (IPTable.IPFormatException e) {
+                                log.warn("Ignoring spider IP in " + file + ": " + e.getMessage());
+                            }
                         }
                         log.info("Loaded Spider IP file: " + file);
                     }
@@ -118,6 +134,8 @@ public class SpiderDetector {
                 log.error("Error Loading Spiders:" + e.getMessage(), e);
             }
 
+            table = loading;
+
 
         }
 
@@ -130,8 +148,6 @@ public class SpiderDetector {
      * In the future this will be extended to support User Agent and
      * domain Name detection.
      * <p/>
-     * In future spiders HashSet may be optimized as byte offset array to
-     * improve performance and memory footprint further.
      *
      * @param request
      * @return true|false if the request was detected to be from a spider
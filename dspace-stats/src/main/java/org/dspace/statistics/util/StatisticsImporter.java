@@ -11,6 +11,7 @@ import org.apache.commons.cli.*;
 import org.apache.commons.lang.time.DateFormatUtils;
 import org.apache.log4j.Logger;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
 import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.dspace.authorize.AuthorizeException;
@@ -26,12 +27,23 @@ import java.sql.SQLException;
 import java.text.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.maxmind.geoip.LookupService;
 import com.maxmind.geoip.Location;
 
 /**
- * Class to load intermediate statistics files into solr
+ * Class to load intermediate statistics files into solr.
+ * <p>
+ * The files are split into segments of 64MB, imported by a number of threads
+ * at once (<code>-t</code>). With a checkpoint file (<code>-c</code>), an
+ * interrupted import run again with the same files and checkpoint resumes
+ * where each segment stood at the last commit; lines added to solr after it
+ * may be imported twice.
  *
  * @author Stuart Lewis
  */
@@ -39,8 +51,8 @@ public class StatisticsImporter
 {
     private static final Logger log = Logger.getLogger(StatisticsImporter.class);
 
-    /** Date format (for solr) */
-    private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    /** Date format (for solr), parsed with a SimpleDateFormat per worker */
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
 
     /** Solr server connection */
     private static CommonsHttpSolrServer solr;
@@ -69,6 +81,24 @@ public class StatisticsImporter
     /** Whether or not to replace item IDs with local values (for testing) */
     private boolean useLocal;
 
+    /** Size of the parts that log files are split into, to import them in parallel */
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Number of objects (and of users) whose details each worker keeps */
+    private static final int OBJECT_CACHE_SIZE = 10000;
+
+    /** Marks the objects that are no longer in the system */
+    private static final SolrInputDocument MISSING = new SolrInputDocument();
+
+    /** Log lines read */
+    private final AtomicInteger lines = new AtomicInteger();
+
+    /** Entries added to solr */
+    private final AtomicInteger added = new AtomicInteger();
+
+    /** Search engine activity skipped */
+    private final AtomicInteger searchengines = new AtomicInteger();
+
     /**
      * Constructor. Optionally loads local data to replace foreign data
      * if using someone else's log files
@@ -135,270 +165,673 @@ public class StatisticsImporter
     }
 
     /**
-     * Method to load the lines from the statics file and load them into solr
+     * Load the lines of log files into solr. The files are split into
+     * segments, which a number of worker threads import at once, each adding
+     * the documents of a batch of lines to solr at once. With a checkpoint,
+     * the documents added are committed every minute, and only then are the
+     * offsets reached in the segments saved, so that an interrupted import
+     * resumes after the last batch committed.
      *
-     * @param filename The filename of the file to load
-     * @param context The DSpace Context
+     * @param files The files to load
+     * @param threads The number of segments imported at once
+     * @param batchSize The number of documents added to solr at once
+     * @param checkpoint Where the offsets reached are kept, or null
      * @param verbose Whether to display verbose output
+     * @return whether all the segments were imported
      */
-    private void load(String filename, Context context, boolean verbose)
+    private boolean load(List<File> files, int threads, final int batchSize,
+            final ImportCheckpoint checkpoint, final boolean verbose)
     {
-        // Print out the filename for confirmation
-        System.out.println("Processing file: " + filename);
-
-        // Item counter
-        int counter = 0;
-        int errors = 0;
-        int searchengines = 0;
+        final Queue<Segment> segments = new ConcurrentLinkedQueue<Segment>();
+        for (File file : files)
+        {
+            long length = file.length();
+            long start = 0;
+            do
+            {
+                segments.add(new Segment(file, start, Math.min(start + SEGMENT_SIZE, length)));
+                start += SEGMENT_SIZE;
+            }
+            while (start < length);
+        }
 
-        try
+        final AtomicInteger failures = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++)
         {
-            BufferedReader input =  new BufferedReader(new FileReader(new File(filename)));
-
-            String line;
-//            String uuid;
-            String action;
-            String id;
-            Date date;
-            String user;
-            String ip;
-
-            String continent = "";
-            String country = "";
-            String countryCode = "";
-            float longitude = 0f;
-            float latitude = 0f;
-            String city = "";
-            String dns;
-
-            DNSCache dnsCache = new DNSCache(2500, 0.75f, 2500);
-            Object fromCache;
-            Random rand = new Random();
-
-            while ((line = input.readLine()) != null)
+            workers.execute(new Runnable()
             {
-                // Tokenise the line
-                String data = "";
-                counter++;
-                errors++;
-                if (verbose)
+                public void run()
                 {
-                    System.out.println("Line:" + line);
-                }
-                String[] parts = line.split(",");
-//                uuid = parts[0];
-                action = parts[1];
-                id = parts[2];
-                date = dateFormat.parse(parts[3]);
-                user = parts[4];
-                ip = parts[5];
-
-                // Resolve the dns (if applicable) to get rid of search engine bots early on in the processing chain
-                dns = "";
-                if (!skipReverseDNS)
-                {
-                    // Is the IP address in the cache?
-                    fromCache = dnsCache.get(ip);
-                    if (fromCache != null)
+                    Worker worker;
+                    try
                     {
-                        dns = (String)fromCache;
+                        worker = new Worker(batchSize, checkpoint, verbose);
                     }
-                    else
+                    catch (SQLException e)
                     {
-                        try
-                        {
-                            dns = DnsLookup.reverseDns(ip);
-                            dnsCache.put(ip, dns);
-                        } catch (Exception e)
+                        System.err.println("Error connecting to the DSpace database: " + e.getMessage());
+                        log.error(e.getMessage(), e);
+                        failures.incrementAndGet();
+                        return;
+                    }
+
+                    try
+                    {
+                        Segment segment;
+                        while ((segment = segments.poll()) != null)
                         {
-                            dns = "";
+                            try
+                            {
+                                worker.load(segment);
+                            }
+                            catch (Exception e)
+                            {
+                                System.err.println("Error importing " + segment + ": " + e.getMessage());
+                                log.error("Error importing " + segment, e);
+                                failures.incrementAndGet();
+                            }
                         }
                     }
+                    finally
+                    {
+                        worker.close();
+                    }
                 }
+            });
+        }
 
-                data += ("ip addr = " + ip);
-                data += (", dns name = " + dns);
-                if ((dns.endsWith(".googlebot.com.")) ||
-                    (dns.endsWith(".crawl.yahoo.net.")) ||
-                    (dns.endsWith(".search.msn.com.")))
+        workers.shutdown();
+        try
+        {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                System.out.println("Processed " + lines.get() + " log lines so far");
+                if (checkpoint != null)
                 {
-                    if (verbose)
+                    try
                     {
-                        System.out.println(data + ", IGNORE (search engine)");
+                        commit(checkpoint);
+                    }
+                    catch (Exception e)
+                    {
+                        // the offsets are saved with the next commit
+                        System.err.println("Error committing statistics to solr server: " + e.getMessage());
+                        log.error(e.getMessage(), e);
                     }
-                    errors--;
-                    searchengines++;
-                    continue;
                 }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+            failures.incrementAndGet();
+        }
 
-                // Get the geo information for the user
-                Location location;
-                try {
-                    location = geoipLookup.getLocation(ip);
-                    city = location.city;
-                    country = location.countryName;
-                    countryCode = location.countryCode;
-                    longitude = location.longitude;
-                    latitude = location.latitude;
-                    if(verbose) {
-                        data += (", country = " + country);
-                        data += (", city = " + city);
-                        System.out.println(data);
+        DecimalFormat percentage = new DecimalFormat("##.###");
+        int counter = lines.get();
+        int committed = added.get();
+        int errors = counter - committed - searchengines.get();
+        System.out.println("Processed " + counter + " log lines");
+        if (counter > 0)
+        {
+            Double committedpercentage = 100d * committed / counter;
+            System.out.println(" - " + committed + " entries added to solr: " + percentage.format(committedpercentage) + "%");
+            Double errorpercentage = 100d * errors / counter;
+            System.out.println(" - " + errors + " errors: " + percentage.format(errorpercentage) + "%");
+            Double sepercentage = 100d * searchengines.get() / counter;
+            System.out.println(" - " + searchengines.get() + " search engine activity skipped: " + percentage.format(sepercentage) + "%");
+            System.out.print("About to commit data to solr...");
+
+            // Commit at the end because it takes a while
+            try
+            {
+                commit(checkpoint);
+            }
+            catch (SolrServerException sse)
+            {
+                System.err.println("Error committing statistics to solr server!");
+                sse.printStackTrace();
+                System.exit(1);
+            }
+            catch (IOException ioe)
+            {
+                System.err.println("Error writing to solr server!");
+                ioe.printStackTrace();
+                System.exit(1);
+            }
+        }
+        System.out.println(" done!");
+
+        return failures.get() == 0;
+    }
+
+    /**
+     * Commit the documents added, and save the offsets reached before the
+     * commit in the checkpoint, if any.
+     */
+    private static void commit(ImportCheckpoint checkpoint) throws SolrServerException, IOException
+    {
+        Properties reached = checkpoint == null ? null : checkpoint.takeOffsets();
+        solr.commit();
+        if (reached != null)
+        {
+            checkpoint.save(reached);
+        }
+    }
+
+    /**
+     * Create a map that keeps the entries used last.
+     *
+     * @param maxSize The maximum number of entries kept
+     * @return the map
+     */
+    private static <K, V> Map<K, V> lruMap(final int maxSize)
+    {
+        return new LinkedHashMap<K, V>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Imports segments of log files, with a context of its own. The fields
+     * of the objects used are kept between batches, and the items used in a
+     * batch that are not known yet are loaded at once.
+     */
+    private class Worker
+    {
+        private final int batchSize;
+        private final ImportCheckpoint checkpoint;
+        private final boolean verbose;
+
+        private final Context context;
+        private final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        private final Random rand = new Random();
+
+        /** Fields of the objects used, by type and ID */
+        private final Map<String, SolrInputDocument> objects = lruMap(OBJECT_CACHE_SIZE);
+
+        /** IDs of the users, by email */
+        private final Map<String, Integer> epersons = lruMap(OBJECT_CACHE_SIZE);
+
+        Worker(int batchSize, ImportCheckpoint checkpoint, boolean verbose) throws SQLException
+        {
+            this.batchSize = batchSize;
+            this.checkpoint = checkpoint;
+            this.verbose = verbose;
+            this.context = new Context();
+        }
+
+        /**
+         * Import the lines starting in a segment, after those the checkpoint
+         * says were imported.
+         */
+        void load(Segment segment)
+                throws IOException, SQLException, SolrServerException, AuthorizeException
+        {
+            long offset = checkpoint == null ? -1 : checkpoint.getOffset(segment.getKey());
+            if (offset >= 0 && offset >= segment.end)
+            {
+                System.out.println("Already imported: " + segment);
+                return;
+            }
+
+            // Print out the filename for confirmation
+            System.out.println("Processing file: " + segment);
+
+            FileInputStream in = new FileInputStream(segment.file);
+            try
+            {
+                LineReader input;
+                if (offset > segment.start)
+                {
+                    // resume at the first line not imported
+                    in.getChannel().position(offset);
+                    input = new LineReader(in, offset);
+                }
+                else if (segment.start > 0)
+                {
+                    // the line running into the segment belongs to the previous one
+                    in.getChannel().position(segment.start - 1);
+                    input = new LineReader(in, segment.start - 1);
+                    input.readLine();
+                }
+                else
+                {
+                    input = new LineReader(in, 0);
+                }
+
+                List<LogEntry> batch = new ArrayList<LogEntry>(batchSize);
+                String line;
+                while (input.getPosition() < segment.end && (line = input.readLine()) != null)
+                {
+                    lines.incrementAndGet();
+                    if (verbose)
+                    {
+                        System.out.println("Line:" + line);
                     }
-                    try {
-                        continent = LocationUtils.getContinentCode(countryCode);
-                    } catch (Exception e) {
+
+                    try
+                    {
+                        LogEntry entry = parse(line);
+                        if (entry != null)
+                        {
+                            batch.add(entry);
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        // counted as an error
                         if (verbose)
                         {
-                            System.out.println("Unknown country code: " + countryCode);
+                            System.err.println(" - Unable to read line: " + e.getMessage());
                         }
-                        continue;
                     }
-                } catch (Exception e) {
-                    // No problem - just can't look them up
-                }
 
-                // Now find our dso
-                int type = 0;
-                if ("view_bitstream".equals(action))
-                {
-                    type = Constants.BITSTREAM;
-                    if (useLocal)
+                    if (batch.size() >= batchSize)
                     {
-                        id = "" + localBitstreams.get(rand.nextInt(localBitstreams.size()));
+                        add(batch);
+                        batch.clear();
+                        save(segment, input.getPosition());
                     }
                 }
-                else if ("view_item".equals(action))
+                add(batch);
+                save(segment, Math.max(input.getPosition(), segment.end));
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        /**
+         * Read a log line.
+         *
+         * @return the entry to add, or null if the line is skipped
+         */
+        private LogEntry parse(String line) throws java.text.ParseException
+        {
+            // Tokenise the line
+            String data = "";
+            String[] parts = line.split(",");
+//            uuid = parts[0];
+            String action = parts[1];
+            String id = parts[2];
+            Date date = format.parse(parts[3]);
+            String user = parts[4];
+            String ip = parts[5];
+
+            // Resolve the dns (if applicable) to get rid of search engine bots early on in the processing chain
+            String dns = "";
+            if (!skipReverseDNS)
+            {
+                try
                 {
-                    type = Constants.ITEM;
-                    if (useLocal)
-                    {
-                        id = "" + localItems.get(rand.nextInt(localItems.size()));
-                    }
+                    dns = DnsLookup.reverseDnsCached(ip);
+                } catch (Exception e)
+                {
+                    dns = "";
                 }
-                else if ("view_collection".equals(action))
+            }
+
+            data += ("ip addr = " + ip);
+            data += (", dns name = " + dns);
+            if ((dns.endsWith(".googlebot.com.")) ||
+                (dns.endsWith(".crawl.yahoo.net.")) ||
+                (dns.endsWith(".search.msn.com.")))
+            {
+                if (verbose)
                 {
-                    type = Constants.COLLECTION;
-                    if (useLocal)
+                    System.out.println(data + ", IGNORE (search engine)");
+                }
+                searchengines.incrementAndGet();
+                return null;
+            }
+
+            LogEntry entry = new LogEntry();
+            entry.ip = ip;
+            entry.dns = dns;
+            entry.date = date;
+            entry.user = user;
+
+            // Get the geo information for the user
+            Location location;
+            try {
+                location = LocationLookup.getLocation(ip);
+                entry.city = location.city;
+                entry.country = location.countryName;
+                entry.countryCode = location.countryCode;
+                entry.longitude = location.longitude;
+                entry.latitude = location.latitude;
+                if(verbose) {
+                    data += (", country = " + entry.country);
+                    data += (", city = " + entry.city);
+                    System.out.println(data);
+                }
+                try {
+                    entry.continent = LocationUtils.getContinentCode(entry.countryCode);
+                } catch (Exception e) {
+                    if (verbose)
                     {
-                        id = "" + localCollections.get(rand.nextInt(localCollections.size()));
+                        System.out.println("Unknown country code: " + entry.countryCode);
                     }
+                    return null;
                 }
-                else if ("view_community".equals(action))
+            } catch (Exception e) {
+                // No problem - just can't look them up
+            }
+
+            // Now find our dso
+            int type = 0;
+            if ("view_bitstream".equals(action))
+            {
+                type = Constants.BITSTREAM;
+                if (useLocal)
                 {
-                    type = Constants.COMMUNITY;
-                    if (useLocal)
-                    {
-                        id = "" + localCommunities.get(rand.nextInt(localCommunities.size()));
-                    }
+                    id = "" + localBitstreams.get(rand.nextInt(localBitstreams.size()));
+                }
+            }
+            else if ("view_item".equals(action))
+            {
+                type = Constants.ITEM;
+                if (useLocal)
+                {
+                    id = "" + localItems.get(rand.nextInt(localItems.size()));
+                }
+            }
+            else if ("view_collection".equals(action))
+            {
+                type = Constants.COLLECTION;
+                if (useLocal)
+                {
+                    id = "" + localCollections.get(rand.nextInt(localCollections.size()));
+                }
+            }
+            else if ("view_community".equals(action))
+            {
+                type = Constants.COMMUNITY;
+                if (useLocal)
+                {
+                    id = "" + localCommunities.get(rand.nextInt(localCommunities.size()));
                 }
+            }
+            entry.type = type;
+            entry.id = Integer.parseInt(id);
+            return entry;
+        }
 
-                DSpaceObject dso = DSpaceObject.find(context, type, Integer.parseInt(id));
-                if (dso == null)
+        /**
+         * Add the documents of a batch of entries to solr.
+         */
+        private void add(List<LogEntry> batch)
+                throws IOException, SQLException, SolrServerException, AuthorizeException
+        {
+            // Load the items not known yet at once
+            List<Integer> itemIDs = new ArrayList<Integer>();
+            for (LogEntry entry : batch)
+            {
+                if (entry.type == Constants.ITEM && !objects.containsKey(entry.getKey()))
+                {
+                    itemIDs.add(entry.id);
+                }
+            }
+            if (!itemIDs.isEmpty())
+            {
+                int[] ids = new int[itemIDs.size()];
+                for (int i = 0; i < ids.length; i++)
+                {
+                    ids[i] = itemIDs.get(i);
+                }
+                Item.findAll(context, ids);
+            }
+
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+            for (LogEntry entry : batch)
+            {
+                SolrInputDocument fields = getObjectFields(entry.type, entry.id);
+                if (fields == MISSING)
                 {
                     if (verbose)
                     {
-                        System.err.println(" - DSO with ID '" + id + "' is no longer in the system");
+                        System.err.println(" - DSO with ID '" + entry.id + "' is no longer in the system");
                     }
                     continue;
                 }
 
-                // Get the eperson details
-                EPerson eperson = EPerson.findByEmail(context, user);
-                int epersonId = 0;
-                if (eperson != null)
-                {
-                    eperson.getID();
-                }
-
                 // Save it in our server
                 SolrInputDocument sid = new SolrInputDocument();
-                sid.addField("ip", ip);
-                sid.addField("type", dso.getType());
-                sid.addField("id", dso.getID());
-                sid.addField("time", DateFormatUtils.format(date, SolrLogger.DATE_FORMAT_8601));
-                sid.addField("continent", continent);
-                sid.addField("country", country);
-                sid.addField("countryCode", countryCode);
-                sid.addField("city", city);
-                sid.addField("latitude", latitude);
-                sid.addField("longitude", longitude);
+                sid.addField("ip", entry.ip);
+                for (SolrInputField field : fields)
+                {
+                    for (Object value : field.getValues())
+                    {
+                        sid.addField(field.getName(), value);
+                    }
+                }
+                sid.addField("time", DateFormatUtils.format(entry.date, SolrLogger.DATE_FORMAT_8601));
+                sid.addField("continent", entry.continent);
+                sid.addField("country", entry.country);
+                sid.addField("countryCode", entry.countryCode);
+                sid.addField("city", entry.city);
+                sid.addField("latitude", entry.latitude);
+                sid.addField("longitude", entry.longitude);
+                int epersonId = getEPersonID(entry.user);
                 if (epersonId > 0)
                 {
                     sid.addField("epersonid", epersonId);
                 }
-                if (dns != null)
+                if (entry.dns != null)
                 {
-                    sid.addField("dns", dns.toLowerCase());
+                    sid.addField("dns", entry.dns.toLowerCase());
                 }
+                docs.add(sid);
+            }
 
-                if (dso instanceof Item) {
-                    Item item = (Item) dso;
-                    // Store the metadata
-                    for (String storedField : metadataStorageInfo.keySet()) {
-                        String dcField = metadataStorageInfo.get(storedField);
-
-                        DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
-                                dcField.split("\\.")[1], dcField.split("\\.")[2],
-                                Item.ANY);
-                        for (DCValue val1 : vals) {
-                            String val = val1.value;
-                            sid.addField(String.valueOf(storedField), val);
-                            sid.addField(String.valueOf(storedField + "_search"),
-                                    val.toLowerCase());
-                        }
+            if (!docs.isEmpty())
+            {
+                solr.add(docs);
+                added.addAndGet(docs.size());
+            }
+
+            // what the documents need is in the maps
+            context.clearCache();
+        }
+
+        /**
+         * Get the fields of the documents of an object: its type, ID,
+         * metadata (for items) and parents.
+         *
+         * @return the fields, or {@link #MISSING} if the object is no longer
+         *         in the system
+         */
+        private SolrInputDocument getObjectFields(int type, int id) throws SQLException
+        {
+            String key = type + "/" + id;
+            SolrInputDocument fields = objects.get(key);
+            if (fields != null)
+            {
+                return fields;
+            }
+
+            DSpaceObject dso = DSpaceObject.find(context, type, id);
+            if (dso == null)
+            {
+                objects.put(key, MISSING);
+                return MISSING;
+            }
+
+            fields = new SolrInputDocument();
+            fields.addField("type", dso.getType());
+            fields.addField("id", dso.getID());
+
+            if (dso instanceof Item) {
+                Item item = (Item) dso;
+                // Store the metadata
+                for (String storedField : metadataStorageInfo.keySet()) {
+                    String dcField = metadataStorageInfo.get(storedField);
+
+                    DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
+                            dcField.split("\\.")[1], dcField.split("\\.")[2],
+                            Item.ANY);
+                    for (DCValue val1 : vals) {
+                        String val = val1.value;
+                        fields.addField(String.valueOf(storedField), val);
+                        fields.addField(String.valueOf(storedField + "_search"),
+                                val.toLowerCase());
                     }
                 }
+            }
 
-                SolrLogger.storeParents(sid, dso);
-                solr.add(sid);
-                errors--;
+            SolrLogger.storeParents(fields, dso);
+            objects.put(key, fields);
+            return fields;
+        }
+
+        /**
+         * @return the ID of the user with an email, or 0 if there is none
+         */
+        private int getEPersonID(String email) throws SQLException, AuthorizeException
+        {
+            Integer id = epersons.get(email);
+            if (id == null)
+            {
+                // Get the eperson details
+                EPerson eperson = EPerson.findByEmail(context, email);
+                id = eperson == null ? 0 : eperson.getID();
+                epersons.put(email, id);
             }
+            return id;
+        }
 
+        private void save(Segment segment, long offset)
+        {
+            if (checkpoint != null)
+            {
+                checkpoint.setOffset(segment.getKey(), offset);
+            }
         }
-        catch (RuntimeException re)
+
+        void close()
         {
-            throw re;
+            context.abort();
         }
-        catch (Exception e)
+    }
+
+    /**
+     * What is read from a log line.
+     */
+    private static class LogEntry
+    {
+        private int type;
+        private int id;
+        private Date date;
+        private String user;
+        private String ip;
+        private String dns;
+        private String continent = "";
+        private String country = "";
+        private String countryCode = "";
+        private String city = "";
+        private float longitude = 0f;
+        private float latitude = 0f;
+
+        String getKey()
         {
-            System.err.println(e.getMessage());
-            log.error(e.getMessage(), e);
+            return type + "/" + id;
         }
+    }
 
-        DecimalFormat percentage = new DecimalFormat("##.###");
-        int committed = counter - errors - searchengines;
-        System.out.println("Processed " + counter + " log lines");
-        if (counter > 0)
+    /**
+     * A part of a log file: the lines starting between two offsets.
+     */
+    private static class Segment
+    {
+        private final File file;
+        private final long start;
+        private final long end;
+
+        Segment(File file, long start, long end)
         {
-            Double committedpercentage = 100d * committed / counter;
-            System.out.println(" - " + committed + " entries added to solr: " + percentage.format(committedpercentage) + "%");
-            Double errorpercentage = 100d * errors / counter;
-            System.out.println(" - " + errors + " errors: " + percentage.format(errorpercentage) + "%");
-            Double sepercentage = 100d * searchengines / counter;
-            System.out.println(" - " + searchengines + " search engine activity skipped: " + percentage.format(sepercentage) + "%");
-            System.out.print("About to commit data to solr...");
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
 
-            // Commit at the end because it takes a while
-            try
+        /**
+         * @return the key of the segment in checkpoints
+         */
+        String getKey()
+        {
+            return file.getAbsolutePath() + "@" + start;
+        }
+
+        @Override
+        public String toString()
+        {
+            return file.getPath() + " (bytes " + start + "-" + end + ")";
+        }
+    }
+
+    /**
+     * Reads the lines of a file, counting the bytes read.
+     */
+    private static class LineReader
+    {
+        private final InputStream in;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        private long position;
+
+        LineReader(InputStream in, long position)
+        {
+            this.in = new BufferedInputStream(in, 64 * 1024);
+            this.position = position;
+        }
+
+        /**
+         * @return the offset of the next line
+         */
+        long getPosition()
+        {
+            return position;
+        }
+
+        /**
+         * @return the next line, without its end, or null at the end of the
+         *         file
+         */
+        String readLine() throws IOException
+        {
+            buffer.reset();
+            int b;
+            while ((b = in.read()) >= 0)
             {
-                solr.commit();
+                position++;
+                if (b == '\n')
+                {
+                    break;
+                }
+                buffer.write(b);
             }
-            catch (SolrServerException sse)
+            if (b < 0 && buffer.size() == 0)
             {
-                System.err.println("Error committing statistics to solr server!");
-                sse.printStackTrace();
-                System.exit(1);
+                return null;
             }
-            catch (IOException ioe)
+
+            int length = buffer.size();
+            byte[] bytes = buffer.toByteArray();
+            if (length > 0 && bytes[length - 1] == '\r')
             {
-                System.err.println("Error writing to solr server!");
-                ioe.printStackTrace();
-                System.exit(1);
+                length--;
             }
+            return new String(bytes, 0, length, "UTF-8");
         }
-        System.out.println(" done!");
-	}
+    }
 
     /**
      * Print the help message
@@ -431,6 +864,9 @@ public class StatisticsImporter
         options.addOption("m", "multiple", false, "treat the input file as having a wildcard ending");
         options.addOption("s", "skipdns", false, "skip performing reverse DNS lookups on IP addresses");
         options.addOption("v", "verbose", false, "display verbose output (useful for debugging)");
+        options.addOption("t", "threads", true, "number of files, or parts of files, imported at once (default 1)");
+        options.addOption("b", "batchsize", true, "number of entries added to solr at once (default 1000)");
+        options.addOption("c", "checkpoint", true, "file recording how far each input file was imported, to resume an interrupted import");
         options.addOption("h", "help", false, "help");
 
 		CommandLine line = parser.parse(options, args);
@@ -457,8 +893,6 @@ public class StatisticsImporter
         boolean local = line.hasOption('l');
 
 		// We got all our parameters now get the rest
-		Context context = new Context();
-
         // Verbose option
         boolean verbose = line.hasOption('v');
 
@@ -471,22 +905,11 @@ public class StatisticsImporter
 		solr = new CommonsHttpSolrServer(sserver);
 
 		metadataStorageInfo = SolrLogger.getMetadataStorageInfo();
-        String dbfile = ConfigurationManager.getProperty("solr-statistics", "dbfile");
-        try
-        {
-            geoipLookup = new LookupService(dbfile, LookupService.GEOIP_STANDARD);
-        }
-        catch (FileNotFoundException fe)
-        {
-            log.error("The GeoLite Database file is missing (" + dbfile + ")! Solr Statistics cannot generate location based reports! Please see the DSpace installation instructions for instructions to install this file.", fe);
-        }
-        catch (IOException e)
-        {
-            log.error("Unable to load GeoLite Database file (" + dbfile + ")! You may need to reinstall it. See the DSpace installation instructions for more details.", e);
-        }
+        geoipLookup = LocationLookup.getService();
 		
 
         StatisticsImporter si = new StatisticsImporter(local);
+        List<File> files = new ArrayList<File>();
         if (line.hasOption('m'))
         {
             // Convert all the files
@@ -500,39 +923,33 @@ public class StatisticsImporter
                 }
             };
             String[] children = dir.list(filter);
+            Arrays.sort(children);
             for (String in : children)
             {
                 System.out.println(in);
-                si.load(dir.getAbsolutePath() + System.getProperty("file.separator") + in, context, verbose);
+                files.add(new File(dir, in));
             }
         }
         else
         {
             // Just convert the one file
-            si.load(line.getOptionValue('i'), context, verbose);
+            files.add(new File(line.getOptionValue('i')));
         }
-    }
-
-
-    /**
-     * Inner class to hold a cache of reverse lookups of IP addresses
-     * @param <K>
-     * @param <V>
-     */
-    static class DNSCache<K,V> extends LinkedHashMap<K,V>
-    {
-        private int maxCapacity;
 
-        public DNSCache(int initialCapacity, float loadFactor, int maxCapacity)
+        int threads = line.hasOption('t') ? Integer.parseInt(line.getOptionValue('t')) : 1;
+        int batchSize = line.hasOption('b') ? Integer.parseInt(line.getOptionValue('b')) : 1000;
+        ImportCheckpoint checkpoint = null;
+        if (line.hasOption('c'))
         {
-            super(initialCapacity, loadFactor, true);
-            this.maxCapacity = maxCapacity;
+            checkpoint = new ImportCheckpoint(new File(line.getOptionValue('c')));
         }
 
-        @Override
-        protected boolean removeEldestEntry(java.util.Map.Entry<K,V> eldest)
+        if (!si.load(files, Math.max(threads, 1), Math.max(batchSize, 1), checkpoint, verbose))
         {
-            return size() >= this.maxCapacity;
+            System.err.println("Some files could not be imported completely."
+                    + (checkpoint == null ? "" : " Run again with the same checkpoint file to resume."));
+            System.exit(1);
         }
     }
+
 }
@@ -0,0 +1,47 @@
+--
+-- database_schema_18-3.sql
+--
+-- Version: $Revision$
+--
+-- Date:    $Date$
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+--
+-- SQL commands to upgrade the database schema of a live DSpace 1.8 or 1.8.x
+-- to the DSpace 3 database schema
+--
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+--
+
+------------------------------------------------------------------
+-- Queue of Discovery index updates, used when the index event  --
+-- consumer runs asynchronously (discovery.index.async = true)  --
+------------------------------------------------------------------
+CREATE SEQUENCE discovery_index_queue_seq;
+CREATE TABLE discovery_index_queue
+(
+    queue_id INTEGER PRIMARY KEY,
+    resource_type_id INTEGER,
+    resource_id INTEGER,
+    handle VARCHAR(256),
+    action INTEGER,
+    queued TIMESTAMP,
+    claimed_by VARCHAR(64),
+    claimed TIMESTAMP
+);
+
+CREATE INDEX dis_idx_queue_handle_idx ON discovery_index_queue(handle);
+
+------------------------------------------------------------------
+-- OAI-PMH harvests page through the items by last_modified and --
+-- item_id, resuming after the last item of the previous page.  --
+------------------------------------------------------------------
+CREATE INDEX item_last_modified_idx ON Item(last_modified, item_id);
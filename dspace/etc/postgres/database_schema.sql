@@ -107,6 +107,7 @@ CREATE SEQUENCE group2group_seq;
 CREATE SEQUENCE group2groupcache_seq;
 CREATE SEQUENCE harvested_collection_seq;
 CREATE SEQUENCE harvested_item_seq;
+CREATE SEQUENCE discovery_index_queue_seq;
 
 -------------------------------------------------------
 -- BitstreamFormatRegistry table
@@ -220,8 +221,8 @@ CREATE TABLE Group2GroupCache
   child_id  INTEGER REFERENCES EPersonGroup(eperson_group_id)
 );
 
-CREATE INDEX g2gc_parent_fk_idx ON Group2Group(parent_id);
-CREATE INDEX g2gc_child_fk_idx ON Group2Group(child_id);
+CREATE INDEX g2gc_parent_fk_idx ON Group2GroupCache(parent_id);
+CREATE INDEX g2gc_child_fk_idx ON Group2GroupCache(child_id);
 
 -------------------------------------------------------
 -- Item table
@@ -237,6 +238,7 @@ CREATE TABLE Item
 );
 
 CREATE INDEX item_submitter_fk_idx ON Item(submitter_id);
+CREATE INDEX item_last_modified_idx ON Item(last_modified, item_id);
 
 -------------------------------------------------------
 -- Bundle table
@@ -772,6 +774,22 @@ CREATE TABLE harvested_item
 
 CREATE INDEX harvested_item_fk_idx ON harvested_item(item_id);
 
+-- Discovery index updates waiting to be applied, see
+-- org.dspace.discovery.IndexQueue
+CREATE TABLE discovery_index_queue
+(
+    queue_id INTEGER PRIMARY KEY,
+    resource_type_id INTEGER,
+    resource_id INTEGER,
+    handle VARCHAR(256),
+    action INTEGER,
+    queued TIMESTAMP WITH TIME ZONE,
+    claimed_by VARCHAR(64),
+    claimed TIMESTAMP WITH TIME ZONE
+);
+
+CREATE INDEX discovery_index_queue_handle_idx ON discovery_index_queue(handle);
+
 
 
 
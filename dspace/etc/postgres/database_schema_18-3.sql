@@ -0,0 +1,57 @@
+--
+-- database_schema_18-3.sql
+--
+-- Version: $Revision$
+--
+-- Date:    $Date$
+--
+-- The contents of this file are subject to the license and copyright
+-- detailed in the LICENSE and NOTICE files at the root of the source
+-- tree and available online at
+--
+-- http://www.dspace.org/license/
+--
+
+--
+-- SQL commands to upgrade the database schema of a live DSpace 1.8 or 1.8.x
+-- to the DSpace 3 database schema
+--
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+-- DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST. DUMP YOUR DATABASE FIRST.
+--
+
+------------------------------------------------------------------
+-- The group2groupcache indexes were created on group2group.    --
+-- group2groupcache is now maintained incrementally by looking  --
+-- up rows by parent_id and child_id, so index the right table. --
+------------------------------------------------------------------
+DROP INDEX g2gc_parent_fk_idx;
+DROP INDEX g2gc_child_fk_idx;
+CREATE INDEX g2gc_parent_fk_idx ON Group2GroupCache(parent_id);
+CREATE INDEX g2gc_child_fk_idx ON Group2GroupCache(child_id);
+
+------------------------------------------------------------------
+-- Queue of Discovery index updates, used when the index event  --
+-- consumer runs asynchronously (discovery.index.async = true)  --
+------------------------------------------------------------------
+CREATE SEQUENCE discovery_index_queue_seq;
+CREATE TABLE discovery_index_queue
+(
+    queue_id INTEGER PRIMARY KEY,
+    resource_type_id INTEGER,
+    resource_id INTEGER,
+    handle VARCHAR(256),
+    action INTEGER,
+    queued TIMESTAMP WITH TIME ZONE,
+    claimed_by VARCHAR(64),
+    claimed TIMESTAMP WITH TIME ZONE
+);
+
+CREATE INDEX discovery_index_queue_handle_idx ON discovery_index_queue(handle);
+
+------------------------------------------------------------------
+-- OAI-PMH harvests page through the items by last_modified and --
+-- item_id, resuming after the last item of the previous page.  --
+------------------------------------------------------------------
+CREATE INDEX item_last_modified_idx ON Item(last_modified, item_id);